@@ -30,6 +30,11 @@ android {
         versionName = flutter.versionName
     }
 
+    testOptions {
+        // The JVM tests call into android.jar stubs, such as Log in SpamList
+        unitTests.isReturnDefaultValues = true
+    }
+
     buildTypes {
         release {
             // TODO: Add your own signing config for the release build.
@@ -42,3 +47,7 @@ android {
 flutter {
     source = "../.."
 }
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+}
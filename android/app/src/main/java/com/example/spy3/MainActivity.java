@@ -2,16 +2,16 @@ package com.example.spy3;
 
 import android.Manifest;
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageInfo;
-import android.content.pm.ApplicationInfo;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.CancellationSignal;
 import android.provider.CallLog;
-import android.provider.ContactsContract;
 import android.provider.Telephony;
 
 import android.telecom.TelecomManager;
@@ -22,30 +22,328 @@ import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import io.flutter.embedding.android.FlutterActivity;
 import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 
-import com.example.spy3.services.BlockingService;
+import com.example.spy3.blocking.BlockCounters;
+import com.example.spy3.blocking.BlocklistRepository;
+import com.example.spy3.blocking.DigitTrie;
+import com.example.spy3.blocking.PhoneNumbers;
+import com.example.spy3.blocking.ScreeningRules;
+import com.example.spy3.blocking.SpamList;
+import com.example.spy3.data.BackgroundQueries;
+import com.example.spy3.data.BlocklistTransfer;
+import com.example.spy3.data.CallLogStats;
+import com.example.spy3.data.CallLogSync;
+import com.example.spy3.data.ContactIndex;
+import com.example.spy3.data.InstalledApps;
+import com.example.spy3.data.InstalledAppsCache;
+import com.example.spy3.data.PackedDatasets;
+import com.example.spy3.data.SearchIndex;
+import com.example.spy3.data.SmsPageQuery;
+import com.example.spy3.data.SmsThreads;
+import com.example.spy3.journal.EventJournal;
+import com.example.spy3.metrics.ColdStarts;
+import com.example.spy3.metrics.Metrics;
+import com.example.spy3.metrics.Wakeups;
+import com.example.spy3.providers.BlockedNumbersProvider;
+import com.example.spy3.services.ScreeningMode;
 
 public class MainActivity extends FlutterActivity {
     private static final String CHANNEL = "com.example.spy3/native";
+    private static final String CALL_LOG_EVENTS_CHANNEL = "com.example.spy3/call_log_events";
+    private static final String PACKED_CHANNEL = "com.example.spy3/packed";
+    private static final String TRANSFER_EVENTS_CHANNEL = "com.example.spy3/blocklist_transfer";
+    private static final String SNAPSHOT_EVENTS_CHANNEL = "com.example.spy3/snapshot";
+    private static final String BLOCKLIST_EVENTS_CHANNEL = "com.example.spy3/blocklist_events";
+    // Method name the snapshot parts run under in BackgroundQueries, so they can be cancelled together
+    private static final String SNAPSHOT_METHOD = "loadSnapshot";
+    private static final List<String> SNAPSHOT_DATASETS =
+        Arrays.asList("smsThreads", "callLogs", "contacts", "blocklist", "apps");
     private static final int PERMISSION_REQUEST_CODE = 1001;
+    private static final int IMPORT_REQUEST_CODE = 1002;
+    private static final int EXPORT_REQUEST_CODE = 1003;
+    private static final int SPAM_LIST_REQUEST_CODE = 1004;
+    private static final int SCREENING_ROLE_REQUEST_CODE = 1005;
+    // Channel names of the screening rule kinds, indexed by BlockedNumbersProvider.KIND_*
+    private static final String[] SCREENING_RULE_KINDS = {
+        "withheld", "notInContacts", "quietHours", "country", "allow"
+    };
     
     private MethodChannel.Result pendingResult;
+    // One import or export at a time: its channel result while the picker is open,
+    // the export format, and the signal that cancels it once it is running
+    private MethodChannel.Result pendingTransferResult;
+    private String pendingExportFormat;
+    private CancellationSignal transferSignal;
+    private EventChannel.EventSink transferEvents;
+    private CallLogSync callLogSync;
+    private BlocklistRepository.Listener blocklistListener;
+    private BackgroundQueries queries;
     
     @Override
     public void configureFlutterEngine(@NonNull FlutterEngine flutterEngine) {
         super.configureFlutterEngine(flutterEngine);
         
+        // Provider and PackageManager reads run on worker threads, see BackgroundQueries
+        queries = new BackgroundQueries();
         new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), CHANNEL)
                 .setMethodCallHandler(this::onMethodCall);
+        
+        // Bulk datasets as one direct ByteBuffer each, see PackedTable for the layout
+        new BasicMessageChannel<>(flutterEngine.getDartExecutor().getBinaryMessenger(), PACKED_CHANNEL,
+                BinaryCodec.INSTANCE_DIRECT)
+                .setMessageHandler((message, reply) -> {
+                    String request = message != null ? StandardCharsets.UTF_8.decode(message).toString() : "";
+                    Log.d("MainActivity", "Packed dataset requested: " + request);
+                    queries.submit("packed", "packed:" + request, new PackedReply(reply),
+                        signal -> PackedDatasets.load(this, request, signal));
+                });
+        
+        callLogSync = new CallLogSync(this);
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), CALL_LOG_EVENTS_CHANNEL)
+                .setStreamHandler(new CallLogStreamHandler());
+        
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), SNAPSHOT_EVENTS_CHANNEL)
+                .setStreamHandler(new SnapshotStreamHandler());
+        
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), BLOCKLIST_EVENTS_CHANNEL)
+                .setStreamHandler(new BlocklistStreamHandler());
+        
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), TRANSFER_EVENTS_CHANNEL)
+                .setStreamHandler(new EventChannel.StreamHandler() {
+                    @Override
+                    public void onListen(Object arguments, EventChannel.EventSink events) {
+                        transferEvents = events;
+                    }
+                    
+                    @Override
+                    public void onCancel(Object arguments) {
+                        transferEvents = null;
+                    }
+                });
+    }
+    
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // The screening role may have been granted or revoked in system settings
+        ScreeningMode.apply(this);
+    }
+    
+    @Override
+    public void cleanUpFlutterEngine(@NonNull FlutterEngine flutterEngine) {
+        super.cleanUpFlutterEngine(flutterEngine);
+        if (callLogSync != null) {
+            callLogSync.stop();
+        }
+        if (blocklistListener != null) {
+            BlocklistRepository.get(this).removeListener(blocklistListener);
+            blocklistListener = null;
+        }
+        if (transferSignal != null) {
+            transferSignal.cancel();
+        }
+        if (queries != null) {
+            queries.shutdown();
+        }
+    }
+    
+    // Adapts a packed-channel reply so packed loads share the query queue; failures reply null
+    private static class PackedReply implements MethodChannel.Result {
+        private final BasicMessageChannel.Reply<ByteBuffer> reply;
+        
+        PackedReply(BasicMessageChannel.Reply<ByteBuffer> reply) {
+            this.reply = reply;
+        }
+        
+        @Override
+        public void success(Object value) {
+            // Coalesced requests share one buffer, so each reply gets its own position
+            reply.reply(value != null ? ((ByteBuffer) value).duplicate() : null);
+        }
+        
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            reply.reply(null);
+        }
+        
+        @Override
+        public void notImplemented() {
+            reply.reply(null);
+        }
+    }
+    
+    // Pushes call-log inserts and deletes to Dart while it listens
+    private class CallLogStreamHandler implements EventChannel.StreamHandler {
+        @Override
+        public void onListen(Object arguments, EventChannel.EventSink events) {
+            if (ContextCompat.checkSelfPermission(MainActivity.this, Manifest.permission.READ_CALL_LOG)
+                != PackageManager.PERMISSION_GRANTED) {
+                events.error("PERMISSION_DENIED", "Call log permission not granted", null);
+                return;
+            }
+            
+            long sinceId = 0;
+            if (arguments instanceof Map) {
+                Object value = ((Map<?, ?>) arguments).get("sinceId");
+                if (value instanceof Number) sinceId = ((Number) value).longValue();
+            }
+            callLogSync.start(sinceId, (inserted, deletedIds) -> {
+                Map<String, Object> event = new HashMap<>();
+                event.put("inserted", inserted);
+                List<Long> deleted = new ArrayList<>(deletedIds.length);
+                for (long id : deletedIds) deleted.add(id);
+                event.put("deleted", deleted);
+                events.success(event);
+            });
+        }
+        
+        @Override
+        public void onCancel(Object arguments) {
+            callLogSync.stop();
+        }
+    }
+    
+    /**
+     * Pushes each blocklist change to Dart while it listens, as {generation, added,
+     * removed, rulesChanged}. Added or removed is null when the change was too large
+     * to list, and a generation that skips one means a change was missed; Dart
+     * reloads the blocklist in both cases.
+     */
+    private class BlocklistStreamHandler implements EventChannel.StreamHandler {
+        @Override
+        public void onListen(Object arguments, EventChannel.EventSink events) {
+            if (blocklistListener != null) BlocklistRepository.get(MainActivity.this).removeListener(blocklistListener);
+            blocklistListener = change -> {
+                Map<String, Object> event = new HashMap<>();
+                event.put("generation", change.generation);
+                event.put("added", change.added);
+                event.put("removed", change.removed);
+                event.put("rulesChanged", change.rulesChanged);
+                events.success(event);
+            };
+            BlocklistRepository.get(MainActivity.this).addListener(blocklistListener);
+        }
+        
+        @Override
+        public void onCancel(Object arguments) {
+            if (blocklistListener == null) return;
+            BlocklistRepository.get(MainActivity.this).removeListener(blocklistListener);
+            blocklistListener = null;
+        }
+    }
+    
+    /**
+     * Loads the datasets the home screen starts with in parallel on the query pool.
+     * Each one is sent as soon as it is ready, as {dataset, data} or {dataset, error},
+     * and the stream ends once all of them have been sent. Data is null when the
+     * dataset's permission is missing.
+     */
+    private class SnapshotStreamHandler implements EventChannel.StreamHandler {
+        // Main thread only; replaced by each listen so late parts of an old snapshot are dropped
+        private EventChannel.EventSink sink;
+        private int pending;
+        
+        @Override
+        public void onListen(Object arguments, EventChannel.EventSink events) {
+            List<String> datasets = SNAPSHOT_DATASETS;
+            if (arguments instanceof Map && ((Map<?, ?>) arguments).get("datasets") instanceof List) {
+                datasets = new ArrayList<>();
+                for (Object dataset : (List<?>) ((Map<?, ?>) arguments).get("datasets")) {
+                    if (dataset instanceof String && !datasets.contains(dataset)) datasets.add((String) dataset);
+                }
+            }
+            
+            sink = events;
+            pending = datasets.size();
+            if (pending == 0) {
+                events.endOfStream();
+                return;
+            }
+            for (String dataset : datasets) {
+                queries.submit(SNAPSHOT_METHOD, null, new MethodChannel.Result() {
+                    @Override
+                    public void success(Object data) {
+                        deliver(events, dataset, "data", data);
+                    }
+                    
+                    @Override
+                    public void error(String errorCode, String errorMessage, Object errorDetails) {
+                        deliver(events, dataset, "error", errorMessage != null ? errorMessage : errorCode);
+                    }
+                    
+                    @Override
+                    public void notImplemented() {
+                        deliver(events, dataset, "error", "Not implemented");
+                    }
+                }, signal -> loadSnapshotPart(dataset, signal));
+            }
+        }
+        
+        @Override
+        public void onCancel(Object arguments) {
+            sink = null;
+            queries.cancel(SNAPSHOT_METHOD);
+        }
+        
+        private void deliver(EventChannel.EventSink events, String dataset, String key, Object value) {
+            if (sink != events) return;
+            Map<String, Object> event = new HashMap<>();
+            event.put("dataset", dataset);
+            event.put(key, value);
+            events.success(event);
+            if (--pending == 0) {
+                sink = null;
+                events.endOfStream();
+            }
+        }
+    }
+    
+    // Runs on a query worker; bulk datasets use the packed layout, sent as one byte array
+    private Object loadSnapshotPart(String dataset, CancellationSignal signal) {
+        switch (dataset) {
+            case "smsThreads":
+                if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_SMS)
+                    != PackageManager.PERMISSION_GRANTED) {
+                    return null;
+                }
+                return SmsThreads.load(getContentResolver(), signal);
+            case "callLogs":
+            case "contacts":
+            case "apps":
+                ByteBuffer packed = PackedDatasets.load(this, dataset, signal);
+                if (packed == null) return null;
+                // Packed buffers end at their position, ready for the binary messenger
+                byte[] bytes = new byte[packed.position()];
+                ByteBuffer data = packed.duplicate();
+                data.flip();
+                data.get(bytes);
+                return bytes;
+            case "blocklist":
+                Map<String, Object> blocklist = new HashMap<>();
+                // Read first, so the rows are at least as new as the generation they are sent with
+                blocklist.put("generation", BlocklistRepository.get(this).generation());
+                blocklist.put("numbers", queryBlockedNumbers(signal));
+                blocklist.put("rules", queryBlockRules(signal));
+                blocklist.put("stats", queryBlockStats(10, 30));
+                return blocklist;
+            default:
+                throw new IllegalArgumentException("Unknown dataset: " + dataset);
+        }
     }
     
     private void onMethodCall(MethodCall call, MethodChannel.Result result) {
@@ -57,12 +355,31 @@ public class MainActivity extends FlutterActivity {
             case "getSmsMessages":
                 getSmsMessages(result);
                 break;
+            case "getSmsPage":
+                getSmsPage(call, result);
+                break;
+            case "getSmsThreads":
+                getSmsThreads(result);
+                break;
             case "getCallLogs":
                 getCallLogs(result);
                 break;
+            case "getCallLogsSince":
+                getCallLogsSince(call, result);
+                break;
+            case "getCallStats":
+                getCallStats(call, result);
+                break;
             case "getContacts":
                 getContacts(result);
                 break;
+            case "resolveNames":
+                List<String> numbersToResolve = call.argument("numbers");
+                resolveNames(numbersToResolve, result);
+                break;
+            case "search":
+                search(call, result);
+                break;
             case "getInstalledApps":
                 getInstalledApps(result);
                 break;
@@ -70,19 +387,118 @@ public class MainActivity extends FlutterActivity {
                 String numberToBlock = call.argument("number");
                 blockNumber(numberToBlock, result);
                 break;
+            case "blockNumbers":
+                List<String> numbersToBlock = call.argument("numbers");
+                blockNumbers(numbersToBlock, result);
+                break;
             case "unblockNumber":
                 String numberToUnblock = call.argument("number");
                 unblockNumber(numberToUnblock, result);
                 break;
+            case "unblockNumbers":
+                List<String> numbersToUnblock = call.argument("numbers");
+                unblockNumbers(numbersToUnblock, result);
+                break;
             case "getBlockedNumbers":
                 getBlockedNumbers(result);
                 break;
+            case "blockPrefix":
+                String prefix = call.argument("prefix");
+                blockPrefix(prefix, result);
+                break;
+            case "blockRange":
+                String rangeStart = call.argument("start");
+                String rangeEnd = call.argument("end");
+                blockRange(rangeStart, rangeEnd, result);
+                break;
+            case "getBlockRules":
+                getBlockRules(result);
+                break;
+            case "removeBlockRule":
+                Long ruleId = longArgument(call, "id");
+                removeBlockRule(ruleId != null ? ruleId : -1, result);
+                break;
+            case "addScreeningRule":
+                addScreeningRule(call, result);
+                break;
+            case "getScreeningRules":
+                getScreeningRules(result);
+                break;
+            case "setScreeningRuleEnabled":
+                Long enabledRuleId = longArgument(call, "id");
+                Boolean enabled = call.argument("enabled");
+                setScreeningRuleEnabled(enabledRuleId != null ? enabledRuleId : -1, !Boolean.FALSE.equals(enabled), result);
+                break;
+            case "removeScreeningRule":
+                Long screeningRuleId = longArgument(call, "id");
+                removeScreeningRule(screeningRuleId != null ? screeningRuleId : -1, result);
+                break;
+            case "importBlocklist":
+                importBlocklist(IMPORT_REQUEST_CODE, result);
+                break;
+            case "exportBlocklist":
+                String exportFormat = call.argument("format");
+                exportBlocklist(exportFormat != null ? exportFormat : BlocklistTransfer.FORMAT_TEXT, result);
+                break;
+            case "importSpamList":
+                importBlocklist(SPAM_LIST_REQUEST_CODE, result);
+                break;
+            case "getSpamListInfo":
+                // Header fields of the mapped file, so answered on the main thread
+                SpamList spamList = SpamList.get(this);
+                Map<String, Object> spamListInfo = new HashMap<>();
+                spamListInfo.put("numbers", spamList.size());
+                spamListInfo.put("bytes", spamList.fileSize());
+                spamListInfo.put("builtAt", spamList.builtAt());
+                result.success(spamListInfo);
+                break;
+            case "clearSpamList":
+                SpamList.get(this).clear();
+                result.success(true);
+                break;
+            case "cancelBlocklistTransfer":
+                CancellationSignal transfer = transferSignal;
+                if (transfer != null) transfer.cancel();
+                result.success(transfer != null);
+                break;
+            case "getBlockStats":
+                getBlockStats(call, result);
+                break;
+            case "getEventLog":
+                getEventLog(call, result);
+                break;
+            case "getBlocklistGeneration":
+                // A volatile read, answered on the main thread
+                result.success(BlocklistRepository.get(this).generation());
+                break;
+            case "getMetrics":
+                // In-memory counters only, so answered on the main thread
+                result.success(Metrics.snapshot());
+                break;
+            case "resetMetrics":
+                Metrics.reset();
+                queries.submitWrite(result, signal -> {
+                    ColdStarts.clear(this);
+                    Wakeups.clear(this);
+                    return true;
+                });
+                break;
+            case "getColdStarts":
+                queries.submit(call.method, null, result, signal -> ColdStarts.recent(this));
+                break;
             case "startBlockingService":
                 startBlockingService(result);
                 break;
             case "stopBlockingService":
                 stopBlockingService(result);
                 break;
+            case "getBlockingMode":
+                getBlockingMode(result);
+                break;
+            case "cancelQueries":
+                String methodToCancel = call.argument("method");
+                result.success(queries.cancel(methodToCancel));
+                break;
             case "enableCallScreening":
                 Log.d("MainActivity", "enableCallScreening method called");
                 enableCallScreening(result);
@@ -142,6 +558,98 @@ public class MainActivity extends FlutterActivity {
         }
     }
     
+    private void importBlocklist(int requestCode, MethodChannel.Result result) {
+        if (pendingTransferResult != null || transferSignal != null) {
+            result.error("BUSY", "A blocklist import or export is already running", null);
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {
+            "text/plain", "text/csv", "text/comma-separated-values", "text/x-vcard", "text/vcard"
+        });
+        pendingTransferResult = result;
+        startActivityForResult(intent, requestCode);
+    }
+    
+    private void exportBlocklist(String format, MethodChannel.Result result) {
+        if (pendingTransferResult != null || transferSignal != null) {
+            result.error("BUSY", "A blocklist import or export is already running", null);
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(BlocklistTransfer.mimeType(format));
+        intent.putExtra(Intent.EXTRA_TITLE, "blocklist." + format);
+        pendingTransferResult = result;
+        pendingExportFormat = format;
+        startActivityForResult(intent, EXPORT_REQUEST_CODE);
+    }
+    
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == SCREENING_ROLE_REQUEST_CODE) {
+            // Granting the role makes the foreground service unnecessary
+            ScreeningMode.apply(this);
+            return;
+        }
+        if ((requestCode != IMPORT_REQUEST_CODE && requestCode != EXPORT_REQUEST_CODE
+            && requestCode != SPAM_LIST_REQUEST_CODE) || pendingTransferResult == null) {
+            return;
+        }
+        
+        MethodChannel.Result result = pendingTransferResult;
+        String format = pendingExportFormat;
+        pendingTransferResult = null;
+        pendingExportFormat = null;
+        Uri uri = data != null ? data.getData() : null;
+        if (resultCode != RESULT_OK || uri == null) {
+            // The user backed out of the picker
+            result.success(null);
+            return;
+        }
+        
+        CancellationSignal signal = new CancellationSignal();
+        transferSignal = signal;
+        String operation = requestCode == IMPORT_REQUEST_CODE ? "import"
+            : requestCode == SPAM_LIST_REQUEST_CODE ? "spamList" : "export";
+        BlocklistTransfer.Progress progress = (processed, total, numbers, added) -> runOnUiThread(() -> {
+            if (transferEvents == null) return;
+            Map<String, Object> event = new HashMap<>();
+            event.put("operation", operation);
+            event.put("processed", processed);
+            event.put("total", total);
+            event.put("numbers", numbers);
+            event.put("added", added);
+            transferEvents.success(event);
+        });
+        queries.submitWrite(new MethodChannel.Result() {
+            @Override
+            public void success(Object value) {
+                transferSignal = null;
+                result.success(value);
+            }
+            
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+                transferSignal = null;
+                result.error(errorCode, errorMessage, errorDetails);
+            }
+            
+            @Override
+            public void notImplemented() {
+                transferSignal = null;
+                result.notImplemented();
+            }
+        }, ignored -> {
+            if (requestCode == IMPORT_REQUEST_CODE) return BlocklistTransfer.importFrom(this, uri, signal, progress);
+            if (requestCode == SPAM_LIST_REQUEST_CODE) return BlocklistTransfer.buildSpamList(this, uri, signal, progress);
+            return BlocklistTransfer.exportTo(this, uri, format, signal, progress);
+        });
+    }
+    
     private void getSmsMessages(MethodChannel.Result result) {
         Log.d("MainActivity", "getSmsMessages: Starting SMS query");
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_SMS) 
@@ -152,13 +660,18 @@ public class MainActivity extends FlutterActivity {
         }
         
         Log.d("MainActivity", "getSmsMessages: SMS permission granted, querying...");
+        queries.submit("getSmsMessages", "getSmsMessages", result, this::querySmsMessages);
+    }
+    
+    private List<Map<String, Object>> querySmsMessages(CancellationSignal signal) {
         List<Map<String, Object>> smsList = new ArrayList<>();
         ContentResolver contentResolver = getContentResolver();
         
         Cursor cursor = contentResolver.query(
             Telephony.Sms.CONTENT_URI,
             null, null, null,
-            Telephony.Sms.DEFAULT_SORT_ORDER
+            Telephony.Sms.DEFAULT_SORT_ORDER,
+            signal
         );
         
         if (cursor != null) {
@@ -177,7 +690,52 @@ public class MainActivity extends FlutterActivity {
         }
         
         Log.d("MainActivity", "getSmsMessages: Returning " + smsList.size() + " SMS messages");
-        result.success(smsList);
+        return smsList;
+    }
+    
+    private void getSmsPage(MethodCall call, MethodChannel.Result result) {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_SMS) 
+            != PackageManager.PERMISSION_GRANTED) {
+            result.error("PERMISSION_DENIED", "SMS permission not granted", null);
+            return;
+        }
+        
+        Long pageSize = longArgument(call, "pageSize");
+        Long beforeDate = longArgument(call, "beforeDate");
+        Long beforeId = longArgument(call, "beforeId");
+        Long threadId = longArgument(call, "threadId");
+        List<String> columns = call.argument("columns");
+        queries.submit(call.method, requestKey(call), result, signal -> SmsPageQuery.loadPage(
+            getContentResolver(),
+            beforeDate,
+            beforeId,
+            pageSize != null ? pageSize.intValue() : SmsPageQuery.DEFAULT_PAGE_SIZE,
+            columns,
+            threadId,
+            signal
+        ));
+    }
+    
+    // One summary per conversation; bodies are paged per thread through getSmsPage
+    private void getSmsThreads(MethodChannel.Result result) {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_SMS) 
+            != PackageManager.PERMISSION_GRANTED) {
+            result.error("PERMISSION_DENIED", "SMS permission not granted", null);
+            return;
+        }
+        queries.submit("getSmsThreads", "getSmsThreads", result,
+            signal -> SmsThreads.load(getContentResolver(), signal));
+    }
+    
+    // Identical in-flight calls share one query
+    private static String requestKey(MethodCall call) {
+        return call.arguments != null ? call.method + ":" + call.arguments : call.method;
+    }
+    
+    // Dart ints arrive as Integer or Long depending on their size
+    private static Long longArgument(MethodCall call, String key) {
+        Number value = call.argument(key);
+        return value != null ? value.longValue() : null;
     }
     
     private void getCallLogs(MethodChannel.Result result) {
@@ -187,13 +745,18 @@ public class MainActivity extends FlutterActivity {
             return;
         }
         
+        queries.submit("getCallLogs", "getCallLogs", result, this::queryCallLogs);
+    }
+    
+    private List<Map<String, Object>> queryCallLogs(CancellationSignal signal) {
         List<Map<String, Object>> callList = new ArrayList<>();
         ContentResolver contentResolver = getContentResolver();
         
         Cursor cursor = contentResolver.query(
             CallLog.Calls.CONTENT_URI,
             null, null, null,
-            CallLog.Calls.DEFAULT_SORT_ORDER
+            CallLog.Calls.DEFAULT_SORT_ORDER,
+            signal
         );
         
         if (cursor != null) {
@@ -208,7 +771,33 @@ public class MainActivity extends FlutterActivity {
             cursor.close();
         }
         
-        result.success(callList);
+        return callList;
+    }
+    
+    private void getCallLogsSince(MethodCall call, MethodChannel.Result result) {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CALL_LOG) 
+            != PackageManager.PERMISSION_GRANTED) {
+            result.error("PERMISSION_DENIED", "Call log permission not granted", null);
+            return;
+        }
+        
+        Long sinceId = longArgument(call, "sinceId");
+        queries.submit(call.method, requestKey(call), result,
+            signal -> CallLogSync.loadSince(getContentResolver(), sinceId != null ? sinceId : 0, signal));
+    }
+    
+    private void getCallStats(MethodCall call, MethodChannel.Result result) {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CALL_LOG) 
+            != PackageManager.PERMISSION_GRANTED) {
+            result.error("PERMISSION_DENIED", "Call log permission not granted", null);
+            return;
+        }
+        
+        String sortBy = call.argument("sortBy");
+        Integer limit = call.argument("limit");
+        // Totals are kept current by their own call log observer, so this only sorts
+        queries.submit(call.method, requestKey(call), result, signal -> CallLogStats.get(this).summary(
+            sortBy != null ? sortBy : CallLogStats.SORT_CALLS, limit != null ? limit : 50, signal));
     }
     
     private void getContacts(MethodChannel.Result result) {
@@ -221,74 +810,354 @@ public class MainActivity extends FlutterActivity {
         }
         
         Log.d("MainActivity", "getContacts: Contacts permission granted, querying...");
-        List<Map<String, Object>> contactsList = new ArrayList<>();
-        ContentResolver contentResolver = getContentResolver();
+        queries.submit("getContacts", "getContacts", result, this::queryContacts);
+    }
+    
+    private List<Map<String, Object>> queryContacts(CancellationSignal signal) {
+        // The index is cached until the contacts provider changes
+        List<Map<String, Object>> contactsList = ContactIndex.toMaps(ContactIndex.get(this).contacts(signal));
+        Log.d("MainActivity", "getContacts: Returning " + contactsList.size() + " contacts");
+        return contactsList;
+    }
+    
+    private void resolveNames(List<String> numbers, MethodChannel.Result result) {
+        if (numbers == null) {
+            result.error("INVALID_NUMBER", "Numbers are required", null);
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CONTACTS) 
+            != PackageManager.PERMISSION_GRANTED) {
+            result.error("PERMISSION_DENIED", "Contacts permission not granted", null);
+            return;
+        }
+        queries.submit("resolveNames", null, result,
+            signal -> ContactIndex.get(this).resolveNames(numbers, signal));
+    }
+    
+    // Serves whatever the index holds; sources it cannot read yet simply contribute no matches
+    private void search(MethodCall call, MethodChannel.Result result) {
+        String query = call.argument("query");
+        Integer limit = call.argument("limit");
+        if (query == null) {
+            result.error("INVALID_QUERY", "Query is required", null);
+            return;
+        }
+        queries.submit(call.method, requestKey(call), result, signal ->
+            SearchIndex.get(this).search(query, limit != null ? limit : 20, signal));
+    }
+    
+    private void blockNumber(String number, MethodChannel.Result result) {
+        if (number == null) {
+            result.error("INVALID_NUMBER", "Number is required", null);
+            return;
+        }
+        if (!BlocklistRepository.isValid(number)) {
+            result.error("INVALID_NUMBER", "Number must have 1 to " + PhoneNumbers.MAX_DIGITS + " digits", null);
+            return;
+        }
+        queries.submitWrite(result, signal -> {
+            BlocklistRepository.get(this).add(number);
+            return true;
+        });
+    }
+    
+    private void blockNumbers(List<String> numbers, MethodChannel.Result result) {
+        if (numbers == null) {
+            result.error("INVALID_NUMBER", "Numbers are required", null);
+            return;
+        }
+        queries.submitWrite(result, signal -> {
+            int inserted = BlocklistRepository.get(this).addAll(numbers);
+            Log.d("MainActivity", "blockNumbers: Inserted " + inserted + " of " + numbers.size() + " numbers");
+            return inserted;
+        });
+    }
+    
+    private void unblockNumber(String number, MethodChannel.Result result) {
+        if (number == null) {
+            result.error("INVALID_NUMBER", "Number is required", null);
+            return;
+        }
+        queries.submitWrite(result, signal -> {
+            BlocklistRepository.get(this).remove(number);
+            return true;
+        });
+    }
+    
+    private void unblockNumbers(List<String> numbers, MethodChannel.Result result) {
+        if (numbers == null) {
+            result.error("INVALID_NUMBER", "Numbers are required", null);
+            return;
+        }
+        queries.submitWrite(result, signal -> {
+            BlocklistRepository.get(this).removeAll(numbers);
+            return true;
+        });
+    }
+    
+    private void getBlockedNumbers(MethodChannel.Result result) {
+        queries.submit("getBlockedNumbers", "getBlockedNumbers", result, this::queryBlockedNumbers);
+    }
+    
+    private List<String> queryBlockedNumbers(CancellationSignal signal) {
+        List<String> numbers = new ArrayList<>();
+        Cursor cursor = getContentResolver().query(
+            BlockedNumbersProvider.CONTENT_URI,
+            new String[] { BlockedNumbersProvider.COLUMN_NUMBER },
+            BlockedNumbersProvider.COLUMN_RULE_TYPE + " = " + BlockedNumbersProvider.RULE_TYPE_EXACT,
+            null,
+            BlockedNumbersProvider.COLUMN_DATE_ADDED,
+            signal
+        );
         
-        Cursor cursor = contentResolver.query(
-            ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
-            null, null, null, null
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                numbers.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+        
+        return numbers;
+    }
+    
+    private void blockPrefix(String prefix, MethodChannel.Result result) {
+        try {
+            new DigitTrie.Builder().addPrefix(prefix, 0);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_RULE", e.getMessage(), null);
+            return;
+        }
+        insertBlockRule(BlockedNumbersProvider.RULE_TYPE_PREFIX, PhoneNumbers.digitsOf(prefix), "", result);
+    }
+    
+    private void blockRange(String start, String end, MethodChannel.Result result) {
+        try {
+            new DigitTrie.Builder().addRange(start, end, 0);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_RULE", e.getMessage(), null);
+            return;
+        }
+        insertBlockRule(BlockedNumbersProvider.RULE_TYPE_RANGE,
+            PhoneNumbers.digitsOf(start), PhoneNumbers.digitsOf(end), result);
+    }
+    
+    private void insertBlockRule(int ruleType, String number, String rangeEnd, MethodChannel.Result result) {
+        queries.submitWrite(result, signal -> {
+            BlocklistRepository.get(this).addRule(ruleType, number, rangeEnd);
+            return true;
+        });
+    }
+    
+    private void getBlockRules(MethodChannel.Result result) {
+        queries.submit("getBlockRules", "getBlockRules", result, this::queryBlockRules);
+    }
+    
+    private List<Map<String, Object>> queryBlockRules(CancellationSignal signal) {
+        List<Map<String, Object>> rules = new ArrayList<>();
+        Cursor cursor = getContentResolver().query(
+            BlockedNumbersProvider.CONTENT_URI,
+            new String[] {
+                BlockedNumbersProvider.COLUMN_ID,
+                BlockedNumbersProvider.COLUMN_NUMBER,
+                BlockedNumbersProvider.COLUMN_RULE_TYPE,
+                BlockedNumbersProvider.COLUMN_RANGE_END
+            },
+            BlockedNumbersProvider.COLUMN_RULE_TYPE + " != " + BlockedNumbersProvider.RULE_TYPE_EXACT,
+            null,
+            BlockedNumbersProvider.COLUMN_NUMBER,
+            signal
         );
         
         if (cursor != null) {
-            Log.d("MainActivity", "getContacts: Cursor created, count: " + cursor.getCount());
             while (cursor.moveToNext()) {
-                Map<String, Object> contact = new HashMap<>();
-                contact.put("name", cursor.getString(cursor.getColumnIndexOrThrow(
-                    ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME)));
-                contact.put("number", cursor.getString(cursor.getColumnIndexOrThrow(
-                    ContactsContract.CommonDataKinds.Phone.NUMBER)));
-                contactsList.add(contact);
+                Map<String, Object> rule = new HashMap<>();
+                rule.put("id", cursor.getLong(0));
+                rule.put("type", cursor.getInt(2) == BlockedNumbersProvider.RULE_TYPE_RANGE ? "range" : "prefix");
+                rule.put("start", cursor.getString(1));
+                rule.put("end", cursor.getString(3));
+                rules.add(rule);
             }
             cursor.close();
-        } else {
-            Log.d("MainActivity", "getContacts: Cursor is null");
         }
         
-        Log.d("MainActivity", "getContacts: Returning " + contactsList.size() + " contacts");
-        result.success(contactsList);
+        return rules;
     }
     
-    private void blockNumber(String number, MethodChannel.Result result) {
-        // Implementation will be handled by the content provider
-        // For now, we'll use a simple storage mechanism
-        getSharedPreferences("blocked_numbers", Context.MODE_PRIVATE)
-            .edit()
-            .putBoolean(number, true)
-            .apply();
-        result.success(true);
+    private void removeBlockRule(long id, MethodChannel.Result result) {
+        queries.submitWrite(result, signal -> BlocklistRepository.get(this).removeRule(id));
     }
     
-    private void unblockNumber(String number, MethodChannel.Result result) {
-        getSharedPreferences("blocked_numbers", Context.MODE_PRIVATE)
-            .edit()
-            .remove(number)
-            .apply();
-        result.success(true);
+    private void addScreeningRule(MethodCall call, MethodChannel.Result result) {
+        int kind = Arrays.asList(SCREENING_RULE_KINDS).indexOf(call.argument("kind"));
+        Boolean calls = call.argument("calls");
+        Boolean sms = call.argument("sms");
+        int targets = (Boolean.FALSE.equals(calls) ? 0 : BlockedNumbersProvider.TARGET_CALLS)
+            | (Boolean.FALSE.equals(sms) ? 0 : BlockedNumbersProvider.TARGET_SMS);
+        String argument = call.argument("argument");
+        Long startMinute = longArgument(call, "startMinute");
+        Long endMinute = longArgument(call, "endMinute");
+        int start = startMinute != null ? startMinute.intValue() : 0;
+        int end = endMinute != null ? endMinute.intValue() : 0;
+        if (kind == BlockedNumbersProvider.KIND_COUNTRY) argument = PhoneNumbers.digitsOf(argument);
+        try {
+            ScreeningRules.validate(kind, targets, argument, start, end);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_RULE", e.getMessage(), null);
+            return;
+        }
+        
+        ContentValues values = new ContentValues();
+        values.put(BlockedNumbersProvider.COLUMN_KIND, kind);
+        values.put(BlockedNumbersProvider.COLUMN_ARGUMENT, argument != null ? argument : "");
+        values.put(BlockedNumbersProvider.COLUMN_START_MINUTE, start);
+        values.put(BlockedNumbersProvider.COLUMN_END_MINUTE, end);
+        values.put(BlockedNumbersProvider.COLUMN_TARGETS, targets);
+        values.put(BlockedNumbersProvider.COLUMN_RESPONSE, "silence".equals(call.argument("response"))
+            ? BlockedNumbersProvider.RESPONSE_SILENCE : BlockedNumbersProvider.RESPONSE_REJECT);
+        values.put(BlockedNumbersProvider.COLUMN_SKIP_CALL_LOG, Boolean.TRUE.equals(call.argument("skipCallLog")) ? 1 : 0);
+        values.put(BlockedNumbersProvider.COLUMN_SKIP_NOTIFICATION,
+            Boolean.TRUE.equals(call.argument("skipNotification")) ? 1 : 0);
+        values.put(BlockedNumbersProvider.COLUMN_DATE_ADDED, System.currentTimeMillis());
+        queries.submitWrite(result, signal -> {
+            Uri uri = getContentResolver().insert(BlockedNumbersProvider.SCREENING_RULES_URI, values);
+            ScreeningRules.get(this).reload();
+            return uri != null;
+        });
     }
     
-    private void getBlockedNumbers(MethodChannel.Result result) {
-        Map<String, ?> blockedNumbers = getSharedPreferences("blocked_numbers", Context.MODE_PRIVATE)
-            .getAll();
-        List<String> numbers = new ArrayList<>(blockedNumbers.keySet());
-        result.success(numbers);
+    private void getScreeningRules(MethodChannel.Result result) {
+        queries.submit("getScreeningRules", "getScreeningRules", result, this::queryScreeningRules);
     }
     
-    private void startBlockingService(MethodChannel.Result result) {
-        Intent serviceIntent = new Intent(this, BlockingService.class);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            startForegroundService(serviceIntent);
-        } else {
-            startService(serviceIntent);
+    private List<Map<String, Object>> queryScreeningRules(CancellationSignal signal) {
+        List<Map<String, Object>> rules = new ArrayList<>();
+        Cursor cursor = getContentResolver().query(
+            BlockedNumbersProvider.SCREENING_RULES_URI,
+            new String[] {
+                BlockedNumbersProvider.COLUMN_ID,
+                BlockedNumbersProvider.COLUMN_KIND,
+                BlockedNumbersProvider.COLUMN_ARGUMENT,
+                BlockedNumbersProvider.COLUMN_START_MINUTE,
+                BlockedNumbersProvider.COLUMN_END_MINUTE,
+                BlockedNumbersProvider.COLUMN_TARGETS,
+                BlockedNumbersProvider.COLUMN_RESPONSE,
+                BlockedNumbersProvider.COLUMN_SKIP_CALL_LOG,
+                BlockedNumbersProvider.COLUMN_SKIP_NOTIFICATION,
+                BlockedNumbersProvider.COLUMN_ENABLED
+            },
+            null,
+            null,
+            BlockedNumbersProvider.COLUMN_ID,
+            signal
+        );
+        
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                int kind = cursor.getInt(1);
+                if (kind < 0 || kind >= SCREENING_RULE_KINDS.length) continue;
+                int targets = cursor.getInt(5);
+                Map<String, Object> rule = new HashMap<>();
+                rule.put("id", cursor.getLong(0));
+                rule.put("kind", SCREENING_RULE_KINDS[kind]);
+                rule.put("argument", cursor.getString(2));
+                rule.put("startMinute", cursor.getInt(3));
+                rule.put("endMinute", cursor.getInt(4));
+                rule.put("calls", (targets & BlockedNumbersProvider.TARGET_CALLS) != 0);
+                rule.put("sms", (targets & BlockedNumbersProvider.TARGET_SMS) != 0);
+                rule.put("response", cursor.getInt(6) == BlockedNumbersProvider.RESPONSE_SILENCE ? "silence" : "reject");
+                rule.put("skipCallLog", cursor.getInt(7) != 0);
+                rule.put("skipNotification", cursor.getInt(8) != 0);
+                rule.put("enabled", cursor.getInt(9) != 0);
+                rules.add(rule);
+            }
+            cursor.close();
         }
+        
+        return rules;
+    }
+    
+    private void setScreeningRuleEnabled(long id, boolean enabled, MethodChannel.Result result) {
+        ContentValues values = new ContentValues();
+        values.put(BlockedNumbersProvider.COLUMN_ENABLED, enabled ? 1 : 0);
+        queries.submitWrite(result, signal -> {
+            int count = getContentResolver().update(
+                ContentUris.withAppendedId(BlockedNumbersProvider.SCREENING_RULES_URI, id), values, null, null);
+            ScreeningRules.get(this).reload();
+            return count > 0;
+        });
+    }
+    
+    private void removeScreeningRule(long id, MethodChannel.Result result) {
+        queries.submitWrite(result, signal -> {
+            int count = getContentResolver().delete(
+                ContentUris.withAppendedId(BlockedNumbersProvider.SCREENING_RULES_URI, id), null, null);
+            ScreeningRules.get(this).reload();
+            return count > 0;
+        });
+    }
+    
+    private void getBlockStats(MethodCall call, MethodChannel.Result result) {
+        Long limitArgument = longArgument(call, "limit");
+        Long daysArgument = longArgument(call, "days");
+        int limit = limitArgument != null ? (int) Math.max(1, Math.min(limitArgument, 100)) : 10;
+        int days = daysArgument != null ? (int) Math.max(1, Math.min(daysArgument, 366)) : 30;
+        queries.submit(call.method, requestKey(call), result, signal -> queryBlockStats(limit, days));
+    }
+    
+    private Map<String, Object> queryBlockStats(int limit, int days) {
+        BlockCounters counters = BlockCounters.get(this);
+        // Include blocks still buffered in memory
+        counters.flush();
+        long today = BlockCounters.localDay(System.currentTimeMillis());
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("top", counters.topOffenders(limit));
+        stats.put("daily", counters.dailyTotals(today - days + 1, today));
+        return stats;
+    }
+    
+    private void getEventLog(MethodCall call, MethodChannel.Result result) {
+        Long beforeSeq = longArgument(call, "beforeSeq");
+        Long limitArgument = longArgument(call, "limit");
+        int limit = limitArgument != null ? (int) Math.max(1, Math.min(limitArgument, 500)) : 100;
+        queries.submit(call.method, requestKey(call), result, signal -> {
+            List<EventJournal.Event> events = EventJournal.get(this).readPage(beforeSeq != null ? beforeSeq : 0, limit);
+            List<Map<String, Object>> eventList = new ArrayList<>(events.size());
+            for (EventJournal.Event event : events) {
+                eventList.add(event.toMap());
+            }
+            Map<String, Object> page = new HashMap<>();
+            page.put("events", eventList);
+            // A short page means the oldest event has been reached
+            page.put("nextBeforeSeq", events.size() == limit ? events.get(events.size() - 1).seq : null);
+            return page;
+        });
+    }
+    
+    // BlockingService only runs when the call screening role is not held
+    private void startBlockingService(MethodChannel.Result result) {
+        ScreeningMode.setEnabled(this, true);
+        ScreeningMode.apply(this);
         result.success(true);
     }
     
     private void stopBlockingService(MethodChannel.Result result) {
-        Intent serviceIntent = new Intent(this, BlockingService.class);
-        stopService(serviceIntent);
+        ScreeningMode.setEnabled(this, false);
+        ScreeningMode.apply(this);
         result.success(true);
     }
     
+    private void getBlockingMode(MethodChannel.Result result) {
+        queries.submit("getBlockingMode", null, result, signal -> {
+            Map<String, Object> mode = new HashMap<>();
+            mode.put("mode", ScreeningMode.current(this));
+            mode.put("roleHeld", ScreeningMode.isRoleHeld(this));
+            mode.put("enabled", ScreeningMode.isEnabled(this));
+            mode.put("residentKb", Wakeups.residentKb());
+            mode.put("wakeups", Wakeups.summary(this));
+            return mode;
+        });
+    }
+    
     private void enableCallScreening(MethodChannel.Result result) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             try {
@@ -296,7 +1165,7 @@ public class MainActivity extends FlutterActivity {
                 if (roleManager != null && roleManager.isRoleAvailable(RoleManager.ROLE_CALL_SCREENING)) {
                     if (!roleManager.isRoleHeld(RoleManager.ROLE_CALL_SCREENING)) {
                         Intent intent = roleManager.createRequestRoleIntent(RoleManager.ROLE_CALL_SCREENING);
-                        startActivityForResult(intent, 1001);
+                        startActivityForResult(intent, SCREENING_ROLE_REQUEST_CODE);
                         result.success(true);
                         return;
                     } else {
@@ -317,46 +1186,11 @@ public class MainActivity extends FlutterActivity {
     }
     
     private void getInstalledApps(MethodChannel.Result result) {
-        try {
-            PackageManager packageManager = getPackageManager();
-            List<PackageInfo> packages = packageManager.getInstalledPackages(PackageManager.GET_META_DATA);
-            List<Map<String, Object>> appsList = new ArrayList<>();
-            
-            for (PackageInfo packageInfo : packages) {
-                ApplicationInfo appInfo = packageInfo.applicationInfo;
-                
-                // Get app name
-                String appName = packageManager.getApplicationLabel(appInfo).toString();
-                
-                // Get package name
-                String packageName = packageInfo.packageName;
-                
-                // Get version
-                String version = packageInfo.versionName != null ? packageInfo.versionName : "Unknown";
-                
-                // Check if it's a system app
-                boolean isSystemApp = (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                
-                // Get install time
-                long installTime = packageInfo.firstInstallTime;
-                
-                // Create app data map
-                Map<String, Object> appData = new HashMap<>();
-                appData.put("packageName", packageName);
-                appData.put("appName", appName);
-                appData.put("version", version);
-                appData.put("isSystemApp", isSystemApp);
-                appData.put("installTime", installTime);
-                
-                appsList.add(appData);
-            }
-            
+        queries.submit("getInstalledApps", "getInstalledApps", result, signal -> {
+            List<Map<String, Object>> appsList = InstalledApps.toMaps(
+                InstalledAppsCache.get(this).apps(signal));
             Log.d("MainActivity", "Found " + appsList.size() + " installed apps");
-            result.success(appsList);
-            
-        } catch (Exception e) {
-            Log.e("MainActivity", "Error getting installed apps: " + e.getMessage(), e);
-            result.error("APPS_ERROR", "Failed to get installed apps: " + e.getMessage(), null);
-        }
+            return appsList;
+        });
     }
 }
@@ -0,0 +1,267 @@
+package com.example.spy3.blocking;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.spy3.providers.BlockedNumbersProvider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts blocked calls and SMS per exact number, per prefix/range rule and per day.
+ * Recording a block only bumps {@link LongAdder}s in concurrent maps, so the ring
+ * path never touches disk and concurrent receivers do not contend. Counts are
+ * flushed to {@link BlockedNumbersProvider} a few seconds after the first
+ * unflushed block, as one transaction through
+ * {@link BlockedNumbersProvider#METHOD_ADD_BLOCK_COUNTS}.
+ */
+public final class BlockCounters {
+    private static final String TAG = "BlockCounters";
+    // Short enough that a receiver process is unlikely to die with counts pending
+    private static final long FLUSH_DELAY_MS = 10_000;
+
+    private static final class Counter {
+        final LongAdder calls = new LongAdder();
+        final LongAdder sms = new LongAdder();
+
+        void add(boolean isSms, long delta) {
+            (isSms ? sms : calls).add(delta);
+        }
+    }
+
+    private static volatile BlockCounters sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
+    private final Object mFlushLock = new Object();
+    // Exact numbers are counted by number key; prefix and range rules by their row id
+    private final ConcurrentHashMap<Long, Counter> mByNumber = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Counter> mByRow = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Counter> mByDay = new ConcurrentHashMap<>();
+
+    // Number key -> row id of the exact rule; rebuilt when the blocklist generation changes
+    private long mRowIdsGeneration = -1;
+    private Map<Long, Long> mRowIds = new HashMap<>();
+
+    private BlockCounters(Context context) {
+        mContext = context;
+        LocalTime.watch(context);
+        HandlerThread thread = new HandlerThread("spy3-counters");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public static BlockCounters get(Context context) {
+        BlockCounters instance = sInstance;
+        if (instance == null) {
+            synchronized (BlockCounters.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new BlockCounters(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** Attributes one block to the exact number or rule that matched it. Never blocks. */
+    public void record(String phoneNumber, boolean isSms, long timestamp) {
+        BlocklistSnapshot snapshot = BlocklistIndex.get(mContext).snapshot();
+        long key = PhoneNumbers.toKey(phoneNumber);
+        if (key != PhoneNumbers.NO_KEY && snapshot.contains(key)) {
+            counter(mByNumber, key).add(isSms, 1);
+        } else {
+            long ruleId = snapshot.matchingRuleId(phoneNumber);
+            if (ruleId >= 0) counter(mByRow, ruleId).add(isSms, 1);
+        }
+        counter(mByDay, localDay(timestamp)).add(isSms, 1);
+
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            mHandler.postDelayed(this::flush, FLUSH_DELAY_MS);
+        }
+    }
+
+    /** Writes every pending count. Safe to call from any thread except the main thread. */
+    public void flush() {
+        mFlushScheduled.set(false);
+        synchronized (mFlushLock) {
+            Map<Long, long[]> rows = new HashMap<>();
+            for (Map.Entry<Long, Counter> entry : mByRow.entrySet()) {
+                add(rows, entry.getKey(), drain(entry.getValue()));
+            }
+            if (!mByNumber.isEmpty()) {
+                Map<Long, Long> rowIds = rowIds();
+                for (Map.Entry<Long, Counter> entry : mByNumber.entrySet()) {
+                    Long rowId = rowIds.get(entry.getKey());
+                    long[] delta = drain(entry.getValue());
+                    // A number unblocked since the event has no row left to credit
+                    if (rowId != null) add(rows, rowId, delta);
+                }
+            }
+            Map<Long, long[]> days = new HashMap<>();
+            for (Map.Entry<Long, Counter> entry : mByDay.entrySet()) {
+                add(days, entry.getKey(), drain(entry.getValue()));
+            }
+            if (rows.isEmpty() && days.isEmpty()) return;
+
+            Bundle extras = new Bundle();
+            putColumns(extras, rows, BlockedNumbersProvider.EXTRA_ROW_IDS,
+                BlockedNumbersProvider.EXTRA_ROW_CALLS, BlockedNumbersProvider.EXTRA_ROW_SMS);
+            putColumns(extras, days, BlockedNumbersProvider.EXTRA_DAYS,
+                BlockedNumbersProvider.EXTRA_DAY_CALLS, BlockedNumbersProvider.EXTRA_DAY_SMS);
+            try {
+                mContext.getContentResolver().call(BlockedNumbersProvider.CONTENT_URI,
+                    BlockedNumbersProvider.METHOD_ADD_BLOCK_COUNTS, null, extras);
+                Log.d(TAG, "Flushed counts for " + rows.size() + " rules and " + days.size() + " days");
+            } catch (RuntimeException e) {
+                // Put the counts back so the next flush retries them
+                Log.e(TAG, "Failed to flush block counts", e);
+                for (Map.Entry<Long, long[]> entry : days.entrySet()) {
+                    counter(mByDay, entry.getKey()).add(false, entry.getValue()[0]);
+                    counter(mByDay, entry.getKey()).add(true, entry.getValue()[1]);
+                }
+                for (Map.Entry<Long, long[]> entry : rows.entrySet()) {
+                    counter(mByRow, entry.getKey()).add(false, entry.getValue()[0]);
+                    counter(mByRow, entry.getKey()).add(true, entry.getValue()[1]);
+                }
+            }
+        }
+    }
+
+    /** Days since the epoch in the device's current time zone, as stored in block_stats. */
+    public static long localDay(long timestamp) {
+        return LocalTime.day(timestamp);
+    }
+
+    private static Counter counter(ConcurrentHashMap<Long, Counter> counters, long key) {
+        Counter counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new Counter());
+    }
+
+    // Subtracts what was read instead of resetting, so concurrent increments are never lost
+    private static long[] drain(Counter counter) {
+        long calls = counter.calls.sum();
+        long sms = counter.sms.sum();
+        counter.calls.add(-calls);
+        counter.sms.add(-sms);
+        return new long[] { calls, sms };
+    }
+
+    private static void add(Map<Long, long[]> totals, long key, long[] delta) {
+        if (delta[0] == 0 && delta[1] == 0) return;
+        long[] total = totals.get(key);
+        if (total == null) {
+            totals.put(key, delta);
+        } else {
+            total[0] += delta[0];
+            total[1] += delta[1];
+        }
+    }
+
+    private static void putColumns(Bundle extras, Map<Long, long[]> totals,
+                                   String keysName, String callsName, String smsName) {
+        long[] keys = new long[totals.size()];
+        long[] calls = new long[keys.length];
+        long[] sms = new long[keys.length];
+        int i = 0;
+        for (Map.Entry<Long, long[]> entry : totals.entrySet()) {
+            keys[i] = entry.getKey();
+            calls[i] = entry.getValue()[0];
+            sms[i] = entry.getValue()[1];
+            i++;
+        }
+        extras.putLongArray(keysName, keys);
+        extras.putLongArray(callsName, calls);
+        extras.putLongArray(smsName, sms);
+    }
+
+    // Caller holds mFlushLock. The blocklist keeps only number keys, so row ids are
+    // looked up here, once per blocklist change rather than once per flush.
+    private Map<Long, Long> rowIds() {
+        // Read before the query, so a change made while it runs is picked up next time
+        long generation = BlocklistRepository.get(mContext).generation();
+        if (generation == mRowIdsGeneration) return mRowIds;
+
+        Map<Long, Long> rowIds = new HashMap<>(BlocklistIndex.get(mContext).snapshot().size() * 2);
+        try (Cursor cursor = mContext.getContentResolver().query(
+                BlockedNumbersProvider.CONTENT_URI,
+                new String[] { BlockedNumbersProvider.COLUMN_ID, BlockedNumbersProvider.COLUMN_NUMBER },
+                BlockedNumbersProvider.COLUMN_RULE_TYPE + " = " + BlockedNumbersProvider.RULE_TYPE_EXACT,
+                null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                rowIds.put(PhoneNumbers.toKey(cursor.getString(1)), cursor.getLong(0));
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to load blocklist row ids", e);
+            return mRowIds;
+        }
+        mRowIds = rowIds;
+        mRowIdsGeneration = generation;
+        return rowIds;
+    }
+
+    /** Returns the days in {@code [fromDay, toDay]} that have any blocks, oldest first. */
+    public List<Map<String, Object>> dailyTotals(long fromDay, long toDay) {
+        List<Map<String, Object>> totals = new ArrayList<>();
+        try (Cursor cursor = mContext.getContentResolver().query(
+                BlockedNumbersProvider.STATS_URI,
+                new String[] { BlockedNumbersProvider.COLUMN_DAY, BlockedNumbersProvider.COLUMN_BLOCKED_CALLS,
+                    BlockedNumbersProvider.COLUMN_BLOCKED_SMS },
+                BlockedNumbersProvider.COLUMN_DAY + " BETWEEN ? AND ?",
+                new String[] { String.valueOf(fromDay), String.valueOf(toDay) },
+                BlockedNumbersProvider.COLUMN_DAY)) {
+            while (cursor != null && cursor.moveToNext()) {
+                Map<String, Object> day = new HashMap<>();
+                day.put("day", cursor.getLong(0));
+                day.put("calls", cursor.getLong(1));
+                day.put("sms", cursor.getLong(2));
+                totals.add(day);
+            }
+        }
+        return totals;
+    }
+
+    /** Returns the numbers and rules with the most blocks, most first. */
+    public List<Map<String, Object>> topOffenders(int limit) {
+        List<Map<String, Object>> offenders = new ArrayList<>(limit);
+        String total = BlockedNumbersProvider.COLUMN_BLOCKED_CALLS + " + " + BlockedNumbersProvider.COLUMN_BLOCKED_SMS;
+        try (Cursor cursor = mContext.getContentResolver().query(
+                BlockedNumbersProvider.CONTENT_URI,
+                new String[] {
+                    BlockedNumbersProvider.COLUMN_ID,
+                    BlockedNumbersProvider.COLUMN_NUMBER,
+                    BlockedNumbersProvider.COLUMN_RULE_TYPE,
+                    BlockedNumbersProvider.COLUMN_RANGE_END,
+                    BlockedNumbersProvider.COLUMN_BLOCKED_CALLS,
+                    BlockedNumbersProvider.COLUMN_BLOCKED_SMS
+                },
+                total + " > 0", null,
+                total + " DESC LIMIT " + limit)) {
+            while (cursor != null && cursor.moveToNext()) {
+                Map<String, Object> offender = new HashMap<>();
+                offender.put("id", cursor.getLong(0));
+                offender.put("number", cursor.getString(1));
+                int type = cursor.getInt(2);
+                offender.put("type", type == BlockedNumbersProvider.RULE_TYPE_RANGE ? "range"
+                    : type == BlockedNumbersProvider.RULE_TYPE_PREFIX ? "prefix" : "number");
+                offender.put("end", cursor.getString(3));
+                offender.put("calls", cursor.getLong(4));
+                offender.put("sms", cursor.getLong(5));
+                offenders.add(offender);
+            }
+        }
+        return offenders;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.spy3.blocking;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compiled {@link BlocklistSnapshot} kept on disk between runs. A call or SMS
+ * that starts the process can then be decided from one mapped read of the hash
+ * table and rule trie, instead of opening the database and rebuilding both
+ * from every row. The file is only a cache; storage stays authoritative and
+ * {@link BlocklistIndex} checks it against storage once the process is up.
+ */
+final class BlocklistCache {
+    private static final String TAG = "BlocklistCache";
+    private static final String FILE_NAME = "blocklist.snapshot";
+    private static final int MAGIC = 0x53505942; // "SPYB"
+    // 2: the rule trie keeps one range rule per length
+    private static final int FORMAT_VERSION = 2;
+
+    private final AtomicFile mFile;
+
+    BlocklistCache(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /** Returns the saved snapshot, or null when there is none or it cannot be used. */
+    BlocklistSnapshot read() {
+        try (FileInputStream stream = mFile.openRead();
+             FileChannel channel = stream.getChannel()) {
+            // The tables are copied out in bulk, so the mapping is only needed while reading
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+            BlocklistSnapshot snapshot = BlocklistSnapshot.readFrom(buffer);
+            if (buffer.hasRemaining()) throw new IOException("Trailing bytes");
+            return snapshot;
+        } catch (FileNotFoundException e) {
+            // First run, or the cache was never written
+            return null;
+        } catch (IOException | BufferUnderflowException e) {
+            Log.w(TAG, "Discarding unreadable blocklist cache", e);
+            mFile.delete();
+            return null;
+        }
+    }
+
+    void write(BlocklistSnapshot snapshot) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            snapshot.writeTo(out);
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write blocklist cache", e);
+            if (stream != null) mFile.failWrite(stream);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.spy3.blocking;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.spy3.providers.BlockedNumbersProvider;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide blocklist shared by the call receiver, the SMS receiver and the
+ * call screening service. It combines exact numbers with the prefix and range
+ * rules stored in {@link BlockedNumbersProvider}, compiled into a {@link DigitTrie}.
+ * The list is loaded once per process; every change
+ * builds a new {@link BlocklistSnapshot} and publishes it through a volatile
+ * field, so lookups on the ring path never take a lock.
+ *
+ * <p>Each published snapshot is also saved to a {@link BlocklistCache} shortly
+ * after it changes. A process started by an incoming call or SMS answers from
+ * that cache immediately and rebuilds from storage a few seconds later, after
+ * the decision has been made.
+ */
+public final class BlocklistIndex {
+    private static final String TAG = "BlocklistIndex";
+    // Coalesces bursts of edits, such as a bulk import, into one cache write
+    private static final long SAVE_DELAY_MS = 1000;
+    // Long enough that the check does not compete with the call that started the process
+    private static final long VERIFY_DELAY_MS = 5000;
+
+    private static volatile BlocklistIndex sInstance;
+
+    private final Context mContext;
+    private final Object mWriteLock = new Object();
+    private final BlocklistCache mCache;
+    private final Handler mHandler;
+    private final AtomicBoolean mSaveScheduled = new AtomicBoolean();
+    private volatile BlocklistSnapshot mSnapshot;
+    private volatile boolean mFromCache;
+    // Only touched on mHandler
+    private BlocklistSnapshot mSaved;
+
+    private BlocklistIndex(Context context) {
+        mContext = context;
+        mCache = new BlocklistCache(context);
+        HandlerThread thread = new HandlerThread("spy3-blocklist");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        BlocklistSnapshot cached = mCache.read();
+        if (cached != null) {
+            mSnapshot = cached;
+            mFromCache = true;
+            Log.d(TAG, "Mapped " + cached.size() + " blocked numbers and " + cached.ruleCount() + " rules from cache");
+            // A change written just before the process died may be missing from the cache
+            mHandler.postDelayed(this::verify, VERIFY_DELAY_MS);
+        } else {
+            mSnapshot = load();
+            scheduleSave();
+        }
+    }
+
+    public static BlocklistIndex get(Context context) {
+        BlocklistIndex instance = sInstance;
+        if (instance == null) {
+            synchronized (BlocklistIndex.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new BlocklistIndex(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    public boolean isBlocked(String phoneNumber) {
+        if (phoneNumber == null) return false;
+        return mSnapshot.isBlocked(phoneNumber);
+    }
+
+    public boolean isBlocked(long key, String phoneNumber) {
+        if (phoneNumber == null) return false;
+        return mSnapshot.isBlocked(key, phoneNumber);
+    }
+
+    public BlocklistSnapshot snapshot() {
+        return mSnapshot;
+    }
+
+    /** True until the snapshot read from the cache at startup has been checked against storage. */
+    public boolean isFromCache() {
+        return mFromCache;
+    }
+
+    public void add(String phoneNumber) {
+        synchronized (mWriteLock) {
+            mSnapshot = mSnapshot.withNumber(phoneNumber);
+        }
+        scheduleSave();
+    }
+
+    public void remove(String phoneNumber) {
+        synchronized (mWriteLock) {
+            mSnapshot = mSnapshot.withoutNumber(phoneNumber);
+        }
+        scheduleSave();
+    }
+
+    public void addAll(Collection<String> phoneNumbers) {
+        synchronized (mWriteLock) {
+            mSnapshot = mSnapshot.withNumbers(phoneNumbers);
+        }
+        scheduleSave();
+    }
+
+    public void removeAll(Collection<String> phoneNumbers) {
+        synchronized (mWriteLock) {
+            mSnapshot = mSnapshot.withoutNumbers(phoneNumbers);
+        }
+        scheduleSave();
+    }
+
+    /** Adds number keys that were already written to storage, such as a bulk import. */
+    public void addKeys(LongHashSet keys) {
+        synchronized (mWriteLock) {
+            mSnapshot = mSnapshot.withKeys(keys);
+        }
+        scheduleSave();
+    }
+
+    /** Rebuilds the snapshot from storage and swaps it in. */
+    public void reload() {
+        synchronized (mWriteLock) {
+            mSnapshot = load();
+            mFromCache = false;
+        }
+        scheduleSave();
+    }
+
+    /** Recompiles only the prefix and range rules, keeping the exact numbers. */
+    public void reloadRules() {
+        synchronized (mWriteLock) {
+            BlocklistSnapshot rules = query(
+                BlockedNumbersProvider.COLUMN_RULE_TYPE + " != " + BlockedNumbersProvider.RULE_TYPE_EXACT);
+            if (rules != null) {
+                mSnapshot = mSnapshot.withRulesOf(rules);
+            }
+        }
+        scheduleSave();
+    }
+
+    // Replaces the cached snapshot with one built from storage, unless storage cannot be read
+    private void verify() {
+        synchronized (mWriteLock) {
+            BlocklistSnapshot loaded = query(null);
+            if (loaded == null) return;
+            mSnapshot = loaded;
+            mFromCache = false;
+        }
+        scheduleSave();
+    }
+
+    private void scheduleSave() {
+        if (mSaveScheduled.compareAndSet(false, true)) {
+            mHandler.postDelayed(this::save, SAVE_DELAY_MS);
+        }
+    }
+
+    private void save() {
+        mSaveScheduled.set(false);
+        BlocklistSnapshot snapshot = mSnapshot;
+        // EMPTY itself only stands in for storage that could not be read
+        if (snapshot == mSaved || snapshot == BlocklistSnapshot.EMPTY) return;
+        mCache.write(snapshot);
+        mSaved = snapshot;
+    }
+
+    private BlocklistSnapshot load() {
+        BlocklistSnapshot snapshot = query(null);
+        if (snapshot == null) return BlocklistSnapshot.EMPTY;
+        Log.d(TAG, "Loaded " + snapshot.size() + " blocked numbers and " + snapshot.ruleCount() + " rules");
+        return snapshot;
+    }
+
+    // Builds a snapshot from every provider row matching the selection in a single pass
+    private BlocklistSnapshot query(String selection) {
+        String[] projection = {
+            BlockedNumbersProvider.COLUMN_ID,
+            BlockedNumbersProvider.COLUMN_NUMBER,
+            BlockedNumbersProvider.COLUMN_RULE_TYPE,
+            BlockedNumbersProvider.COLUMN_RANGE_END
+        };
+        Cursor cursor;
+        try {
+            cursor = mContext.getContentResolver().query(
+                BlockedNumbersProvider.CONTENT_URI, projection, selection, null, null);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to load blocklist", e);
+            return null;
+        }
+        if (cursor == null) return null;
+
+        LongHashSet numbers = new LongHashSet(cursor.getCount());
+        DigitTrie.Builder rules = new DigitTrie.Builder();
+        long[] ruleIds = new long[16];
+        int ruleCount = 0;
+        try {
+            while (cursor.moveToNext()) {
+                int type = cursor.getInt(2);
+                if (type == BlockedNumbersProvider.RULE_TYPE_EXACT) {
+                    numbers.add(PhoneNumbers.toKey(cursor.getString(1)));
+                    continue;
+                }
+
+                long id = cursor.getLong(0);
+                try {
+                    if (type == BlockedNumbersProvider.RULE_TYPE_PREFIX) {
+                        rules.addPrefix(cursor.getString(1), ruleCount);
+                    } else if (type == BlockedNumbersProvider.RULE_TYPE_RANGE) {
+                        rules.addRange(cursor.getString(1), cursor.getString(3), ruleCount);
+                    } else {
+                        continue;
+                    }
+                    if (ruleCount == ruleIds.length) ruleIds = Arrays.copyOf(ruleIds, ruleCount * 2);
+                    ruleIds[ruleCount++] = id;
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Skipping invalid block rule " + id + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return new BlocklistSnapshot(numbers, rules.build(), Arrays.copyOf(ruleIds, ruleCount));
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.spy3.blocking;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.spy3.providers.BlockedNumbersProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The one writer of the blocked numbers and rules. Each change is written to
+ * {@link BlockedNumbersProvider}, which notifies observers of
+ * {@link BlockedNumbersProvider#CONTENT_URI}, and applied to
+ * {@link BlocklistIndex}. Then the generation goes up by one and listeners
+ * are told what changed.
+ *
+ * <p>Exact numbers are stored as their digits only, the form the index keys
+ * on, so "+1 555-0100" and "15550100" are one row and unblocking either
+ * removes it.
+ *
+ * <p>A cache records the {@link #generation} it was built at and compares it
+ * with the current one before use. That is a single volatile read, and the
+ * cache is only rebuilt after a write that changed rows; an insert of a
+ * number already blocked does not count.
+ */
+public final class BlocklistRepository {
+    private static final String TAG = "BlocklistRepository";
+    // Larger changes are announced without their numbers; listeners reload instead
+    private static final int MAX_LISTED_NUMBERS = 1000;
+    private static final String EXACT_NUMBER_SELECTION = BlockedNumbersProvider.COLUMN_NUMBER + " = ? AND "
+        + BlockedNumbersProvider.COLUMN_RULE_TYPE + " = " + BlockedNumbersProvider.RULE_TYPE_EXACT;
+
+    /** What one write changed. */
+    public static final class Change {
+        public final long generation;
+        // Null when the numbers are not listed; the listener has to reload them
+        public final List<String> added;
+        public final List<String> removed;
+        public final boolean rulesChanged;
+
+        Change(long generation, List<String> added, List<String> removed, boolean rulesChanged) {
+            this.generation = generation;
+            this.added = added;
+            this.removed = removed;
+            this.rulesChanged = rulesChanged;
+        }
+    }
+
+    public interface Listener {
+        /** Called on the main thread, in generation order. */
+        void onBlocklistChanged(Change change);
+    }
+
+    private static volatile BlocklistRepository sInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    // Writes are serialized so generations are handed out in the order rows changed
+    private final Object mWriteLock = new Object();
+    private volatile long mGeneration;
+
+    private BlocklistRepository(Context context) {
+        mContext = context;
+    }
+
+    public static BlocklistRepository get(Context context) {
+        BlocklistRepository instance = sInstance;
+        if (instance == null) {
+            synchronized (BlocklistRepository.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new BlocklistRepository(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** Goes up by one with every write that changed the blocklist, starting at 0 in each process. */
+    public long generation() {
+        return mGeneration;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** Returns true when the number was not blocked yet. Numbers without a key, see {@link #isValid}, are ignored. */
+    public boolean add(String number) {
+        if (!isValid(number)) return false;
+        String digits = PhoneNumbers.digitsOf(number);
+        synchronized (mWriteLock) {
+            if (resolver().insert(BlockedNumbersProvider.CONTENT_URI, numberValues(digits)) == null) return false;
+            BlocklistIndex.get(mContext).add(digits);
+            changed(Collections.singletonList(digits), Collections.emptyList(), false);
+            return true;
+        }
+    }
+
+    /** Writes the whole list in one transaction and returns how many numbers were new. */
+    public int addAll(List<String> rawNumbers) {
+        List<String> numbers = normalized(rawNumbers);
+        ContentValues[] values = new ContentValues[numbers.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = numberValues(numbers.get(i));
+        }
+        synchronized (mWriteLock) {
+            int inserted = resolver().bulkInsert(BlockedNumbersProvider.CONTENT_URI, values);
+            if (inserted == 0) return 0;
+            BlocklistIndex.get(mContext).addAll(numbers);
+            // Numbers already blocked are listed too; applying the change twice is harmless
+            changed(listed(numbers), Collections.emptyList(), false);
+            return inserted;
+        }
+    }
+
+    /** Adds numbers that were already written to storage, known only by their keys, such as an import. */
+    public void addImported(LongHashSet keys) {
+        if (keys.size() == 0) return;
+        synchronized (mWriteLock) {
+            BlocklistIndex.get(mContext).addKeys(keys);
+            changed(null, Collections.emptyList(), false);
+        }
+    }
+
+    /** Returns true when the number was blocked. */
+    public boolean remove(String rawNumber) {
+        if (!isValid(rawNumber)) return false;
+        String number = PhoneNumbers.digitsOf(rawNumber);
+        synchronized (mWriteLock) {
+            int count = resolver().delete(BlockedNumbersProvider.CONTENT_URI, EXACT_NUMBER_SELECTION,
+                new String[] { number });
+            if (count == 0) return false;
+            BlocklistIndex.get(mContext).remove(number);
+            changed(Collections.emptyList(), Collections.singletonList(number), false);
+            return true;
+        }
+    }
+
+    /** Runs every delete in one transaction with a single change notification. */
+    public void removeAll(List<String> rawNumbers) {
+        List<String> numbers = normalized(rawNumbers);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(numbers.size());
+        for (String number : numbers) {
+            operations.add(ContentProviderOperation.newDelete(BlockedNumbersProvider.CONTENT_URI)
+                .withSelection(EXACT_NUMBER_SELECTION, new String[] { number })
+                .build());
+        }
+        synchronized (mWriteLock) {
+            ContentProviderResult[] results;
+            try {
+                results = resolver().applyBatch(BlockedNumbersProvider.AUTHORITY, operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(TAG, "Error unblocking numbers: " + e.getMessage(), e);
+                throw new IllegalStateException("Failed to unblock numbers: " + e.getMessage(), e);
+            }
+            int count = 0;
+            for (ContentProviderResult result : results) {
+                if (result.count != null) count += result.count;
+            }
+            if (count == 0) return;
+            BlocklistIndex.get(mContext).removeAll(numbers);
+            changed(Collections.emptyList(), listed(numbers), false);
+        }
+    }
+
+    /** Adds a prefix or range rule; the arguments must already be validated. Returns false for a duplicate. */
+    public boolean addRule(int ruleType, String number, String rangeEnd) {
+        ContentValues values = new ContentValues();
+        values.put(BlockedNumbersProvider.COLUMN_NUMBER, number);
+        values.put(BlockedNumbersProvider.COLUMN_RULE_TYPE, ruleType);
+        values.put(BlockedNumbersProvider.COLUMN_RANGE_END, rangeEnd);
+        values.put(BlockedNumbersProvider.COLUMN_DATE_ADDED, System.currentTimeMillis());
+        synchronized (mWriteLock) {
+            if (resolver().insert(BlockedNumbersProvider.CONTENT_URI, values) == null) return false;
+            BlocklistIndex.get(mContext).reloadRules();
+            changed(Collections.emptyList(), Collections.emptyList(), true);
+            return true;
+        }
+    }
+
+    public boolean removeRule(long id) {
+        synchronized (mWriteLock) {
+            int count = resolver().delete(
+                ContentUris.withAppendedId(BlockedNumbersProvider.CONTENT_URI, id), null, null);
+            if (count == 0) return false;
+            BlocklistIndex.get(mContext).reloadRules();
+            changed(Collections.emptyList(), Collections.emptyList(), true);
+            return true;
+        }
+    }
+
+    /** Whether the number can be blocked: it has digits and no more than {@link PhoneNumbers#MAX_DIGITS}. */
+    public static boolean isValid(String number) {
+        return PhoneNumbers.toKey(number) != PhoneNumbers.NO_KEY;
+    }
+
+    // The digits of every valid number, in order
+    private static List<String> normalized(List<String> numbers) {
+        List<String> digits = new ArrayList<>(numbers.size());
+        for (String number : numbers) {
+            if (isValid(number)) digits.add(PhoneNumbers.digitsOf(number));
+        }
+        return digits;
+    }
+
+    private ContentResolver resolver() {
+        return mContext.getContentResolver();
+    }
+
+    // Caller passes the digits only
+    private static ContentValues numberValues(String number) {
+        ContentValues values = new ContentValues();
+        values.put(BlockedNumbersProvider.COLUMN_NUMBER, number);
+        values.put(BlockedNumbersProvider.COLUMN_DATE_ADDED, System.currentTimeMillis());
+        return values;
+    }
+
+    private static List<String> listed(List<String> numbers) {
+        return numbers.size() <= MAX_LISTED_NUMBERS ? new ArrayList<>(numbers) : null;
+    }
+
+    // Caller holds mWriteLock, so listeners are posted in generation order
+    private void changed(List<String> added, List<String> removed, boolean rulesChanged) {
+        Change change = new Change(++mGeneration, added, removed, rulesChanged);
+        if (mListeners.isEmpty()) return;
+        mMainHandler.post(() -> {
+            for (Listener listener : mListeners) {
+                listener.onBlocklistChanged(change);
+            }
+        });
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.spy3.blocking;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Immutable view of the blocklist at one point in time. A snapshot is never
+ * modified after it has been published, so any number of threads can query it
+ * without synchronization.
+ */
+public final class BlocklistSnapshot {
+    public static final BlocklistSnapshot EMPTY =
+            new BlocklistSnapshot(new LongHashSet(0), DigitTrie.EMPTY, new long[0]);
+
+    private final LongHashSet numbers;
+    private final DigitTrie rules;
+    // Provider row id of each rule, indexed by the value DigitTrie.match returns
+    private final long[] ruleIds;
+
+    BlocklistSnapshot(LongHashSet numbers, DigitTrie rules, long[] ruleIds) {
+        this.numbers = numbers;
+        this.rules = rules;
+        this.ruleIds = ruleIds;
+    }
+
+    public static BlocklistSnapshot of(Iterable<String> numbers, int expectedSize) {
+        LongHashSet keys = new LongHashSet(expectedSize);
+        for (String number : numbers) {
+            keys.add(PhoneNumbers.toKey(number));
+        }
+        return new BlocklistSnapshot(keys, DigitTrie.EMPTY, new long[0]);
+    }
+
+    public boolean contains(long key) {
+        return numbers.contains(key);
+    }
+
+    public boolean isBlocked(CharSequence number) {
+        return isBlocked(PhoneNumbers.toKey(number), number);
+    }
+
+    /** Same as {@link #isBlocked(CharSequence)} for callers that already hold the number's key. */
+    public boolean isBlocked(long key, CharSequence number) {
+        return numbers.contains(key) || rules.match(number) != DigitTrie.NO_MATCH;
+    }
+
+    /** Returns the provider row id of the prefix or range rule matching the number, or -1. */
+    public long matchingRuleId(CharSequence number) {
+        int rule = rules.match(number);
+        return rule == DigitTrie.NO_MATCH ? -1 : ruleIds[rule];
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        numbers.writeTo(out);
+        out.writeInt(ruleIds.length);
+        for (long id : ruleIds) out.writeLong(id);
+        rules.writeTo(out);
+    }
+
+    static BlocklistSnapshot readFrom(ByteBuffer in) throws IOException {
+        LongHashSet numbers = LongHashSet.readFrom(in);
+        int ruleCount = in.getInt();
+        if (ruleCount < 0 || in.remaining() < ruleCount * 8L) throw new IOException("Corrupt rule ids");
+        long[] ruleIds = new long[ruleCount];
+        in.asLongBuffer().get(ruleIds);
+        in.position(in.position() + ruleCount * 8);
+        return new BlocklistSnapshot(numbers, DigitTrie.readFrom(in, ruleCount), ruleIds);
+    }
+
+    public int size() {
+        return numbers.size();
+    }
+
+    public int ruleCount() {
+        return ruleIds.length;
+    }
+
+    /** Returns a copy of this snapshot that uses the prefix and range rules of {@code other}. */
+    public BlocklistSnapshot withRulesOf(BlocklistSnapshot other) {
+        return new BlocklistSnapshot(numbers, other.rules, other.ruleIds);
+    }
+
+    /** Returns a copy of this snapshot with the given number added. */
+    public BlocklistSnapshot withNumber(String number) {
+        long key = PhoneNumbers.toKey(number);
+        if (key == PhoneNumbers.NO_KEY || numbers.contains(key)) return this;
+        LongHashSet copy = new LongHashSet(numbers);
+        copy.add(key);
+        return new BlocklistSnapshot(copy, rules, ruleIds);
+    }
+
+    /** Returns a copy of this snapshot with all of the given numbers added, copying the set once. */
+    public BlocklistSnapshot withNumbers(Iterable<String> added) {
+        LongHashSet copy = new LongHashSet(numbers);
+        for (String number : added) {
+            copy.add(PhoneNumbers.toKey(number));
+        }
+        return new BlocklistSnapshot(copy, rules, ruleIds);
+    }
+
+    /** Returns a copy of this snapshot with every key of {@code added}, copying the set once. */
+    public BlocklistSnapshot withKeys(LongHashSet added) {
+        LongHashSet copy = new LongHashSet(numbers);
+        copy.addAll(added);
+        return new BlocklistSnapshot(copy, rules, ruleIds);
+    }
+
+    /** Returns a copy of this snapshot with all of the given numbers removed, copying the set once. */
+    public BlocklistSnapshot withoutNumbers(Iterable<String> removed) {
+        LongHashSet copy = new LongHashSet(numbers);
+        for (String number : removed) {
+            copy.remove(PhoneNumbers.toKey(number));
+        }
+        return new BlocklistSnapshot(copy, rules, ruleIds);
+    }
+
+    /** Returns a copy of this snapshot with the given number removed. */
+    public BlocklistSnapshot withoutNumber(String number) {
+        long key = PhoneNumbers.toKey(number);
+        if (!numbers.contains(key)) return this;
+        LongHashSet copy = new LongHashSet(numbers);
+        copy.remove(key);
+        return new BlocklistSnapshot(copy, rules, ruleIds);
+    }
+}
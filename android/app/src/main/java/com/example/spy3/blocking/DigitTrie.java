@@ -0,0 +1,256 @@
+package com.example.spy3.blocking;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact, immutable trie over decimal digits used for prefix and range rules.
+ * Each node owns ten child slots in one flat int array, so a lookup walks at most
+ * one node per digit of the number being checked.
+ *
+ * <p>A prefix rule matches any number that starts with the prefix. A range rule
+ * [start, end] only matches numbers with the same digit count as its bounds; it is
+ * decomposed into the smallest set of prefixes that exactly covers the range.
+ * Ranges of different lengths can share a node, so a node keeps one range rule
+ * per length it matches.
+ */
+public final class DigitTrie {
+    public static final int NO_MATCH = -1;
+    public static final DigitTrie EMPTY = new Builder().build();
+
+    private static final int ANY_LENGTH = -1;
+    // Bits 1 to MAX_DIGITS, the lengths a range can have
+    private static final int VALID_LENGTHS = ((1 << (PhoneNumbers.MAX_DIGITS + 1)) - 1) & ~1;
+
+    // children[node * 10 + digit] is the child node, or 0 when absent (the root is never a child)
+    private final int[] children;
+    // Rule index matched by a number of any length that reaches this node, or NO_MATCH
+    private final int[] prefixRule;
+    // Bit n set when a number of exactly n digits that reaches this node matches a range rule
+    private final int[] rangeLengths;
+    // A node's range rules start at rangeStart[node], one per bit of rangeLengths[node] in length order
+    private final int[] rangeStart;
+    private final int[] rangeRules;
+
+    private DigitTrie(int[] children, int[] prefixRule, int[] rangeLengths, int[] rangeRules) {
+        this.children = children;
+        this.prefixRule = prefixRule;
+        this.rangeLengths = rangeLengths;
+        this.rangeRules = rangeRules;
+        this.rangeStart = new int[rangeLengths.length];
+        int start = 0;
+        for (int i = 0; i < rangeLengths.length; i++) {
+            rangeStart[i] = start;
+            start += Integer.bitCount(rangeLengths[i]);
+        }
+    }
+
+    public int nodeCount() {
+        return prefixRule.length;
+    }
+
+    public boolean isEmpty() {
+        return children.length == 10 && prefixRule[0] == NO_MATCH && rangeLengths[0] == 0;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        int nodes = prefixRule.length;
+        out.writeInt(nodes);
+        for (int child : children) out.writeInt(child);
+        for (int i = 0; i < nodes; i++) {
+            out.writeInt(prefixRule[i]);
+            out.writeInt(rangeLengths[i]);
+        }
+        out.writeInt(rangeRules.length);
+        for (int rule : rangeRules) out.writeInt(rule);
+    }
+
+    static DigitTrie readFrom(ByteBuffer in, int ruleCount) throws IOException {
+        int nodes = in.getInt();
+        if (nodes < 1 || in.remaining() < nodes * 12L * 4 + 4) throw new IOException("Corrupt rule trie");
+        int[] children = new int[nodes * 10];
+        in.asIntBuffer().get(children);
+        in.position(in.position() + children.length * 4);
+        for (int child : children) {
+            // A child outside the trie would send match() past the arrays
+            if (child < 0 || child >= nodes) throw new IOException("Corrupt rule trie");
+        }
+        int[] prefixRule = new int[nodes];
+        int[] rangeLengths = new int[nodes];
+        long rangeCount = 0;
+        for (int i = 0; i < nodes; i++) {
+            prefixRule[i] = in.getInt();
+            rangeLengths[i] = in.getInt();
+            if (prefixRule[i] < NO_MATCH || prefixRule[i] >= ruleCount
+                || (rangeLengths[i] & ~VALID_LENGTHS) != 0) {
+                throw new IOException("Corrupt rule trie");
+            }
+            rangeCount += Integer.bitCount(rangeLengths[i]);
+        }
+        // One rule per length bit, so match() never reads past the rule array
+        if (in.getInt() != rangeCount || in.remaining() < rangeCount * 4) throw new IOException("Corrupt rule trie");
+        int[] rangeRules = new int[(int) rangeCount];
+        for (int i = 0; i < rangeRules.length; i++) {
+            rangeRules[i] = in.getInt();
+            if (rangeRules[i] < 0 || rangeRules[i] >= ruleCount) throw new IOException("Corrupt rule trie");
+        }
+        return new DigitTrie(children, prefixRule, rangeLengths, rangeRules);
+    }
+
+    /** Returns the index of the first rule matching the number, or {@link #NO_MATCH}. */
+    public int match(CharSequence number) {
+        if (number == null) return NO_MATCH;
+        int length = 0;
+        for (int i = 0, n = number.length(); i < n; i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') length++;
+        }
+        if (length == 0 || length > PhoneNumbers.MAX_DIGITS) return NO_MATCH;
+
+        int lengthBit = 1 << length;
+        // A range covering every number of one length ends at the root
+        if ((rangeLengths[0] & lengthBit) != 0) return rangeRule(0, lengthBit);
+        int node = 0;
+        for (int i = 0, n = number.length(); i < n; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') continue;
+            node = children[node * 10 + (c - '0')];
+            if (node == 0) return NO_MATCH;
+            if (prefixRule[node] != NO_MATCH) return prefixRule[node];
+            if ((rangeLengths[node] & lengthBit) != 0) return rangeRule(node, lengthBit);
+        }
+        return NO_MATCH;
+    }
+
+    private int rangeRule(int node, int lengthBit) {
+        return rangeRules[rangeStart[node] + Integer.bitCount(rangeLengths[node] & (lengthBit - 1))];
+    }
+
+    public static final class Builder {
+        private int[] children = new int[10 * 16];
+        private int[] prefixRule = new int[16];
+        private int[] rangeLengths = new int[16];
+        // Per node, the range rule of each length, indexed by length; null until a range ends there
+        private int[][] rangeRules = new int[16][];
+        private int nodeCount;
+
+        public Builder() {
+            newNode();
+        }
+
+        /** Adds a rule matching every number that starts with the digits of {@code prefix}. */
+        public Builder addPrefix(CharSequence prefix, int rule) {
+            String digits = PhoneNumbers.digitsOf(prefix);
+            if (digits.isEmpty()) {
+                throw new IllegalArgumentException("Prefix has no digits: " + prefix);
+            }
+            insert(digits, digits.length(), ANY_LENGTH, rule);
+            return this;
+        }
+
+        /**
+         * Adds a rule matching every number between {@code start} and {@code end}
+         * inclusive. Both bounds must have the same number of digits.
+         */
+        public Builder addRange(CharSequence start, CharSequence end, int rule) {
+            String lo = PhoneNumbers.digitsOf(start);
+            String hi = PhoneNumbers.digitsOf(end);
+            if (lo.isEmpty() || lo.length() != hi.length() || lo.length() > PhoneNumbers.MAX_DIGITS) {
+                throw new IllegalArgumentException("Range bounds must have the same digit count: "
+                        + start + " - " + end);
+            }
+            if (lo.compareTo(hi) > 0) {
+                throw new IllegalArgumentException("Range start is after range end: " + start + " - " + end);
+            }
+            addRange(lo, hi, lo.length(), rule);
+            return this;
+        }
+
+        public DigitTrie build() {
+            int rangeCount = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                rangeCount += Integer.bitCount(rangeLengths[i]);
+            }
+            int[] flat = new int[rangeCount];
+            int n = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                for (int length = 1; length <= PhoneNumbers.MAX_DIGITS; length++) {
+                    if ((rangeLengths[i] & (1 << length)) != 0) flat[n++] = rangeRules[i][length];
+                }
+            }
+            return new DigitTrie(
+                    Arrays.copyOf(children, nodeCount * 10),
+                    Arrays.copyOf(prefixRule, nodeCount),
+                    Arrays.copyOf(rangeLengths, nodeCount),
+                    flat);
+        }
+
+        // Splits [lo, hi] into prefixes; lo and hi always have the same length.
+        private void addRange(String lo, String hi, int length, int rule) {
+            int common = 0;
+            while (common < lo.length() && lo.charAt(common) == hi.charAt(common)) common++;
+            if (common == lo.length() || (allOf(lo, common, '0') && allOf(hi, common, '9'))) {
+                insert(lo, common, length, rule);
+                return;
+            }
+
+            String prefix = lo.substring(0, common);
+            char low = lo.charAt(common);
+            char high = hi.charAt(common);
+            int tail = lo.length() - common - 1;
+
+            addRange(lo, prefix + low + repeat('9', tail), length, rule);
+            for (char d = (char) (low + 1); d < high; d++) {
+                insert(prefix + d, common + 1, length, rule);
+            }
+            addRange(prefix + high + repeat('0', tail), hi, length, rule);
+        }
+
+        private void insert(String digits, int count, int length, int rule) {
+            int node = 0;
+            for (int i = 0; i < count; i++) {
+                int slot = node * 10 + (digits.charAt(i) - '0');
+                int child = children[slot];
+                if (child == 0) {
+                    child = newNode();
+                    children[slot] = child;
+                }
+                node = child;
+            }
+            if (length == ANY_LENGTH) {
+                if (prefixRule[node] == NO_MATCH) prefixRule[node] = rule;
+            } else if ((rangeLengths[node] & (1 << length)) == 0) {
+                if (rangeRules[node] == null) rangeRules[node] = new int[PhoneNumbers.MAX_DIGITS + 1];
+                rangeRules[node][length] = rule;
+                rangeLengths[node] |= 1 << length;
+            }
+        }
+
+        private int newNode() {
+            if (nodeCount == prefixRule.length) {
+                int capacity = nodeCount * 2;
+                children = Arrays.copyOf(children, capacity * 10);
+                prefixRule = Arrays.copyOf(prefixRule, capacity);
+                rangeLengths = Arrays.copyOf(rangeLengths, capacity);
+                rangeRules = Arrays.copyOf(rangeRules, capacity);
+            }
+            prefixRule[nodeCount] = NO_MATCH;
+            return nodeCount++;
+        }
+
+        private static boolean allOf(String s, int from, char c) {
+            for (int i = from; i < s.length(); i++) {
+                if (s.charAt(i) != c) return false;
+            }
+            return true;
+        }
+
+        private static String repeat(char c, int count) {
+            char[] chars = new char[count];
+            Arrays.fill(chars, c);
+            return new String(chars);
+        }
+    }
+}
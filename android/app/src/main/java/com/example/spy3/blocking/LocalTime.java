@@ -0,0 +1,53 @@
+package com.example.spy3.blocking;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The device's time zone for the ring path. {@link TimeZone#getDefault()}
+ * clones the zone on every call, so it is read once and again only when the
+ * system broadcasts {@link Intent#ACTION_TIMEZONE_CHANGED}. Call
+ * {@link #watch} once per process before relying on the cached zone.
+ */
+public final class LocalTime {
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final AtomicBoolean sWatching = new AtomicBoolean();
+    private static volatile TimeZone sZone = TimeZone.getDefault();
+
+    private LocalTime() {
+    }
+
+    /** Registers for time zone changes; later calls do nothing. */
+    public static void watch(Context context) {
+        if (!sWatching.compareAndSet(false, true)) return;
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                // The platform has already updated the default by the time this arrives
+                sZone = TimeZone.getDefault();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+    }
+
+    /** Minutes since local midnight. */
+    public static int minuteOfDay(long timestamp) {
+        return (int) (Math.floorMod(local(timestamp), DAY_MS) / MINUTE_MS);
+    }
+
+    /** Days since the epoch in the local time zone. */
+    public static long day(long timestamp) {
+        return Math.floorDiv(local(timestamp), DAY_MS);
+    }
+
+    private static long local(long timestamp) {
+        return timestamp + sZone.getOffset(timestamp);
+    }
+}
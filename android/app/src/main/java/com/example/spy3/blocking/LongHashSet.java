@@ -0,0 +1,153 @@
+package com.example.spy3.blocking;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive longs with linear probing.
+ * Zero is reserved as the empty-slot marker, which is why {@link PhoneNumbers#NO_KEY}
+ * is zero and never stored. Not thread-safe; snapshots treat it as read-only once built.
+ */
+public final class LongHashSet {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] slots;
+    private int mask;
+    private int size;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        slots = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public LongHashSet(LongHashSet other) {
+        slots = Arrays.copyOf(other.slots, other.slots.length);
+        mask = other.mask;
+        size = other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) return false;
+        long[] table = slots;
+        int m = mask;
+        for (int i = mix(key) & m; ; i = (i + 1) & m) {
+            long slot = table[i];
+            if (slot == key) return true;
+            if (slot == 0) return false;
+        }
+    }
+
+    public boolean add(long key) {
+        if (key == 0) return false;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long slot = slots[i];
+            if (slot == key) return false;
+            if (slot == 0) {
+                slots[i] = key;
+                if (++size > slots.length * LOAD_FACTOR) grow();
+                return true;
+            }
+        }
+    }
+
+    public boolean remove(long key) {
+        if (key == 0) return false;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long slot = slots[i];
+            if (slot == 0) return false;
+            if (slot == key) {
+                deleteAt(i);
+                size--;
+                return true;
+            }
+        }
+    }
+
+    /** Adds every key of {@code other}, walking its table directly instead of copying it out. */
+    public void addAll(LongHashSet other) {
+        for (long key : other.slots) {
+            if (key != 0) add(key);
+        }
+    }
+
+    /** Copies the stored keys into a new array, in no particular order. */
+    public long[] toArray() {
+        long[] keys = new long[size];
+        int n = 0;
+        for (long slot : slots) {
+            if (slot != 0) keys[n++] = slot;
+        }
+        return keys;
+    }
+
+    // The table is written as is, so reading it back needs no rehashing
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(slots.length);
+        for (long slot : slots) out.writeLong(slot);
+    }
+
+    public static LongHashSet readFrom(ByteBuffer in) throws IOException {
+        int size = in.getInt();
+        int capacity = in.getInt();
+        if (capacity < 4 || Integer.bitCount(capacity) != 1 || size < 0 || size >= capacity
+            || size > capacity * LOAD_FACTOR || in.remaining() < capacity * 8L) {
+            throw new IOException("Corrupt key table");
+        }
+        LongHashSet set = new LongHashSet(0);
+        set.slots = new long[capacity];
+        set.mask = capacity - 1;
+        set.size = size;
+        in.asLongBuffer().get(set.slots);
+        in.position(in.position() + capacity * 8);
+        // Probes stop at an empty slot; a table without one would loop forever on a miss
+        if (!set.hasEmptySlot()) throw new IOException("Corrupt key table");
+        return set;
+    }
+
+    // At most half the slots are used, so this usually stops within the first few
+    private boolean hasEmptySlot() {
+        for (long slot : slots) {
+            if (slot == 0) return true;
+        }
+        return false;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones.
+    private void deleteAt(int hole) {
+        for (int i = (hole + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int home = mix(slots[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length << 1];
+        mask = slots.length - 1;
+        for (long key : old) {
+            if (key == 0) continue;
+            int i = mix(key) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = key;
+        }
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
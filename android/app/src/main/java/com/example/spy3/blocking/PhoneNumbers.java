@@ -0,0 +1,48 @@
+package com.example.spy3.blocking;
+
+/**
+ * Turns phone numbers into the primitive keys used by the blocklist index.
+ * Formatting characters (spaces, dashes, brackets, a leading '+') are ignored,
+ * so "+1 (555) 123-4567" and "15551234567" map to the same key.
+ */
+public final class PhoneNumbers {
+    public static final long NO_KEY = 0L;
+    public static final int MAX_DIGITS = 16;
+
+    // The digit count sits above this bit; the value of the digits below it
+    public static final int LENGTH_SHIFT = 56;
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Returns the key for the given number, or {@link #NO_KEY} when the number is
+     * null, has no digits, or is longer than {@link #MAX_DIGITS}. The digit count is
+     * packed into the top byte so that "0123" and "123" stay distinct.
+     */
+    public static long toKey(CharSequence number) {
+        if (number == null) return NO_KEY;
+        long value = 0;
+        int length = 0;
+        for (int i = 0, n = number.length(); i < n; i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++length > MAX_DIGITS) return NO_KEY;
+                value = value * 10 + (c - '0');
+            }
+        }
+        if (length == 0) return NO_KEY;
+        return ((long) length << LENGTH_SHIFT) | value;
+    }
+
+    /** Returns only the digits of the given number, or an empty string for null. */
+    public static String digitsOf(CharSequence number) {
+        if (number == null) return "";
+        StringBuilder digits = new StringBuilder(number.length());
+        for (int i = 0, n = number.length(); i < n; i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') digits.append(c);
+        }
+        return digits.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.spy3.blocking;
+
+/**
+ * What to do with one call or SMS. Decisions are created when a
+ * {@link ScreeningPolicy} is compiled and shared by every event that matches the
+ * same rule, so returning one never allocates.
+ */
+public final class ScreeningDecision {
+    public static final int ACTION_ALLOW = 0;
+    public static final int ACTION_REJECT = 1;
+    public static final int ACTION_SILENCE = 2;
+
+    public static final ScreeningDecision ALLOW = new ScreeningDecision(-1, ACTION_ALLOW, false, false);
+    // Exact numbers, prefixes and ranges keep the response they have always had
+    public static final ScreeningDecision BLOCKLISTED = new ScreeningDecision(-1, ACTION_REJECT, false, false);
+
+    /** Row id of the screening rule that produced this decision, or -1. */
+    public final long ruleId;
+    public final int action;
+    public final boolean skipCallLog;
+    public final boolean skipNotification;
+
+    public ScreeningDecision(long ruleId, int action, boolean skipCallLog, boolean skipNotification) {
+        this.ruleId = ruleId;
+        this.action = action;
+        this.skipCallLog = skipCallLog;
+        this.skipNotification = skipNotification;
+    }
+
+    /** True for reject and silence alike; an SMS has no way to be silenced, so it is dropped. */
+    public boolean blocks() {
+        return action != ACTION_ALLOW;
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.spy3.blocking;
+
+import java.util.Arrays;
+
+/**
+ * Screening rules compiled for evaluation on the ring path. Calls and SMS each get
+ * their own table: an allow-list of number keys, a decision for withheld numbers,
+ * a {@link DigitTrie} of country calling codes, quiet-hour windows and a decision
+ * for numbers not in contacts. {@link #decide} only reads these arrays and returns
+ * one of the prebuilt {@link ScreeningDecision}s, so it allocates nothing.
+ *
+ * <p>An allow-listed number always gets through. Otherwise the blocklist wins,
+ * then withheld, country, not-in-contacts and quiet hours, in that order.
+ */
+public final class ScreeningPolicy {
+    public static final int TARGET_CALLS = 1;
+    public static final int TARGET_SMS = 2;
+
+    public static final ScreeningPolicy EMPTY = new Builder().build();
+
+    /** Contact membership as seen by the policy; implemented by the contact index. */
+    public interface Contacts {
+        /** Returns false only when no contact can have the number with this key. */
+        boolean mayBeContact(long key);
+    }
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final class Table {
+        final LongHashSet allowed;
+        final ScreeningDecision withheld;
+        final DigitTrie countries;
+        final ScreeningDecision[] countryDecisions;
+        final int[] quietStarts;
+        final int[] quietEnds;
+        final ScreeningDecision[] quietDecisions;
+        final ScreeningDecision unknown;
+
+        Table(TableBuilder builder) {
+            allowed = builder.allowed;
+            withheld = builder.withheld;
+            countries = builder.countries.build();
+            countryDecisions = Arrays.copyOf(builder.countryDecisions, builder.countryCount);
+            quietStarts = Arrays.copyOf(builder.quietStarts, builder.quietCount);
+            quietEnds = Arrays.copyOf(builder.quietEnds, builder.quietCount);
+            quietDecisions = Arrays.copyOf(builder.quietDecisions, builder.quietCount);
+            unknown = builder.unknown;
+        }
+    }
+
+    private final Table mCalls;
+    private final Table mSms;
+    private final int mRuleCount;
+
+    private ScreeningPolicy(Table calls, Table sms, int ruleCount) {
+        mCalls = calls;
+        mSms = sms;
+        mRuleCount = ruleCount;
+    }
+
+    public int ruleCount() {
+        return mRuleCount;
+    }
+
+    /** True when some rule depends on the time of day, so callers only compute it when needed. */
+    public boolean usesTime() {
+        return mCalls.quietStarts.length > 0 || mSms.quietStarts.length > 0;
+    }
+
+    /** True when some rule needs to know whether a number belongs to a contact. */
+    public boolean usesContacts() {
+        return mCalls.unknown != null || mSms.unknown != null;
+    }
+
+    /**
+     * Decides what to do with an event.
+     *
+     * @param key the number's key from {@link PhoneNumbers#toKey}
+     * @param number the number as delivered, or null when it was withheld
+     * @param blocklisted whether the exact-number, prefix and range blocklist matched
+     * @param minuteOfDay local minutes since midnight; ignored unless {@link #usesTime()}
+     */
+    public ScreeningDecision decide(boolean isSms, long key, CharSequence number, boolean blocklisted,
+                                    int minuteOfDay, Contacts contacts) {
+        Table table = isSms ? mSms : mCalls;
+        if (table.allowed.contains(key)) return ScreeningDecision.ALLOW;
+        if (blocklisted) return ScreeningDecision.BLOCKLISTED;
+
+        if (number == null || number.length() == 0) {
+            if (table.withheld != null) return table.withheld;
+        } else if (key != PhoneNumbers.NO_KEY) {
+            // Only numbers in international form say which country they are from
+            if (table.countryDecisions.length > 0 && isInternational(number)) {
+                int rule = table.countries.match(number);
+                if (rule != DigitTrie.NO_MATCH) return table.countryDecisions[rule];
+            }
+            // Alphanumeric senders have no key and can never be a contact, so they skip this
+            if (table.unknown != null && !contacts.mayBeContact(key)) return table.unknown;
+        }
+
+        int[] starts = table.quietStarts;
+        for (int i = 0; i < starts.length; i++) {
+            if (inWindow(minuteOfDay, starts[i], table.quietEnds[i])) return table.quietDecisions[i];
+        }
+        return ScreeningDecision.ALLOW;
+    }
+
+    private static boolean isInternational(CharSequence number) {
+        char first = number.charAt(0);
+        return first == '+' || (first == '0' && number.length() > 1 && number.charAt(1) == '0');
+    }
+
+    // [start, end) in minutes; a window whose end is before its start runs past midnight
+    private static boolean inWindow(int minute, int start, int end) {
+        if (start <= end) return minute >= start && minute < end;
+        return minute >= start || minute < end;
+    }
+
+    private static final class TableBuilder {
+        final LongHashSet allowed = new LongHashSet(16);
+        ScreeningDecision withheld;
+        final DigitTrie.Builder countries = new DigitTrie.Builder();
+        ScreeningDecision[] countryDecisions = new ScreeningDecision[4];
+        int countryCount;
+        int[] quietStarts = new int[2];
+        int[] quietEnds = new int[2];
+        ScreeningDecision[] quietDecisions = new ScreeningDecision[2];
+        int quietCount;
+        ScreeningDecision unknown;
+
+        void addCountry(String digits, ScreeningDecision decision) {
+            if (countryCount == countryDecisions.length) {
+                countryDecisions = Arrays.copyOf(countryDecisions, countryCount * 2);
+            }
+            // "+44..." and "0044..." both reach the trie, so both forms are compiled
+            countries.addPrefix(digits, countryCount);
+            countries.addPrefix("00" + digits, countryCount);
+            countryDecisions[countryCount++] = decision;
+        }
+
+        void addQuietHours(int start, int end, ScreeningDecision decision) {
+            if (quietCount == quietStarts.length) {
+                quietStarts = Arrays.copyOf(quietStarts, quietCount * 2);
+                quietEnds = Arrays.copyOf(quietEnds, quietCount * 2);
+                quietDecisions = Arrays.copyOf(quietDecisions, quietCount * 2);
+            }
+            quietStarts[quietCount] = start;
+            quietEnds[quietCount] = end;
+            quietDecisions[quietCount++] = decision;
+        }
+    }
+
+    /**
+     * Collects rules and compiles them. For withheld and not-in-contacts the first
+     * rule added for a target wins; country and quiet-hour rules are checked in the
+     * order they were added.
+     */
+    public static final class Builder {
+        private final TableBuilder mCalls = new TableBuilder();
+        private final TableBuilder mSms = new TableBuilder();
+        private int mRuleCount;
+
+        public Builder allow(int targets, String number) {
+            long key = PhoneNumbers.toKey(number);
+            if (key == PhoneNumbers.NO_KEY) {
+                throw new IllegalArgumentException("Allowed number has no digits: " + number);
+            }
+            if ((targets & TARGET_CALLS) != 0) mCalls.allowed.add(key);
+            if ((targets & TARGET_SMS) != 0) mSms.allowed.add(key);
+            mRuleCount++;
+            return this;
+        }
+
+        public Builder withheld(int targets, ScreeningDecision decision) {
+            if ((targets & TARGET_CALLS) != 0 && mCalls.withheld == null) mCalls.withheld = decision;
+            if ((targets & TARGET_SMS) != 0 && mSms.withheld == null) mSms.withheld = decision;
+            mRuleCount++;
+            return this;
+        }
+
+        /** Adds a rule for numbers whose international form starts with the calling code. */
+        public Builder country(int targets, String callingCode, ScreeningDecision decision) {
+            String digits = PhoneNumbers.digitsOf(callingCode);
+            if (digits.isEmpty() || digits.length() > 3) {
+                throw new IllegalArgumentException("Not a country calling code: " + callingCode);
+            }
+            if ((targets & TARGET_CALLS) != 0) mCalls.addCountry(digits, decision);
+            if ((targets & TARGET_SMS) != 0) mSms.addCountry(digits, decision);
+            mRuleCount++;
+            return this;
+        }
+
+        /** Adds a window from {@code startMinute} up to, not including, {@code endMinute}. */
+        public Builder quietHours(int targets, int startMinute, int endMinute, ScreeningDecision decision) {
+            if (startMinute < 0 || startMinute >= MINUTES_PER_DAY || endMinute < 0
+                    || endMinute >= MINUTES_PER_DAY || startMinute == endMinute) {
+                throw new IllegalArgumentException("Invalid quiet hours: " + startMinute + "-" + endMinute);
+            }
+            if ((targets & TARGET_CALLS) != 0) mCalls.addQuietHours(startMinute, endMinute, decision);
+            if ((targets & TARGET_SMS) != 0) mSms.addQuietHours(startMinute, endMinute, decision);
+            mRuleCount++;
+            return this;
+        }
+
+        public Builder notInContacts(int targets, ScreeningDecision decision) {
+            if ((targets & TARGET_CALLS) != 0 && mCalls.unknown == null) mCalls.unknown = decision;
+            if ((targets & TARGET_SMS) != 0 && mSms.unknown == null) mSms.unknown = decision;
+            mRuleCount++;
+            return this;
+        }
+
+        public ScreeningPolicy build() {
+            return new ScreeningPolicy(new Table(mCalls), new Table(mSms), mRuleCount);
+        }
+    }
+}
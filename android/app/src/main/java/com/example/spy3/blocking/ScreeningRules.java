@@ -0,0 +1,285 @@
+package com.example.spy3.blocking;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.spy3.data.ContactIndex;
+import com.example.spy3.providers.BlockedNumbersProvider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide screening policy used by the call screening service and both
+ * receivers. Rules live in {@link BlockedNumbersProvider#SCREENING_RULES_URI}
+ * and are compiled into a {@link ScreeningPolicy} once per process and again
+ * after every change, then published through a volatile field like the
+ * {@link BlocklistIndex} snapshot. Numbers on the {@link SpamList} count as
+ * blocklisted.
+ *
+ * <p>The enabled rules are also saved to a small file whenever they are
+ * reloaded, so a process started by a call compiles them without opening the
+ * database. As with the blocklist, storage is read again once the call is over.
+ */
+public final class ScreeningRules {
+    private static final String TAG = "ScreeningRules";
+    private static final String CACHE_FILE_NAME = "screening_rules.cache";
+    private static final int CACHE_FORMAT_VERSION = 1;
+    private static final long VERIFY_DELAY_MS = 5000;
+
+    private static final String[] PROJECTION = {
+        BlockedNumbersProvider.COLUMN_ID,
+        BlockedNumbersProvider.COLUMN_KIND,
+        BlockedNumbersProvider.COLUMN_ARGUMENT,
+        BlockedNumbersProvider.COLUMN_START_MINUTE,
+        BlockedNumbersProvider.COLUMN_END_MINUTE,
+        BlockedNumbersProvider.COLUMN_TARGETS,
+        BlockedNumbersProvider.COLUMN_RESPONSE,
+        BlockedNumbersProvider.COLUMN_SKIP_CALL_LOG,
+        BlockedNumbersProvider.COLUMN_SKIP_NOTIFICATION
+    };
+
+    // One enabled rule as stored, before compilation
+    private static final class Row {
+        final long id;
+        final int kind;
+        final String argument;
+        final int startMinute;
+        final int endMinute;
+        final int targets;
+        final int response;
+        final boolean skipCallLog;
+        final boolean skipNotification;
+
+        Row(long id, int kind, String argument, int startMinute, int endMinute, int targets, int response,
+            boolean skipCallLog, boolean skipNotification) {
+            this.id = id;
+            this.kind = kind;
+            this.argument = argument;
+            this.startMinute = startMinute;
+            this.endMinute = endMinute;
+            this.targets = targets;
+            this.response = response;
+            this.skipCallLog = skipCallLog;
+            this.skipNotification = skipNotification;
+        }
+    }
+
+    private static volatile ScreeningRules sInstance;
+
+    private final Context mContext;
+    private final Object mWriteLock = new Object();
+    private final AtomicFile mCache;
+    private volatile ScreeningPolicy mPolicy;
+
+    private ScreeningRules(Context context) {
+        mContext = context;
+        LocalTime.watch(context);
+        mCache = new AtomicFile(new File(context.getFilesDir(), CACHE_FILE_NAME));
+        List<Row> cached = readCache();
+        if (cached != null) {
+            mPolicy = compile(cached);
+            HandlerThread thread = new HandlerThread("spy3-rules");
+            thread.start();
+            // Quits once storage has been read; later changes reload through reload()
+            new Handler(thread.getLooper()).postDelayed(() -> {
+                verify();
+                thread.quitSafely();
+            }, VERIFY_DELAY_MS);
+        } else {
+            mPolicy = load();
+        }
+        // So the first call with an unknown-caller rule finds the contacts loaded
+        if (mPolicy.usesContacts()) ContactIndex.get(context).warmUp();
+    }
+
+    public static ScreeningRules get(Context context) {
+        ScreeningRules instance = sInstance;
+        if (instance == null) {
+            synchronized (ScreeningRules.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new ScreeningRules(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    public ScreeningDecision decide(boolean isSms, String phoneNumber, long now) {
+        return decide(isSms, PhoneNumbers.toKey(phoneNumber), phoneNumber, now);
+    }
+
+    /** Combines the blocklist with the screening rules; pass a null number when it was withheld. */
+    public ScreeningDecision decide(boolean isSms, long key, String phoneNumber, long now) {
+        ScreeningPolicy policy = mPolicy;
+        // The user's own list first; the spam list only ever adds blocks
+        boolean blocklisted = BlocklistIndex.get(mContext).isBlocked(key, phoneNumber)
+            || SpamList.get(mContext).contains(key);
+        int minuteOfDay = policy.usesTime() ? LocalTime.minuteOfDay(now) : 0;
+        return policy.decide(isSms, key, phoneNumber, blocklisted, minuteOfDay, ContactIndex.get(mContext));
+    }
+
+    public ScreeningPolicy policy() {
+        return mPolicy;
+    }
+
+    /** Recompiles the policy from storage and swaps it in. */
+    public void reload() {
+        synchronized (mWriteLock) {
+            mPolicy = load();
+        }
+        if (mPolicy.usesContacts()) ContactIndex.get(mContext).warmUp();
+    }
+
+    private void verify() {
+        synchronized (mWriteLock) {
+            List<Row> rows = query();
+            if (rows != null) mPolicy = compile(rows);
+        }
+    }
+
+    /** Throws {@link IllegalArgumentException} when the rule could not be compiled. */
+    public static void validate(int kind, int targets, String argument, int startMinute, int endMinute) {
+        if ((targets & (ScreeningPolicy.TARGET_CALLS | ScreeningPolicy.TARGET_SMS)) == 0) {
+            throw new IllegalArgumentException("Rule applies to neither calls nor SMS");
+        }
+        compile(new ScreeningPolicy.Builder(), kind, targets, argument, startMinute, endMinute,
+            ScreeningDecision.BLOCKLISTED);
+    }
+
+    private static void compile(ScreeningPolicy.Builder builder, int kind, int targets, String argument,
+                                int startMinute, int endMinute, ScreeningDecision decision) {
+        switch (kind) {
+            case BlockedNumbersProvider.KIND_WITHHELD:
+                builder.withheld(targets, decision);
+                break;
+            case BlockedNumbersProvider.KIND_NOT_IN_CONTACTS:
+                builder.notInContacts(targets, decision);
+                break;
+            case BlockedNumbersProvider.KIND_QUIET_HOURS:
+                builder.quietHours(targets, startMinute, endMinute, decision);
+                break;
+            case BlockedNumbersProvider.KIND_COUNTRY:
+                builder.country(targets, argument, decision);
+                break;
+            case BlockedNumbersProvider.KIND_ALLOW_NUMBER:
+                builder.allow(targets, argument);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown rule kind " + kind);
+        }
+    }
+
+    private ScreeningPolicy load() {
+        List<Row> rows = query();
+        if (rows == null) return ScreeningPolicy.EMPTY;
+        return compile(rows);
+    }
+
+    // Reads the enabled rules and refreshes the cache; null when storage cannot be read
+    private List<Row> query() {
+        Cursor cursor;
+        try {
+            cursor = mContext.getContentResolver().query(BlockedNumbersProvider.SCREENING_RULES_URI,
+                PROJECTION, BlockedNumbersProvider.COLUMN_ENABLED + " != 0", null,
+                BlockedNumbersProvider.COLUMN_ID);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to load screening rules", e);
+            return null;
+        }
+        if (cursor == null) return null;
+
+        List<Row> rows = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(new Row(cursor.getLong(0), cursor.getInt(1), cursor.getString(2), cursor.getInt(3),
+                    cursor.getInt(4), cursor.getInt(5), cursor.getInt(6), cursor.getInt(7) != 0,
+                    cursor.getInt(8) != 0));
+            }
+        } finally {
+            cursor.close();
+        }
+        writeCache(rows);
+        return rows;
+    }
+
+    private static ScreeningPolicy compile(List<Row> rows) {
+        ScreeningPolicy.Builder builder = new ScreeningPolicy.Builder();
+        for (Row row : rows) {
+            ScreeningDecision decision = new ScreeningDecision(row.id,
+                row.response == BlockedNumbersProvider.RESPONSE_SILENCE
+                    ? ScreeningDecision.ACTION_SILENCE : ScreeningDecision.ACTION_REJECT,
+                row.skipCallLog, row.skipNotification);
+            try {
+                compile(builder, row.kind, row.targets, row.argument, row.startMinute, row.endMinute, decision);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Skipping invalid screening rule " + row.id + ": " + e.getMessage());
+            }
+        }
+        ScreeningPolicy policy = builder.build();
+        Log.d(TAG, "Compiled " + policy.ruleCount() + " screening rules");
+        return policy;
+    }
+
+    private List<Row> readCache() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(mCache.openRead()))) {
+            if (in.readInt() != CACHE_FORMAT_VERSION) return null;
+            int count = in.readInt();
+            List<Row> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                int kind = in.readInt();
+                String argument = in.readBoolean() ? in.readUTF() : null;
+                rows.add(new Row(id, kind, argument, in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readBoolean(), in.readBoolean()));
+            }
+            return rows;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable screening rule cache", e);
+            return null;
+        }
+    }
+
+    private void writeCache(List<Row> rows) {
+        FileOutputStream stream = null;
+        try {
+            stream = mCache.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(CACHE_FORMAT_VERSION);
+            out.writeInt(rows.size());
+            for (Row row : rows) {
+                out.writeLong(row.id);
+                out.writeInt(row.kind);
+                out.writeBoolean(row.argument != null);
+                if (row.argument != null) out.writeUTF(row.argument);
+                out.writeInt(row.startMinute);
+                out.writeInt(row.endMinute);
+                out.writeInt(row.targets);
+                out.writeInt(row.response);
+                out.writeBoolean(row.skipCallLog);
+                out.writeBoolean(row.skipNotification);
+            }
+            out.flush();
+            mCache.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write screening rule cache", e);
+            if (stream != null) mCache.failWrite(stream);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.spy3.blocking;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read-only tier for large community spam lists, checked after the user's own
+ * {@link BlocklistIndex}. The list is a file of sorted, distinct number keys
+ * that is memory-mapped rather than read, so millions of numbers cost page
+ * cache instead of heap. A Bloom filter stored in the same file answers the
+ * common "not listed" case from a few words; only a possible hit binary-searches
+ * the keys.
+ *
+ * <p>The file is rebuilt as a whole by {@link #replace} and swapped in by
+ * rename. Lookups read a volatile {@link Table}, so a rebuild never blocks
+ * the ring path and a reader still holding the old mapping stays valid.
+ */
+public final class SpamList {
+    private static final String TAG = "SpamList";
+    private static final String FILE_NAME = "spam_list.bin";
+    private static final int MAGIC = 0x53505931; // "SPY1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    // About 10 bits and 7 probes per key keep false positives near 1%
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    /** One mapped file. Absolute reads on the buffers are safe from any thread. */
+    private static final class Table {
+        final LongBuffer bloom;
+        final LongBuffer keys;
+        final int count;
+        final long bitMask;
+        final int hashes;
+        final long builtAt;
+        final long bytes;
+
+        Table(LongBuffer bloom, LongBuffer keys, int count, int hashes, long builtAt, long bytes) {
+            this.bloom = bloom;
+            this.keys = keys;
+            this.count = count;
+            this.bitMask = (long) bloom.capacity() * 64 - 1;
+            this.hashes = hashes;
+            this.builtAt = builtAt;
+            this.bytes = bytes;
+        }
+    }
+
+    private static volatile SpamList sInstance;
+
+    private final File mFile;
+    private final Object mWriteLock = new Object();
+    // null when no list is installed
+    private volatile Table mTable;
+
+    private SpamList(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mTable = map(mFile);
+    }
+
+    public static SpamList get(Context context) {
+        SpamList instance = sInstance;
+        if (instance == null) {
+            synchronized (SpamList.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new SpamList(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    public boolean contains(long key) {
+        Table table = mTable;
+        if (table == null || key == PhoneNumbers.NO_KEY) return false;
+        if (!mightContain(table, key)) return false;
+
+        LongBuffer keys = table.keys;
+        int low = 0;
+        int high = table.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = keys.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Number of listed keys, or 0 when no list is installed. */
+    public int size() {
+        Table table = mTable;
+        return table != null ? table.count : 0;
+    }
+
+    /** When the installed list was built, or 0 when there is none. */
+    public long builtAt() {
+        Table table = mTable;
+        return table != null ? table.builtAt : 0;
+    }
+
+    /** Size of the installed file in bytes. */
+    public long fileSize() {
+        Table table = mTable;
+        return table != null ? table.bytes : 0;
+    }
+
+    /**
+     * Replaces the list with the first {@code count} keys of the array, which is
+     * sorted in place. Duplicates and {@link PhoneNumbers#NO_KEY} are dropped.
+     * Returns the number of keys written.
+     */
+    public int replace(long[] keys, int count, CancellationSignal signal) throws IOException {
+        Arrays.sort(keys, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            long key = keys[i];
+            if (key == PhoneNumbers.NO_KEY || (distinct > 0 && keys[distinct - 1] == key)) continue;
+            keys[distinct++] = key;
+        }
+        if (signal != null) signal.throwIfCanceled();
+
+        long[] bloom = new long[bloomWords(distinct)];
+        long bitMask = (long) bloom.length * 64 - 1;
+        for (int i = 0; i < distinct; i++) {
+            long hash = mix(keys[i]);
+            long h1 = hash;
+            long h2 = (hash >>> 32) | 1;
+            for (int j = 0; j < HASHES; j++) {
+                long bit = (h1 + j * h2) & bitMask;
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        synchronized (mWriteLock) {
+            File temp = new File(mFile.getPath() + ".tmp");
+            long builtAt = System.currentTimeMillis();
+            try (FileOutputStream stream = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(distinct);
+                out.writeInt(bloom.length);
+                out.writeInt(HASHES);
+                out.writeInt(0);
+                out.writeLong(builtAt);
+                for (long word : bloom) out.writeLong(word);
+                for (int i = 0; i < distinct; i++) {
+                    if ((i & 0xFFFF) == 0 && signal != null) signal.throwIfCanceled();
+                    out.writeLong(keys[i]);
+                }
+                out.flush();
+                stream.getFD().sync();
+            } catch (IOException | RuntimeException e) {
+                temp.delete();
+                throw e;
+            }
+            if (!temp.renameTo(mFile)) {
+                temp.delete();
+                throw new IOException("Cannot replace " + mFile);
+            }
+            mTable = map(mFile);
+        }
+        Log.d(TAG, "Installed " + distinct + " spam numbers");
+        return distinct;
+    }
+
+    /** Removes the installed list. */
+    public void clear() {
+        synchronized (mWriteLock) {
+            mTable = null;
+            if (mFile.exists() && !mFile.delete()) Log.w(TAG, "Failed to delete " + mFile);
+        }
+    }
+
+    private static boolean mightContain(Table table, long key) {
+        long hash = mix(key);
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int j = 0; j < table.hashes; j++) {
+            long bit = (h1 + j * h2) & table.bitMask;
+            if ((table.bloom.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // Power of two so probes can be masked instead of divided
+    private static int bloomWords(int count) {
+        long bits = Math.max(64, (long) count * BITS_PER_KEY);
+        long words = Long.highestOneBit(bits - 1) << 1 >>> 6;
+        return (int) Math.min(Math.max(1, words), 1 << 26);
+    }
+
+    // Number keys are dense in their low bits, so they are scrambled before probing
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static Table map(File file) {
+        if (!file.exists()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long bytes = channel.size();
+            if (bytes < HEADER_BYTES) throw new IOException("Truncated header");
+            // The mapping outlives the channel, so closing it here is fine
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Unknown format");
+            }
+            int count = buffer.getInt(8);
+            int bloomWords = buffer.getInt(12);
+            int hashes = buffer.getInt(16);
+            long builtAt = buffer.getLong(24);
+            if (count < 0 || bloomWords <= 0 || Integer.bitCount(bloomWords) != 1
+                || bytes != HEADER_BYTES + 8L * bloomWords + 8L * count) {
+                throw new IOException("Size does not match header");
+            }
+            LongBuffer bloom = slice(buffer, HEADER_BYTES, bloomWords);
+            LongBuffer keys = slice(buffer, HEADER_BYTES + 8 * bloomWords, count);
+            Log.d(TAG, "Mapped " + count + " spam numbers, " + bytes + " bytes");
+            return new Table(bloom, keys, count, hashes, builtAt, bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable spam list", e);
+            return null;
+        }
+    }
+
+    private static LongBuffer slice(ByteBuffer buffer, int offset, int longs) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + longs * 8);
+        return view.slice().asLongBuffer();
+    }
+}
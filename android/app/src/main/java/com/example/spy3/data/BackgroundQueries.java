@@ -0,0 +1,183 @@
+package com.example.spy3.data;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Runs method-channel handlers off the main thread. Reads go to a small bounded
+ * pool; requests with the same key that arrive while one is already running are
+ * attached to it and all receive its result. Writes go to a single thread so they
+ * are applied in the order Dart sent them. Results are always delivered on the
+ * main thread.
+ */
+public final class BackgroundQueries {
+    private static final String TAG = "BackgroundQueries";
+    private static final int READ_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int READ_QUEUE_SIZE = 64;
+
+    public interface Query {
+        /** Runs on a worker thread; long loops should call {@code signal.throwIfCanceled()}. */
+        Object run(CancellationSignal signal) throws Exception;
+    }
+
+    private static final class InFlight {
+        final String method;
+        final CancellationSignal signal = new CancellationSignal();
+        final List<MethodChannel.Result> results = new ArrayList<>();
+        Future<?> future;
+
+        InFlight(String method) {
+            this.method = method;
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mReadExecutor;
+    private final ExecutorService mWriteExecutor;
+    // Guarded by itself; keyed by method name plus arguments
+    private final Map<String, InFlight> mInFlight = new HashMap<>();
+    private long mUniqueKeys;
+
+    public BackgroundQueries() {
+        mReadExecutor = new ThreadPoolExecutor(READ_THREADS, READ_THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(READ_QUEUE_SIZE), threadFactory("spy3-query"));
+        mReadExecutor.allowCoreThreadTimeOut(true);
+        mWriteExecutor = Executors.newSingleThreadExecutor(threadFactory("spy3-write"));
+    }
+
+    /**
+     * Runs a read. If a read with the same {@code key} is still running, the result
+     * is attached to it instead of starting a second query. A null key never
+     * coalesces but the read can still be cancelled by method.
+     */
+    public void submit(String method, String requestKey, MethodChannel.Result result, Query query) {
+        InFlight task;
+        String key;
+        synchronized (mInFlight) {
+            key = requestKey != null ? requestKey : method + "#" + (++mUniqueKeys);
+            task = mInFlight.get(key);
+            if (task != null) {
+                Log.d(TAG, "Coalescing duplicate request " + key);
+                task.results.add(result);
+                return;
+            }
+            task = new InFlight(method);
+            task.results.add(result);
+            mInFlight.put(key, task);
+        }
+
+        InFlight started = task;
+        try {
+            Future<?> future = mReadExecutor.submit(() -> execute(key, started, query));
+            synchronized (mInFlight) {
+                started.future = future;
+            }
+        } catch (RejectedExecutionException e) {
+            synchronized (mInFlight) {
+                mInFlight.remove(key);
+            }
+            deliverError(started.results, "BUSY", "Too many queries in flight");
+        }
+    }
+
+    /** Runs a write after every write submitted before it. Writes are never coalesced. */
+    public void submitWrite(MethodChannel.Result result, Query query) {
+        InFlight task = new InFlight(null);
+        task.results.add(result);
+        mWriteExecutor.execute(() -> execute(null, task, query));
+    }
+
+    /** Cancels every running read for the method, or every read when {@code method} is null. */
+    public int cancel(String method) {
+        List<InFlight> cancelled = new ArrayList<>();
+        synchronized (mInFlight) {
+            Iterator<InFlight> it = mInFlight.values().iterator();
+            while (it.hasNext()) {
+                InFlight task = it.next();
+                if (method == null || method.equals(task.method)) {
+                    it.remove();
+                    cancelled.add(task);
+                }
+            }
+        }
+        for (InFlight task : cancelled) {
+            task.signal.cancel();
+            if (task.future != null) task.future.cancel(true);
+            deliverError(task.results, "CANCELLED", "Query was cancelled");
+        }
+        return cancelled.size();
+    }
+
+    public void shutdown() {
+        cancel(null);
+        mReadExecutor.shutdownNow();
+        mWriteExecutor.shutdown();
+    }
+
+    private void execute(String key, InFlight task, Query query) {
+        Object value = null;
+        String errorCode = null;
+        String errorMessage = null;
+        try {
+            value = query.run(task.signal);
+        } catch (OperationCanceledException e) {
+            errorCode = "CANCELLED";
+            errorMessage = "Query was cancelled";
+        } catch (Exception e) {
+            Log.e(TAG, "Query failed: " + e.getMessage(), e);
+            errorCode = "QUERY_ERROR";
+            errorMessage = e.getMessage();
+        }
+
+        List<MethodChannel.Result> results;
+        synchronized (mInFlight) {
+            // A cancelled read has already been removed and answered
+            if (key != null && mInFlight.get(key) != task) return;
+            if (key != null) mInFlight.remove(key);
+            results = new ArrayList<>(task.results);
+        }
+        if (errorCode != null) {
+            deliverError(results, errorCode, errorMessage);
+        } else {
+            Object success = value;
+            mMainHandler.post(() -> {
+                for (MethodChannel.Result result : results) result.success(success);
+            });
+        }
+    }
+
+    private void deliverError(List<MethodChannel.Result> results, String code, String message) {
+        mMainHandler.post(() -> {
+            for (MethodChannel.Result result : results) result.error(code, message, null);
+        });
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,529 @@
+package com.example.spy3.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import com.example.spy3.blocking.BlocklistIndex;
+import com.example.spy3.blocking.BlocklistRepository;
+import com.example.spy3.blocking.BlocklistSnapshot;
+import com.example.spy3.blocking.LongHashSet;
+import com.example.spy3.blocking.PhoneNumbers;
+import com.example.spy3.blocking.SpamList;
+import com.example.spy3.providers.BlockedNumbersProvider;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streams blocklists between storage access framework documents and
+ * {@link BlockedNumbersProvider}. Imports read one line at a time and write
+ * {@link #BATCH_SIZE} rows per bulkInsert transaction, so memory depends on the
+ * batch and not on the file; only the keys of imported numbers are kept, to skip
+ * duplicates that are formatted differently. Exports walk a provider cursor.
+ *
+ * <p>Plain text holds one number per line, optionally followed by a name after a
+ * comma, semicolon or tab; '#' starts a comment. CSV files may have a header, in
+ * which case the number and name columns are found by name. vCards contribute
+ * every TEL of a card, named after its FN.
+ *
+ * <p>The same formats can also be compiled into the read-only {@link SpamList}
+ * instead of the provider.
+ */
+public final class BlocklistTransfer {
+    private static final String TAG = "BlocklistTransfer";
+    private static final int BATCH_SIZE = 2000;
+    // Imported keys are published through BlocklistRepository this often, so calls see them mid-import
+    private static final int PUBLISH_EVERY = 50_000;
+    private static final int EXPORT_PROGRESS_EVERY = 5000;
+
+    public static final String FORMAT_TEXT = "txt";
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_VCARD = "vcf";
+
+    public interface Progress {
+        /**
+         * Called after every batch. {@code processed} and {@code total} are bytes for
+         * an import and rows for an export; {@code total} is -1 when unknown.
+         */
+        void onProgress(long processed, long total, int numbers, int added);
+    }
+
+    private BlocklistTransfer() {
+    }
+
+    /** Returns the MIME type a document in the given format is created with. */
+    public static String mimeType(String format) {
+        switch (format) {
+            case FORMAT_CSV:
+                return "text/csv";
+            case FORMAT_VCARD:
+                return "text/x-vcard";
+            default:
+                return "text/plain";
+        }
+    }
+
+    public static Map<String, Object> importFrom(Context context, Uri uri, CancellationSignal signal,
+                                                 Progress progress) throws IOException {
+        Importer importer = new Importer(context, signal, progress);
+        String format;
+        try {
+            format = read(context, uri, importer);
+        } finally {
+            // Whatever was committed before a failure or cancellation is still published
+            importer.publish();
+        }
+
+        Log.d(TAG, "Imported " + importer.added + " of " + importer.numbers + " numbers as " + format);
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("format", format);
+        summary.put("numbers", importer.numbers);
+        summary.put("added", importer.added);
+        summary.put("duplicates", importer.duplicates);
+        summary.put("invalid", importer.invalid);
+        return summary;
+    }
+
+    /**
+     * Replaces the {@link SpamList} with the numbers in a document of any import
+     * format. Only the keys are kept, eight bytes per number, until the file is written.
+     */
+    public static Map<String, Object> buildSpamList(Context context, Uri uri, CancellationSignal signal,
+                                                    Progress progress) throws IOException {
+        KeyCollector collector = new KeyCollector(signal, progress);
+        String format = read(context, uri, collector);
+        int distinct = SpamList.get(context).replace(collector.keys, collector.count, signal);
+
+        Log.d(TAG, "Built spam list of " + distinct + " from " + collector.numbers + " numbers as " + format);
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("format", format);
+        summary.put("numbers", collector.numbers);
+        summary.put("added", distinct);
+        summary.put("duplicates", collector.count - distinct);
+        summary.put("invalid", collector.invalid);
+        return summary;
+    }
+
+    // Feeds every line of the document to the parser and returns the format it was read as
+    private static String read(Context context, Uri uri, LineParser parser) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        String name = null;
+        try (Cursor cursor = resolver.query(uri,
+                new String[] { OpenableColumns.SIZE, OpenableColumns.DISPLAY_NAME }, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                if (!cursor.isNull(0)) parser.total = cursor.getLong(0);
+                name = cursor.getString(1);
+            }
+        }
+        String format = formatOf(resolver.getType(uri), name);
+
+        InputStream stream = resolver.openInputStream(uri);
+        if (stream == null) throw new FileNotFoundException("Cannot open " + uri);
+        try (CountingInputStream counting = new CountingInputStream(stream);
+             BufferedReader reader = new BufferedReader(
+                 new InputStreamReader(counting, StandardCharsets.UTF_8), 64 * 1024)) {
+            parser.counting = counting;
+            String line;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (first) {
+                    // Strip a byte order mark and trust a vCard header over the file name
+                    if (!line.isEmpty() && line.charAt(0) == '\uFEFF') line = line.substring(1);
+                    if (line.trim().regionMatches(true, 0, "BEGIN:VCARD", 0, 11)) format = FORMAT_VCARD;
+                    first = false;
+                }
+                switch (format) {
+                    case FORMAT_VCARD:
+                        parser.vCardLine(line);
+                        break;
+                    case FORMAT_CSV:
+                        parser.csvLine(line);
+                        break;
+                    default:
+                        parser.textLine(line);
+                        break;
+                }
+            }
+            if (FORMAT_VCARD.equals(format)) parser.vCardEnd();
+            parser.flush();
+        }
+        return format;
+    }
+
+    public static Map<String, Object> exportTo(Context context, Uri uri, String format, CancellationSignal signal,
+                                               Progress progress) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        int written = 0;
+        try (Cursor cursor = resolver.query(BlockedNumbersProvider.CONTENT_URI,
+                new String[] { BlockedNumbersProvider.COLUMN_NUMBER, BlockedNumbersProvider.COLUMN_NAME },
+                BlockedNumbersProvider.COLUMN_RULE_TYPE + " = " + BlockedNumbersProvider.RULE_TYPE_EXACT,
+                null, BlockedNumbersProvider.COLUMN_ID, signal)) {
+            OutputStream stream = resolver.openOutputStream(uri, "wt");
+            if (stream == null) throw new FileNotFoundException("Cannot open " + uri);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024)) {
+                int total = cursor != null ? cursor.getCount() : 0;
+                if (FORMAT_CSV.equals(format)) writer.write("number,name\n");
+                while (cursor != null && cursor.moveToNext()) {
+                    writeNumber(writer, format, cursor.getString(0), cursor.getString(1));
+                    if (++written % EXPORT_PROGRESS_EVERY == 0) {
+                        if (signal != null) signal.throwIfCanceled();
+                        progress.onProgress(written, total, written, written);
+                    }
+                }
+                progress.onProgress(written, total, written, written);
+            }
+        }
+
+        Log.d(TAG, "Exported " + written + " numbers as " + format);
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("format", format);
+        summary.put("numbers", written);
+        return summary;
+    }
+
+    static String formatOf(String mimeType, String name) {
+        String lowerName = name != null ? name.toLowerCase(Locale.ROOT) : "";
+        if (lowerName.endsWith(".vcf") || (mimeType != null && mimeType.contains("vcard"))) return FORMAT_VCARD;
+        if (lowerName.endsWith(".csv") || (mimeType != null && mimeType.contains("comma-separated"))
+            || "text/csv".equals(mimeType)) {
+            return FORMAT_CSV;
+        }
+        return FORMAT_TEXT;
+    }
+
+    private static void writeNumber(Writer writer, String format, String number, String name) throws IOException {
+        switch (format) {
+            case FORMAT_CSV:
+                writer.write(csvField(number));
+                writer.write(',');
+                if (name != null) writer.write(csvField(name));
+                writer.write('\n');
+                break;
+            case FORMAT_VCARD:
+                writer.write("BEGIN:VCARD\nVERSION:3.0\nFN:");
+                writer.write(name != null ? vCardText(name) : vCardText(number));
+                writer.write("\nTEL:");
+                writer.write(number);
+                writer.write("\nEND:VCARD\n");
+                break;
+            default:
+                writer.write(number);
+                writer.write('\n');
+                break;
+        }
+    }
+
+    // Quotes anything csvFields would split on, since it also takes ';' as a separator
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf(';') < 0 && value.indexOf('"') < 0
+            && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String vCardText(String value) {
+        return value.replace("\\", "\\\\").replace(",", "\\,").replace(";", "\\;").replace("\n", "\\n");
+    }
+
+    // Splits one CSV record; quoted fields may contain commas and doubled quotes but not newlines
+    static List<String> csvFields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0, n = line.length(); i < n; i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < n && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',' || c == ';') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    // Splits lines of each format into numbers and names
+    private abstract static class LineParser {
+        final CancellationSignal signal;
+        final Progress progress;
+        long total = -1;
+        CountingInputStream counting;
+
+        int numbers;
+        int invalid;
+
+        // CSV state
+        boolean csvStarted;
+        int numberColumn;
+        int nameColumn = -1;
+
+        // vCard state
+        String cardName;
+        // The logical line unfolded so far; RFC 6350 continues a line on each following
+        // line that starts with a space or tab
+        final StringBuilder vCardUnfolded = new StringBuilder();
+
+        LineParser(CancellationSignal signal, Progress progress) {
+            this.signal = signal;
+            this.progress = progress;
+        }
+
+        abstract void add(String number, String name);
+
+        abstract void flush();
+
+        long bytesRead() {
+            return counting != null ? counting.count : 0;
+        }
+
+        void textLine(String line) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            int separator = indexOfSeparator(line);
+            if (separator < 0) {
+                add(line.trim(), null);
+            } else {
+                add(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+            }
+        }
+
+        void csvLine(String line) {
+            if (line.trim().isEmpty()) return;
+            List<String> fields = csvFields(line);
+            if (!csvStarted) {
+                csvStarted = true;
+                if (isHeader(fields)) {
+                    numberColumn = -1;
+                    for (int i = 0; i < fields.size(); i++) {
+                        String header = fields.get(i).toLowerCase(Locale.ROOT);
+                        if (numberColumn < 0 && (header.contains("number") || header.contains("phone")
+                            || header.contains("tel"))) {
+                            numberColumn = i;
+                        } else if (nameColumn < 0 && header.contains("name")) {
+                            nameColumn = i;
+                        }
+                    }
+                    if (numberColumn < 0) numberColumn = 0;
+                    return;
+                }
+                nameColumn = fields.size() > 1 ? 1 : -1;
+            }
+            if (numberColumn >= fields.size()) {
+                invalid++;
+                return;
+            }
+            String name = nameColumn >= 0 && nameColumn < fields.size() ? fields.get(nameColumn) : null;
+            add(fields.get(numberColumn), name);
+        }
+
+        void vCardLine(String line) {
+            if (!line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+                vCardUnfolded.append(line, 1, line.length());
+                return;
+            }
+            vCardEnd();
+            vCardUnfolded.append(line);
+        }
+
+        // Parses the line unfolded so far; called when the next one starts and at the end of the file
+        void vCardEnd() {
+            if (vCardUnfolded.length() == 0) return;
+            String line = vCardUnfolded.toString();
+            vCardUnfolded.setLength(0);
+            vCardProperty(line);
+        }
+
+        private void vCardProperty(String line) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) return;
+            String property = line.substring(0, colon);
+            // Drop a group such as "item1." and any parameters such as ";TYPE=CELL"
+            int group = property.indexOf('.');
+            if (group >= 0) property = property.substring(group + 1);
+            int parameters = property.indexOf(';');
+            if (parameters >= 0) property = property.substring(0, parameters);
+            String value = line.substring(colon + 1).trim();
+
+            if (property.equalsIgnoreCase("BEGIN")) {
+                cardName = null;
+            } else if (property.equalsIgnoreCase("FN")) {
+                cardName = value.replace("\\,", ",").replace("\\;", ";");
+            } else if (property.equalsIgnoreCase("TEL")) {
+                if (value.regionMatches(true, 0, "tel:", 0, 4)) value = value.substring(4);
+                add(value, cardName);
+            }
+        }
+
+        private static boolean isHeader(List<String> fields) {
+            for (String field : fields) {
+                if (PhoneNumbers.toKey(field) != PhoneNumbers.NO_KEY) return false;
+            }
+            return true;
+        }
+
+        private static int indexOfSeparator(String line) {
+            for (int i = 0, n = line.length(); i < n; i++) {
+                char c = line.charAt(i);
+                if (c == ',' || c == ';' || c == '\t') return i;
+            }
+            return -1;
+        }
+    }
+
+    private static final class Importer extends LineParser {
+        final Context context;
+        final BlocklistSnapshot existing;
+        final long now = System.currentTimeMillis();
+        // Keys of every number queued in this import, and committed ones not yet published
+        final LongHashSet seen = new LongHashSet(BATCH_SIZE);
+        LongHashSet unpublished = new LongHashSet(BATCH_SIZE);
+        final ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        final long[] batchKeys = new long[BATCH_SIZE];
+        int batchSize;
+
+        int added;
+        int duplicates;
+
+        Importer(Context context, CancellationSignal signal, Progress progress) {
+            super(signal, progress);
+            this.context = context;
+            existing = BlocklistIndex.get(context).snapshot();
+        }
+
+        @Override
+        void add(String number, String name) {
+            if (number.isEmpty()) return;
+            numbers++;
+            long key = PhoneNumbers.toKey(number);
+            if (key == PhoneNumbers.NO_KEY) {
+                invalid++;
+                return;
+            }
+            if (existing.contains(key) || !seen.add(key)) {
+                duplicates++;
+                return;
+            }
+            ContentValues values = new ContentValues();
+            // Stored as digits, like every exact number; see BlocklistRepository
+            values.put(BlockedNumbersProvider.COLUMN_NUMBER, PhoneNumbers.digitsOf(number));
+            if (name != null && !name.isEmpty()) values.put(BlockedNumbersProvider.COLUMN_NAME, name);
+            values.put(BlockedNumbersProvider.COLUMN_DATE_ADDED, now);
+            batchKeys[batchSize] = key;
+            batch[batchSize++] = values;
+            if (batchSize == BATCH_SIZE) flush();
+        }
+
+        @Override
+        void flush() {
+            if (signal != null) signal.throwIfCanceled();
+            if (batchSize > 0) {
+                ContentValues[] rows = batchSize == BATCH_SIZE ? batch : Arrays.copyOf(batch, batchSize);
+                added += context.getContentResolver().bulkInsert(BlockedNumbersProvider.CONTENT_URI, rows);
+                for (int i = 0; i < batchSize; i++) unpublished.add(batchKeys[i]);
+                Arrays.fill(batch, null);
+                batchSize = 0;
+            }
+            if (unpublished.size() >= PUBLISH_EVERY) publish();
+            progress.onProgress(bytesRead(), total, numbers, added);
+        }
+
+        void publish() {
+            if (unpublished.size() == 0) return;
+            BlocklistRepository.get(context).addImported(unpublished);
+            unpublished = new LongHashSet(BATCH_SIZE);
+        }
+    }
+
+    // Keeps only keys; duplicates are dropped after sorting, not while reading
+    private static final class KeyCollector extends LineParser {
+        long[] keys = new long[BATCH_SIZE];
+        int count;
+
+        KeyCollector(CancellationSignal signal, Progress progress) {
+            super(signal, progress);
+        }
+
+        @Override
+        void add(String number, String name) {
+            if (number.isEmpty()) return;
+            numbers++;
+            long key = PhoneNumbers.toKey(number);
+            if (key == PhoneNumbers.NO_KEY) {
+                invalid++;
+                return;
+            }
+            if (count == keys.length) keys = Arrays.copyOf(keys, count + (count >> 1));
+            keys[count++] = key;
+            if (count % BATCH_SIZE == 0) flush();
+        }
+
+        @Override
+        void flush() {
+            if (signal != null) signal.throwIfCanceled();
+            progress.onProgress(bytesRead(), total, numbers, count);
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.spy3.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.CallLog;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The one observer of {@link CallLog.Calls#CONTENT_URI} in the process. The
+ * several notifications a single call produces are folded into one, which is
+ * then passed to every {@link Listener} on a shared background thread. Call log
+ * sync, call totals and the search index each read only the rows after the
+ * highest _id they have seen, so one change costs one small query apiece rather
+ * than three observers and three threads.
+ */
+public final class CallLogChanges {
+    private static final String TAG = "CallLogChanges";
+    // Several provider notifications arrive per call; they are folded into one
+    private static final long CHANGE_DEBOUNCE_MS = 300;
+
+    public interface Listener {
+        /** Called on the call log thread once a burst of changes has settled. */
+        void onCallLogChanged();
+    }
+
+    private static volatile CallLogChanges sInstance;
+
+    private final Handler mHandler;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private final Runnable mDispatch = this::dispatch;
+
+    private CallLogChanges(Context context) {
+        HandlerThread thread = new HandlerThread("spy3-call-log");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        context.getContentResolver().registerContentObserver(
+            CallLog.Calls.CONTENT_URI, true, new ContentObserver(mHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    mHandler.removeCallbacks(mDispatch);
+                    mHandler.postDelayed(mDispatch, CHANGE_DEBOUNCE_MS);
+                }
+            });
+    }
+
+    public static CallLogChanges get(Context context) {
+        CallLogChanges instance = sInstance;
+        if (instance == null) {
+            synchronized (CallLogChanges.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new CallLogChanges(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** The call log thread, for work that must stay ordered with the listeners. */
+    public Handler handler() {
+        return mHandler;
+    }
+
+    /** Adds the listener unless it is already added. */
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void dispatch() {
+        for (Listener listener : mListeners) {
+            try {
+                listener.onCallLogChanged();
+            } catch (RuntimeException e) {
+                // One failing listener must not keep the others stale
+                Log.e(TAG, "Call log listener failed", e);
+            }
+        }
+    }
+}
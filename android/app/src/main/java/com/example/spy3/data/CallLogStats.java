@@ -0,0 +1,259 @@
+package com.example.spy3.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.CallLog;
+import android.util.Log;
+
+import com.example.spy3.blocking.PhoneNumbers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-number totals over the whole call log, so screens such as "most frequent
+ * callers" receive a short summary instead of every row. The totals are built
+ * in one pass over a cursor projected to the few columns they need; the call
+ * log provider does not accept GROUP BY. After that they are kept current
+ * through {@link CallLogChanges}: new rows are added as they arrive, and only a
+ * deletion, which cannot be subtracted without the deleted rows, causes a
+ * full recount.
+ */
+public final class CallLogStats {
+    private static final String TAG = "CallLogStats";
+    public static final int MAX_LIMIT = 500;
+
+    public static final String SORT_CALLS = "calls";
+    public static final String SORT_DURATION = "duration";
+    public static final String SORT_LAST_CALL = "lastCall";
+
+    private static final String[] PROJECTION = {
+        CallLog.Calls._ID,
+        CallLog.Calls.NUMBER,
+        CallLog.Calls.DATE,
+        CallLog.Calls.DURATION,
+        CallLog.Calls.TYPE
+    };
+
+    private static final class Totals {
+        final String number;
+        int calls;
+        long duration;
+        long lastCall;
+        int incoming;
+        int outgoing;
+        int missed;
+        int rejected;
+        int blocked;
+
+        Totals(String number) {
+            this.number = number;
+        }
+
+        Totals copy() {
+            Totals copy = new Totals(number);
+            copy.calls = calls;
+            copy.duration = duration;
+            copy.lastCall = lastCall;
+            copy.incoming = incoming;
+            copy.outgoing = outgoing;
+            copy.missed = missed;
+            copy.rejected = rejected;
+            copy.blocked = blocked;
+            return copy;
+        }
+    }
+
+    private static volatile CallLogStats sInstance;
+
+    private final Context mContext;
+    // All guarded by this; mByNumber is null until the first full count
+    private Map<String, Totals> mByNumber;
+    private long mMaxId;
+    private int mRows;
+    private long mTotalDuration;
+
+    private CallLogStats(Context context) {
+        mContext = context;
+        CallLogChanges.get(context).addListener(this::update);
+    }
+
+    public static CallLogStats get(Context context) {
+        CallLogStats instance = sInstance;
+        if (instance == null) {
+            synchronized (CallLogStats.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new CallLogStats(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns totals for the whole log and the top {@code limit} numbers ordered
+     * by {@link #SORT_CALLS}, {@link #SORT_DURATION} or {@link #SORT_LAST_CALL}.
+     * Each number carries its contact name when the contact index knows one.
+     */
+    public Map<String, Object> summary(String sortBy, int limit, CancellationSignal signal) {
+        List<Totals> top;
+        Map<String, Object> summary = new HashMap<>();
+        synchronized (this) {
+            if (mByNumber == null) recount(signal);
+            top = new ArrayList<>(mByNumber.size());
+            // Copied so the observer can keep adding to the live totals while this sorts
+            for (Totals totals : mByNumber.values()) top.add(totals.copy());
+            summary.put("calls", mRows);
+            summary.put("duration", mTotalDuration);
+            summary.put("numbers", mByNumber.size());
+        }
+        Collections.sort(top, comparator(sortBy));
+        top = top.subList(0, Math.min(top.size(), Math.max(0, Math.min(limit, MAX_LIMIT))));
+
+        List<String> numbers = new ArrayList<>(top.size());
+        for (Totals totals : top) numbers.add(totals.number);
+        Map<String, String> names = ContactIndex.get(mContext).resolveNames(numbers, signal);
+
+        List<Map<String, Object>> entries = new ArrayList<>(top.size());
+        for (Totals totals : top) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("number", totals.number);
+            entry.put("name", names.get(totals.number));
+            entry.put("calls", totals.calls);
+            entry.put("duration", totals.duration);
+            entry.put("lastCall", totals.lastCall);
+            entry.put("incoming", totals.incoming);
+            entry.put("outgoing", totals.outgoing);
+            entry.put("missed", totals.missed);
+            entry.put("rejected", totals.rejected);
+            entry.put("blocked", totals.blocked);
+            entries.add(entry);
+        }
+        summary.put("top", entries);
+        return summary;
+    }
+
+    private static Comparator<Totals> comparator(String sortBy) {
+        Comparator<Totals> byLastCall = (a, b) -> Long.compare(b.lastCall, a.lastCall);
+        if (SORT_LAST_CALL.equals(sortBy)) return byLastCall;
+        if (SORT_DURATION.equals(sortBy)) {
+            return ((Comparator<Totals>) (a, b) -> Long.compare(b.duration, a.duration)).thenComparing(byLastCall);
+        }
+        return ((Comparator<Totals>) (a, b) -> Integer.compare(b.calls, a.calls)).thenComparing(byLastCall);
+    }
+
+    // Runs on the call log thread after the call log changed
+    private void update() {
+        synchronized (this) {
+            // Nobody has asked yet, so there is nothing to keep current
+            if (mByNumber == null) return;
+            try {
+                int added = addRows(mMaxId, null);
+                // Fewer rows than were counted means some were deleted
+                if (countRowsUpTo(mMaxId) != mRows) {
+                    recount(null);
+                } else if (added > 0) {
+                    Log.d(TAG, "Added " + added + " calls");
+                }
+            } catch (RuntimeException e) {
+                // Counted from scratch on the next request
+                Log.e(TAG, "Failed to update call totals", e);
+                mByNumber = null;
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private void recount(CancellationSignal signal) {
+        mByNumber = new HashMap<>();
+        mMaxId = 0;
+        mRows = 0;
+        mTotalDuration = 0;
+        try {
+            addRows(0, signal);
+        } catch (RuntimeException e) {
+            mByNumber = null;
+            throw e;
+        }
+        Log.d(TAG, "Counted " + mRows + " calls from " + mByNumber.size() + " numbers");
+    }
+
+    // Caller holds the lock; folds every row after sinceId into the totals and returns how many there were
+    private int addRows(long sinceId, CancellationSignal signal) {
+        Cursor cursor = mContext.getContentResolver().query(
+            CallLog.Calls.CONTENT_URI,
+            PROJECTION,
+            CallLog.Calls._ID + " > ?",
+            new String[] { String.valueOf(sinceId) },
+            CallLog.Calls._ID + " ASC",
+            signal
+        );
+        if (cursor == null) return 0;
+        int added = 0;
+        // Keyed by digits so formatting differences do not split a number
+        Map<String, Totals> byNumber = mByNumber;
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                String number = cursor.getString(1);
+                String digits = PhoneNumbers.digitsOf(number);
+                // Withheld numbers share one entry under the empty key
+                Totals totals = byNumber.get(digits);
+                if (totals == null) {
+                    totals = new Totals(number != null ? number : "");
+                    byNumber.put(digits, totals);
+                }
+                long date = cursor.getLong(2);
+                long duration = cursor.getLong(3);
+                totals.calls++;
+                totals.duration += duration;
+                totals.lastCall = Math.max(totals.lastCall, date);
+                switch (cursor.getInt(4)) {
+                    case CallLog.Calls.INCOMING_TYPE:
+                        totals.incoming++;
+                        break;
+                    case CallLog.Calls.OUTGOING_TYPE:
+                        totals.outgoing++;
+                        break;
+                    case CallLog.Calls.MISSED_TYPE:
+                        totals.missed++;
+                        break;
+                    case CallLog.Calls.REJECTED_TYPE:
+                        totals.rejected++;
+                        break;
+                    case CallLog.Calls.BLOCKED_TYPE:
+                        totals.blocked++;
+                        break;
+                    default:
+                        break;
+                }
+                mTotalDuration += duration;
+                mMaxId = Math.max(mMaxId, id);
+                mRows++;
+                added++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return added;
+    }
+
+    private int countRowsUpTo(long maxId) {
+        Cursor cursor = mContext.getContentResolver().query(CallLog.Calls.CONTENT_URI,
+            new String[] { CallLog.Calls._ID }, CallLog.Calls._ID + " <= ?",
+            new String[] { String.valueOf(maxId) }, null);
+        if (cursor == null) return mRows;
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.spy3.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.CallLog;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental reads of the call log. {@link #loadSince} returns only rows whose
+ * _id is greater than a cursor the caller already holds, and {@link #start}
+ * follows {@link CallLogChanges} and reports inserted rows and deleted ids to a
+ * {@link Listener} as they happen, so refreshing after a call costs work
+ * proportional to the change rather than to the whole history.
+ */
+public final class CallLogSync {
+    private static final String TAG = "CallLogSync";
+    // Known ids checked per query while looking for deleted rows
+    private static final int DIFF_PAGE_SIZE = 500;
+
+    static final String[] PROJECTION = {
+        CallLog.Calls._ID,
+        CallLog.Calls.NUMBER,
+        CallLog.Calls.DATE,
+        CallLog.Calls.DURATION,
+        CallLog.Calls.TYPE
+    };
+
+    public interface Listener {
+        /** Called on the main thread with the rows added and the ids removed since the last delta. */
+        void onCallLogChanged(List<Map<String, Object>> inserted, long[] deletedIds);
+    }
+
+    private final ContentResolver mResolver;
+    private final CallLogChanges mChanges;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CallLogChanges.Listener mChangeListener = this::computeDelta;
+    private volatile Listener mListener;
+
+    // Ids the listener currently knows about, sorted ascending; only touched on the call log thread
+    private long[] mKnownIds = new long[0];
+    private long mMaxId;
+
+    public CallLogSync(Context context) {
+        mResolver = context.getContentResolver();
+        mChanges = CallLogChanges.get(context);
+    }
+
+    /**
+     * Returns rows with an _id greater than {@code sinceId} in ascending _id order, plus the new max id.
+     * {@code signal} may be null.
+     */
+    public static Map<String, Object> loadSince(ContentResolver resolver, long sinceId, CancellationSignal signal) {
+        List<Map<String, Object>> calls = new ArrayList<>();
+        long maxId = sinceId;
+        Cursor cursor = resolver.query(
+            CallLog.Calls.CONTENT_URI,
+            PROJECTION,
+            CallLog.Calls._ID + " > ?",
+            new String[] { String.valueOf(sinceId) },
+            CallLog.Calls._ID + " ASC",
+            signal
+        );
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    calls.add(readRow(cursor));
+                    maxId = Math.max(maxId, cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Map<String, Object> delta = new HashMap<>();
+        delta.put("calls", calls);
+        delta.put("maxId", maxId);
+        return delta;
+    }
+
+    static Map<String, Object> readRow(Cursor cursor) {
+        Map<String, Object> call = new HashMap<>();
+        call.put("id", cursor.getLong(0));
+        call.put("number", cursor.getString(1));
+        call.put("date", cursor.getLong(2));
+        call.put("duration", cursor.getLong(3));
+        call.put("type", cursor.getInt(4));
+        return call;
+    }
+
+    /**
+     * Starts watching the call log. Changes after {@code sinceId} are reported to
+     * the listener; rows at or below it are assumed to be known already.
+     */
+    public synchronized void start(long sinceId, Listener listener) {
+        stop();
+        mListener = listener;
+        // Listening starts on the call log thread once the known ids are read, so
+        // no change is diffed against the ids of an earlier start
+        mChanges.handler().post(() -> {
+            if (mListener != listener) return;
+            mKnownIds = sinceId > 0 ? queryIdsUpTo(sinceId) : new long[0];
+            mMaxId = sinceId;
+            mChanges.addListener(mChangeListener);
+        });
+    }
+
+    public synchronized void stop() {
+        mChanges.removeListener(mChangeListener);
+        mListener = null;
+    }
+
+    private void computeDelta() {
+        Listener listener = mListener;
+        if (listener == null) return;
+
+        Map<String, Object> inserted;
+        long[] deleted;
+        try {
+            inserted = loadSince(mResolver, mMaxId, null);
+            deleted = findDeletedIds();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to compute call log delta", e);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> rows = (List<Map<String, Object>>) inserted.get("calls");
+        mMaxId = (Long) inserted.get("maxId");
+        if (!rows.isEmpty()) {
+            long[] ids = Arrays.copyOf(mKnownIds, mKnownIds.length + rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                ids[mKnownIds.length + i] = (Long) rows.get(i).get("id");
+            }
+            mKnownIds = ids;
+        }
+        if (rows.isEmpty() && deleted.length == 0) return;
+
+        mMainHandler.post(() -> {
+            if (mListener == listener) listener.onCallLogChanged(rows, deleted);
+        });
+    }
+
+    // Deletes cannot be seen through an _id cursor, so the row count is compared
+    // first. Only when rows went missing are the known ids checked, one id range
+    // at a time from the newest, until every missing row is found.
+    private long[] findDeletedIds() {
+        if (mKnownIds.length == 0) return new long[0];
+        int missing = mKnownIds.length - countIdsUpTo(mMaxId);
+        if (missing <= 0) return new long[0];
+
+        long[] deleted = new long[missing];
+        int count = 0;
+        for (int end = mKnownIds.length; end > 0 && count < missing; end -= DIFF_PAGE_SIZE) {
+            int start = Math.max(0, end - DIFF_PAGE_SIZE);
+            long[] current = queryIds(mKnownIds[start], mKnownIds[end - 1]);
+            for (int i = start; i < end && count < missing; i++) {
+                if (Arrays.binarySearch(current, mKnownIds[i]) < 0) deleted[count++] = mKnownIds[i];
+            }
+        }
+        deleted = Arrays.copyOf(deleted, count);
+        Arrays.sort(deleted);
+        if (count > 0) {
+            long[] kept = new long[mKnownIds.length - count];
+            int n = 0;
+            for (long id : mKnownIds) {
+                if (Arrays.binarySearch(deleted, id) < 0) kept[n++] = id;
+            }
+            mKnownIds = kept;
+        }
+        return deleted;
+    }
+
+    private int countIdsUpTo(long maxId) {
+        Cursor cursor = mResolver.query(CallLog.Calls.CONTENT_URI, new String[] { CallLog.Calls._ID },
+            CallLog.Calls._ID + " <= ?", new String[] { String.valueOf(maxId) }, null);
+        if (cursor == null) return 0;
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Ids from first to last inclusive, ascending
+    private long[] queryIds(long first, long last) {
+        Cursor cursor = mResolver.query(CallLog.Calls.CONTENT_URI, new String[] { CallLog.Calls._ID },
+            CallLog.Calls._ID + " >= ? AND " + CallLog.Calls._ID + " <= ?",
+            new String[] { String.valueOf(first), String.valueOf(last) }, CallLog.Calls._ID + " ASC");
+        return readIds(cursor);
+    }
+
+    private long[] queryIdsUpTo(long maxId) {
+        Cursor cursor = mResolver.query(CallLog.Calls.CONTENT_URI, new String[] { CallLog.Calls._ID },
+            CallLog.Calls._ID + " <= ?", new String[] { String.valueOf(maxId) }, CallLog.Calls._ID + " ASC");
+        return readIds(cursor);
+    }
+
+    private static long[] readIds(Cursor cursor) {
+        if (cursor == null) return new long[0];
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int n = 0;
+            while (cursor.moveToNext() && n < ids.length) {
+                ids[n++] = cursor.getLong(0);
+            }
+            return n == ids.length ? ids : Arrays.copyOf(ids, n);
+        } finally {
+            cursor.close();
+        }
+    }
+}
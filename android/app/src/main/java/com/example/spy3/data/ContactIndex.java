@@ -0,0 +1,330 @@
+package com.example.spy3.data;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.example.spy3.blocking.LongHashSet;
+import com.example.spy3.blocking.PhoneNumbers;
+import com.example.spy3.blocking.ScreeningPolicy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide index of contact phone numbers. Rows from the Phone table are
+ * deduplicated per contact and keyed by their digits, so a caller can resolve a
+ * whole list of numbers to names with one hash lookup each. The index is built
+ * lazily and dropped whenever the contacts provider reports a change.
+ *
+ * <p>Numbers are matched on all their digits first, then on their last
+ * {@link #MIN_MATCH} digits so that "+1 555 123 4567" in the call log still finds
+ * a contact saved as "555-1234567". A suffix shared by two different names is
+ * ambiguous and never matches.
+ *
+ * <p>Screening asks only whether a number may belong to a contact, which is
+ * answered from a primitive key set so the ring path does not allocate. The
+ * ring path never loads the index itself. Each loaded key set is saved to a
+ * {@link ContactKeyCache}, so after a cold start the keys mapped from it answer
+ * until the provider has been read again on a background thread. Only when
+ * neither is there, or right after a change, may every number be a contact.
+ */
+public final class ContactIndex implements ScreeningPolicy.Contacts {
+    private static final String TAG = "ContactIndex";
+    // Same length the platform uses for caller-id matching
+    static final int MIN_MATCH = 7;
+    private static final long MIN_MATCH_MODULUS = 10_000_000L;
+
+    private static final String[] PROJECTION = {
+        ContactsContract.CommonDataKinds.Phone.CONTACT_ID,
+        ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
+        ContactsContract.CommonDataKinds.Phone.NUMBER,
+        ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER
+    };
+
+    public static final class Entry {
+        public final long contactId;
+        public final String name;
+        public final String number;
+
+        Entry(long contactId, String name, String number) {
+            this.contactId = contactId;
+            this.name = name;
+            this.number = number;
+        }
+    }
+
+    private static final class Snapshot {
+        final List<Entry> entries;
+        final Map<Long, String> byNumber;
+        // null values mark suffixes shared by different names
+        final Map<Long, String> bySuffix;
+        // Every full and suffix key, named or not
+        final LongHashSet keys;
+
+        Snapshot(List<Entry> entries, Map<Long, String> byNumber, Map<Long, String> bySuffix, LongHashSet keys) {
+            this.entries = entries;
+            this.byNumber = byNumber;
+            this.bySuffix = bySuffix;
+            this.keys = keys;
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(
+        Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(), new LongHashSet(0));
+
+    private static volatile ContactIndex sInstance;
+
+    private final Context mContext;
+    private final Object mLoadLock = new Object();
+    private volatile Snapshot mSnapshot;
+    // The loaded snapshot's keys, or the cached ones until it is loaded
+    private volatile LongHashSet mKeys;
+    private final ContactKeyCache mCache;
+    // Bumped on every change so a load that raced with one is not cached
+    private volatile int mGeneration;
+    private final AtomicBoolean mWarming = new AtomicBoolean();
+    private Handler mHandler;
+
+    // Package-private so tests can start from cached keys without a files directory
+    ContactIndex(Context context, ContactKeyCache cache) {
+        mContext = context;
+        mCache = cache;
+        // Revoking the permission kills the process, so checking it here is enough
+        if (hasPermission()) {
+            mKeys = mCache.read();
+        } else {
+            mCache.delete();
+        }
+        // Notifications arrive on a binder thread; the reload runs on the contacts thread
+        context.getContentResolver().registerContentObserver(
+            ContactsContract.Contacts.CONTENT_URI, true, new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    mGeneration++;
+                    mSnapshot = null;
+                    // Screening used the keys, so it gets the new ones without waiting for a call
+                    if (mKeys != null) {
+                        mKeys = null;
+                        warmUp();
+                    }
+                }
+            });
+    }
+
+    public static ContactIndex get(Context context) {
+        ContactIndex instance = sInstance;
+        if (instance == null) {
+            synchronized (ContactIndex.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    Context appContext = context.getApplicationContext();
+                    instance = new ContactIndex(appContext, new ContactKeyCache(appContext));
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** Returns one entry per distinct number of each contact, sorted by the provider's display order. */
+    public List<Entry> contacts(CancellationSignal signal) {
+        return snapshot(signal).entries;
+    }
+
+    /** Returns the contact name for the number, or null when no contact has it. */
+    public String lookupName(String number) {
+        return lookup(snapshot(null), number);
+    }
+
+    /** Resolves every number in one pass over the index; numbers without a contact are left out. */
+    public Map<String, String> resolveNames(List<String> numbers, CancellationSignal signal) {
+        Snapshot snapshot = snapshot(signal);
+        Map<String, String> names = new HashMap<>();
+        for (String number : numbers) {
+            if (number == null || names.containsKey(number)) continue;
+            String name = lookup(snapshot, number);
+            if (name != null) names.put(number, name);
+        }
+        return names;
+    }
+
+    /**
+     * Returns false only when the number with this key belongs to no contact.
+     * Without the contacts permission nothing is known, so every number may be a contact.
+     * Never loads on the calling thread; see {@link #warmUp}.
+     */
+    @Override
+    public boolean mayBeContact(long key) {
+        if (key == PhoneNumbers.NO_KEY) return false;
+        if (mSnapshot == null) warmUp();
+        LongHashSet keys = mKeys;
+        if (keys == null) return true;
+        if (keys.contains(key)) return true;
+        long suffix = suffixKey(key);
+        return suffix != PhoneNumbers.NO_KEY && keys.contains(suffix);
+    }
+
+    /** Loads the index on a background thread unless it is loaded or loading already. */
+    public void warmUp() {
+        if (mSnapshot != null || !mWarming.compareAndSet(false, true)) return;
+        handler().post(() -> {
+            try {
+                snapshot(null);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to load contacts", e);
+            } finally {
+                mWarming.set(false);
+            }
+        });
+    }
+
+    public static List<Map<String, Object>> toMaps(List<Entry> entries) {
+        List<Map<String, Object>> contacts = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            Map<String, Object> contact = new HashMap<>();
+            contact.put("name", entry.name);
+            contact.put("number", entry.number);
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+
+    public static ByteBuffer pack(List<Entry> entries) {
+        PackedTable.Builder builder = new PackedTable.Builder(
+            new String[] { "name", "number" },
+            new byte[] { PackedTable.TYPE_STRING, PackedTable.TYPE_STRING },
+            entries.size()
+        );
+        for (Entry entry : entries) {
+            int row = builder.addRow();
+            builder.setString(row, 0, entry.name);
+            builder.setString(row, 1, entry.number);
+        }
+        return builder.build();
+    }
+
+    private static String lookup(Snapshot snapshot, String number) {
+        String digits = PhoneNumbers.digitsOf(number);
+        String name = snapshot.byNumber.get(PhoneNumbers.toKey(digits));
+        if (name != null || digits.length() < MIN_MATCH) return name;
+        return snapshot.bySuffix.get(suffixKey(digits));
+    }
+
+    private static long suffixKey(String digits) {
+        return PhoneNumbers.toKey(digits.substring(digits.length() - MIN_MATCH));
+    }
+
+    // Same key as suffixKey(String) without building the digit string
+    private static long suffixKey(long key) {
+        int length = (int) (key >>> PhoneNumbers.LENGTH_SHIFT);
+        if (length < MIN_MATCH) return PhoneNumbers.NO_KEY;
+        long value = key & ((1L << PhoneNumbers.LENGTH_SHIFT) - 1);
+        return ((long) MIN_MATCH << PhoneNumbers.LENGTH_SHIFT) | (value % MIN_MATCH_MODULUS);
+    }
+
+    private synchronized Handler handler() {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread("spy3-contacts");
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        return mHandler;
+    }
+
+    private Snapshot snapshot(CancellationSignal signal) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot != null) return snapshot;
+        synchronized (mLoadLock) {
+            snapshot = mSnapshot;
+            if (snapshot == null) {
+                int generation = mGeneration;
+                snapshot = load(signal);
+                // Without permission the result is empty and must not be cached
+                if (snapshot != EMPTY && generation == mGeneration) {
+                    mSnapshot = snapshot;
+                    mKeys = snapshot.keys;
+                    mCache.write(snapshot.keys);
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot load(CancellationSignal signal) {
+        if (!hasPermission()) return EMPTY;
+
+        Cursor cursor = mContext.getContentResolver().query(
+            ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
+            PROJECTION,
+            null, null,
+            ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
+            signal
+        );
+        if (cursor == null) return EMPTY;
+
+        List<Entry> entries = new ArrayList<>();
+        Map<Long, String> byNumber = new HashMap<>();
+        Map<Long, String> bySuffix = new HashMap<>();
+        LongHashSet keys = new LongHashSet(cursor.getCount() * 2);
+        Set<String> seen = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                long contactId = cursor.getLong(0);
+                String name = cursor.getString(1);
+                String number = cursor.getString(2);
+                // The normalized form carries the country code when the provider knows it
+                String normalized = cursor.getString(3);
+                String digits = PhoneNumbers.digitsOf(normalized != null ? normalized : number);
+                if (digits.isEmpty() || !seen.add(contactId + ":" + digits)) continue;
+
+                entries.add(new Entry(contactId, name, number));
+                keys.add(PhoneNumbers.toKey(digits));
+                keys.add(PhoneNumbers.toKey(PhoneNumbers.digitsOf(number)));
+                if (digits.length() >= MIN_MATCH) keys.add(suffixKey(digits));
+                if (name == null) continue;
+                putName(byNumber, PhoneNumbers.toKey(digits), name);
+                if (!digits.equals(PhoneNumbers.digitsOf(number))) {
+                    putName(byNumber, PhoneNumbers.toKey(PhoneNumbers.digitsOf(number)), name);
+                }
+                if (digits.length() >= MIN_MATCH) {
+                    long suffix = suffixKey(digits);
+                    if (!bySuffix.containsKey(suffix)) {
+                        bySuffix.put(suffix, name);
+                    } else if (!name.equals(bySuffix.get(suffix))) {
+                        bySuffix.put(suffix, null);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.d(TAG, "Indexed " + entries.size() + " numbers");
+        return new Snapshot(Collections.unmodifiableList(entries), byNumber, bySuffix, keys);
+    }
+
+    private boolean hasPermission() {
+        return ContextCompat.checkSelfPermission(mContext, Manifest.permission.READ_CONTACTS)
+            == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static void putName(Map<Long, String> byNumber, long key, String name) {
+        if (key != PhoneNumbers.NO_KEY && !byNumber.containsKey(key)) byNumber.put(key, name);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.spy3.data;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.spy3.blocking.LongHashSet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Contact number keys kept on disk between runs, next to the blocklist and
+ * screening rule caches. A call that starts the process can then check a
+ * not-in-contacts rule from one mapped read of the key table, instead of
+ * failing open until the contacts provider has been read. The file is only a
+ * cache; {@link ContactIndex} replaces it whenever it loads the provider.
+ */
+class ContactKeyCache {
+    private static final String TAG = "ContactKeyCache";
+    private static final String FILE_NAME = "contact_keys.cache";
+    private static final int MAGIC = 0x53505943; // "SPYC"
+    private static final int FORMAT_VERSION = 1;
+
+    private final AtomicFile mFile;
+
+    ContactKeyCache(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /** Returns the saved keys, or null when there are none or they cannot be used. */
+    LongHashSet read() {
+        try (FileInputStream stream = mFile.openRead();
+             FileChannel channel = stream.getChannel()) {
+            // The table is copied out in bulk, so the mapping is only needed while reading
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+            LongHashSet keys = LongHashSet.readFrom(buffer);
+            if (buffer.hasRemaining()) throw new IOException("Trailing bytes");
+            return keys;
+        } catch (FileNotFoundException e) {
+            // First run, or the contacts were never loaded
+            return null;
+        } catch (IOException | BufferUnderflowException e) {
+            Log.w(TAG, "Discarding unreadable contact key cache", e);
+            mFile.delete();
+            return null;
+        }
+    }
+
+    void write(LongHashSet keys) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            keys.writeTo(out);
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write contact key cache", e);
+            if (stream != null) mFile.failWrite(stream);
+        }
+    }
+
+    void delete() {
+        mFile.delete();
+    }
+}
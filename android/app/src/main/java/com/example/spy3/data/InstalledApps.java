@@ -0,0 +1,81 @@
+package com.example.spy3.data;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Converts installed packages for the method and packed channels; {@link InstalledAppsCache} holds the list. */
+public final class InstalledApps {
+
+    public static final class AppEntry {
+        public final String packageName;
+        public final String appName;
+        public final String version;
+        public final boolean isSystemApp;
+        public final long installTime;
+        public final long lastUpdateTime;
+
+        public AppEntry(String packageName, String appName, String version, boolean isSystemApp,
+                        long installTime, long lastUpdateTime) {
+            this.packageName = packageName;
+            this.appName = appName;
+            this.version = version;
+            this.isSystemApp = isSystemApp;
+            this.installTime = installTime;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+    }
+
+    private InstalledApps() {
+    }
+
+    public static AppEntry toEntry(PackageManager packageManager, PackageInfo packageInfo) {
+        ApplicationInfo appInfo = packageInfo.applicationInfo;
+        return new AppEntry(
+            packageInfo.packageName,
+            packageManager.getApplicationLabel(appInfo).toString(),
+            packageInfo.versionName != null ? packageInfo.versionName : "Unknown",
+            (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0,
+            packageInfo.firstInstallTime,
+            packageInfo.lastUpdateTime
+        );
+    }
+
+    public static List<Map<String, Object>> toMaps(List<AppEntry> apps) {
+        List<Map<String, Object>> appsList = new ArrayList<>(apps.size());
+        for (AppEntry app : apps) {
+            Map<String, Object> appData = new HashMap<>();
+            appData.put("packageName", app.packageName);
+            appData.put("appName", app.appName);
+            appData.put("version", app.version);
+            appData.put("isSystemApp", app.isSystemApp);
+            appData.put("installTime", app.installTime);
+            appsList.add(appData);
+        }
+        return appsList;
+    }
+
+    public static ByteBuffer pack(List<AppEntry> apps) {
+        PackedTable.Builder builder = new PackedTable.Builder(
+            new String[] { "packageName", "appName", "version", "isSystemApp", "installTime" },
+            new byte[] { PackedTable.TYPE_STRING, PackedTable.TYPE_STRING, PackedTable.TYPE_STRING,
+                PackedTable.TYPE_BOOL, PackedTable.TYPE_LONG },
+            apps.size()
+        );
+        for (AppEntry app : apps) {
+            int row = builder.addRow();
+            builder.setString(row, 0, app.packageName);
+            builder.setString(row, 1, app.appName);
+            builder.setString(row, 2, app.version);
+            builder.setBool(row, 3, app.isSystemApp);
+            builder.setLong(row, 4, app.installTime);
+        }
+        return builder.build();
+    }
+}
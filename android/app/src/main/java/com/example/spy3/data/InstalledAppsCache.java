@@ -0,0 +1,244 @@
+package com.example.spy3.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Installed apps keyed by package name, kept on disk between runs. Label lookups
+ * are the expensive part of listing apps, so an entry is only rebuilt when its
+ * package's lastUpdateTime changes. The first read in a process compares the
+ * cache against a cheap package listing; after that, package broadcasts keep it
+ * current and reads are served from memory.
+ */
+public final class InstalledAppsCache {
+    private static final String TAG = "InstalledAppsCache";
+    private static final String FILE_NAME = "installed_apps.cache";
+    private static final int FORMAT_VERSION = 1;
+    private static final int LABEL_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static volatile InstalledAppsCache sInstance;
+
+    private final PackageManager mPackageManager;
+    private final AtomicFile mFile;
+    private final Object mLock = new Object();
+    private final Handler mHandler;
+    // Guarded by mLock
+    private Map<String, InstalledApps.AppEntry> mApps;
+    private boolean mValidated;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data == null) return;
+            String packageName = data.getSchemeSpecificPart();
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+                // An update sends REMOVED then REPLACED; only a real uninstall drops the entry
+                if (!intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) removePackage(packageName);
+            } else {
+                updatePackage(packageName);
+            }
+        }
+    };
+
+    private InstalledAppsCache(Context context) {
+        mPackageManager = context.getPackageManager();
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+
+        HandlerThread thread = new HandlerThread("spy3-apps");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, filter, null, mHandler);
+    }
+
+    public static InstalledAppsCache get(Context context) {
+        InstalledAppsCache instance = sInstance;
+        if (instance == null) {
+            synchronized (InstalledAppsCache.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new InstalledAppsCache(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** Returns every installed app. Only packages that changed since the cache was written are resolved. */
+    public List<InstalledApps.AppEntry> apps(CancellationSignal signal) {
+        synchronized (mLock) {
+            if (mApps == null) mApps = readFile();
+            if (!mValidated) {
+                validate(signal);
+                mValidated = true;
+            }
+            return new ArrayList<>(mApps.values());
+        }
+    }
+
+    // Caller holds mLock
+    private void validate(CancellationSignal signal) {
+        // Flags 0 skips meta-data; the listing alone is cheap compared to the labels
+        List<PackageInfo> packages = mPackageManager.getInstalledPackages(0);
+        Map<String, InstalledApps.AppEntry> current = new HashMap<>(packages.size() * 2);
+        List<PackageInfo> misses = new ArrayList<>();
+        for (PackageInfo packageInfo : packages) {
+            InstalledApps.AppEntry cached = mApps.get(packageInfo.packageName);
+            if (cached != null && cached.lastUpdateTime == packageInfo.lastUpdateTime) {
+                current.put(packageInfo.packageName, cached);
+            } else {
+                misses.add(packageInfo);
+            }
+        }
+
+        for (InstalledApps.AppEntry entry : resolveLabels(misses, signal)) {
+            current.put(entry.packageName, entry);
+        }
+        boolean changed = !misses.isEmpty() || current.size() != mApps.size();
+        mApps = current;
+        Log.d(TAG, "Validated " + current.size() + " apps, resolved " + misses.size());
+        if (changed) writeFile();
+    }
+
+    private List<InstalledApps.AppEntry> resolveLabels(List<PackageInfo> packages, CancellationSignal signal) {
+        List<InstalledApps.AppEntry> entries = new ArrayList<>(packages.size());
+        if (packages.size() < 2 * LABEL_THREADS) {
+            for (PackageInfo packageInfo : packages) {
+                if (signal != null) signal.throwIfCanceled();
+                entries.add(InstalledApps.toEntry(mPackageManager, packageInfo));
+            }
+            return entries;
+        }
+
+        // A cold cache resolves hundreds of labels; each is a binder call, so they run side by side
+        ExecutorService executor = Executors.newFixedThreadPool(LABEL_THREADS);
+        try {
+            List<Future<InstalledApps.AppEntry>> futures = new ArrayList<>(packages.size());
+            for (PackageInfo packageInfo : packages) {
+                Callable<InstalledApps.AppEntry> task = () -> InstalledApps.toEntry(mPackageManager, packageInfo);
+                futures.add(executor.submit(task));
+            }
+            for (Future<InstalledApps.AppEntry> future : futures) {
+                if (signal != null) signal.throwIfCanceled();
+                entries.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading app labels", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load app labels", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return entries;
+    }
+
+    private void updatePackage(String packageName) {
+        InstalledApps.AppEntry entry;
+        try {
+            entry = InstalledApps.toEntry(mPackageManager, mPackageManager.getPackageInfo(packageName, 0));
+        } catch (PackageManager.NameNotFoundException e) {
+            removePackage(packageName);
+            return;
+        }
+        synchronized (mLock) {
+            // Before the first read there is nothing to patch; validation will pick it up
+            if (mApps == null) return;
+            mApps.put(packageName, entry);
+            writeFile();
+        }
+    }
+
+    private void removePackage(String packageName) {
+        synchronized (mLock) {
+            if (mApps == null || mApps.remove(packageName) == null) return;
+            writeFile();
+        }
+    }
+
+    // Caller holds mLock
+    private Map<String, InstalledApps.AppEntry> readFile() {
+        Map<String, InstalledApps.AppEntry> apps = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(mFile.openRead()))) {
+            // Labels are localized, so a cache written under another locale is discarded
+            if (in.readInt() != FORMAT_VERSION || !locale().equals(in.readUTF())) return apps;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                InstalledApps.AppEntry entry = new InstalledApps.AppEntry(
+                    in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean(), in.readLong(), in.readLong());
+                apps.put(entry.packageName, entry);
+            }
+        } catch (FileNotFoundException e) {
+            // First run
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable app cache", e);
+            apps.clear();
+        }
+        return apps;
+    }
+
+    // Caller holds mLock
+    private void writeFile() {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(locale());
+            out.writeInt(mApps.size());
+            for (InstalledApps.AppEntry entry : mApps.values()) {
+                out.writeUTF(entry.packageName);
+                out.writeUTF(entry.appName);
+                out.writeUTF(entry.version);
+                out.writeBoolean(entry.isSystemApp);
+                out.writeLong(entry.installTime);
+                out.writeLong(entry.lastUpdateTime);
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write app cache", e);
+            if (stream != null) mFile.failWrite(stream);
+        }
+    }
+
+    private static String locale() {
+        return Locale.getDefault().toString();
+    }
+}
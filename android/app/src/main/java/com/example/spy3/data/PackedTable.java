@@ -0,0 +1,206 @@
+package com.example.spy3.data;
+
+import android.database.Cursor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented binary encoding for large query results sent to Dart. Numeric
+ * columns are written as packed little-endian arrays and string columns as
+ * indices into one deduplicated string table, so a result set costs a single
+ * direct {@link ByteBuffer} instead of one map and several boxed values per row.
+ *
+ * <p>Layout (all integers little-endian, sections padded to 8 bytes):
+ * <pre>
+ * int magic, int rowCount, int columnCount, int stringCount
+ * per column: byte type, byte nameLength, name (ASCII)
+ * int[stringCount + 1] string offsets into the UTF-8 blob, then the blob
+ * per column: rowCount values (long: 8 bytes, int: 4, bool: 1, string: int index or -1)
+ * </pre>
+ * The Dart reader is lib/services/packed_table.dart.
+ */
+public final class PackedTable {
+    public static final int MAGIC = 0x314B4150; // "PAK1"
+
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_INT = 2;
+    public static final byte TYPE_BOOL = 3;
+    public static final byte TYPE_STRING = 4;
+
+    private PackedTable() {
+    }
+
+    /** Packs every remaining row of the cursor; column i is read as {@code types[i]}. */
+    public static ByteBuffer fromCursor(Cursor cursor, String[] names, byte[] types) {
+        Builder builder = new Builder(names, types, Math.max(cursor.getCount(), 0));
+        while (cursor.moveToNext()) {
+            int row = builder.addRow();
+            for (int column = 0; column < types.length; column++) {
+                if (cursor.isNull(column)) {
+                    if (types[column] == TYPE_STRING) builder.setString(row, column, null);
+                    continue;
+                }
+                switch (types[column]) {
+                    case TYPE_LONG:
+                        builder.setLong(row, column, cursor.getLong(column));
+                        break;
+                    case TYPE_INT:
+                        builder.setInt(row, column, cursor.getInt(column));
+                        break;
+                    case TYPE_BOOL:
+                        builder.setBool(row, column, cursor.getInt(column) != 0);
+                        break;
+                    default:
+                        builder.setString(row, column, cursor.getString(column));
+                        break;
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    public static final class Builder {
+        private final String[] names;
+        private final byte[] types;
+        private final long[][] longs;
+        private final int[][] ints;
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int stringBytes;
+        private int rowCount;
+        private int capacity;
+
+        public Builder(String[] names, byte[] types, int expectedRows) {
+            if (names.length != types.length) {
+                throw new IllegalArgumentException("Column names and types differ in length");
+            }
+            this.names = names;
+            this.types = types;
+            this.capacity = Math.max(expectedRows, 16);
+            longs = new long[types.length][];
+            ints = new int[types.length][];
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == TYPE_LONG) {
+                    longs[i] = new long[capacity];
+                } else {
+                    ints[i] = new int[capacity];
+                    if (types[i] == TYPE_STRING) Arrays.fill(ints[i], -1);
+                }
+            }
+        }
+
+        /** Appends an empty row and returns its index. */
+        public int addRow() {
+            if (rowCount == capacity) {
+                int grown = capacity * 2;
+                for (int i = 0; i < types.length; i++) {
+                    if (longs[i] != null) {
+                        longs[i] = Arrays.copyOf(longs[i], grown);
+                    } else {
+                        ints[i] = Arrays.copyOf(ints[i], grown);
+                        if (types[i] == TYPE_STRING) Arrays.fill(ints[i], capacity, grown, -1);
+                    }
+                }
+                capacity = grown;
+            }
+            return rowCount++;
+        }
+
+        public void setLong(int row, int column, long value) {
+            longs[column][row] = value;
+        }
+
+        public void setInt(int row, int column, int value) {
+            ints[column][row] = value;
+        }
+
+        public void setBool(int row, int column, boolean value) {
+            ints[column][row] = value ? 1 : 0;
+        }
+
+        public void setString(int row, int column, String value) {
+            if (value == null) {
+                ints[column][row] = -1;
+                return;
+            }
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                id = strings.size();
+                strings.add(utf8);
+                stringIds.put(value, id);
+                stringBytes += utf8.length;
+            }
+            ints[column][row] = id;
+        }
+
+        /** Returns the table with the buffer's position at its end, ready to reply with. */
+        public ByteBuffer build() {
+            int size = 16;
+            for (String name : names) size += 2 + name.length();
+            size = align(size) + align(4 * (strings.size() + 1) + stringBytes);
+            for (byte type : types) size += align(rowCount * width(type));
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(rowCount).putInt(types.length).putInt(strings.size());
+            for (int i = 0; i < types.length; i++) {
+                buffer.put(types[i]).put((byte) names[i].length());
+                buffer.put(names[i].getBytes(StandardCharsets.US_ASCII));
+            }
+            pad(buffer);
+
+            int offset = 0;
+            for (byte[] utf8 : strings) {
+                buffer.putInt(offset);
+                offset += utf8.length;
+            }
+            buffer.putInt(offset);
+            for (byte[] utf8 : strings) buffer.put(utf8);
+            pad(buffer);
+
+            for (int i = 0; i < types.length; i++) {
+                switch (types[i]) {
+                    case TYPE_LONG:
+                        for (int row = 0; row < rowCount; row++) buffer.putLong(longs[i][row]);
+                        break;
+                    case TYPE_BOOL:
+                        for (int row = 0; row < rowCount; row++) buffer.put((byte) ints[i][row]);
+                        break;
+                    default:
+                        for (int row = 0; row < rowCount; row++) buffer.putInt(ints[i][row]);
+                        break;
+                }
+                pad(buffer);
+            }
+            // Left at the end of the data: the binary messenger sends a direct
+            // reply's bytes up to its position
+            return buffer;
+        }
+
+        private static int width(byte type) {
+            switch (type) {
+                case TYPE_LONG:
+                    return 8;
+                case TYPE_BOOL:
+                    return 1;
+                default:
+                    return 4;
+            }
+        }
+
+        private static int align(int size) {
+            return (size + 7) & ~7;
+        }
+
+        private static void pad(ByteBuffer buffer) {
+            while ((buffer.position() & 7) != 0) buffer.put((byte) 0);
+        }
+    }
+}
@@ -0,0 +1,587 @@
+package com.example.spy3.data;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.CallLog;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.example.spy3.blocking.PhoneNumbers;
+import com.example.spy3.providers.BlockedNumbersProvider;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Search-as-you-type over every number the app knows about. Contacts, exact
+ * blocked numbers and the call log are merged into one entry per distinct
+ * number, and each entry's digits and folded name are split into trigrams.
+ * A query looks up the posting list of each of its trigrams, intersects them
+ * and checks only the surviving entries, so "4567" costs the same with fifty
+ * thousand call log rows as with fifty.
+ *
+ * <p>Contacts and blocked numbers are each watched by a {@link ContentObserver}.
+ * A change marks only that source stale and rebuilds the index in the
+ * background shortly after. The call log follows {@link CallLogChanges}
+ * instead: rows after the highest _id read so far are folded into the
+ * per-number counts, and only a deletion rereads the whole log. Searches keep
+ * answering from the previous index until the new one is published.
+ */
+public final class SearchIndex {
+    private static final String TAG = "SearchIndex";
+    // Folds the several notifications a single edit or call produces into one rebuild
+    private static final long CHANGE_DEBOUNCE_MS = 500;
+    // Only the newest exact numbers of a large imported list are searchable
+    private static final int MAX_BLOCKED = 50_000;
+    private static final int GRAM = 3;
+    private static final int DIGIT_GRAMS = 1000;
+    public static final int MAX_LIMIT = 200;
+
+    private static final int SOURCE_CONTACTS = 1;
+    private static final int SOURCE_BLOCKED = 1 << 1;
+    private static final int SOURCE_CALLS = 1 << 2;
+    private static final int ALL_SOURCES = SOURCE_CONTACTS | SOURCE_BLOCKED | SOURCE_CALLS;
+
+    // How well the query matched, before the small bonus for contacts
+    private static final int SCORE_EXACT = 100;
+    private static final int SCORE_NAME_PREFIX = 90;
+    private static final int SCORE_SUFFIX = 80;
+    private static final int SCORE_WORD_PREFIX = 75;
+    private static final int SCORE_PREFIX = 70;
+    private static final int SCORE_CONTAINS = 50;
+    private static final int SCORE_CONTACT_BONUS = 5;
+
+    /** One number as read from a single source. */
+    private static final class Row {
+        // For calls, as written on the latest one
+        String number;
+        final String digits;
+        final String name;
+        int calls;
+        long lastCall;
+
+        Row(String number, String digits, String name) {
+            this.number = number;
+            this.digits = digits;
+            this.name = name;
+        }
+    }
+
+    /** One distinct number across all sources; only mutated while it is being merged. */
+    private static final class Entry {
+        final String number;
+        final String digits;
+        String name;
+        String nameKey;
+        boolean contact;
+        boolean blocked;
+        int calls;
+        long lastCall;
+
+        Entry(String number, String digits) {
+            this.number = number;
+            this.digits = digits;
+        }
+    }
+
+    private static final class Index {
+        final Entry[] entries;
+        // Ascending entry positions per trigram; digit trigrams are indexed by their value
+        final int[][] digitGrams;
+        final Map<String, int[]> nameGrams;
+
+        Index(Entry[] entries, int[][] digitGrams, Map<String, int[]> nameGrams) {
+            this.entries = entries;
+            this.digitGrams = digitGrams;
+            this.nameGrams = nameGrams;
+        }
+    }
+
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            // An entry containing the same trigram twice is listed once
+            if (size > 0 && ids[size - 1] == id) return;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    private static volatile SearchIndex sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+    private final AtomicInteger mStale = new AtomicInteger(ALL_SOURCES);
+    private final Runnable mRebuild = () -> {
+        try {
+            rebuild(null);
+        } catch (RuntimeException e) {
+            // The failed sources stay stale and are read again on the next change or search
+            Log.w(TAG, "Failed to rebuild search index", e);
+        }
+    };
+    private volatile Index mIndex;
+    // Last rows read from each source, guarded by mLock
+    private List<Row> mContacts = Collections.emptyList();
+    private List<Row> mBlocked = Collections.emptyList();
+    // One row per number, with every call up to mCallMaxId; also guarded by mLock
+    private final Map<String, Row> mCalls = new HashMap<>();
+    private long mCallMaxId;
+    private int mCallRows;
+
+    private SearchIndex(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread("spy3-search");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        observe(ContactsContract.Contacts.CONTENT_URI, SOURCE_CONTACTS);
+        observe(BlockedNumbersProvider.CONTENT_URI, SOURCE_BLOCKED);
+        CallLogChanges.get(context).addListener(this::onCallLogChanged);
+    }
+
+    public static SearchIndex get(Context context) {
+        SearchIndex instance = sInstance;
+        if (instance == null) {
+            synchronized (SearchIndex.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new SearchIndex(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns up to {@code limit} entries matching the query, best first. A query
+     * with any letter matches names; otherwise its digits match numbers, with a
+     * whole number ranked above a suffix, a prefix and then any other position.
+     */
+    public List<Map<String, Object>> search(String query, int limit, CancellationSignal signal) {
+        Index index = index(signal);
+        // A source that could not be read, such as one without permission, is retried in the background
+        if (mStale.get() != 0) scheduleRebuild();
+
+        String trimmed = query != null ? query.trim() : "";
+        boolean byName = hasLetter(trimmed);
+        String needle = byName ? fold(trimmed) : PhoneNumbers.digitsOf(trimmed);
+        if (needle.isEmpty()) return Collections.emptyList();
+
+        int[] candidates = candidates(index, needle, byName);
+        int count = candidates != null ? candidates.length : index.entries.length;
+        // Score in the high bits and position in the low bits, so one sort ranks and breaks ties
+        long[] ranked = new long[count];
+        int matched = 0;
+        for (int i = 0; i < count; i++) {
+            if ((i & 0xFFF) == 0 && signal != null) signal.throwIfCanceled();
+            int position = candidates != null ? candidates[i] : i;
+            Entry entry = index.entries[position];
+            int score = byName ? nameScore(entry.nameKey, needle) : digitScore(entry.digits, needle);
+            if (score == 0) continue;
+            if (entry.contact) score += SCORE_CONTACT_BONUS;
+            ranked[matched++] = ((long) (SCORE_EXACT + SCORE_CONTACT_BONUS - score) << 32) | position;
+        }
+        Arrays.sort(ranked, 0, matched);
+
+        int size = Math.min(matched, Math.max(1, Math.min(limit, MAX_LIMIT)));
+        List<Map<String, Object>> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Entry entry = index.entries[(int) ranked[i]];
+            Map<String, Object> result = new HashMap<>();
+            result.put("number", entry.number);
+            result.put("name", entry.name);
+            result.put("contact", entry.contact);
+            result.put("blocked", entry.blocked);
+            result.put("calls", entry.calls);
+            result.put("lastCall", entry.lastCall);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private void observe(Uri uri, int source) {
+        mContext.getContentResolver().registerContentObserver(uri, true, new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mStale.getAndUpdate(stale -> stale | source);
+                scheduleRebuild();
+            }
+        });
+    }
+
+    // Runs on the call log thread; new calls are added in place of a full reread
+    private void onCallLogChanged() {
+        synchronized (mLock) {
+            // Never built, or the whole log is due to be read anyway
+            if (mIndex == null || (mStale.get() & SOURCE_CALLS) != 0) return;
+            int added;
+            try {
+                added = addCalls(null);
+                // Fewer rows than were read means some were deleted, which only a reread can show
+                if (added >= 0 && countCallsUpTo(mCallMaxId) != mCallRows) added = -1;
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to add calls to search index", e);
+                added = -1;
+            }
+            if (added < 0) {
+                retry(SOURCE_CALLS);
+                scheduleRebuild();
+            } else if (added > 0) {
+                publish();
+            }
+        }
+    }
+
+    private void scheduleRebuild() {
+        mHandler.removeCallbacks(mRebuild);
+        mHandler.postDelayed(mRebuild, CHANGE_DEBOUNCE_MS);
+    }
+
+    private Index index(CancellationSignal signal) {
+        Index index = mIndex;
+        if (index != null) return index;
+        synchronized (mLock) {
+            if (mIndex == null) rebuild(signal);
+            return mIndex;
+        }
+    }
+
+    // Rereads the stale sources and publishes a new index built from all of them
+    private void rebuild(CancellationSignal signal) {
+        synchronized (mLock) {
+            int stale = mStale.getAndSet(0);
+            if (stale == 0 && mIndex != null) return;
+            try {
+                if ((stale & SOURCE_CONTACTS) != 0) mContacts = readContacts(signal);
+                if ((stale & SOURCE_BLOCKED) != 0) mBlocked = readBlocked(signal);
+                if ((stale & SOURCE_CALLS) != 0) readCalls(signal);
+            } catch (RuntimeException e) {
+                // Canceled or failed; the whole set is read again next time
+                mStale.getAndUpdate(current -> current | stale);
+                throw e;
+            }
+            publish();
+        }
+    }
+
+    // Caller holds mLock
+    private void publish() {
+        long start = System.nanoTime();
+        mIndex = build(merge(mContacts, mBlocked, mCalls.values()));
+        Log.d(TAG, "Indexed " + mIndex.entries.length + " numbers in "
+            + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private List<Row> readContacts(CancellationSignal signal) {
+        if (!granted(Manifest.permission.READ_CONTACTS)) return retry(SOURCE_CONTACTS);
+        List<ContactIndex.Entry> contacts = ContactIndex.get(mContext).contacts(signal);
+        List<Row> rows = new ArrayList<>(contacts.size());
+        for (ContactIndex.Entry contact : contacts) {
+            String digits = PhoneNumbers.digitsOf(contact.number);
+            if (!digits.isEmpty()) rows.add(new Row(contact.number, digits, contact.name));
+        }
+        return rows;
+    }
+
+    private List<Row> readBlocked(CancellationSignal signal) {
+        Cursor cursor = mContext.getContentResolver().query(
+            BlockedNumbersProvider.CONTENT_URI,
+            new String[] { BlockedNumbersProvider.COLUMN_NUMBER, BlockedNumbersProvider.COLUMN_NAME },
+            BlockedNumbersProvider.COLUMN_RULE_TYPE + " = " + BlockedNumbersProvider.RULE_TYPE_EXACT,
+            null,
+            BlockedNumbersProvider.COLUMN_ID + " DESC",
+            signal
+        );
+        if (cursor == null) return retry(SOURCE_BLOCKED);
+        List<Row> rows = new ArrayList<>(Math.min(cursor.getCount(), MAX_BLOCKED));
+        try {
+            while (rows.size() < MAX_BLOCKED && cursor.moveToNext()) {
+                String number = cursor.getString(0);
+                String digits = PhoneNumbers.digitsOf(number);
+                if (!digits.isEmpty()) rows.add(new Row(number, digits, cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    // Caller holds mLock; rereads the whole call log into one row per distinct number
+    private void readCalls(CancellationSignal signal) {
+        mCalls.clear();
+        mCallMaxId = 0;
+        mCallRows = 0;
+        if (!granted(Manifest.permission.READ_CALL_LOG) || addCalls(signal) < 0) retry(SOURCE_CALLS);
+    }
+
+    // Caller holds mLock; folds the calls after mCallMaxId into their numbers' rows
+    // and returns how many there were, or -1 when the call log could not be read
+    private int addCalls(CancellationSignal signal) {
+        Cursor cursor = mContext.getContentResolver().query(
+            CallLog.Calls.CONTENT_URI,
+            new String[] { CallLog.Calls._ID, CallLog.Calls.NUMBER, CallLog.Calls.DATE },
+            CallLog.Calls._ID + " > ?",
+            new String[] { String.valueOf(mCallMaxId) },
+            CallLog.Calls._ID + " ASC",
+            signal
+        );
+        if (cursor == null) return -1;
+        int added = 0;
+        try {
+            while (cursor.moveToNext()) {
+                mCallMaxId = Math.max(mCallMaxId, cursor.getLong(0));
+                mCallRows++;
+                added++;
+                String number = cursor.getString(1);
+                String digits = PhoneNumbers.digitsOf(number);
+                if (digits.isEmpty()) continue;
+                long date = cursor.getLong(2);
+                Row row = mCalls.get(digits);
+                if (row == null) {
+                    row = new Row(number, digits, null);
+                    mCalls.put(digits, row);
+                }
+                if (date >= row.lastCall) {
+                    row.number = number;
+                    row.lastCall = date;
+                }
+                row.calls++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return added;
+    }
+
+    private int countCallsUpTo(long maxId) {
+        Cursor cursor = mContext.getContentResolver().query(CallLog.Calls.CONTENT_URI,
+            new String[] { CallLog.Calls._ID }, CallLog.Calls._ID + " <= ?",
+            new String[] { String.valueOf(maxId) }, null);
+        if (cursor == null) return -1;
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private List<Row> retry(int source) {
+        mStale.getAndUpdate(stale -> stale | source);
+        return Collections.emptyList();
+    }
+
+    private boolean granted(String permission) {
+        return ContextCompat.checkSelfPermission(mContext, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * Folds the sources into one entry per number. Call log and blocked numbers
+     * often carry a country code the contact lacks, so they also join a contact
+     * on their last {@link ContactIndex#MIN_MATCH} digits when only one contact
+     * number ends that way.
+     */
+    private static Entry[] merge(List<Row> contacts, List<Row> blocked, Collection<Row> calls) {
+        Map<String, Entry> byDigits = new HashMap<>();
+        Map<String, Entry> bySuffix = new HashMap<>();
+        List<Entry> entries = new ArrayList<>();
+        for (Row row : contacts) {
+            Entry entry = byDigits.get(row.digits);
+            if (entry == null) {
+                entry = new Entry(row.number, row.digits);
+                byDigits.put(row.digits, entry);
+                entries.add(entry);
+            }
+            entry.contact = true;
+            if (entry.name == null) entry.name = row.name;
+            String suffix = suffix(row.digits);
+            if (suffix == null) continue;
+            // null marks a suffix shared by different contact numbers
+            bySuffix.put(suffix, bySuffix.containsKey(suffix) && bySuffix.get(suffix) != entry ? null : entry);
+        }
+        for (Row row : blocked) {
+            Entry entry = find(row, byDigits, bySuffix, entries);
+            entry.blocked = true;
+            if (entry.name == null) entry.name = row.name;
+        }
+        for (Row row : calls) {
+            Entry entry = find(row, byDigits, bySuffix, entries);
+            entry.calls += row.calls;
+            entry.lastCall = Math.max(entry.lastCall, row.lastCall);
+        }
+
+        // Ties in score go to the most recently called number, then by name
+        Collections.sort(entries, (a, b) -> {
+            if (a.lastCall != b.lastCall) return Long.compare(b.lastCall, a.lastCall);
+            if (a.name == null || b.name == null) return a.name != null ? -1 : b.name != null ? 1 : 0;
+            return a.name.compareToIgnoreCase(b.name);
+        });
+        for (Entry entry : entries) {
+            entry.nameKey = entry.name != null ? fold(entry.name) : "";
+        }
+        return entries.toArray(new Entry[0]);
+    }
+
+    private static Entry find(Row row, Map<String, Entry> byDigits, Map<String, Entry> bySuffix, List<Entry> entries) {
+        Entry entry = byDigits.get(row.digits);
+        if (entry != null) return entry;
+        String suffix = suffix(row.digits);
+        entry = suffix != null ? bySuffix.get(suffix) : null;
+        if (entry != null) return entry;
+        entry = new Entry(row.number, row.digits);
+        byDigits.put(row.digits, entry);
+        entries.add(entry);
+        return entry;
+    }
+
+    private static String suffix(String digits) {
+        int length = digits.length();
+        return length >= ContactIndex.MIN_MATCH ? digits.substring(length - ContactIndex.MIN_MATCH) : null;
+    }
+
+    private static Index build(Entry[] entries) {
+        // Digit postings are counted first so each list is allocated once at its final size
+        int[] counts = new int[DIGIT_GRAMS];
+        int[] last = new int[DIGIT_GRAMS];
+        Arrays.fill(last, -1);
+        for (int i = 0; i < entries.length; i++) {
+            String digits = entries[i].digits;
+            for (int j = 0; j + GRAM <= digits.length(); j++) {
+                int gram = digitGram(digits, j);
+                if (last[gram] != i) {
+                    last[gram] = i;
+                    counts[gram]++;
+                }
+            }
+        }
+        int[][] digitGrams = new int[DIGIT_GRAMS][];
+        for (int gram = 0; gram < DIGIT_GRAMS; gram++) {
+            digitGrams[gram] = new int[counts[gram]];
+            counts[gram] = 0;
+        }
+        Arrays.fill(last, -1);
+        Map<String, Postings> names = new HashMap<>();
+        for (int i = 0; i < entries.length; i++) {
+            String digits = entries[i].digits;
+            for (int j = 0; j + GRAM <= digits.length(); j++) {
+                int gram = digitGram(digits, j);
+                if (last[gram] != i) {
+                    last[gram] = i;
+                    digitGrams[gram][counts[gram]++] = i;
+                }
+            }
+            String nameKey = entries[i].nameKey;
+            for (int j = 0; j + GRAM <= nameKey.length(); j++) {
+                String gram = nameKey.substring(j, j + GRAM);
+                Postings postings = names.get(gram);
+                if (postings == null) {
+                    postings = new Postings();
+                    names.put(gram, postings);
+                }
+                postings.add(i);
+            }
+        }
+        Map<String, int[]> nameGrams = new HashMap<>(names.size() * 2);
+        for (Map.Entry<String, Postings> gram : names.entrySet()) {
+            Postings postings = gram.getValue();
+            nameGrams.put(gram.getKey(), Arrays.copyOf(postings.ids, postings.size));
+        }
+        return new Index(entries, digitGrams, nameGrams);
+    }
+
+    /**
+     * Returns the positions that contain every trigram of the needle, which is a
+     * superset of the matches. Returns null when the needle is too short to have
+     * a trigram and every entry has to be checked.
+     */
+    private static int[] candidates(Index index, String needle, boolean byName) {
+        if (needle.length() < GRAM) return null;
+        int[] result = null;
+        for (int j = 0; j + GRAM <= needle.length(); j++) {
+            int[] postings = byName
+                ? index.nameGrams.get(needle.substring(j, j + GRAM))
+                : index.digitGrams[digitGram(needle, j)];
+            if (postings == null || postings.length == 0) return new int[0];
+            result = result == null ? postings : intersect(result, postings);
+            if (result.length == 0) break;
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return size == out.length ? out : Arrays.copyOf(out, size);
+    }
+
+    private static int digitScore(String digits, String needle) {
+        if (digits.equals(needle)) return SCORE_EXACT;
+        if (digits.endsWith(needle)) return SCORE_SUFFIX;
+        if (digits.startsWith(needle)) return SCORE_PREFIX;
+        return digits.contains(needle) ? SCORE_CONTAINS : 0;
+    }
+
+    private static int nameScore(String nameKey, String needle) {
+        if (nameKey.equals(needle)) return SCORE_EXACT;
+        if (nameKey.startsWith(needle)) return SCORE_NAME_PREFIX;
+        int at = nameKey.indexOf(needle);
+        if (at < 0) return 0;
+        // Any later occurrence may still start a word
+        for (; at > 0; at = nameKey.indexOf(needle, at + 1)) {
+            if (!Character.isLetterOrDigit(nameKey.charAt(at - 1))) return SCORE_WORD_PREFIX;
+        }
+        return SCORE_CONTAINS;
+    }
+
+    private static int digitGram(String digits, int start) {
+        return (digits.charAt(start) - '0') * 100
+            + (digits.charAt(start + 1) - '0') * 10
+            + (digits.charAt(start + 2) - '0');
+    }
+
+    private static boolean hasLetter(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isLetter(text.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    // Lower case without accents, so a plain query still finds an accented name
+    private static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return decomposed.replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.spy3.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.provider.Telephony;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keyset-paged reads of the SMS provider. Pages are ordered newest first by
+ * (date, _id); the caller passes the date and id of the last row it has seen and
+ * gets the next page, so every page costs the same no matter how deep it is.
+ */
+public final class SmsPageQuery {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+
+    // Channel field name -> provider column. Only these columns can be requested.
+    private static final Map<String, String> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("id", Telephony.Sms._ID);
+        COLUMNS.put("threadId", Telephony.Sms.THREAD_ID);
+        COLUMNS.put("address", Telephony.Sms.ADDRESS);
+        COLUMNS.put("body", Telephony.Sms.BODY);
+        COLUMNS.put("date", Telephony.Sms.DATE);
+        COLUMNS.put("type", Telephony.Sms.TYPE);
+        COLUMNS.put("read", Telephony.Sms.READ);
+    }
+
+    private static final String[] DEFAULT_FIELDS = { "id", "address", "body", "date", "type" };
+
+    private SmsPageQuery() {
+    }
+
+    /**
+     * Loads one page. {@code beforeDate}/{@code beforeId} are the cursor returned with
+     * the previous page, or null for the first page. {@code fields} limits the columns
+     * read and returned; null selects address, body, date and type. Cancelling
+     * {@code signal} aborts the provider query with an OperationCanceledException.
+     */
+    public static Map<String, Object> loadPage(ContentResolver resolver, Long beforeDate, Long beforeId,
+                                               int pageSize, List<String> fields, Long threadId,
+                                               CancellationSignal signal) {
+        int limit = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+
+        List<String> requested = new ArrayList<>();
+        for (String field : fields != null ? fields : Arrays.asList(DEFAULT_FIELDS)) {
+            if (COLUMNS.containsKey(field) && !requested.contains(field)) requested.add(field);
+        }
+        // The cursor columns are always read, even when the caller did not ask for them
+        String[] projection = new String[requested.size() + 2];
+        projection[0] = Telephony.Sms._ID;
+        projection[1] = Telephony.Sms.DATE;
+        for (int i = 0; i < requested.size(); i++) {
+            projection[i + 2] = COLUMNS.get(requested.get(i));
+        }
+
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (beforeDate != null) {
+            long id = beforeId != null ? beforeId : Long.MAX_VALUE;
+            selection.append("(" + Telephony.Sms.DATE + " < ? OR (" + Telephony.Sms.DATE + " = ? AND "
+                    + Telephony.Sms._ID + " < ?))");
+            args.add(String.valueOf(beforeDate));
+            args.add(String.valueOf(beforeDate));
+            args.add(String.valueOf(id));
+        }
+        if (threadId != null) {
+            if (selection.length() > 0) selection.append(" AND ");
+            selection.append(Telephony.Sms.THREAD_ID + " = ?");
+            args.add(String.valueOf(threadId));
+        }
+
+        // Ask for one extra row to learn whether another page exists
+        Cursor cursor = query(resolver, projection, selection.length() > 0 ? selection.toString() : null,
+            args.isEmpty() ? null : args.toArray(new String[0]), limit + 1, signal);
+
+        List<Map<String, Object>> messages = new ArrayList<>(limit);
+        Map<String, Object> nextCursor = null;
+
+        if (cursor != null) {
+            try {
+                long lastId = 0;
+                long lastDate = 0;
+                while (cursor.moveToNext()) {
+                    if (messages.size() == limit) {
+                        nextCursor = new HashMap<>();
+                        nextCursor.put("date", lastDate);
+                        nextCursor.put("id", lastId);
+                        break;
+                    }
+                    lastId = cursor.getLong(0);
+                    lastDate = cursor.getLong(1);
+                    Map<String, Object> sms = new HashMap<>();
+                    for (int i = 0; i < requested.size(); i++) {
+                        sms.put(requested.get(i), readColumn(cursor, i + 2, requested.get(i)));
+                    }
+                    messages.add(sms);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Map<String, Object> page = new HashMap<>();
+        page.put("messages", messages);
+        page.put("nextCursor", nextCursor);
+        return page;
+    }
+
+    private static Cursor query(ContentResolver resolver, String[] projection, String selection,
+                                String[] selectionArgs, int limit, CancellationSignal signal) {
+        String sortOrder = Telephony.Sms.DATE + " DESC, " + Telephony.Sms._ID + " DESC";
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            // No query arguments before O; the provider appends the sort order to its SQL
+            return resolver.query(Telephony.Sms.CONTENT_URI, projection, selection, selectionArgs,
+                sortOrder + " LIMIT " + limit, signal);
+        }
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+        queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+        queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // Providers that only implement the SQL query honor this form of the limit
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_LIMIT, String.valueOf(limit));
+        }
+        return resolver.query(Telephony.Sms.CONTENT_URI, projection, queryArgs, signal);
+    }
+
+    private static Object readColumn(Cursor cursor, int index, String field) {
+        switch (field) {
+            case "address":
+            case "body":
+                return cursor.getString(index);
+            case "type":
+            case "read":
+                return cursor.getInt(index);
+            default:
+                return cursor.getLong(index);
+        }
+    }
+}
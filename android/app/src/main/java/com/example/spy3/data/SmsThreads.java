@@ -0,0 +1,155 @@
+package com.example.spy3.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.provider.Telephony;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One summary row per conversation, so the SMS list never has to load message
+ * bodies. Summaries come from the threads table the telephony provider already
+ * maintains, with recipients resolved through its canonical addresses. The
+ * bodies of a thread are paged separately through {@link SmsPageQuery} once it
+ * is opened.
+ */
+public final class SmsThreads {
+    private static final String TAG = "SmsThreads";
+
+    // The threads table itself rather than the joined view of every message
+    private static final Uri THREADS_URI = Telephony.Threads.CONTENT_URI.buildUpon()
+        .appendQueryParameter("simple", "true").build();
+    private static final Uri CANONICAL_ADDRESSES_URI = Uri.parse("content://mms-sms/canonical-addresses");
+
+    private static final String[] THREAD_PROJECTION = {
+        Telephony.Threads._ID,
+        Telephony.Threads.DATE,
+        Telephony.Threads.MESSAGE_COUNT,
+        Telephony.Threads.RECIPIENT_IDS,
+        Telephony.Threads.SNIPPET,
+        Telephony.Threads.READ
+    };
+
+    private SmsThreads() {
+    }
+
+    /** Returns every non-empty thread, most recent first. {@code signal} may be null. */
+    public static List<Map<String, Object>> load(ContentResolver resolver, CancellationSignal signal) {
+        Cursor cursor;
+        try {
+            cursor = resolver.query(THREADS_URI, THREAD_PROJECTION, Telephony.Threads.MESSAGE_COUNT + " > 0",
+                null, Telephony.Threads.DATE + " DESC", signal);
+        } catch (IllegalArgumentException | SecurityException e) {
+            // Some builds do not expose the threads table to other apps
+            Log.w(TAG, "Threads table unavailable, summarizing messages instead", e);
+            cursor = null;
+        }
+        if (cursor == null) return summarizeMessages(resolver, signal);
+
+        List<Map<String, Object>> threads = new ArrayList<>(cursor.getCount());
+        try {
+            Map<Long, String> addresses = loadAddresses(resolver, signal);
+            while (cursor.moveToNext()) {
+                Map<String, Object> thread = new HashMap<>();
+                thread.put("threadId", cursor.getLong(0));
+                thread.put("date", cursor.getLong(1));
+                thread.put("count", cursor.getInt(2));
+                thread.put("address", recipients(cursor.getString(3), addresses));
+                thread.put("snippet", cursor.getString(4));
+                thread.put("read", cursor.getInt(5) != 0);
+                threads.add(thread);
+            }
+        } finally {
+            cursor.close();
+        }
+        return threads;
+    }
+
+    private static Map<Long, String> loadAddresses(ContentResolver resolver, CancellationSignal signal) {
+        Map<Long, String> addresses = new HashMap<>();
+        Cursor cursor = resolver.query(CANONICAL_ADDRESSES_URI, new String[] { "_id", "address" },
+            null, null, null, signal);
+        if (cursor == null) return addresses;
+        try {
+            while (cursor.moveToNext()) {
+                addresses.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return addresses;
+    }
+
+    // recipient_ids is a space separated list of canonical address ids
+    private static String recipients(String ids, Map<Long, String> addresses) {
+        if (TextUtils.isEmpty(ids)) return "";
+        List<String> names = new ArrayList<>();
+        for (String id : ids.trim().split(" +")) {
+            try {
+                String address = addresses.get(Long.parseLong(id));
+                if (address != null) names.add(address);
+            } catch (NumberFormatException e) {
+                // Skip a malformed id and keep the rest
+            }
+        }
+        return TextUtils.join(", ", names);
+    }
+
+    /**
+     * Builds the same summaries from the SMS table in one pass, newest first.
+     * The pass reads no bodies; each snippet is then the newest message of its
+     * thread, read on its own.
+     */
+    private static List<Map<String, Object>> summarizeMessages(ContentResolver resolver, CancellationSignal signal) {
+        Cursor cursor = resolver.query(
+            Telephony.Sms.CONTENT_URI,
+            new String[] { Telephony.Sms.THREAD_ID, Telephony.Sms.ADDRESS, Telephony.Sms.DATE,
+                Telephony.Sms.READ },
+            null, null,
+            Telephony.Sms.DATE + " DESC",
+            signal
+        );
+        Map<Long, Map<String, Object>> threads = new LinkedHashMap<>();
+        if (cursor == null) return new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                long threadId = cursor.getLong(0);
+                Map<String, Object> thread = threads.get(threadId);
+                if (thread == null) {
+                    thread = new HashMap<>();
+                    thread.put("threadId", threadId);
+                    thread.put("address", cursor.getString(1));
+                    thread.put("date", cursor.getLong(2));
+                    thread.put("read", true);
+                    thread.put("count", 0);
+                    threads.put(threadId, thread);
+                }
+                thread.put("count", (Integer) thread.get("count") + 1);
+                if (cursor.getInt(3) == 0) thread.put("read", false);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Map<String, Object> thread : threads.values()) {
+            thread.put("snippet", snippet(resolver, (Long) thread.get("threadId"), signal));
+        }
+        return new ArrayList<>(threads.values());
+    }
+
+    private static String snippet(ContentResolver resolver, long threadId, CancellationSignal signal) {
+        Map<String, Object> page = SmsPageQuery.loadPage(resolver, null, null, 1,
+            Collections.singletonList("body"), threadId, signal);
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> messages = (List<Map<String, Object>>) page.get("messages");
+        return messages.isEmpty() ? null : (String) messages.get(0).get("body");
+    }
+}
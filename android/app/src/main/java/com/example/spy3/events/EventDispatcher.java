@@ -0,0 +1,422 @@
+package com.example.spy3.events;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.spy3.blocking.BlockCounters;
+import com.example.spy3.blocking.BlocklistIndex;
+import com.example.spy3.blocking.PhoneNumbers;
+import com.example.spy3.blocking.ScreeningDecision;
+import com.example.spy3.blocking.ScreeningRules;
+import com.example.spy3.journal.EventJournal;
+import com.example.spy3.metrics.ColdStarts;
+import com.example.spy3.metrics.Metrics;
+import com.example.spy3.metrics.StageTimer;
+import com.example.spy3.metrics.Wakeups;
+import com.example.spy3.services.ScreeningMode;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The one place call and SMS events are decided and logged. The receivers and
+ * the call screening service only translate what they were given and hand it
+ * here, so an event that reaches the app twice is still handled once.
+ *
+ * <p>Phone state broadcasts carry no call id, so each ringing number is tracked
+ * as its own call until the phone goes idle. A repeat of a state the call is
+ * already in is dropped, as is a ringing broadcast without a number while a
+ * call is ringing, and every call logs BLOCKED, ANSWERED or MISSED at most
+ * once. A call that the screening service has already decided is not decided
+ * again when it rings, and a blocked or silenced one never logs MISSED. SMS
+ * are recognised by sender, send time and body.
+ *
+ * <p>SMS are logged on a background thread once decided, so the receiver can
+ * return as soon as it knows whether to abort the broadcast.
+ */
+public final class EventDispatcher {
+    private static final String TAG = "EventDispatcher";
+    // How long a screening decision waits for the ringing broadcast of the same call
+    private static final long SCREENED_TTL_MS = 30_000;
+    private static final int RECENT_SMS = 64;
+    // Numbers from telecom and telephony may differ in country code, so calls are matched on trailing digits
+    private static final int MATCH_DIGITS = 7;
+
+    private static final class Call {
+        String number;
+        String digits;
+        // Set when the screening service decided this call; it has already been logged
+        ScreeningDecision screened;
+        boolean blocked;
+        boolean answered;
+    }
+
+    private static final class Screened {
+        final String digits;
+        final ScreeningDecision decision;
+        final long at;
+
+        Screened(String digits, ScreeningDecision decision, long at) {
+            this.digits = digits;
+            this.decision = decision;
+            this.at = at;
+        }
+    }
+
+    private static volatile EventDispatcher sInstance;
+
+    private final Context mContext;
+    // SMS logging runs here, in the order the messages were decided
+    private final Handler mHandler;
+    // Broadcasts and screening callbacks all arrive on the main thread; the lock is for anything else
+    private final Object mLock = new Object();
+    private final List<Call> mCalls = new ArrayList<>();
+    private final List<Screened> mScreened = new ArrayList<>();
+    private final Map<String, Boolean> mRecentSms = new LinkedHashMap<String, Boolean>(RECENT_SMS, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_SMS;
+        }
+    };
+
+    private EventDispatcher(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread("spy3-events");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public static EventDispatcher get(Context context) {
+        EventDispatcher instance = sInstance;
+        if (instance == null) {
+            synchronized (EventDispatcher.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new EventDispatcher(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Records what the screening service did with a call and logs it. The
+     * ringing broadcast that may follow reuses this decision.
+     */
+    public void onScreened(String phoneNumber, ScreeningDecision decision, long now) {
+        Wakeups.record(mContext, Wakeups.SOURCE_SCREENING);
+        synchronized (mLock) {
+            expireScreened();
+            mScreened.add(new Screened(digitsOf(phoneNumber), decision, SystemClock.elapsedRealtime()));
+        }
+        if (decision.action == ScreeningDecision.ACTION_REJECT) {
+            Log.d(TAG, "Blocked call from: " + phoneNumber);
+            BlockCounters.get(mContext).record(phoneNumber, false, now);
+            log(EventJournal.KIND_CALL, "BLOCKED", phoneNumber, null, now);
+        } else if (decision.action == ScreeningDecision.ACTION_SILENCE) {
+            Log.d(TAG, "Silenced call from: " + phoneNumber);
+            log(EventJournal.KIND_CALL, "SILENCED", phoneNumber, null, now);
+        } else {
+            Log.d(TAG, "Allowed call from: " + phoneNumber);
+        }
+    }
+
+    /** Handles one phone state broadcast; the number is null when it was not supplied. */
+    public void onPhoneState(String state, String phoneNumber) {
+        Wakeups.record(mContext, Wakeups.SOURCE_PHONE_STATE);
+        if (TelephonyManager.EXTRA_STATE_RINGING.equals(state)) {
+            onRinging(phoneNumber);
+        } else if (TelephonyManager.EXTRA_STATE_OFFHOOK.equals(state)) {
+            onOffHook(phoneNumber);
+        } else if (TelephonyManager.EXTRA_STATE_IDLE.equals(state)) {
+            onIdle();
+        }
+    }
+
+    /** Returns true when the outgoing call should be cancelled. */
+    public boolean onOutgoingCall(String phoneNumber) {
+        Log.d(TAG, "Outgoing call to: " + phoneNumber);
+        // Outgoing calls are only checked against the blocklist; screening rules are about callers
+        if (BlocklistIndex.get(mContext).isBlocked(phoneNumber)) {
+            Log.d(TAG, "Blocking outgoing call to: " + phoneNumber);
+            Toast.makeText(mContext, "Blocking outgoing call to: " + phoneNumber, Toast.LENGTH_SHORT).show();
+            return true;
+        }
+        log(EventJournal.KIND_CALL, "OUTGOING", phoneNumber, null, System.currentTimeMillis());
+        return false;
+    }
+
+    /**
+     * Decides one received SMS and returns true when it is blocked. Logging and
+     * counting are queued; see {@link #afterLogging}. A message seen before gets
+     * the same answer without being logged again.
+     */
+    public boolean onSms(String phoneNumber, String messageBody, long sentAt, StageTimer timer) {
+        Wakeups.record(mContext, Wakeups.SOURCE_SMS);
+        String key = phoneNumber + '|' + sentAt + '|' + (messageBody != null ? messageBody.hashCode() : 0);
+        synchronized (mLock) {
+            Boolean seen = mRecentSms.get(key);
+            if (seen != null) {
+                Log.d(TAG, "Ignoring repeated SMS from: " + phoneNumber);
+                return seen;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        boolean blocked = ScreeningMode.isEnabled(mContext)
+            && ScreeningRules.get(mContext).decide(true, phoneNumber, now).blocks();
+        timer.lap(Metrics.SMS_LOOKUP);
+        synchronized (mLock) {
+            mRecentSms.put(key, blocked);
+        }
+        if (blocked) {
+            Log.d(TAG, "Blocking SMS from: " + phoneNumber);
+            Toast.makeText(mContext, "Blocked SMS from: " + phoneNumber, Toast.LENGTH_SHORT).show();
+        }
+        timer.total(Metrics.SMS_TOTAL);
+
+        mHandler.post(() -> {
+            StageTimer logTimer = new StageTimer();
+            if (blocked) {
+                BlockCounters.get(mContext).record(phoneNumber, true, now);
+                log(EventJournal.KIND_SMS, "BLOCKED", phoneNumber, messageBody, now);
+            } else {
+                log(EventJournal.KIND_SMS, "RECEIVED", phoneNumber, messageBody, now);
+            }
+            logTimer.lap(Metrics.SMS_LOG);
+        });
+        return blocked;
+    }
+
+    /** Runs the action once every SMS decided so far has been logged and written to the journal. */
+    public void afterLogging(Runnable action) {
+        mHandler.post(() -> EventJournal.get(mContext).afterWrites(action));
+    }
+
+    private void onRinging(String phoneNumber) {
+        if (phoneNumber != null && phoneNumber.isEmpty()) phoneNumber = null;
+        String digits = digitsOf(phoneNumber);
+        Call call;
+        synchronized (mLock) {
+            // Without a number a broadcast cannot be told apart from the call already ringing
+            call = digits != null ? findCall(digits) : findRinging();
+            if (call != null) {
+                Log.d(TAG, "Ignoring repeated ringing from: " + phoneNumber);
+                return;
+            }
+            // Telephony often sends RINGING without the number first, then again with it
+            call = findCall(null);
+            if (call == null) {
+                call = new Call();
+                mCalls.add(call);
+            }
+            call.number = phoneNumber;
+            call.digits = digits;
+            if (call.screened == null) call.screened = takeScreened(digits);
+        }
+        Log.d(TAG, "Incoming call from: " + phoneNumber);
+        // The number is also missing when READ_CALL_LOG is not granted, so a missing
+        // number is never treated as withheld here; the screening service handles those.
+        // The platform does not screen calls from contacts even with the screening role,
+        // so only a call the screening service decided is skipped.
+        if (call.screened != null || phoneNumber == null) return;
+        // Turned off, calls are still tracked so they log ANSWERED or MISSED
+        if (!ScreeningMode.isEnabled(mContext)) return;
+
+        StageTimer timer = new StageTimer();
+        long now = System.currentTimeMillis();
+        // Ending the call is the only response available here, so silence rules let it ring
+        boolean blocked = ScreeningRules.get(mContext).decide(false, phoneNumber, now).action
+            == ScreeningDecision.ACTION_REJECT;
+        timer.lap(Metrics.CALL_RECEIVER_LOOKUP);
+        if (blocked) {
+            synchronized (mLock) {
+                call.blocked = true;
+            }
+            Log.d(TAG, "Blocking call from: " + phoneNumber);
+            Toast.makeText(mContext, "Blocking call from: " + phoneNumber, Toast.LENGTH_SHORT).show();
+
+            boolean callEnded = endCall();
+            timer.lap(Metrics.CALL_RECEIVER_END_CALL);
+            if (callEnded) {
+                Log.d(TAG, "Successfully blocked call from: " + phoneNumber);
+            } else {
+                Log.w(TAG, "Failed to block call from: " + phoneNumber);
+            }
+
+            BlockCounters.get(mContext).record(phoneNumber, false, now);
+            log(EventJournal.KIND_CALL, "BLOCKED", phoneNumber, null, now);
+            timer.lap(Metrics.CALL_RECEIVER_LOG);
+        }
+        timer.total(Metrics.CALL_RECEIVER_TOTAL);
+        ColdStarts.onDecision(mContext, "callReceiver");
+    }
+
+    private void onOffHook(String phoneNumber) {
+        Call answered = null;
+        synchronized (mLock) {
+            // Prefer the call the broadcast names; otherwise the newest call still ringing
+            if (phoneNumber != null && !phoneNumber.isEmpty()) answered = findCall(digitsOf(phoneNumber));
+            if (answered == null) {
+                for (int i = mCalls.size() - 1; i >= 0; i--) {
+                    Call call = mCalls.get(i);
+                    if (!call.answered && !call.blocked) {
+                        answered = call;
+                        break;
+                    }
+                }
+            }
+            if (answered == null || answered.answered) return;
+            answered.answered = true;
+        }
+        Log.d(TAG, "Call answered from: " + answered.number);
+        log(EventJournal.KIND_CALL, "ANSWERED", answered.number, null, System.currentTimeMillis());
+    }
+
+    private void onIdle() {
+        List<Call> ended;
+        synchronized (mLock) {
+            if (mCalls.isEmpty()) return;
+            ended = new ArrayList<>(mCalls);
+            mCalls.clear();
+        }
+        long now = System.currentTimeMillis();
+        for (Call call : ended) {
+            Log.d(TAG, "Call ended from: " + call.number);
+            // Blocked and silenced calls were logged as such when they were decided
+            if (call.answered || call.blocked
+                || (call.screened != null && call.screened.action != ScreeningDecision.ACTION_ALLOW)) {
+                continue;
+            }
+            log(EventJournal.KIND_CALL, "MISSED", call.number, null, now);
+        }
+    }
+
+    // Caller holds mLock. Null digits find a call whose number is not known yet.
+    private Call findCall(String digits) {
+        for (Call call : mCalls) {
+            if (digits == null ? call.digits == null : sameNumber(digits, call.digits)) return call;
+        }
+        return null;
+    }
+
+    // Caller holds mLock
+    private Call findRinging() {
+        for (Call call : mCalls) {
+            if (!call.answered) return call;
+        }
+        return null;
+    }
+
+    // Caller holds mLock. Null digits take the newest decision, since the broadcast
+    // lacks the number only when READ_CALL_LOG is missing, not because it was withheld.
+    private ScreeningDecision takeScreened(String digits) {
+        expireScreened();
+        if (digits == null) {
+            return mScreened.isEmpty() ? null : mScreened.remove(mScreened.size() - 1).decision;
+        }
+        for (Iterator<Screened> it = mScreened.iterator(); it.hasNext(); ) {
+            Screened screened = it.next();
+            if (sameNumber(digits, screened.digits)) {
+                it.remove();
+                return screened.decision;
+            }
+        }
+        return null;
+    }
+
+    // Caller holds mLock
+    private void expireScreened() {
+        long now = SystemClock.elapsedRealtime();
+        for (Iterator<Screened> it = mScreened.iterator(); it.hasNext(); ) {
+            if (now - it.next().at > SCREENED_TTL_MS) it.remove();
+        }
+    }
+
+    private static String digitsOf(String phoneNumber) {
+        if (phoneNumber == null) return null;
+        String digits = PhoneNumbers.digitsOf(phoneNumber);
+        return digits.isEmpty() ? null : digits;
+    }
+
+    private static boolean sameNumber(String a, String b) {
+        if (a == null || b == null) return false;
+        int length = Math.min(MATCH_DIGITS, Math.min(a.length(), b.length()));
+        return a.regionMatches(a.length() - length, b, b.length() - length, length)
+            && (length == MATCH_DIGITS || a.length() == b.length());
+    }
+
+    private void log(String kind, String type, String phoneNumber, String body, long timestamp) {
+        EventJournal.get(mContext).append(kind, type, phoneNumber, body, timestamp);
+
+        Log.d(TAG, "Logged " + kind + ": " + phoneNumber + "|" + type + "|" + timestamp);
+    }
+
+    /**
+     * Attempts to end an incoming call using reflection to access TelephonyManager's endCall method
+     * This method works on older Android versions but may not work on newer versions due to security restrictions
+     */
+    private boolean endCall() {
+        try {
+            // Method 1: Try using TelephonyManager with reflection
+            TelephonyManager telephonyManager = (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
+
+            if (telephonyManager != null) {
+                // Try to get the ITelephony interface using reflection
+                Class<?> telephonyClass = Class.forName(telephonyManager.getClass().getName());
+                Method getITelephonyMethod = telephonyClass.getDeclaredMethod("getITelephony");
+                getITelephonyMethod.setAccessible(true);
+                Object iTelephonyObject = getITelephonyMethod.invoke(telephonyManager);
+
+                if (iTelephonyObject != null) {
+                    Class<?> iTelephonyClass = Class.forName(iTelephonyObject.getClass().getName());
+                    Method endCallMethod = iTelephonyClass.getDeclaredMethod("endCall");
+                    endCallMethod.setAccessible(true);
+                    boolean result = (Boolean) endCallMethod.invoke(iTelephonyObject);
+                    Log.d(TAG, "endCall() method result: " + result);
+                    return result;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Method 1 failed - trying alternative approach", e);
+        }
+
+        try {
+            // Method 2: Try using direct reflection on TelephonyManager
+            TelephonyManager telephonyManager = (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
+            Method endCallMethod = telephonyManager.getClass().getDeclaredMethod("endCall");
+            endCallMethod.setAccessible(true);
+            boolean result = (Boolean) endCallMethod.invoke(telephonyManager);
+            Log.d(TAG, "Direct endCall() method result: " + result);
+            return result;
+        } catch (Exception e) {
+            Log.e(TAG, "Method 2 failed - trying final approach", e);
+        }
+
+        try {
+            // Method 3: Try using system service with reflection
+            Object service = mContext.getSystemService("phone");
+            if (service != null) {
+                Method endCallMethod = service.getClass().getDeclaredMethod("endCall");
+                endCallMethod.setAccessible(true);
+                boolean result = (Boolean) endCallMethod.invoke(service);
+                Log.d(TAG, "System service endCall() method result: " + result);
+                return result;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "All methods failed to end call", e);
+        }
+
+        return false;
+    }
+}
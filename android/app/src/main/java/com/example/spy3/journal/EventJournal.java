@@ -0,0 +1,569 @@
+package com.example.spy3.journal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of call and SMS events, replacing the per-event keys that used
+ * to go into the "call_logs" and "sms_logs" SharedPreferences. Appending hands one
+ * event to a writer thread, which numbers and encodes it and adds it to the end of
+ * the active segment, so neither cost depends on how much history exists and the
+ * ring path never waits for the disk. Reads write out whatever is still queued
+ * first.
+ *
+ * <p>Records are {@code [int length][int crc32][payload]} and carry a sequence
+ * number that increases across the whole journal. Segments are named after the
+ * sequence number of their first record and roll over at {@link #SEGMENT_BYTES}.
+ * After each rollover a background task drops segments past the retention limits
+ * and rewrites the oldest remaining one without its expired records. A torn record
+ * at the end of the active segment, left by a process killed mid-write, is cut
+ * off when the journal is opened. Opening, including the import of the old
+ * SharedPreferences entries, is the writer thread's first task, so getting the
+ * journal on the ring path costs nothing; events appended meanwhile wait in the
+ * queue.
+ */
+public final class EventJournal {
+    private static final String TAG = "EventJournal";
+    private static final String DIRECTORY = "journal";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    static final long SEGMENT_BYTES = 256 * 1024;
+    static final int MAX_SEGMENTS = 16;
+    static final long RETENTION_MS = 90L * 24 * 60 * 60 * 1000;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_PAYLOAD_BYTES = 64 * 1024;
+
+    public static final String KIND_CALL = "call";
+    public static final String KIND_SMS = "sms";
+
+    public static final class Event {
+        public final long seq;
+        public final long timestamp;
+        public final String kind;
+        public final String type;
+        public final String number;
+        public final String body;
+
+        Event(long seq, long timestamp, String kind, String type, String number, String body) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.type = type;
+            this.number = number;
+            this.body = body;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> event = new HashMap<>();
+            event.put("seq", seq);
+            event.put("timestamp", timestamp);
+            event.put("kind", kind);
+            event.put("type", type);
+            event.put("number", number);
+            event.put("body", body);
+            return event;
+        }
+    }
+
+    public interface Visitor {
+        /** Return false to stop the scan. */
+        boolean onEvent(Event event);
+    }
+
+    private static final class Segment {
+        final long firstSeq;
+        final File file;
+        long length;
+
+        Segment(long firstSeq, File file, long length) {
+            this.firstSeq = firstSeq;
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    private static volatile EventJournal sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final Object mLock = new Object();
+    // Serializes disk writes; taken before mLock, never inside it
+    private final Object mWriteLock = new Object();
+    private final Handler mWriter;
+    private final ExecutorService mMaintenance = Executors.newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "spy3-journal"));
+    // Guarded by mLock; sorted by firstSeq, the last one is the active segment
+    private final List<Segment> mSegments = new ArrayList<>();
+    // Guarded by mLock; events waiting for the writer, in append order and not numbered yet
+    private List<Event> mPending = new ArrayList<>();
+    // Guarded by mWriteLock
+    private FileOutputStream mOut;
+    private long mNextSeq = 1;
+    private boolean mOpened;
+
+    private EventJournal(Context context) {
+        mContext = context;
+        mDirectory = new File(context.getFilesDir(), DIRECTORY);
+        HandlerThread thread = new HandlerThread("spy3-journal-writer");
+        thread.start();
+        mWriter = new Handler(thread.getLooper());
+        // Opens the journal before any append is written
+        mWriter.post(this::flush);
+    }
+
+    public static EventJournal get(Context context) {
+        EventJournal instance = sInstance;
+        if (instance == null) {
+            synchronized (EventJournal.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new EventJournal(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Queues one event for the writer thread, which gives it the next sequence
+     * number. An event that then fails to write is logged and dropped, leaving a
+     * gap in the sequence.
+     */
+    public void append(String kind, String type, String number, String body, long timestamp) {
+        synchronized (mLock) {
+            boolean idle = mPending.isEmpty();
+            mPending.add(new Event(0, timestamp, kind, type, number, body));
+            if (idle) mWriter.post(this::flush);
+        }
+    }
+
+    /** Runs the action on the writer thread once every event appended so far is on disk. */
+    public void afterWrites(Runnable action) {
+        mWriter.post(() -> {
+            flush();
+            action.run();
+        });
+    }
+
+    /**
+     * Returns up to {@code limit} events older than {@code beforeSeq}, newest first.
+     * Pass 0 to start from the newest event, then the seq of the last event returned.
+     */
+    public List<Event> readPage(long beforeSeq, int limit) {
+        long before = beforeSeq > 0 ? beforeSeq : Long.MAX_VALUE;
+        flush();
+        List<Segment> segments = segments();
+        List<Event> page = new ArrayList<>(limit);
+        for (int i = segments.size() - 1; i >= 0 && page.size() < limit; i--) {
+            Segment segment = segments.get(i);
+            if (segment.firstSeq >= before) continue;
+
+            // Keep only the newest events of this segment that are still needed
+            int needed = limit - page.size();
+            ArrayDeque<Event> newest = new ArrayDeque<>(needed);
+            scanSegment(segment, event -> {
+                if (event.seq >= before) return false;
+                if (newest.size() == needed) newest.removeFirst();
+                newest.addLast(event);
+                return true;
+            });
+            Iterator<Event> it = newest.descendingIterator();
+            while (it.hasNext()) page.add(it.next());
+        }
+        return page;
+    }
+
+    /** Streams events with a seq greater than {@code afterSeq} in journal order. */
+    public void scan(long afterSeq, Visitor visitor) {
+        flush();
+        List<Segment> segments = segments();
+        for (int i = 0; i < segments.size(); i++) {
+            // Skip segments that end before afterSeq
+            if (i + 1 < segments.size() && segments.get(i + 1).firstSeq <= afterSeq + 1) continue;
+            boolean[] stopped = new boolean[1];
+            scanSegment(segments.get(i), event -> {
+                if (event.seq <= afterSeq) return true;
+                if (!visitor.onEvent(event)) {
+                    stopped[0] = true;
+                    return false;
+                }
+                return true;
+            });
+            if (stopped[0]) return;
+        }
+    }
+
+    // Copies the segment list with the lengths as of now, so readers never see a partial record
+    private List<Segment> segments() {
+        synchronized (mLock) {
+            List<Segment> copy = new ArrayList<>(mSegments.size());
+            for (Segment segment : mSegments) {
+                copy.add(new Segment(segment.firstSeq, segment.file, segment.length));
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Opens the journal if that has not happened yet, then writes every queued
+     * event. Returns false if any of them could not be written.
+     */
+    private boolean flush() {
+        synchronized (mWriteLock) {
+            open();
+            List<Event> pending;
+            synchronized (mLock) {
+                if (mPending.isEmpty()) return true;
+                pending = mPending;
+                mPending = new ArrayList<>();
+            }
+            return writeAll(pending);
+        }
+    }
+
+    // Caller holds mWriteLock
+    private void open() {
+        if (mOpened) return;
+        mOpened = true;
+        synchronized (mLock) {
+            recover();
+        }
+        importLegacyLog("call_logs", KIND_CALL);
+        importLegacyLog("sms_logs", KIND_SMS);
+    }
+
+    // Caller holds mWriteLock; numbers the events in order and writes them
+    private boolean writeAll(List<Event> events) {
+        boolean written = true;
+        for (Event event : events) {
+            long seq = mNextSeq++;
+            written &= write(seq, encode(new Event(seq, event.timestamp, event.kind, event.type,
+                event.number, event.body)));
+        }
+        return written;
+    }
+
+    // Caller holds mWriteLock
+    private boolean write(long seq, byte[] record) {
+        try {
+            Segment active;
+            boolean full;
+            synchronized (mLock) {
+                active = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+                full = active != null && active.length > 0 && active.length + record.length > SEGMENT_BYTES;
+            }
+            if (active == null || full) {
+                active = startSegment(seq);
+            } else if (mOut == null) {
+                mOut = new FileOutputStream(active.file, true);
+            }
+            mOut.write(record);
+            synchronized (mLock) {
+                active.length += record.length;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append event " + seq, e);
+            closeOutput();
+            return false;
+        }
+    }
+
+    // Caller holds mWriteLock
+    private Segment startSegment(long firstSeq) throws IOException {
+        closeOutput();
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        Segment segment = new Segment(firstSeq, segmentFile(firstSeq), 0);
+        mOut = new FileOutputStream(segment.file, false);
+        boolean rolledOver;
+        synchronized (mLock) {
+            rolledOver = !mSegments.isEmpty();
+            mSegments.add(segment);
+        }
+        if (rolledOver) mMaintenance.execute(this::compact);
+        return segment;
+    }
+
+    // Caller holds mWriteLock
+    private void closeOutput() {
+        if (mOut == null) return;
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close segment", e);
+        }
+        mOut = null;
+    }
+
+    // Caller holds mWriteLock and mLock
+    private void recover() {
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                long firstSeq = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+                mSegments.add(new Segment(firstSeq, file, file.length()));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring stray file " + file.getName());
+            }
+        }
+        if (mSegments.isEmpty()) return;
+
+        // Only the active segment can end in a torn record
+        Segment active = mSegments.get(mSegments.size() - 1);
+        long[] validLength = new long[1];
+        long[] lastSeq = { active.firstSeq - 1 };
+        validLength[0] = scanSegment(active, event -> {
+            lastSeq[0] = event.seq;
+            return true;
+        });
+        if (validLength[0] < active.file.length()) {
+            Log.w(TAG, "Truncating torn record at " + validLength[0] + " in " + active.file.getName());
+            try (RandomAccessFile file = new RandomAccessFile(active.file, "rw")) {
+                file.setLength(validLength[0]);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to truncate segment", e);
+            }
+        }
+        active.length = validLength[0];
+        mNextSeq = lastSeq[0] + 1;
+    }
+
+    /**
+     * Reads records from the start of the segment up to its recorded length and
+     * returns the offset just past the last complete record visited.
+     */
+    private static long scanSegment(Segment segment, Visitor visitor) {
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            CRC32 crc = new CRC32();
+            while (offset + HEADER_BYTES <= segment.length) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_PAYLOAD_BYTES || offset + HEADER_BYTES + length > segment.length) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) break;
+                offset += HEADER_BYTES + length;
+                if (!visitor.onEvent(decode(payload))) break;
+            }
+        } catch (FileNotFoundException e) {
+            // Removed by compaction after the segment list was copied
+        } catch (EOFException e) {
+            // Torn record at the end of the active segment
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + segment.file.getName(), e);
+        }
+        return offset;
+    }
+
+    /** Drops segments past the retention limits and trims expired records from the oldest one left. */
+    private void compact() {
+        long horizon = System.currentTimeMillis() - RETENTION_MS;
+        List<Segment> sealed;
+        synchronized (mLock) {
+            sealed = new ArrayList<>(mSegments.subList(0, mSegments.size() - 1));
+        }
+
+        int excess = sealed.size() + 1 - MAX_SEGMENTS;
+        List<Segment> dropped = new ArrayList<>();
+        Segment straddling = null;
+        for (Segment segment : sealed) {
+            if (dropped.size() < excess) {
+                dropped.add(segment);
+                continue;
+            }
+            long[] newest = { Long.MIN_VALUE };
+            long[] oldest = { Long.MAX_VALUE };
+            scanSegment(segment, event -> {
+                newest[0] = Math.max(newest[0], event.timestamp);
+                oldest[0] = Math.min(oldest[0], event.timestamp);
+                return true;
+            });
+            if (newest[0] < horizon) {
+                dropped.add(segment);
+            } else {
+                if (oldest[0] < horizon) straddling = segment;
+                break;
+            }
+        }
+
+        Segment rewritten = straddling != null ? rewriteWithout(straddling, horizon) : null;
+        synchronized (mLock) {
+            mSegments.removeAll(dropped);
+            if (rewritten != null) {
+                mSegments.set(mSegments.indexOf(straddling), rewritten);
+            }
+        }
+        for (Segment segment : dropped) {
+            if (!segment.file.delete()) Log.w(TAG, "Failed to delete " + segment.file.getName());
+        }
+        if (rewritten != null && !straddling.file.equals(rewritten.file)) straddling.file.delete();
+        if (!dropped.isEmpty() || rewritten != null) {
+            Log.d(TAG, "Compacted journal, dropped " + dropped.size() + " segments");
+        }
+    }
+
+    // Sealed segments are immutable, so this runs without the lock
+    private Segment rewriteWithout(Segment segment, long horizon) {
+        ByteArrayOutputStream kept = new ByteArrayOutputStream((int) segment.length);
+        long[] firstKept = { -1 };
+        scanSegment(segment, event -> {
+            if (event.timestamp >= horizon) {
+                if (firstKept[0] < 0) firstKept[0] = event.seq;
+                byte[] record = encode(event);
+                kept.write(record, 0, record.length);
+            }
+            return true;
+        });
+        if (firstKept[0] < 0) return null;
+
+        File target = segmentFile(firstKept[0]);
+        File temp = new File(mDirectory, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            kept.writeTo(out);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to rewrite " + segment.file.getName(), e);
+            temp.delete();
+            return null;
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            return null;
+        }
+        return new Segment(firstKept[0], target, kept.size());
+    }
+
+    private File segmentFile(long firstSeq) {
+        // Zero padded so that name order is sequence order
+        return new File(mDirectory, String.format(Locale.US, "%019d", firstSeq) + SEGMENT_SUFFIX);
+    }
+
+    private static byte[] encode(Event event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(event.seq);
+            out.writeLong(event.timestamp);
+            writeString(out, event.kind);
+            writeString(out, event.type);
+            writeString(out, event.number);
+            writeString(out, event.body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] record = bytes.toByteArray();
+        int length = record.length - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_BYTES, length);
+        putInt(record, 0, length);
+        putInt(record, 4, (int) crc.getValue());
+        return record;
+    }
+
+    private static Event decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        return new Event(in.readLong(), in.readLong(),
+            readString(in), readString(in), readString(in), readString(in));
+    }
+
+    // Length-prefixed UTF-8; -1 marks null. Unlike writeUTF this has no 64K limit.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Moves entries written by older versions ("number|type|timestamp" for calls,
+     * "number|body|timestamp" for SMS) into the journal, oldest first, and clears them.
+     * Caller holds mWriteLock, so they are numbered ahead of anything appended since.
+     */
+    private void importLegacyLog(String name, String kind) {
+        SharedPreferences prefs = mContext.getSharedPreferences(name, Context.MODE_PRIVATE);
+        Map<String, ?> entries = prefs.getAll();
+        if (entries.isEmpty()) return;
+
+        List<Event> rows = new ArrayList<>(entries.size());
+        boolean sms = KIND_SMS.equals(kind);
+        for (Object value : entries.values()) {
+            if (!(value instanceof String)) continue;
+            String entry = (String) value;
+            int first = entry.indexOf('|');
+            int last = entry.lastIndexOf('|');
+            if (first < 0 || last <= first) continue;
+            long timestamp;
+            try {
+                timestamp = Long.parseLong(entry.substring(last + 1));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            String middle = entry.substring(first + 1, last);
+            rows.add(new Event(0, timestamp, kind, sms ? "RECEIVED" : middle, entry.substring(0, first),
+                sms ? middle : null));
+        }
+        Collections.sort(rows, (a, b) -> Long.compare(a.timestamp, b.timestamp));
+
+        // The old entries are only cleared once the journal holds them
+        if (!writeAll(rows)) return;
+        prefs.edit().clear().apply();
+        Log.d(TAG, "Imported " + rows.size() + " events from " + name);
+    }
+}
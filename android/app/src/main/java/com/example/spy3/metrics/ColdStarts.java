@@ -0,0 +1,171 @@
+package com.example.spy3.metrics;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.spy3.blocking.BlocklistIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Time from process start to the first call or SMS decision in that process.
+ * A process contributes at most one sample and usually dies soon after, so
+ * besides {@link Metrics#COLD_START_DECISION} the last {@link #MAX_SAMPLES}
+ * samples are kept on disk with whether the blocklist came from its cache.
+ *
+ * <p>{@link #onDecision} records the histogram inline and only posts the file
+ * update to a background thread, so it is safe on the ring path.
+ */
+public final class ColdStarts {
+    private static final String TAG = "ColdStarts";
+    private static final String FILE_NAME = "cold_starts.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_SAMPLES = 32;
+    // A later first decision belongs to a process that was started for something else, such as the UI
+    private static final long MAX_COLD_START_MS = 10_000;
+
+    private static final AtomicBoolean sDecided = new AtomicBoolean();
+    private static Handler sHandler;
+
+    private static final class Sample {
+        final long timestamp;
+        final long millis;
+        final String source;
+        final boolean fromCache;
+
+        Sample(long timestamp, long millis, String source, boolean fromCache) {
+            this.timestamp = timestamp;
+            this.millis = millis;
+            this.source = source;
+            this.fromCache = fromCache;
+        }
+    }
+
+    private ColdStarts() {
+    }
+
+    /**
+     * Call right after a decision has been acted on. Only the first call in a
+     * process does anything, and only when the process was started for it.
+     */
+    public static void onDecision(Context context, String source) {
+        if (!sDecided.compareAndSet(false, true)) return;
+        long millis = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        if (millis > MAX_COLD_START_MS) return;
+
+        boolean fromCache = BlocklistIndex.get(context).isFromCache();
+        Metrics.COLD_START_DECISION.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        Log.i(TAG, "First " + source + " decision " + millis + " ms after process start"
+            + (fromCache ? " (cached blocklist)" : ""));
+
+        Sample sample = new Sample(System.currentTimeMillis(), millis, source, fromCache);
+        Context appContext = context.getApplicationContext();
+        handler().post(() -> save(appContext, sample));
+    }
+
+    /** Returns the kept samples, oldest first. */
+    public static List<Map<String, Object>> recent(Context context) {
+        List<Sample> samples;
+        synchronized (ColdStarts.class) {
+            samples = read(file(context));
+        }
+        List<Map<String, Object>> maps = new ArrayList<>(samples.size());
+        for (Sample sample : samples) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("timestamp", sample.timestamp);
+            map.put("millis", sample.millis);
+            map.put("source", sample.source);
+            map.put("fromCache", sample.fromCache);
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    public static void clear(Context context) {
+        synchronized (ColdStarts.class) {
+            file(context).delete();
+        }
+    }
+
+    private static synchronized Handler handler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread("spy3-cold-starts");
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    // Runs on the cold starts thread
+    private static void save(Context context, Sample sample) {
+        AtomicFile file = file(context);
+        synchronized (ColdStarts.class) {
+            List<Sample> samples = read(file);
+            if (samples.size() >= MAX_SAMPLES) samples.subList(0, samples.size() - MAX_SAMPLES + 1).clear();
+            samples.add(sample);
+            write(file, samples);
+        }
+    }
+
+    private static AtomicFile file(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    // Caller holds the class lock
+    private static List<Sample> read(AtomicFile file) {
+        List<Sample> samples = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != FORMAT_VERSION) return samples;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                samples.add(new Sample(in.readLong(), in.readLong(), in.readUTF(), in.readBoolean()));
+            }
+        } catch (FileNotFoundException e) {
+            // No cold start recorded yet
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable cold start samples", e);
+            samples.clear();
+        }
+        return samples;
+    }
+
+    // Caller holds the class lock
+    private static void write(AtomicFile file, List<Sample> samples) {
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(samples.size());
+            for (Sample sample : samples) {
+                out.writeLong(sample.timestamp);
+                out.writeLong(sample.millis);
+                out.writeUTF(sample.source);
+                out.writeBoolean(sample.fromCache);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write cold start samples", e);
+            if (stream != null) file.failWrite(stream);
+        }
+    }
+}
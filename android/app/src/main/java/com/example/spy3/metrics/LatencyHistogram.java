@@ -0,0 +1,106 @@
+package com.example.spy3.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory latency histogram. Durations in nanoseconds fall into buckets that
+ * double in width, each split into {@link #SUB_BUCKETS} linear steps, so any
+ * percentile is reported within 25% of the true value whether it is 2 us or 2 s.
+ * Recording is a few atomic adds and never allocates.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough powers of two to cover every positive long
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final String mName;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSumNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String name() {
+        return mName;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        mCounts.incrementAndGet(bucketOf(nanos));
+        mCount.incrementAndGet();
+        mSumNanos.addAndGet(nanos);
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    public long count() {
+        return mCount.get();
+    }
+
+    /** Returns the upper bound of the bucket holding the given percentile (0-100), in nanoseconds. */
+    public long percentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBoundOf(i), mMaxNanos.get());
+        }
+        return mMaxNanos.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSumNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    /** Summary in microseconds for the method channel. */
+    public Map<String, Object> toMap() {
+        long count = mCount.get();
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("name", mName);
+        summary.put("count", count);
+        summary.put("meanMicros", count > 0 ? mSumNanos.get() / count / 1000 : 0L);
+        summary.put("p50Micros", percentile(50) / 1000);
+        summary.put("p90Micros", percentile(90) / 1000);
+        summary.put("p99Micros", percentile(99) / 1000);
+        summary.put("maxMicros", mMaxNanos.get() / 1000);
+        return summary;
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int power = 63 - Long.numberOfLeadingZeros(nanos);
+        // The bits just below the leading one pick the linear step within the power
+        int step = (int) (nanos >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (power - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + step;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int power = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int step = bucket % SUB_BUCKETS;
+        long width = 1L << (power - SUB_BUCKET_BITS);
+        long lower = (1L << power) + step * width;
+        return lower + width - 1;
+    }
+}
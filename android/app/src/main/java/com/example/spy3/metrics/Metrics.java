@@ -0,0 +1,52 @@
+package com.example.spy3.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Process-wide latency histograms for the call and SMS blocking paths. */
+public final class Metrics {
+    public static final LatencyHistogram SCREENING_EXTRACT = new LatencyHistogram("screening.extract");
+    public static final LatencyHistogram SCREENING_NORMALIZE = new LatencyHistogram("screening.normalize");
+    public static final LatencyHistogram SCREENING_LOOKUP = new LatencyHistogram("screening.lookup");
+    public static final LatencyHistogram SCREENING_RESPOND = new LatencyHistogram("screening.respond");
+    public static final LatencyHistogram SCREENING_LOG = new LatencyHistogram("screening.log");
+    public static final LatencyHistogram SCREENING_TOTAL = new LatencyHistogram("screening.total");
+
+    public static final LatencyHistogram CALL_RECEIVER_LOOKUP = new LatencyHistogram("callReceiver.lookup");
+    public static final LatencyHistogram CALL_RECEIVER_END_CALL = new LatencyHistogram("callReceiver.endCall");
+    public static final LatencyHistogram CALL_RECEIVER_LOG = new LatencyHistogram("callReceiver.log");
+    public static final LatencyHistogram CALL_RECEIVER_TOTAL = new LatencyHistogram("callReceiver.total");
+
+    public static final LatencyHistogram SMS_PARSE = new LatencyHistogram("sms.parse");
+    public static final LatencyHistogram SMS_LOOKUP = new LatencyHistogram("sms.lookup");
+    public static final LatencyHistogram SMS_LOG = new LatencyHistogram("sms.log");
+    public static final LatencyHistogram SMS_TOTAL = new LatencyHistogram("sms.total");
+
+    // Process start to the first decision; see ColdStarts
+    public static final LatencyHistogram COLD_START_DECISION = new LatencyHistogram("coldStart.decision");
+
+    private static final LatencyHistogram[] ALL = {
+        SCREENING_EXTRACT, SCREENING_NORMALIZE, SCREENING_LOOKUP, SCREENING_RESPOND, SCREENING_LOG, SCREENING_TOTAL,
+        CALL_RECEIVER_LOOKUP, CALL_RECEIVER_END_CALL, CALL_RECEIVER_LOG, CALL_RECEIVER_TOTAL,
+        SMS_PARSE, SMS_LOOKUP, SMS_LOG, SMS_TOTAL,
+        COLD_START_DECISION
+    };
+
+    private Metrics() {
+    }
+
+    public static List<Map<String, Object>> snapshot() {
+        List<Map<String, Object>> histograms = new ArrayList<>(ALL.length);
+        for (LatencyHistogram histogram : ALL) {
+            histograms.add(histogram.toMap());
+        }
+        return histograms;
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : ALL) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.spy3.metrics;
+
+/**
+ * Times consecutive stages of one operation. Each {@link #lap} records the time
+ * since the previous lap (or since construction) and starts the next stage.
+ */
+public final class StageTimer {
+    private final long mStart;
+    private long mLast;
+
+    public StageTimer() {
+        mStart = System.nanoTime();
+        mLast = mStart;
+    }
+
+    public void lap(LatencyHistogram stage) {
+        long now = System.nanoTime();
+        stage.record(now - mLast);
+        mLast = now;
+    }
+
+    /** Records the time since construction. */
+    public void total(LatencyHistogram histogram) {
+        histogram.record(System.nanoTime() - mStart);
+    }
+}
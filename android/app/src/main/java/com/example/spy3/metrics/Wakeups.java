@@ -0,0 +1,205 @@
+package com.example.spy3.metrics;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.spy3.services.ScreeningMode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Counts how often calls, SMS and the blocking service wake the app, per
+ * {@link ScreeningMode}, so the screening-role mode can be compared with the
+ * foreground service mode. Each wakeup also samples the process's resident
+ * memory (PSS) and notes whether it started the process. Counts are kept on
+ * disk because in the screening-role mode a process rarely outlives its call.
+ *
+ * <p>{@link #record} only posts to a background thread, so it is safe on the
+ * ring path.
+ */
+public final class Wakeups {
+    private static final String TAG = "Wakeups";
+    private static final String FILE_NAME = "wakeups.bin";
+    private static final int FORMAT_VERSION = 1;
+
+    public static final String SOURCE_SCREENING = "screening";
+    public static final String SOURCE_PHONE_STATE = "phoneState";
+    public static final String SOURCE_SMS = "sms";
+    public static final String SOURCE_SERVICE = "service";
+    private static final String[] SOURCES = { SOURCE_SCREENING, SOURCE_PHONE_STATE, SOURCE_SMS, SOURCE_SERVICE };
+
+    private static final AtomicBoolean sProcessCounted = new AtomicBoolean();
+    private static Handler sHandler;
+
+    private static final class Totals {
+        final long since;
+        long processStarts;
+        final long[] wakeups = new long[SOURCES.length];
+        long lastPssKb;
+        long peakPssKb;
+
+        Totals(long since) {
+            this.since = since;
+        }
+    }
+
+    private Wakeups() {
+    }
+
+    /** Call once per broadcast, screening request or service start. */
+    public static void record(Context context, String source) {
+        int index = indexOf(source);
+        if (index < 0) throw new IllegalArgumentException("Unknown wakeup source: " + source);
+        boolean processStart = sProcessCounted.compareAndSet(false, true);
+        Context appContext = context.getApplicationContext();
+        handler().post(() -> save(appContext, index, processStart));
+    }
+
+    /** Returns the totals of every mode seen so far. */
+    public static List<Map<String, Object>> summary(Context context) {
+        Map<String, Totals> modes;
+        synchronized (Wakeups.class) {
+            modes = read(file(context));
+        }
+        List<Map<String, Object>> maps = new ArrayList<>(modes.size());
+        for (Map.Entry<String, Totals> mode : modes.entrySet()) {
+            Totals totals = mode.getValue();
+            Map<String, Object> wakeups = new HashMap<>();
+            for (int i = 0; i < SOURCES.length; i++) {
+                wakeups.put(SOURCES[i], totals.wakeups[i]);
+            }
+            Map<String, Object> map = new HashMap<>();
+            map.put("mode", mode.getKey());
+            map.put("since", totals.since);
+            map.put("processStarts", totals.processStarts);
+            map.put("wakeups", wakeups);
+            map.put("lastPssKb", totals.lastPssKb);
+            map.put("peakPssKb", totals.peakPssKb);
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    public static void clear(Context context) {
+        synchronized (Wakeups.class) {
+            file(context).delete();
+        }
+    }
+
+    /** Resident memory of this process in kilobytes. Takes a few milliseconds. */
+    public static long residentKb() {
+        Debug.MemoryInfo memory = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(memory);
+        return memory.getTotalPss();
+    }
+
+    private static synchronized Handler handler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread("spy3-wakeups");
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    private static int indexOf(String source) {
+        for (int i = 0; i < SOURCES.length; i++) {
+            if (SOURCES[i].equals(source)) return i;
+        }
+        return -1;
+    }
+
+    // Runs on the wakeups thread
+    private static void save(Context context, int source, boolean processStart) {
+        String mode = ScreeningMode.current(context);
+        long pssKb = residentKb();
+        AtomicFile file = file(context);
+        synchronized (Wakeups.class) {
+            Map<String, Totals> modes = read(file);
+            Totals totals = modes.get(mode);
+            if (totals == null) {
+                totals = new Totals(System.currentTimeMillis());
+                modes.put(mode, totals);
+            }
+            totals.wakeups[source]++;
+            if (processStart) totals.processStarts++;
+            totals.lastPssKb = pssKb;
+            totals.peakPssKb = Math.max(totals.peakPssKb, pssKb);
+            write(file, modes);
+        }
+    }
+
+    private static AtomicFile file(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    // Caller holds the class lock
+    private static Map<String, Totals> read(AtomicFile file) {
+        Map<String, Totals> modes = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != FORMAT_VERSION) return modes;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String mode = in.readUTF();
+                Totals totals = new Totals(in.readLong());
+                totals.processStarts = in.readLong();
+                for (int j = 0; j < SOURCES.length; j++) {
+                    totals.wakeups[j] = in.readLong();
+                }
+                totals.lastPssKb = in.readLong();
+                totals.peakPssKb = in.readLong();
+                modes.put(mode, totals);
+            }
+        } catch (FileNotFoundException e) {
+            // No wakeup recorded yet
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable wakeup counts", e);
+            modes.clear();
+        }
+        return modes;
+    }
+
+    // Caller holds the class lock
+    private static void write(AtomicFile file, Map<String, Totals> modes) {
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(modes.size());
+            for (Map.Entry<String, Totals> mode : modes.entrySet()) {
+                Totals totals = mode.getValue();
+                out.writeUTF(mode.getKey());
+                out.writeLong(totals.since);
+                out.writeLong(totals.processStarts);
+                for (long wakeups : totals.wakeups) {
+                    out.writeLong(wakeups);
+                }
+                out.writeLong(totals.lastPssKb);
+                out.writeLong(totals.peakPssKb);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write wakeup counts", e);
+            if (stream != null) file.failWrite(stream);
+        }
+    }
+}
@@ -1,28 +1,42 @@
 package com.example.spy3.providers;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.example.spy3.blocking.PhoneNumbers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class BlockedNumbersProvider extends ContentProvider {
     private static final String TAG = "BlockedNumbersProvider";
     
     // Database info
     private static final String DATABASE_NAME = "blocked_numbers.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 6;
     private static final String TABLE_BLOCKED_NUMBERS = "blocked_numbers";
+    private static final String TABLE_BLOCK_STATS = "block_stats";
+    private static final String TABLE_SCREENING_RULES = "screening_rules";
     
     // Table columns
     public static final String COLUMN_ID = "_id";
@@ -31,24 +45,84 @@ public class BlockedNumbersProvider extends ContentProvider {
     public static final String COLUMN_DATE_ADDED = "date_added";
     public static final String COLUMN_BLOCKED_CALLS = "blocked_calls";
     public static final String COLUMN_BLOCKED_SMS = "blocked_sms";
+    public static final String COLUMN_RULE_TYPE = "rule_type";
+    public static final String COLUMN_RANGE_END = "range_end";
+    // block_stats holds per-day totals; COLUMN_DAY is days since the epoch in local time
+    public static final String COLUMN_DAY = "day";
+    // screening_rules columns; rows are compiled into a ScreeningPolicy
+    public static final String COLUMN_KIND = "kind";
+    public static final String COLUMN_ARGUMENT = "argument";
+    public static final String COLUMN_START_MINUTE = "start_minute";
+    public static final String COLUMN_END_MINUTE = "end_minute";
+    public static final String COLUMN_TARGETS = "targets";
+    public static final String COLUMN_RESPONSE = "response";
+    public static final String COLUMN_SKIP_CALL_LOG = "skip_call_log";
+    public static final String COLUMN_SKIP_NOTIFICATION = "skip_notification";
+    public static final String COLUMN_ENABLED = "enabled";
+    
+    // Rule types: exact rows hold a full number as digits only, prefix rows hold the leading digits,
+    // range rows hold the first number in COLUMN_NUMBER and the last in COLUMN_RANGE_END
+    public static final int RULE_TYPE_EXACT = 0;
+    public static final int RULE_TYPE_PREFIX = 1;
+    public static final int RULE_TYPE_RANGE = 2;
+    
+    // Screening rule kinds. Country rows hold the calling code in COLUMN_ARGUMENT,
+    // allow rows the number; quiet hours use the minute columns and wrap past midnight.
+    public static final int KIND_WITHHELD = 0;
+    public static final int KIND_NOT_IN_CONTACTS = 1;
+    public static final int KIND_QUIET_HOURS = 2;
+    public static final int KIND_COUNTRY = 3;
+    public static final int KIND_ALLOW_NUMBER = 4;
+    
+    // COLUMN_TARGETS is a bit mask of these
+    public static final int TARGET_CALLS = 1;
+    public static final int TARGET_SMS = 2;
+    
+    // COLUMN_RESPONSE values; silence only applies to calls, SMS treat it as reject
+    public static final int RESPONSE_REJECT = 0;
+    public static final int RESPONSE_SILENCE = 1;
     
     // Content provider authority
     public static final String AUTHORITY = "com.example.spy3.blockednumbers";
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + TABLE_BLOCKED_NUMBERS);
+    public static final Uri STATS_URI = Uri.parse("content://" + AUTHORITY + "/" + TABLE_BLOCK_STATS);
+    public static final Uri SCREENING_RULES_URI = Uri.parse("content://" + AUTHORITY + "/" + TABLE_SCREENING_RULES);
+    
+    // call() method that adds buffered block counts in one transaction. The extras hold
+    // parallel long arrays: row ids with their call and SMS deltas, and days with theirs.
+    public static final String METHOD_ADD_BLOCK_COUNTS = "addBlockCounts";
+    public static final String EXTRA_ROW_IDS = "rowIds";
+    public static final String EXTRA_ROW_CALLS = "rowCalls";
+    public static final String EXTRA_ROW_SMS = "rowSms";
+    public static final String EXTRA_DAYS = "days";
+    public static final String EXTRA_DAY_CALLS = "dayCalls";
+    public static final String EXTRA_DAY_SMS = "daySms";
     
     // URI matcher codes
     private static final int BLOCKED_NUMBERS = 1;
     private static final int BLOCKED_NUMBER_ID = 2;
+    private static final int BLOCK_STATS = 3;
+    private static final int SCREENING_RULES = 4;
+    private static final int SCREENING_RULE_ID = 5;
     
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     
     static {
         sUriMatcher.addURI(AUTHORITY, TABLE_BLOCKED_NUMBERS, BLOCKED_NUMBERS);
         sUriMatcher.addURI(AUTHORITY, TABLE_BLOCKED_NUMBERS + "/#", BLOCKED_NUMBER_ID);
+        sUriMatcher.addURI(AUTHORITY, TABLE_BLOCK_STATS, BLOCK_STATS);
+        sUriMatcher.addURI(AUTHORITY, TABLE_SCREENING_RULES, SCREENING_RULES);
+        sUriMatcher.addURI(AUTHORITY, TABLE_SCREENING_RULES + "/#", SCREENING_RULE_ID);
     }
     
+    // Before version 3 exact numbers lived in this SharedPreferences file
+    private static final String LEGACY_PREFS_NAME = "blocked_numbers";
+    
     private DatabaseHelper mDatabaseHelper;
     
+    // Set while applyBatch runs so the individual operations skip their change notifications
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<>();
+    
     @Override
     public boolean onCreate() {
         mDatabaseHelper = new DatabaseHelper(getContext());
@@ -68,6 +142,16 @@ public class BlockedNumbersProvider extends ContentProvider {
             case BLOCKED_NUMBER_ID:
                 queryBuilder.appendWhere(COLUMN_ID + "=" + uri.getLastPathSegment());
                 break;
+            case BLOCK_STATS:
+                queryBuilder.setTables(TABLE_BLOCK_STATS);
+                break;
+            case SCREENING_RULES:
+                queryBuilder.setTables(TABLE_SCREENING_RULES);
+                break;
+            case SCREENING_RULE_ID:
+                queryBuilder.setTables(TABLE_SCREENING_RULES);
+                queryBuilder.appendWhere(COLUMN_ID + "=" + uri.getLastPathSegment());
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
@@ -91,6 +175,12 @@ public class BlockedNumbersProvider extends ContentProvider {
                 return "vnd.android.cursor.dir/vnd.spy3.blocked_number";
             case BLOCKED_NUMBER_ID:
                 return "vnd.android.cursor.item/vnd.spy3.blocked_number";
+            case BLOCK_STATS:
+                return "vnd.android.cursor.dir/vnd.spy3.block_stats";
+            case SCREENING_RULES:
+                return "vnd.android.cursor.dir/vnd.spy3.screening_rule";
+            case SCREENING_RULE_ID:
+                return "vnd.android.cursor.item/vnd.spy3.screening_rule";
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
@@ -99,24 +189,81 @@ public class BlockedNumbersProvider extends ContentProvider {
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
-        if (sUriMatcher.match(uri) != BLOCKED_NUMBERS) {
-            throw new IllegalArgumentException("Unknown URI: " + uri);
+        String table;
+        Uri baseUri;
+        switch (sUriMatcher.match(uri)) {
+            case BLOCKED_NUMBERS:
+                table = TABLE_BLOCKED_NUMBERS;
+                baseUri = CONTENT_URI;
+                break;
+            case SCREENING_RULES:
+                table = TABLE_SCREENING_RULES;
+                baseUri = SCREENING_RULES_URI;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI: " + uri);
         }
         
         SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
-        long id = database.insert(TABLE_BLOCKED_NUMBERS, null, values);
+        long id = database.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_IGNORE);
         
         if (id > 0) {
-            Uri newUri = ContentUris.withAppendedId(CONTENT_URI, id);
-            if (getContext() != null) {
-                getContext().getContentResolver().notifyChange(newUri, null);
-            }
+            Uri newUri = ContentUris.withAppendedId(baseUri, id);
+            notifyChange(newUri);
             return newUri;
         }
         
         return null;
     }
     
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        if (sUriMatcher.match(uri) != BLOCKED_NUMBERS) {
+            throw new IllegalArgumentException("Unknown URI: " + uri);
+        }
+        
+        // One transaction for the whole batch instead of one journal commit per row
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        int inserted = 0;
+        database.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (database.insertWithOnConflict(TABLE_BLOCKED_NUMBERS, null, value,
+                        SQLiteDatabase.CONFLICT_IGNORE) > 0) {
+                    inserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        
+        if (inserted > 0) {
+            notifyChange(CONTENT_URI);
+        }
+        return inserted;
+    }
+    
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        mApplyingBatch.set(Boolean.TRUE);
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mApplyingBatch.remove();
+        }
+        
+        notifyChange(CONTENT_URI);
+        return results;
+    }
+    
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
         SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
@@ -135,12 +282,24 @@ public class BlockedNumbersProvider extends ContentProvider {
                             COLUMN_ID + "=" + id + " AND " + selection, selectionArgs);
                 }
                 break;
+            case SCREENING_RULES:
+                count = database.delete(TABLE_SCREENING_RULES, selection, selectionArgs);
+                break;
+            case SCREENING_RULE_ID:
+                String ruleId = uri.getLastPathSegment();
+                if (TextUtils.isEmpty(selection)) {
+                    count = database.delete(TABLE_SCREENING_RULES, COLUMN_ID + "=" + ruleId, null);
+                } else {
+                    count = database.delete(TABLE_SCREENING_RULES,
+                            COLUMN_ID + "=" + ruleId + " AND " + selection, selectionArgs);
+                }
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
         
-        if (getContext() != null) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (count > 0) {
+            notifyChange(uri);
         }
         
         return count;
@@ -165,42 +324,245 @@ public class BlockedNumbersProvider extends ContentProvider {
                             COLUMN_ID + "=" + id + " AND " + selection, selectionArgs);
                 }
                 break;
+            case SCREENING_RULES:
+                count = database.update(TABLE_SCREENING_RULES, values, selection, selectionArgs);
+                break;
+            case SCREENING_RULE_ID:
+                String ruleId = uri.getLastPathSegment();
+                if (TextUtils.isEmpty(selection)) {
+                    count = database.update(TABLE_SCREENING_RULES, values, COLUMN_ID + "=" + ruleId, null);
+                } else {
+                    count = database.update(TABLE_SCREENING_RULES, values,
+                            COLUMN_ID + "=" + ruleId + " AND " + selection, selectionArgs);
+                }
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
         
-        if (getContext() != null) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (count > 0) {
+            notifyChange(uri);
         }
         
         return count;
     }
     
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (!METHOD_ADD_BLOCK_COUNTS.equals(method) || extras == null) {
+            return super.call(method, arg, extras);
+        }
+        long[] rowIds = extras.getLongArray(EXTRA_ROW_IDS);
+        long[] rowCalls = extras.getLongArray(EXTRA_ROW_CALLS);
+        long[] rowSms = extras.getLongArray(EXTRA_ROW_SMS);
+        long[] days = extras.getLongArray(EXTRA_DAYS);
+        long[] dayCalls = extras.getLongArray(EXTRA_DAY_CALLS);
+        long[] daySms = extras.getLongArray(EXTRA_DAY_SMS);
+        
+        // Counters are increments, which ContentValues cannot express, so this goes
+        // through compiled statements inside a single transaction
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        database.beginTransaction();
+        try (SQLiteStatement addToRow = database.compileStatement("UPDATE " + TABLE_BLOCKED_NUMBERS
+                     + " SET " + COLUMN_BLOCKED_CALLS + " = " + COLUMN_BLOCKED_CALLS + " + ?, "
+                     + COLUMN_BLOCKED_SMS + " = " + COLUMN_BLOCKED_SMS + " + ? WHERE " + COLUMN_ID + " = ?");
+             SQLiteStatement insertDay = database.compileStatement("INSERT OR IGNORE INTO " + TABLE_BLOCK_STATS
+                     + " (" + COLUMN_DAY + ") VALUES (?)");
+             SQLiteStatement addToDay = database.compileStatement("UPDATE " + TABLE_BLOCK_STATS
+                     + " SET " + COLUMN_BLOCKED_CALLS + " = " + COLUMN_BLOCKED_CALLS + " + ?, "
+                     + COLUMN_BLOCKED_SMS + " = " + COLUMN_BLOCKED_SMS + " + ? WHERE " + COLUMN_DAY + " = ?")) {
+            for (int i = 0; rowIds != null && i < rowIds.length; i++) {
+                addToRow.bindLong(1, rowCalls[i]);
+                addToRow.bindLong(2, rowSms[i]);
+                addToRow.bindLong(3, rowIds[i]);
+                addToRow.executeUpdateDelete();
+            }
+            for (int i = 0; days != null && i < days.length; i++) {
+                insertDay.bindLong(1, days[i]);
+                insertDay.executeInsert();
+                addToDay.bindLong(1, dayCalls[i]);
+                addToDay.bindLong(2, daySms[i]);
+                addToDay.bindLong(3, days[i]);
+                addToDay.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        
+        notifyChange(STATS_URI);
+        return null;
+    }
+    
+    private void notifyChange(Uri uri) {
+        if (mApplyingBatch.get() == null && getContext() != null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+    
     private static class DatabaseHelper extends SQLiteOpenHelper {
         private static final String CREATE_TABLE = "CREATE TABLE " + TABLE_BLOCKED_NUMBERS + "("
                 + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + COLUMN_NUMBER + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_NUMBER + " TEXT NOT NULL, "
                 + COLUMN_NAME + " TEXT, "
                 + COLUMN_DATE_ADDED + " INTEGER, "
                 + COLUMN_BLOCKED_CALLS + " INTEGER DEFAULT 0, "
-                + COLUMN_BLOCKED_SMS + " INTEGER DEFAULT 0"
+                + COLUMN_BLOCKED_SMS + " INTEGER DEFAULT 0, "
+                + COLUMN_RULE_TYPE + " INTEGER NOT NULL DEFAULT " + RULE_TYPE_EXACT + ", "
+                + COLUMN_RANGE_END + " TEXT NOT NULL DEFAULT '', "
+                + "UNIQUE(" + COLUMN_NUMBER + ", " + COLUMN_RULE_TYPE + ", " + COLUMN_RANGE_END + ")"
+                + ");";
+        private static final String CREATE_STATS_TABLE = "CREATE TABLE " + TABLE_BLOCK_STATS + "("
+                + COLUMN_DAY + " INTEGER PRIMARY KEY, "
+                + COLUMN_BLOCKED_CALLS + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_BLOCKED_SMS + " INTEGER NOT NULL DEFAULT 0"
+                + ");";
+        private static final String CREATE_SCREENING_RULES_TABLE = "CREATE TABLE " + TABLE_SCREENING_RULES + "("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_KIND + " INTEGER NOT NULL, "
+                + COLUMN_ARGUMENT + " TEXT NOT NULL DEFAULT '', "
+                + COLUMN_START_MINUTE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_END_MINUTE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_TARGETS + " INTEGER NOT NULL DEFAULT " + (TARGET_CALLS | TARGET_SMS) + ", "
+                + COLUMN_RESPONSE + " INTEGER NOT NULL DEFAULT " + RESPONSE_REJECT + ", "
+                + COLUMN_SKIP_CALL_LOG + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_SKIP_NOTIFICATION + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_ENABLED + " INTEGER NOT NULL DEFAULT 1, "
+                + COLUMN_DATE_ADDED + " INTEGER"
                 + ");";
         
+        private final Context mContext;
+        private boolean mImportedLegacyNumbers;
+        
         public DatabaseHelper(@Nullable Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            mContext = context;
+            // Readers (the receivers and the screening service) never wait behind a bulk write
+            setWriteAheadLoggingEnabled(true);
         }
         
         @Override
         public void onCreate(SQLiteDatabase db) {
             Log.d(TAG, "Creating database table");
             db.execSQL(CREATE_TABLE);
+            db.execSQL(CREATE_STATS_TABLE);
+            db.execSQL(CREATE_SCREENING_RULES_TABLE);
+            importLegacyNumbers(db);
+        }
+        
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            // Only clear the old store once the import transaction has committed
+            if (mImportedLegacyNumbers && mContext != null) {
+                mContext.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+                mImportedLegacyNumbers = false;
+            }
+        }
+        
+        private void importLegacyNumbers(SQLiteDatabase db) {
+            if (mContext == null) return;
+            Map<String, ?> legacy = mContext.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE).getAll();
+            if (legacy.isEmpty()) return;
+            
+            long now = System.currentTimeMillis();
+            ContentValues values = new ContentValues();
+            for (String number : legacy.keySet()) {
+                String digits = PhoneNumbers.digitsOf(number);
+                if (digits.isEmpty()) continue;
+                values.clear();
+                values.put(COLUMN_NUMBER, digits);
+                values.put(COLUMN_DATE_ADDED, now);
+                db.insertWithOnConflict(TABLE_BLOCKED_NUMBERS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            mImportedLegacyNumbers = true;
+            Log.d(TAG, "Imported " + legacy.size() + " numbers from SharedPreferences");
         }
         
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
             Log.d(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_BLOCKED_NUMBERS);
-            onCreate(db);
+            if (oldVersion < 2) {
+                // Version 2 adds rule types, which changes the UNIQUE constraint, so the
+                // table is rebuilt and existing numbers are copied over as exact rules
+                db.execSQL("ALTER TABLE " + TABLE_BLOCKED_NUMBERS + " RENAME TO " + TABLE_BLOCKED_NUMBERS + "_v1");
+                db.execSQL(CREATE_TABLE);
+                db.execSQL("INSERT INTO " + TABLE_BLOCKED_NUMBERS + " ("
+                        + COLUMN_ID + ", " + COLUMN_NUMBER + ", " + COLUMN_NAME + ", " + COLUMN_DATE_ADDED + ", "
+                        + COLUMN_BLOCKED_CALLS + ", " + COLUMN_BLOCKED_SMS + ") SELECT "
+                        + COLUMN_ID + ", " + COLUMN_NUMBER + ", " + COLUMN_NAME + ", " + COLUMN_DATE_ADDED + ", "
+                        + COLUMN_BLOCKED_CALLS + ", " + COLUMN_BLOCKED_SMS + " FROM " + TABLE_BLOCKED_NUMBERS + "_v1");
+                db.execSQL("DROP TABLE " + TABLE_BLOCKED_NUMBERS + "_v1");
+            }
+            if (oldVersion < 3) {
+                // Version 3 makes this table the only store for exact numbers
+                importLegacyNumbers(db);
+            }
+            if (oldVersion < 4) {
+                // Version 4 adds per-day block totals
+                db.execSQL(CREATE_STATS_TABLE);
+            }
+            if (oldVersion < 5) {
+                // Version 5 adds screening rules beyond exact numbers, prefixes and ranges
+                db.execSQL(CREATE_SCREENING_RULES_TABLE);
+            }
+            if (oldVersion < 6) {
+                // Version 6 stores exact numbers as digits, the form the blocklist index keys on
+                normalizeExactNumbers(db);
+            }
+        }
+        
+        /**
+         * Rewrites exact numbers to their digits. Rows that only differed in formatting
+         * are merged into one row that carries their combined block counts.
+         */
+        private static void normalizeExactNumbers(SQLiteDatabase db) {
+            Map<String, List<long[]>> byDigits = new HashMap<>();
+            // Digits -> id of a row that already holds exactly them
+            Map<String, Long> plain = new HashMap<>();
+            try (Cursor cursor = db.query(TABLE_BLOCKED_NUMBERS,
+                    new String[] { COLUMN_ID, COLUMN_NUMBER, COLUMN_BLOCKED_CALLS, COLUMN_BLOCKED_SMS },
+                    COLUMN_RULE_TYPE + " = " + RULE_TYPE_EXACT, null, null, null, COLUMN_ID)) {
+                while (cursor.moveToNext()) {
+                    String number = cursor.getString(1);
+                    String digits = PhoneNumbers.digitsOf(number);
+                    List<long[]> rows = byDigits.get(digits);
+                    if (rows == null) {
+                        rows = new ArrayList<>();
+                        byDigits.put(digits, rows);
+                    }
+                    long[] row = { cursor.getLong(0), cursor.getLong(2), cursor.getLong(3) };
+                    rows.add(row);
+                    if (number.equals(digits)) plain.put(digits, row[0]);
+                }
+            }
+            
+            for (Map.Entry<String, List<long[]>> entry : byDigits.entrySet()) {
+                String digits = entry.getKey();
+                List<long[]> rows = entry.getValue();
+                if (digits.isEmpty()) {
+                    for (long[] row : rows) db.delete(TABLE_BLOCKED_NUMBERS, COLUMN_ID + " = " + row[0], null);
+                    continue;
+                }
+                if (rows.size() == 1 && plain.containsKey(digits)) continue;
+                
+                // A row already holding the digits is the one kept, so the update below cannot collide
+                Long plainId = plain.get(digits);
+                long kept = plainId != null ? plainId : rows.get(0)[0];
+                long calls = 0;
+                long sms = 0;
+                for (long[] row : rows) {
+                    calls += row[1];
+                    sms += row[2];
+                    if (row[0] != kept) db.delete(TABLE_BLOCKED_NUMBERS, COLUMN_ID + " = " + row[0], null);
+                }
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_NUMBER, digits);
+                values.put(COLUMN_BLOCKED_CALLS, calls);
+                values.put(COLUMN_BLOCKED_SMS, sms);
+                db.update(TABLE_BLOCKED_NUMBERS, values, COLUMN_ID + " = " + kept, null);
+            }
         }
     }
 }
\ No newline at end of file
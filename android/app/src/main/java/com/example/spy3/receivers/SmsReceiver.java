@@ -3,64 +3,74 @@ package com.example.spy3.receivers;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.os.Bundle;
+import android.provider.Telephony;
 import android.telephony.SmsMessage;
 import android.util.Log;
-import android.widget.Toast;
 
+import com.example.spy3.events.EventDispatcher;
+import com.example.spy3.metrics.ColdStarts;
+import com.example.spy3.metrics.Metrics;
+import com.example.spy3.metrics.StageTimer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Joins the parts of each received SMS and hands the whole message to
+ * {@link EventDispatcher}. Only the decision runs in {@link #onReceive}; the
+ * broadcast is held open with {@link #goAsync()} until logging has finished.
+ */
 public class SmsReceiver extends BroadcastReceiver {
     private static final String TAG = "SmsReceiver";
     
+    // One message assembled from its parts
+    private static final class Message {
+        final String phoneNumber;
+        final long sentAt;
+        final StringBuilder body = new StringBuilder();
+        
+        Message(String phoneNumber, long sentAt) {
+            this.phoneNumber = phoneNumber;
+            this.sentAt = sentAt;
+        }
+    }
+    
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (intent.getAction() != null && intent.getAction().equals("android.provider.Telephony.SMS_RECEIVED")) {
-            Bundle bundle = intent.getExtras();
-            if (bundle != null) {
-                Object[] pdus = (Object[]) bundle.get("pdus");
-                if (pdus != null) {
-                    for (Object pdu : pdus) {
-                        SmsMessage smsMessage = SmsMessage.createFromPdu((byte[]) pdu);
-                        if (smsMessage != null) {
-                            String phoneNumber = smsMessage.getOriginatingAddress();
-                            String messageBody = smsMessage.getMessageBody();
-                            
-                            Log.d(TAG, "SMS received from: " + phoneNumber + ", Message: " + messageBody);
-                            
-                            // Check if the number is blocked
-                            if (isNumberBlocked(context, phoneNumber)) {
-                                Log.d(TAG, "Blocking SMS from: " + phoneNumber);
-                                Toast.makeText(context, "Blocked SMS from: " + phoneNumber, Toast.LENGTH_SHORT).show();
-                                
-                                // Abort the broadcast to prevent the SMS from appearing in the inbox
-                                abortBroadcast();
-                                return;
-                            }
-                            
-                            // Log the SMS for the app
-                            logSmsMessage(context, phoneNumber, messageBody, System.currentTimeMillis());
-                        }
-                    }
-                }
+        if (!Telephony.Sms.Intents.SMS_RECEIVED_ACTION.equals(intent.getAction())) return;
+        
+        StageTimer timer = new StageTimer();
+        // Every part of a concatenated message arrives in the same broadcast, in order
+        SmsMessage[] parts = Telephony.Sms.Intents.getMessagesFromIntent(intent);
+        if (parts == null || parts.length == 0) return;
+        Map<String, Message> messages = new LinkedHashMap<>();
+        for (SmsMessage part : parts) {
+            if (part == null) continue;
+            String phoneNumber = part.getOriginatingAddress();
+            Message message = messages.get(phoneNumber);
+            if (message == null) {
+                message = new Message(phoneNumber, part.getTimestampMillis());
+                messages.put(phoneNumber, message);
             }
+            String body = part.getMessageBody();
+            if (body != null) message.body.append(body);
         }
-    }
-    
-    private boolean isNumberBlocked(Context context, String phoneNumber) {
-        SharedPreferences prefs = context.getSharedPreferences("blocked_numbers", Context.MODE_PRIVATE);
-        return prefs.getBoolean(phoneNumber, false);
-    }
-    
-    private void logSmsMessage(Context context, String phoneNumber, String message, long timestamp) {
-        SharedPreferences prefs = context.getSharedPreferences("sms_logs", Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
+        timer.lap(Metrics.SMS_PARSE);
         
-        // Store SMS log with timestamp as key
-        String logKey = timestamp + "_" + phoneNumber;
-        String logValue = phoneNumber + "|" + message + "|" + timestamp;
-        editor.putString(logKey, logValue);
-        editor.apply();
+        EventDispatcher dispatcher = EventDispatcher.get(context);
+        boolean blocked = false;
+        for (Message message : messages.values()) {
+            Log.d(TAG, "SMS received from: " + message.phoneNumber + " in " + parts.length + " parts");
+            blocked |= dispatcher.onSms(message.phoneNumber, message.body.toString(), message.sentAt, timer);
+        }
+        // Measured here, when the decision is made, not once logging on the events thread is done
+        ColdStarts.onDecision(context, "sms");
         
-        Log.d(TAG, "SMS logged: " + logValue);
+        PendingResult pendingResult = goAsync();
+        if (blocked) {
+            // Abort the broadcast to prevent the SMS from appearing in the inbox
+            pendingResult.abortBroadcast();
+        }
+        dispatcher.afterLogging(pendingResult::finish);
     }
-}
\ No newline at end of file
+}
@@ -5,49 +5,41 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 
 import android.os.Build;
 import android.os.IBinder;
-import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
 import com.example.spy3.MainActivity;
-import com.example.spy3.receivers.CallReceiver;
-import com.example.spy3.receivers.SmsReceiver;
+import com.example.spy3.metrics.Wakeups;
 
 public class BlockingService extends Service {
     private static final String TAG = "BlockingService";
     private static final String CHANNEL_ID = "BlockingServiceChannel";
     private static final int NOTIFICATION_ID = 1;
     
-    private SmsReceiver smsReceiver;
-    private CallReceiver callReceiver;
+    private static volatile boolean sRunning;
+    
+    /** True between onCreate and onDestroy, so ScreeningMode does not start it twice. */
+    static boolean isRunning() {
+        return sRunning;
+    }
     
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "BlockingService created");
+        sRunning = true;
+        // Once per creation, which includes every sticky restart; later start
+        // commands from the app coming to the foreground are not wakeups
+        Wakeups.record(this, Wakeups.SOURCE_SERVICE);
         
         createNotificationChannel();
-        
-        // Register receivers dynamically
-        smsReceiver = new SmsReceiver();
-        callReceiver = new CallReceiver();
-        
-        IntentFilter smsFilter = new IntentFilter();
-        smsFilter.addAction("android.provider.Telephony.SMS_RECEIVED");
-        smsFilter.setPriority(1000);
-        registerReceiver(smsReceiver, smsFilter);
-        
-        IntentFilter callFilter = new IntentFilter();
-        callFilter.addAction(TelephonyManager.ACTION_PHONE_STATE_CHANGED);
-        callFilter.addAction(Intent.ACTION_NEW_OUTGOING_CALL);
-        registerReceiver(callReceiver, callFilter);
+        // CallReceiver and SmsReceiver are declared in the manifest, which these
+        // broadcasts are exempt for; registering them here too delivered every event twice
     }
     
     @Override
@@ -71,29 +63,23 @@ public class BlockingService extends Service {
         
         startForeground(NOTIFICATION_ID, notification);
         
+        // A sticky restart may find the screening role granted since, or blocking
+        // turned off; the screening service and the manifest receivers then cover everything
+        if (!ScreeningMode.MODE_FOREGROUND_SERVICE.equals(ScreeningMode.current(this))) {
+            Log.d(TAG, "Not needed in the current blocking mode, stopping");
+            stopForeground(true);
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+        
         return START_STICKY; // Service will be restarted if killed
     }
     
     @Override
     public void onDestroy() {
         super.onDestroy();
+        sRunning = false;
         Log.d(TAG, "BlockingService destroyed");
-        
-        if (smsReceiver != null) {
-            try {
-                unregisterReceiver(smsReceiver);
-            } catch (IllegalArgumentException e) {
-                Log.w(TAG, "SMS receiver not registered");
-            }
-        }
-        
-        if (callReceiver != null) {
-            try {
-                unregisterReceiver(callReceiver);
-            } catch (IllegalArgumentException e) {
-                Log.w(TAG, "Call receiver not registered");
-            }
-        }
     }
     
     @Override
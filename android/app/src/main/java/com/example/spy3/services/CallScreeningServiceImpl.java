@@ -1,67 +1,71 @@
 package com.example.spy3.services;
 
 import android.annotation.TargetApi;
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Build;
 import android.telecom.Call;
 import android.telecom.CallScreeningService;
-import android.util.Log;
+import android.telecom.TelecomManager;
+
+import com.example.spy3.blocking.PhoneNumbers;
+import com.example.spy3.blocking.ScreeningDecision;
+import com.example.spy3.blocking.ScreeningRules;
+import com.example.spy3.events.EventDispatcher;
+import com.example.spy3.metrics.ColdStarts;
+import com.example.spy3.metrics.Metrics;
+import com.example.spy3.metrics.StageTimer;
 
 @TargetApi(Build.VERSION_CODES.Q)
 public class CallScreeningServiceImpl extends CallScreeningService {
-    private static final String TAG = "CallScreeningService";
 
     @Override
     public void onScreenCall(Call.Details callDetails) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // respondToCall has a system deadline, so every stage is timed
+            StageTimer timer = new StageTimer();
             String phoneNumber = null;
             
-            if (callDetails.getHandle() != null) {
+            // A restricted or unknown presentation is a withheld number, whatever the handle says
+            if (callDetails.getHandle() != null
+                && callDetails.getHandlePresentation() == TelecomManager.PRESENTATION_ALLOWED) {
                 phoneNumber = callDetails.getHandle().getSchemeSpecificPart();
             }
+            timer.lap(Metrics.SCREENING_EXTRACT);
             
-            Log.d(TAG, "Screening call from: " + phoneNumber);
+            long key = PhoneNumbers.toKey(phoneNumber);
+            timer.lap(Metrics.SCREENING_NORMALIZE);
             
-            if (isNumberBlocked(phoneNumber)) {
-                Log.d(TAG, "Blocking call from: " + phoneNumber);
-                
-                CallResponse.Builder responseBuilder = new CallResponse.Builder();
-                responseBuilder.setDisallowCall(true);
-                responseBuilder.setRejectCall(true);
-                responseBuilder.setSkipCallLog(false);
-                responseBuilder.setSkipNotification(false);
-                
-                respondToCall(callDetails, responseBuilder.build());
-                
-                // Log the blocked call
-                logCallEvent(phoneNumber, "BLOCKED", System.currentTimeMillis());
-            } else {
-                // Allow the call
-                CallResponse.Builder responseBuilder = new CallResponse.Builder();
-                responseBuilder.setDisallowCall(false);
-                responseBuilder.setRejectCall(false);
-                
-                respondToCall(callDetails, responseBuilder.build());
-            }
+            long now = System.currentTimeMillis();
+            // Turned off, the role may still be held, so every call is let through
+            ScreeningDecision decision = ScreeningMode.isEnabled(this)
+                ? ScreeningRules.get(this).decide(false, key, phoneNumber, now)
+                : ScreeningDecision.ALLOW;
+            timer.lap(Metrics.SCREENING_LOOKUP);
+            
+            respondToCall(callDetails, toResponse(decision));
+            timer.lap(Metrics.SCREENING_RESPOND);
+            
+            // Logs the call, and keeps the call receiver from deciding it again when it rings
+            EventDispatcher.get(this).onScreened(phoneNumber, decision, now);
+            timer.lap(Metrics.SCREENING_LOG);
+            timer.total(Metrics.SCREENING_TOTAL);
+            ColdStarts.onDecision(this, "screening");
         }
     }
     
-    private boolean isNumberBlocked(String phoneNumber) {
-        if (phoneNumber == null) return false;
-        SharedPreferences prefs = getSharedPreferences("blocked_numbers", Context.MODE_PRIVATE);
-        return prefs.getBoolean(phoneNumber, false);
-    }
-    
-    private void logCallEvent(String phoneNumber, String type, long timestamp) {
-        SharedPreferences prefs = getSharedPreferences("call_logs", Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-        
-        String logKey = timestamp + "_" + phoneNumber;
-        String logValue = phoneNumber + "|" + type + "|" + timestamp;
-        editor.putString(logKey, logValue);
-        editor.apply();
-        
-        Log.d(TAG, "Call logged: " + logValue);
+    private static CallResponse toResponse(ScreeningDecision decision) {
+        CallResponse.Builder responseBuilder = new CallResponse.Builder();
+        if (decision.action == ScreeningDecision.ACTION_REJECT) {
+            responseBuilder.setDisallowCall(true);
+            responseBuilder.setRejectCall(true);
+            responseBuilder.setSkipCallLog(decision.skipCallLog);
+            responseBuilder.setSkipNotification(decision.skipNotification);
+        } else {
+            // The platform only honours silence on a call it is still allowed to ring
+            responseBuilder.setDisallowCall(false);
+            responseBuilder.setRejectCall(false);
+            responseBuilder.setSilenceCall(decision.action == ScreeningDecision.ACTION_SILENCE);
+        }
+        return responseBuilder.build();
     }
+
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package com.example.spy3.services;
+
+import android.app.role.RoleManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Chooses how incoming calls reach the app. While the app holds the call
+ * screening role, {@link CallScreeningServiceImpl} is bound for every call the
+ * platform lets it decide and SMS arrive through the manifest receiver, so the
+ * sticky foreground {@link BlockingService} only costs memory and wakeups and
+ * is stopped. Without the role it is kept running as before. With blocking
+ * turned off, neither the dispatcher nor the screening service blocks anything,
+ * though events are still logged.
+ *
+ * <p>The role can be granted or revoked in system settings at any time, so the
+ * mode is checked again whenever the app comes to the foreground and whenever
+ * the service is restarted. In between, the role state and the setting are
+ * cached so that event handlers make neither the RoleManager call nor a
+ * preferences read.
+ *
+ * <p>Versions before this switch had no setting: the manifest receivers
+ * blocked whenever the app was installed. An update therefore starts with
+ * blocking on, and only a fresh install starts with it off.
+ */
+public final class ScreeningMode {
+    private static final String TAG = "ScreeningMode";
+    private static final String PREFS_NAME = "screening_mode";
+    private static final String KEY_ENABLED = "enabled";
+
+    public static final String MODE_OFF = "off";
+    public static final String MODE_SCREENING_ROLE = "screeningRole";
+    public static final String MODE_FOREGROUND_SERVICE = "foregroundService";
+
+    // Null until the role is first checked in this process
+    private static volatile Boolean sRoleHeld;
+    private static volatile Boolean sEnabled;
+
+    private ScreeningMode() {
+    }
+
+    /** Whether the app holds the call screening role, as of the last {@link #apply}. */
+    public static boolean isRoleHeld(Context context) {
+        Boolean held = sRoleHeld;
+        return held != null ? held : checkRoleHeld(context);
+    }
+
+    /** Whether the user turned blocking on, whichever mode then serves it. */
+    public static boolean isEnabled(Context context) {
+        Boolean enabled = sEnabled;
+        if (enabled != null) return enabled;
+        SharedPreferences prefs = prefs(context);
+        if (!prefs.contains(KEY_ENABLED)) {
+            enabled = wasUpdated(context);
+            prefs.edit().putBoolean(KEY_ENABLED, enabled).apply();
+            Log.d(TAG, "Seeded blocking " + (enabled ? "on" : "off"));
+        } else {
+            enabled = prefs.getBoolean(KEY_ENABLED, false);
+        }
+        sEnabled = enabled;
+        return enabled;
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        sEnabled = enabled;
+        prefs(context).edit().putBoolean(KEY_ENABLED, enabled).apply();
+    }
+
+    /** The mode blocking runs in now, one of the MODE_ constants. */
+    public static String current(Context context) {
+        if (!isEnabled(context)) return MODE_OFF;
+        return isRoleHeld(context) ? MODE_SCREENING_ROLE : MODE_FOREGROUND_SERVICE;
+    }
+
+    /**
+     * Starts or stops {@link BlockingService} to match the current mode. Must be
+     * called while the app is in the foreground, since it may start a
+     * foreground service. A service that is already running is left alone.
+     * Returns the mode.
+     */
+    public static String apply(Context context) {
+        checkRoleHeld(context);
+        String mode = current(context);
+        Intent intent = new Intent(context, BlockingService.class);
+        if (!MODE_FOREGROUND_SERVICE.equals(mode)) {
+            context.stopService(intent);
+        } else if (!BlockingService.isRunning()) {
+            // Starting a running service again would only repeat onStartCommand
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(intent);
+            } else {
+                context.startService(intent);
+            }
+        }
+        Log.d(TAG, "Blocking mode: " + mode);
+        return mode;
+    }
+
+    private static boolean checkRoleHeld(Context context) {
+        boolean held = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            RoleManager roleManager = (RoleManager) context.getSystemService(Context.ROLE_SERVICE);
+            held = roleManager != null && roleManager.isRoleHeld(RoleManager.ROLE_CALL_SCREENING);
+        }
+        sRoleHeld = held;
+        return held;
+    }
+
+    // True when an earlier version was installed before this one
+    private static boolean wasUpdated(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.lastUpdateTime > info.firstInstallTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
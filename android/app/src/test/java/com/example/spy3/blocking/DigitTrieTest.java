@@ -0,0 +1,185 @@
+package com.example.spy3.blocking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class DigitTrieTest {
+    @Test
+    public void emptyTrieMatchesNothing() {
+        assertTrue(DigitTrie.EMPTY.isEmpty());
+        assertEquals(DigitTrie.NO_MATCH, DigitTrie.EMPTY.match("15551234567"));
+        assertEquals(DigitTrie.NO_MATCH, DigitTrie.EMPTY.match(null));
+    }
+
+    @Test
+    public void prefixMatchesEveryLength() {
+        DigitTrie trie = new DigitTrie.Builder().addPrefix("+1 900", 3).build();
+        assertFalse(trie.isEmpty());
+        assertEquals(3, trie.match("1900"));
+        assertEquals(3, trie.match("19005550100"));
+        assertEquals(3, trie.match("+1 (900) 555-0100"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("190"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("18005550100"));
+    }
+
+    @Test
+    public void shorterPrefixWins() {
+        DigitTrie trie = new DigitTrie.Builder()
+                .addPrefix("1900", 0)
+                .addPrefix("19", 1)
+                .build();
+        assertEquals(1, trie.match("19005550100"));
+        assertEquals(1, trie.match("1955"));
+    }
+
+    @Test
+    public void firstRuleAddedForAPrefixWins() {
+        DigitTrie trie = new DigitTrie.Builder()
+                .addPrefix("555", 4)
+                .addPrefix("555", 7)
+                .build();
+        assertEquals(4, trie.match("5550100"));
+    }
+
+    @Test
+    public void rangeIsInclusiveAndExact() {
+        DigitTrie trie = new DigitTrie.Builder().addRange("5550150", "5550299", 2).build();
+        assertEquals(2, trie.match("5550150"));
+        assertEquals(2, trie.match("5550200"));
+        assertEquals(2, trie.match("555-0299"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("5550149"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("5550300"));
+    }
+
+    @Test
+    public void rangeOnlyMatchesItsLength() {
+        DigitTrie trie = new DigitTrie.Builder().addRange("5550100", "5550199", 0).build();
+        assertEquals(0, trie.match("5550123"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("55501"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("55501234"));
+    }
+
+    @Test
+    public void rangesOfDifferentLengthsKeepTheirOwnRules() {
+        // Both ranges reduce to the prefix "55", so they end on the same node
+        DigitTrie trie = new DigitTrie.Builder()
+                .addRange("5500", "5599", 1)
+                .addRange("550000", "559999", 2)
+                .build();
+        assertEquals(1, trie.match("5512"));
+        assertEquals(2, trie.match("551234"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("55123"));
+    }
+
+    @Test
+    public void firstRuleAddedForARangeLengthWins() {
+        DigitTrie trie = new DigitTrie.Builder()
+                .addRange("5500", "5599", 1)
+                .addRange("5500", "5599", 2)
+                .build();
+        assertEquals(1, trie.match("5555"));
+    }
+
+    @Test
+    public void rangeCoveringEveryNumberOfALength() {
+        DigitTrie trie = new DigitTrie.Builder()
+                .addRange("000", "999", 5)
+                .addRange("0000", "9999", 6)
+                .build();
+        assertEquals(5, trie.match("123"));
+        assertEquals(6, trie.match("1234"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("12"));
+    }
+
+    @Test
+    public void singleNumberRange() {
+        DigitTrie trie = new DigitTrie.Builder().addRange("5550100", "5550100", 0).build();
+        assertEquals(0, trie.match("5550100"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("5550101"));
+    }
+
+    @Test
+    public void edgeLengths() {
+        String longest = "1234567890123456";
+        DigitTrie trie = new DigitTrie.Builder()
+                .addRange("1", "3", 0)
+                .addRange(longest, longest, 1)
+                .build();
+        assertEquals(0, trie.match("2"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("4"));
+        assertEquals(1, trie.match(longest));
+        // Longer than a key can be, so nothing matches it
+        assertEquals(DigitTrie.NO_MATCH, trie.match(longest + "7"));
+        assertEquals(DigitTrie.NO_MATCH, trie.match(""));
+        assertEquals(DigitTrie.NO_MATCH, trie.match("+-"));
+    }
+
+    @Test
+    public void prefixAndRangeOnOnePath() {
+        DigitTrie trie = new DigitTrie.Builder()
+                .addRange("5550000", "5559999", 0)
+                .addPrefix("55501", 1)
+                .build();
+        assertEquals(0, trie.match("5550100"));
+        assertEquals(1, trie.match("55501"));
+        assertEquals(1, trie.match("555012345"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBoundsOfDifferentLengths() {
+        new DigitTrie.Builder().addRange("100", "1000", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReversedRange() {
+        new DigitTrie.Builder().addRange("200", "100", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPrefixWithoutDigits() {
+        new DigitTrie.Builder().addPrefix("+", 0);
+    }
+
+    @Test
+    public void roundTripsThroughItsTables() throws IOException {
+        DigitTrie trie = new DigitTrie.Builder()
+                .addPrefix("1900", 0)
+                .addRange("5500", "5599", 1)
+                .addRange("550000", "559999", 2)
+                .addRange("5550150", "5550299", 3)
+                .build();
+        DigitTrie read = DigitTrie.readFrom(write(trie), 4);
+        assertEquals(trie.nodeCount(), read.nodeCount());
+        for (String number : new String[] { "19001", "5512", "551234", "5550200", "5550300", "55123" }) {
+            assertEquals(number, trie.match(number), read.match(number));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsRuleOutsideTheRuleCount() throws IOException {
+        DigitTrie trie = new DigitTrie.Builder().addRange("5500", "5599", 3).build();
+        DigitTrie.readFrom(write(trie), 3);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedTrie() throws IOException {
+        DigitTrie trie = new DigitTrie.Builder().addRange("5500", "5599", 0).build();
+        ByteBuffer in = write(trie);
+        in.limit(in.limit() - 4);
+        DigitTrie.readFrom(in, 1);
+    }
+
+    private static ByteBuffer write(DigitTrie trie) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trie.writeTo(new DataOutputStream(bytes));
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+}
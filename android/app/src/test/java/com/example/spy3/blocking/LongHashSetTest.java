@@ -0,0 +1,157 @@
+package com.example.spy3.blocking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+    @Test
+    public void addContainsRemove() {
+        LongHashSet set = new LongHashSet(4);
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertTrue(set.remove(42));
+        assertFalse(set.remove(42));
+        assertFalse(set.contains(42));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void zeroIsNeverStored() {
+        LongHashSet set = new LongHashSet(4);
+        assertFalse(set.add(0));
+        assertFalse(set.contains(0));
+        assertFalse(set.remove(0));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void growsAndMatchesHashSet() {
+        LongHashSet set = new LongHashSet(0);
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            // A small key space forces collisions, repeats and removals of present keys
+            long key = 1 + random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        for (long key = 1; key <= 5_000; key++) {
+            assertEquals(expected.contains(key), set.contains(key));
+        }
+    }
+
+    @Test
+    public void removalKeepsProbeChainsIntact() {
+        // Backward-shift deletion must leave every remaining key reachable
+        LongHashSet set = new LongHashSet(64);
+        long[] keys = new long[40];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = PhoneNumbers.toKey("1555000" + (1000 + i));
+            set.add(keys[i]);
+        }
+        for (int i = 0; i < keys.length; i += 2) {
+            assertTrue(set.remove(keys[i]));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i % 2 == 1, set.contains(keys[i]));
+        }
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        LongHashSet set = new LongHashSet(4);
+        set.add(1);
+        LongHashSet copy = new LongHashSet(set);
+        copy.add(2);
+        set.remove(1);
+        assertTrue(copy.contains(1));
+        assertFalse(set.contains(2));
+    }
+
+    @Test
+    public void toArrayAndAddAll() {
+        LongHashSet set = new LongHashSet(4);
+        for (long key = 1; key <= 100; key++) set.add(key);
+        long[] keys = set.toArray();
+        Arrays.sort(keys);
+        assertEquals(100, keys.length);
+        assertEquals(1, keys[0]);
+        assertEquals(100, keys[99]);
+
+        LongHashSet other = new LongHashSet(0);
+        other.add(100);
+        other.add(101);
+        other.addAll(set);
+        assertEquals(101, other.size());
+    }
+
+    @Test
+    public void roundTripsThroughItsTable() throws IOException {
+        LongHashSet set = new LongHashSet(0);
+        for (long key = 1; key <= 1_000; key++) set.add(key * 7919);
+        LongHashSet read = LongHashSet.readFrom(write(set));
+        assertEquals(set.size(), read.size());
+        long[] expected = set.toArray();
+        long[] actual = read.toArray();
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        assertArrayEquals(expected, actual);
+        assertFalse(read.contains(7919 * 1_001L));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCapacityThatIsNotAPowerOfTwo() throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(8 + 6 * 8);
+        in.putInt(1).putInt(6).rewind();
+        LongHashSet.readFrom(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedTable() throws IOException {
+        ByteBuffer table = write(new LongHashSet(16));
+        table.limit(table.limit() - 8);
+        LongHashSet.readFrom(table);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSizeOfTheWholeCapacity() throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(8 + 4 * 8);
+        in.putInt(4).putInt(4).rewind();
+        LongHashSet.readFrom(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTableWithoutAnEmptySlot() throws IOException {
+        // The header claims one key, but every slot is filled, so a miss would never stop probing
+        ByteBuffer in = ByteBuffer.allocate(8 + 4 * 8);
+        in.putInt(1).putInt(4);
+        for (int i = 0; i < 4; i++) in.putLong(i + 1);
+        in.rewind();
+        LongHashSet.readFrom(in);
+    }
+
+    private static ByteBuffer write(LongHashSet set) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        set.writeTo(new DataOutputStream(bytes));
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.spy3.blocking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class PhoneNumbersTest {
+    @Test
+    public void formattingIsIgnored() {
+        long key = PhoneNumbers.toKey("15551234567");
+        assertEquals(key, PhoneNumbers.toKey("+1 (555) 123-4567"));
+        assertEquals(key, PhoneNumbers.toKey("1.555.123.4567"));
+    }
+
+    @Test
+    public void leadingZerosStayDistinct() {
+        assertNotEquals(PhoneNumbers.toKey("123"), PhoneNumbers.toKey("0123"));
+        assertNotEquals(PhoneNumbers.toKey("0"), PhoneNumbers.toKey("00"));
+    }
+
+    @Test
+    public void lengthIsPackedAboveTheDigits() {
+        long key = PhoneNumbers.toKey("0123");
+        assertEquals(4, key >>> PhoneNumbers.LENGTH_SHIFT);
+        assertEquals(123, key & ((1L << PhoneNumbers.LENGTH_SHIFT) - 1));
+    }
+
+    @Test
+    public void numbersWithoutDigitsHaveNoKey() {
+        assertEquals(PhoneNumbers.NO_KEY, PhoneNumbers.toKey(null));
+        assertEquals(PhoneNumbers.NO_KEY, PhoneNumbers.toKey(""));
+        assertEquals(PhoneNumbers.NO_KEY, PhoneNumbers.toKey("+ () -"));
+    }
+
+    @Test
+    public void maxDigitsIsTheLongestKey() {
+        String longest = "9999999999999999";
+        assertEquals(PhoneNumbers.MAX_DIGITS, longest.length());
+        long key = PhoneNumbers.toKey(longest);
+        assertNotEquals(PhoneNumbers.NO_KEY, key);
+        assertEquals(PhoneNumbers.MAX_DIGITS, key >>> PhoneNumbers.LENGTH_SHIFT);
+        assertEquals(PhoneNumbers.NO_KEY, PhoneNumbers.toKey(longest + "9"));
+        assertEquals(PhoneNumbers.NO_KEY, PhoneNumbers.toKey("+" + longest + " 0"));
+    }
+
+    @Test
+    public void digitsOfKeepsOnlyDigits() {
+        assertEquals("15551234567", PhoneNumbers.digitsOf("+1 (555) 123-4567"));
+        assertEquals("", PhoneNumbers.digitsOf(null));
+        assertEquals("", PhoneNumbers.digitsOf("abc"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.spy3.blocking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SpamListTest {
+    private static SpamList sList;
+
+    @BeforeClass
+    public static void mapList() throws IOException {
+        File filesDir = Files.createTempDirectory("spam-list").toFile();
+        filesDir.deleteOnExit();
+        // SpamList only asks the context for its files directory
+        Context context = new ContextWrapper(null) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public File getFilesDir() {
+                return filesDir;
+            }
+        };
+        sList = SpamList.get(context);
+    }
+
+    @After
+    public void clear() {
+        sList.clear();
+    }
+
+    @Test
+    public void noListContainsNothing() {
+        assertEquals(0, sList.size());
+        assertEquals(0, sList.fileSize());
+        assertFalse(sList.contains(PhoneNumbers.toKey("15550100")));
+    }
+
+    @Test
+    public void containsEveryListedKeyAndNothingElse() throws IOException {
+        Random random = new Random(7);
+        long[] keys = new long[50_000];
+        for (int i = 0; i < keys.length; i++) {
+            // Even numbers only, so every odd one is known to be absent
+            keys[i] = PhoneNumbers.toKey(Long.toString(2_000_000_000L + 2L * random.nextInt(1_000_000_000)));
+        }
+        long[] listed = keys.clone();
+        int written = sList.replace(keys, keys.length, null);
+        assertEquals(written, sList.size());
+        for (long key : listed) {
+            assertTrue(sList.contains(key));
+        }
+        for (int i = 0; i < 50_000; i++) {
+            long odd = 2_000_000_001L + 2L * random.nextInt(1_000_000_000);
+            assertFalse(sList.contains(PhoneNumbers.toKey(Long.toString(odd))));
+        }
+    }
+
+    @Test
+    public void dropsDuplicatesAndMissingKeys() throws IOException {
+        long a = PhoneNumbers.toKey("15550100");
+        long b = PhoneNumbers.toKey("15550101");
+        long[] keys = { b, a, PhoneNumbers.NO_KEY, b, a, a };
+        assertEquals(2, sList.replace(keys, keys.length, null));
+        assertTrue(sList.contains(a));
+        assertTrue(sList.contains(b));
+        assertFalse(sList.contains(PhoneNumbers.NO_KEY));
+    }
+
+    @Test
+    public void onlyTheFirstCountKeysAreListed() throws IOException {
+        long a = PhoneNumbers.toKey("15550100");
+        long b = PhoneNumbers.toKey("15550101");
+        sList.replace(new long[] { a, b }, 1, null);
+        assertTrue(sList.contains(a));
+        assertFalse(sList.contains(b));
+    }
+
+    @Test
+    public void fileHoldsHeaderBloomFilterAndKeys() throws IOException {
+        long[] keys = new long[1_000];
+        for (int i = 0; i < keys.length; i++) keys[i] = PhoneNumbers.toKey("1555" + (1_000_000 + i));
+        sList.replace(keys, keys.length, null);
+        long bloomBytes = sList.fileSize() - 32 - 8L * sList.size();
+        // At least ten bits per key, rounded up to a power of two words
+        assertTrue(bloomBytes * 8 >= 10L * sList.size());
+        assertEquals(1, Long.bitCount(bloomBytes / 8));
+    }
+
+    @Test
+    public void replaceSwapsTheWholeList() throws IOException {
+        long a = PhoneNumbers.toKey("15550100");
+        long b = PhoneNumbers.toKey("15550101");
+        sList.replace(new long[] { a }, 1, null);
+        sList.replace(new long[] { b }, 1, null);
+        assertFalse(sList.contains(a));
+        assertTrue(sList.contains(b));
+        assertEquals(1, sList.size());
+    }
+
+    @Test
+    public void emptyListContainsNothing() throws IOException {
+        assertEquals(0, sList.replace(new long[0], 0, null));
+        assertEquals(0, sList.size());
+        assertFalse(sList.contains(PhoneNumbers.toKey("15550100")));
+    }
+}
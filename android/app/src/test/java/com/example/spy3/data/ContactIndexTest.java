@@ -0,0 +1,85 @@
+package com.example.spy3.data;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import com.example.spy3.blocking.LongHashSet;
+import com.example.spy3.blocking.PhoneNumbers;
+import com.example.spy3.blocking.ScreeningDecision;
+import com.example.spy3.blocking.ScreeningPolicy;
+
+import org.junit.Test;
+
+public class ContactIndexTest {
+    private static final ScreeningDecision UNKNOWN =
+        new ScreeningDecision(1, ScreeningDecision.ACTION_REJECT, false, false);
+
+    @Test
+    public void coldStartDecidesFromCachedKeys() {
+        ContactIndex index = coldIndex("15551234567");
+        ScreeningPolicy policy = new ScreeningPolicy.Builder()
+            .notInContacts(ScreeningPolicy.TARGET_CALLS, UNKNOWN)
+            .build();
+        // Nothing has read the contacts provider yet
+        assertSame(UNKNOWN, decide(policy, index, "15559876543"));
+        assertSame(ScreeningDecision.ALLOW, decide(policy, index, "15551234567"));
+        // The saved suffix still matches the number in another format
+        assertSame(ScreeningDecision.ALLOW, decide(policy, index, "+44 555 1234567"));
+    }
+
+    @Test
+    public void withoutCachedKeysEveryNumberMayBeAContact() {
+        ContactIndex index = new ContactIndex(context(), new ContactKeyCache(context()) {
+            @Override
+            LongHashSet read() {
+                return null;
+            }
+        });
+        assertTrue(index.mayBeContact(PhoneNumbers.toKey("15559876543")));
+        assertFalse(index.mayBeContact(PhoneNumbers.NO_KEY));
+    }
+
+    private static ScreeningDecision decide(ScreeningPolicy policy, ContactIndex index, String number) {
+        return policy.decide(false, PhoneNumbers.toKey(number), number, false, 0, index);
+    }
+
+    // Saved keys hold each number and its last ContactIndex.MIN_MATCH digits, as a load writes them
+    private static ContactIndex coldIndex(String... numbers) {
+        LongHashSet keys = new LongHashSet(numbers.length * 2);
+        for (String number : numbers) {
+            keys.add(PhoneNumbers.toKey(number));
+            keys.add(PhoneNumbers.toKey(number.substring(number.length() - ContactIndex.MIN_MATCH)));
+        }
+        return new ContactIndex(context(), new ContactKeyCache(context()) {
+            @Override
+            LongHashSet read() {
+                return keys;
+            }
+
+            @Override
+            void write(LongHashSet keys) {
+            }
+        });
+    }
+
+    // ContactIndex only asks the context for its content resolver and permissions
+    private static Context context() {
+        return new ContextWrapper(null) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public ContentResolver getContentResolver() {
+                return new ContentResolver(this) {
+                };
+            }
+        };
+    }
+}
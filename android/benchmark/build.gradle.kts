@@ -0,0 +1,54 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+}
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(11)
+    }
+}
+
+// Compiles the app's pure-Java blocking code as-is, so the benchmarks measure
+// exactly what the receivers and the screening service run.
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf("../app/src/main/java"))
+            include(
+                "com/example/spy3/blocking/PhoneNumbers.java",
+                "com/example/spy3/blocking/LongHashSet.java",
+                "com/example/spy3/blocking/DigitTrie.java",
+                "com/example/spy3/blocking/BlocklistSnapshot.java",
+                "com/example/spy3/blocking/ScreeningDecision.java",
+                "com/example/spy3/blocking/ScreeningPolicy.java",
+            )
+        }
+    }
+    // The app's JVM tests for the same classes; SpamList needs android.jar
+    test {
+        java {
+            setSrcDirs(listOf("../app/src/test/java"))
+            include("com/example/spy3/blocking/**")
+            exclude("com/example/spy3/blocking/SpamListTest.java")
+        }
+    }
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+}
+
+jmh {
+    jmhVersion = "1.37"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // Pick benchmarks with -Pjmh.includes=Lookup
+    (project.findProperty("jmh.includes") as String?)?.let { includes = listOf(it) }
+    resultFormat = "JSON"
+}
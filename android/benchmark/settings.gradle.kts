@@ -0,0 +1,3 @@
+// Standalone build: it needs neither the Flutter SDK nor the Android plugin,
+// so it is not included from ../settings.gradle.kts.
+rootProject.name = "spy3-benchmark"
@@ -0,0 +1,73 @@
+package com.example.spy3.blocking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/** Deterministic phone numbers and rules shared by the benchmarks. */
+final class BenchmarkData {
+    static final int RULE_COUNT = 64;
+    // Power of two so the probe index can wrap with a mask
+    static final int PROBES = 1 << 12;
+
+    private BenchmarkData() {
+    }
+
+    /** Returns {@code count} distinct E.164-style numbers, as the platform delivers them. */
+    static List<String> numbers(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        LongHashSet seen = new LongHashSet(count);
+        List<String> numbers = new ArrayList<>(count);
+        while (numbers.size() < count) {
+            String number = "+1" + (2_000_000_000L + random.nextLong(8_000_000_000L));
+            if (seen.add(PhoneNumbers.toKey(number))) numbers.add(number);
+        }
+        return numbers;
+    }
+
+    /** Half hits taken from {@code blocked}, half numbers that are not in it, shuffled. */
+    static String[] probes(List<String> blocked, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<String> misses = numbers(PROBES, seed + 1);
+        String[] probes = new String[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = (i & 1) == 0 ? blocked.get(random.nextInt(blocked.size())) : misses.get(i);
+        }
+        for (int i = PROBES - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String swap = probes[i];
+            probes[i] = probes[j];
+            probes[j] = swap;
+        }
+        return probes;
+    }
+
+    /** Compiles prefix and range rules in toll-free blocks that random numbers rarely hit. */
+    static DigitTrie.Builder rules(DigitTrie.Builder builder, int count) {
+        for (int i = 0; i < count; i++) {
+            if ((i & 3) == 0) {
+                String start = "1800" + pad(i * 1000, 7);
+                builder.addRange(start, "1800" + pad(i * 1000 + 999, 7), i);
+            } else {
+                builder.addPrefix("1888" + pad(i, 3), i);
+            }
+        }
+        return builder;
+    }
+
+    static BlocklistSnapshot snapshot(List<String> numbers, int ruleCount) {
+        LongHashSet keys = new LongHashSet(numbers.size());
+        for (String number : numbers) {
+            keys.add(PhoneNumbers.toKey(number));
+        }
+        long[] ruleIds = new long[ruleCount];
+        for (int i = 0; i < ruleCount; i++) ruleIds[i] = i + 1;
+        return new BlocklistSnapshot(keys, rules(new DigitTrie.Builder(), ruleCount).build(), ruleIds);
+    }
+
+    private static String pad(int value, int width) {
+        StringBuilder digits = new StringBuilder(Integer.toString(value));
+        while (digits.length() < width) digits.insert(0, '0');
+        return digits.toString();
+    }
+}
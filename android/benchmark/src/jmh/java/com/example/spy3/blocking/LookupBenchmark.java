@@ -0,0 +1,91 @@
+package com.example.spy3.blocking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One blocklist decision per invocation, half of them hits. Probes rotate through
+ * a few thousand numbers so a single hot cache line does not flatter the result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int size;
+
+    private BlocklistSnapshot mSnapshot;
+    private ScreeningPolicy mPolicy;
+    private final ScreeningPolicy.Contacts mContacts = key -> (key & 1) == 0;
+    private Map<String, Object> mPreferences;
+    private final Object mPreferencesLock = new Object();
+    private String[] mProbes;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        List<String> numbers = BenchmarkData.numbers(size, 42);
+        mSnapshot = BenchmarkData.snapshot(numbers, BenchmarkData.RULE_COUNT);
+        // SharedPreferencesImpl keeps the loaded file in a HashMap<String, Object>
+        mPreferences = new HashMap<>();
+        for (String number : numbers) {
+            mPreferences.put(number, Boolean.TRUE);
+        }
+        mProbes = BenchmarkData.probes(numbers, 7);
+        ScreeningDecision reject = new ScreeningDecision(1, ScreeningDecision.ACTION_REJECT, false, false);
+        mPolicy = new ScreeningPolicy.Builder()
+            .allow(ScreeningPolicy.TARGET_CALLS, numbers.get(0))
+            .withheld(ScreeningPolicy.TARGET_CALLS, reject)
+            .country(ScreeningPolicy.TARGET_CALLS, "44", reject)
+            .quietHours(ScreeningPolicy.TARGET_CALLS, 22 * 60, 7 * 60, reject)
+            .notInContacts(ScreeningPolicy.TARGET_CALLS, reject)
+            .build();
+    }
+
+    @Benchmark
+    public boolean snapshot() {
+        return mSnapshot.isBlocked(nextProbe());
+    }
+
+    @Benchmark
+    public boolean snapshotWithKey() {
+        String number = nextProbe();
+        return mSnapshot.isBlocked(PhoneNumbers.toKey(number), number);
+    }
+
+    /** The full decision the screening service makes: blocklist first, then every kind of rule. */
+    @Benchmark
+    public ScreeningDecision screeningPolicy() {
+        String number = nextProbe();
+        long key = PhoneNumbers.toKey(number);
+        return mPolicy.decide(false, key, number, mSnapshot.isBlocked(key, number), 12 * 60, mContacts);
+    }
+
+    /** The lookup the receivers did before the index: {@code prefs.getBoolean(number, false)}. */
+    @Benchmark
+    public boolean sharedPreferences() {
+        String number = nextProbe();
+        // getBoolean takes the preferences lock and unboxes, even once the file is loaded
+        synchronized (mPreferencesLock) {
+            Boolean value = (Boolean) mPreferences.get(number);
+            return value != null ? value : false;
+        }
+    }
+
+    private String nextProbe() {
+        String probe = mProbes[mNext];
+        mNext = (mNext + 1) & (BenchmarkData.PROBES - 1);
+        return probe;
+    }
+}
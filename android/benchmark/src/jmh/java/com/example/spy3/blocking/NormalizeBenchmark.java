@@ -0,0 +1,30 @@
+package com.example.spy3.blocking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of turning a number as the platform reports it into a lookup key. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NormalizeBenchmark {
+    @Param({"+15551234567", "+1 (555) 123-4567", "5551234"})
+    public String number;
+
+    @Benchmark
+    public long toKey() {
+        return PhoneNumbers.toKey(number);
+    }
+
+    @Benchmark
+    public String digitsOf() {
+        return PhoneNumbers.digitsOf(number);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.spy3.blocking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What it costs to publish a new snapshot: a full rebuild as BlocklistIndex does
+ * on reload, compiling the rules, and the copy-on-write add used for single edits.
+ * Reading rows from the provider is not included. {@code readCached} is the cold
+ * start path instead: the same snapshot read back from the bytes BlocklistCache saves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RebuildBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int size;
+
+    private List<String> mNumbers;
+    private BlocklistSnapshot mSnapshot;
+    private String mAdded;
+    private ByteBuffer mCached;
+
+    @Setup
+    public void setUp() throws IOException {
+        mNumbers = BenchmarkData.numbers(size, 42);
+        mSnapshot = BenchmarkData.snapshot(mNumbers, BenchmarkData.RULE_COUNT);
+        mAdded = BenchmarkData.numbers(1, 99).get(0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mSnapshot.writeTo(new DataOutputStream(bytes));
+        // Direct, like the mapped file the cache reads
+        mCached = ByteBuffer.allocateDirect(bytes.size());
+        mCached.put(bytes.toByteArray());
+    }
+
+    @Benchmark
+    public BlocklistSnapshot fullRebuild() {
+        return BenchmarkData.snapshot(mNumbers, BenchmarkData.RULE_COUNT);
+    }
+
+    @Benchmark
+    public DigitTrie compileRules() {
+        return BenchmarkData.rules(new DigitTrie.Builder(), BenchmarkData.RULE_COUNT).build();
+    }
+
+    @Benchmark
+    public BlocklistSnapshot readCached() throws IOException {
+        mCached.rewind();
+        return BlocklistSnapshot.readFrom(mCached);
+    }
+
+    @Benchmark
+    public BlocklistSnapshot addOne() {
+        return mSnapshot.withNumber(mAdded);
+    }
+}
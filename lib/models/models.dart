@@ -1,10 +1,16 @@
+import '../services/packed_table.dart';
+
 class SmsMessage {
+  final int id;
+  final int threadId;
   final String address;
   final String body;
   final int date;
   final int type; // 1 = received, 2 = sent
 
   SmsMessage({
+    this.id = 0,
+    this.threadId = 0,
     required this.address,
     required this.body,
     required this.date,
@@ -13,6 +19,8 @@ class SmsMessage {
 
   factory SmsMessage.fromMap(Map<String, dynamic> map) {
     return SmsMessage(
+      id: map['id'] ?? 0,
+      threadId: map['threadId'] ?? 0,
       address: map['address'] ?? '',
       body: map['body'] ?? '',
       date: map['date'] ?? 0,
@@ -20,6 +28,26 @@ class SmsMessage {
     );
   }
 
+  static List<SmsMessage> listFromPacked(PackedTable table) {
+    final int id = table.column('id');
+    final int threadId = table.column('threadId');
+    final int address = table.column('address');
+    final int body = table.column('body');
+    final int date = table.column('date');
+    final int type = table.column('type');
+    return PackedList(
+      table.rowCount,
+      (row) => SmsMessage(
+        id: table.getInt(id, row),
+        threadId: table.getInt(threadId, row),
+        address: table.getString(address, row) ?? '',
+        body: table.getString(body, row) ?? '',
+        date: table.getInt(date, row),
+        type: table.getInt(type, row),
+      ),
+    );
+  }
+
   String get formattedDate {
     final DateTime dateTime = DateTime.fromMillisecondsSinceEpoch(date);
     return '${dateTime.day}/${dateTime.month}/${dateTime.year} ${dateTime.hour}:${dateTime.minute.toString().padLeft(2, '0')}';
@@ -30,13 +58,73 @@ class SmsMessage {
   }
 }
 
+// One page of SMS messages plus the keyset cursor for the next page
+class SmsPage {
+  final List<SmsMessage> messages;
+  final int? nextDate;
+  final int? nextId;
+
+  SmsPage({required this.messages, this.nextDate, this.nextId});
+
+  factory SmsPage.fromMap(Map<String, dynamic> map) {
+    final List<dynamic> rows = map['messages'] ?? [];
+    final Map<dynamic, dynamic>? cursor = map['nextCursor'];
+    return SmsPage(
+      messages: rows
+          .map((e) => SmsMessage.fromMap(Map<String, dynamic>.from(e)))
+          .toList(),
+      nextDate: cursor?['date'],
+      nextId: cursor?['id'],
+    );
+  }
+
+  bool get hasMore => nextDate != null;
+}
+
+// One SMS conversation without its messages
+class SmsThread {
+  final int threadId;
+  final String address;
+  final String snippet;
+  final int date;
+  final int count;
+  final bool read;
+
+  SmsThread({
+    required this.threadId,
+    required this.address,
+    this.snippet = '',
+    this.date = 0,
+    this.count = 0,
+    this.read = true,
+  });
+
+  factory SmsThread.fromMap(Map<String, dynamic> map) {
+    return SmsThread(
+      threadId: map['threadId'] ?? 0,
+      address: map['address'] ?? '',
+      snippet: map['snippet'] ?? '',
+      date: map['date'] ?? 0,
+      count: map['count'] ?? 0,
+      read: map['read'] ?? true,
+    );
+  }
+
+  String get formattedDate {
+    final DateTime dateTime = DateTime.fromMillisecondsSinceEpoch(date);
+    return '${dateTime.day}/${dateTime.month}/${dateTime.year} ${dateTime.hour}:${dateTime.minute.toString().padLeft(2, '0')}';
+  }
+}
+
 class CallLog {
+  final int id;
   final String number;
   final int date;
   final int duration;
   final int type; // 1 = incoming, 2 = outgoing, 3 = missed
 
   CallLog({
+    this.id = 0,
     required this.number,
     required this.date,
     required this.duration,
@@ -45,6 +133,7 @@ class CallLog {
 
   factory CallLog.fromMap(Map<String, dynamic> map) {
     return CallLog(
+      id: map['id'] ?? 0,
       number: map['number'] ?? '',
       date: map['date'] ?? 0,
       duration: map['duration'] ?? 0,
@@ -52,6 +141,24 @@ class CallLog {
     );
   }
 
+  static List<CallLog> listFromPacked(PackedTable table) {
+    final int id = table.column('id');
+    final int number = table.column('number');
+    final int date = table.column('date');
+    final int duration = table.column('duration');
+    final int type = table.column('type');
+    return PackedList(
+      table.rowCount,
+      (row) => CallLog(
+        id: table.getInt(id, row),
+        number: table.getString(number, row) ?? '',
+        date: table.getInt(date, row),
+        duration: table.getInt(duration, row),
+        type: table.getInt(type, row),
+      ),
+    );
+  }
+
   String get formattedDate {
     final DateTime dateTime = DateTime.fromMillisecondsSinceEpoch(date);
     return '${dateTime.day}/${dateTime.month}/${dateTime.year} ${dateTime.hour}:${dateTime.minute.toString().padLeft(2, '0')}';
@@ -75,6 +182,86 @@ class CallLog {
   }
 }
 
+// Call log totals for one number, summed natively
+class CallerStats {
+  final String number;
+  final String? name;
+  final int calls;
+  final int duration;
+  final DateTime? lastCall;
+  final int incoming;
+  final int outgoing;
+  final int missed;
+  final int rejected;
+  final int blocked;
+
+  CallerStats({
+    required this.number,
+    this.name,
+    this.calls = 0,
+    this.duration = 0,
+    this.lastCall,
+    this.incoming = 0,
+    this.outgoing = 0,
+    this.missed = 0,
+    this.rejected = 0,
+    this.blocked = 0,
+  });
+
+  factory CallerStats.fromMap(Map<String, dynamic> map) {
+    final int lastCall = map['lastCall'] ?? 0;
+    return CallerStats(
+      number: map['number'] ?? '',
+      name: map['name'],
+      calls: map['calls'] ?? 0,
+      duration: map['duration'] ?? 0,
+      lastCall: lastCall > 0
+          ? DateTime.fromMillisecondsSinceEpoch(lastCall)
+          : null,
+      incoming: map['incoming'] ?? 0,
+      outgoing: map['outgoing'] ?? 0,
+      missed: map['missed'] ?? 0,
+      rejected: map['rejected'] ?? 0,
+      blocked: map['blocked'] ?? 0,
+    );
+  }
+
+  String get formattedDuration {
+    final int hours = duration ~/ 3600;
+    final int minutes = duration % 3600 ~/ 60;
+    return hours > 0
+        ? '${hours}h ${minutes}m'
+        : '${minutes}m ${duration % 60}s';
+  }
+}
+
+// Totals over the whole call log plus the top numbers by the requested order
+class CallStats {
+  final int calls;
+  final int duration;
+  final int numbers;
+  final List<CallerStats> top;
+
+  CallStats({
+    this.calls = 0,
+    this.duration = 0,
+    this.numbers = 0,
+    this.top = const [],
+  });
+
+  factory CallStats.fromMap(Map<String, dynamic> map) {
+    final List<dynamic> top = map['top'] ?? [];
+    return CallStats(
+      calls: map['calls'] ?? 0,
+      duration: map['duration'] ?? 0,
+      numbers: map['numbers'] ?? 0,
+      top: top
+          .map((e) => CallerStats.fromMap(Map<String, dynamic>.from(e)))
+          .toList(),
+    );
+  }
+}
+
 class Contact {
   final String name;
   final String number;
@@ -84,6 +271,18 @@ class Contact {
   factory Contact.fromMap(Map<String, dynamic> map) {
     return Contact(name: map['name'] ?? '', number: map['number'] ?? '');
   }
+
+  static List<Contact> listFromPacked(PackedTable table) {
+    final int name = table.column('name');
+    final int number = table.column('number');
+    return PackedList(
+      table.rowCount,
+      (row) => Contact(
+        name: table.getString(name, row) ?? '',
+        number: table.getString(number, row) ?? '',
+      ),
+    );
+  }
 }
 
 class App {
@@ -111,6 +310,24 @@ class App {
     );
   }
 
+  static List<App> listFromPacked(PackedTable table) {
+    final int packageName = table.column('packageName');
+    final int appName = table.column('appName');
+    final int version = table.column('version');
+    final int isSystemApp = table.column('isSystemApp');
+    final int installTime = table.column('installTime');
+    return PackedList(
+      table.rowCount,
+      (row) => App(
+        packageName: table.getString(packageName, row) ?? '',
+        appName: table.getString(appName, row) ?? '',
+        version: table.getString(version, row) ?? '',
+        isSystemApp: table.getBool(isSystemApp, row),
+        installTime: table.getInt(installTime, row),
+      ),
+    );
+  }
+
   String get formattedInstallDate {
     if (installTime == 0) return 'Unknown';
     final DateTime dateTime = DateTime.fromMillisecondsSinceEpoch(installTime);
@@ -121,3 +338,309 @@ class App {
     return isSystemApp ? 'System' : 'User';
   }
 }
+
+class BlockRule {
+  final int id;
+  final String type; // 'prefix' or 'range'
+  final String start;
+  final String end;
+
+  BlockRule({
+    required this.id,
+    required this.type,
+    required this.start,
+    required this.end,
+  });
+
+  factory BlockRule.fromMap(Map<String, dynamic> map) {
+    return BlockRule(
+      id: map['id'] ?? 0,
+      type: map['type'] ?? 'prefix',
+      start: map['start'] ?? '',
+      end: map['end'] ?? '',
+    );
+  }
+
+  bool get isRange => type == 'range';
+
+  String get description {
+    return isRange ? '$start – $end' : '$start*';
+  }
+
+  // Mirrors the native digit trie so the UI can mark numbers covered by a rule
+  bool matches(String number) {
+    final String digits = number.replaceAll(RegExp(r'[^0-9]'), '');
+    if (digits.isEmpty) return false;
+    if (!isRange) return digits.startsWith(start);
+    return digits.length == start.length &&
+        digits.compareTo(start) >= 0 &&
+        digits.compareTo(end) <= 0;
+  }
+}
+
+// One entry of the native event journal: a logged call or SMS event
+class JournalEvent {
+  final int seq;
+  final int timestamp;
+  final String kind; // 'call' or 'sms'
+  final String type; // BLOCKED, SILENCED, ANSWERED, MISSED, OUTGOING, RECEIVED
+  final String number;
+  final String? body;
+
+  JournalEvent({
+    required this.seq,
+    required this.timestamp,
+    required this.kind,
+    required this.type,
+    required this.number,
+    this.body,
+  });
+
+  factory JournalEvent.fromMap(Map<String, dynamic> map) {
+    return JournalEvent(
+      seq: map['seq'] ?? 0,
+      timestamp: map['timestamp'] ?? 0,
+      kind: map['kind'] ?? 'call',
+      type: map['type'] ?? '',
+      number: map['number'] ?? '',
+      body: map['body'],
+    );
+  }
+
+  bool get isBlocked => type == 'BLOCKED';
+}
+
+// A screening rule beyond exact numbers, prefixes and ranges
+class ScreeningRule {
+  final int id;
+  final String kind; // withheld, notInContacts, quietHours, country, allow
+  final String argument; // calling code for country, number for allow
+  final int startMinute;
+  final int endMinute;
+  final bool calls;
+  final bool sms;
+  final String response; // reject or silence
+  final bool skipCallLog;
+  final bool skipNotification;
+  final bool enabled;
+
+  ScreeningRule({
+    required this.id,
+    required this.kind,
+    required this.argument,
+    required this.startMinute,
+    required this.endMinute,
+    required this.calls,
+    required this.sms,
+    required this.response,
+    required this.skipCallLog,
+    required this.skipNotification,
+    required this.enabled,
+  });
+
+  factory ScreeningRule.fromMap(Map<String, dynamic> map) {
+    return ScreeningRule(
+      id: map['id'] ?? 0,
+      kind: map['kind'] ?? '',
+      argument: map['argument'] ?? '',
+      startMinute: map['startMinute'] ?? 0,
+      endMinute: map['endMinute'] ?? 0,
+      calls: map['calls'] ?? true,
+      sms: map['sms'] ?? true,
+      response: map['response'] ?? 'reject',
+      skipCallLog: map['skipCallLog'] ?? false,
+      skipNotification: map['skipNotification'] ?? false,
+      enabled: map['enabled'] ?? true,
+    );
+  }
+
+  String get description {
+    switch (kind) {
+      case 'withheld':
+        return 'Withheld numbers';
+      case 'notInContacts':
+        return 'Numbers not in contacts';
+      case 'quietHours':
+        return 'Quiet hours ${_time(startMinute)}–${_time(endMinute)}';
+      case 'country':
+        return 'Country code +$argument';
+      case 'allow':
+        return 'Always allow $argument';
+      default:
+        return kind;
+    }
+  }
+
+  String get targets {
+    if (calls && sms) return 'Calls and SMS';
+    return calls ? 'Calls' : 'SMS';
+  }
+
+  static String _time(int minute) {
+    final String hours = (minute ~/ 60).toString().padLeft(2, '0');
+    final String minutes = (minute % 60).toString().padLeft(2, '0');
+    return '$hours:$minutes';
+  }
+}
+
+// Progress of a blocklist import or export
+class TransferProgress {
+  final String operation; // import or export
+  final int processed;
+  final int total;
+  final int numbers;
+  final int added;
+
+  TransferProgress({
+    required this.operation,
+    required this.processed,
+    required this.total,
+    required this.numbers,
+    required this.added,
+  });
+
+  factory TransferProgress.fromMap(Map<String, dynamic> map) {
+    return TransferProgress(
+      operation: map['operation'] ?? 'import',
+      processed: map['processed'] ?? 0,
+      total: map['total'] ?? -1,
+      numbers: map['numbers'] ?? 0,
+      added: map['added'] ?? 0,
+    );
+  }
+
+  // Fraction done, or null when the size is unknown
+  double? get fraction =>
+      total > 0 ? (processed / total).clamp(0.0, 1.0).toDouble() : null;
+}
+
+// The offline spam list checked after the user's own blocklist
+class SpamListInfo {
+  final int numbers;
+  final int bytes;
+  final DateTime? builtAt;
+
+  SpamListInfo({this.numbers = 0, this.bytes = 0, this.builtAt});
+
+  factory SpamListInfo.fromMap(Map<String, dynamic> map) {
+    final int builtAt = map['builtAt'] ?? 0;
+    return SpamListInfo(
+      numbers: map['numbers'] ?? 0,
+      bytes: map['bytes'] ?? 0,
+      builtAt: builtAt > 0 ? DateTime.fromMillisecondsSinceEpoch(builtAt) : null,
+    );
+  }
+
+  bool get isInstalled => builtAt != null;
+}
+
+// One ranked hit of the native number and name search
+class SearchMatch {
+  final String number;
+  final String? name;
+  final bool isContact;
+  final bool isBlocked;
+  final int calls;
+  final DateTime? lastCall;
+
+  SearchMatch({
+    required this.number,
+    this.name,
+    this.isContact = false,
+    this.isBlocked = false,
+    this.calls = 0,
+    this.lastCall,
+  });
+
+  factory SearchMatch.fromMap(Map<String, dynamic> map) {
+    final int lastCall = map['lastCall'] ?? 0;
+    return SearchMatch(
+      number: map['number'] ?? '',
+      name: map['name'],
+      isContact: map['contact'] ?? false,
+      isBlocked: map['blocked'] ?? false,
+      calls: map['calls'] ?? 0,
+      lastCall: lastCall > 0
+          ? DateTime.fromMillisecondsSinceEpoch(lastCall)
+          : null,
+    );
+  }
+}
+
+// Block counts from the native statistics API
+class BlockStats {
+  final List<BlockOffender> topOffenders;
+  final List<DailyBlockTotal> daily;
+
+  BlockStats({this.topOffenders = const [], this.daily = const []});
+
+  factory BlockStats.fromMap(Map<String, dynamic> map) {
+    final List<dynamic> top = map['top'] ?? [];
+    final List<dynamic> daily = map['daily'] ?? [];
+    return BlockStats(
+      topOffenders: top
+          .map((e) => BlockOffender.fromMap(Map<String, dynamic>.from(e)))
+          .toList(),
+      daily: daily
+          .map((e) => DailyBlockTotal.fromMap(Map<String, dynamic>.from(e)))
+          .toList(),
+    );
+  }
+
+  int get totalBlocked =>
+      daily.fold(0, (sum, day) => sum + day.calls + day.sms);
+}
+
+// A blocked number or rule with how often it blocked something
+class BlockOffender {
+  final int id;
+  final String number;
+  final String type; // 'number', 'prefix' or 'range'
+  final String end;
+  final int calls;
+  final int sms;
+
+  BlockOffender({
+    required this.id,
+    required this.number,
+    required this.type,
+    this.end = '',
+    this.calls = 0,
+    this.sms = 0,
+  });
+
+  factory BlockOffender.fromMap(Map<String, dynamic> map) {
+    return BlockOffender(
+      id: map['id'] ?? 0,
+      number: map['number'] ?? '',
+      type: map['type'] ?? 'number',
+      end: map['end'] ?? '',
+      calls: map['calls'] ?? 0,
+      sms: map['sms'] ?? 0,
+    );
+  }
+}
+
+// Blocked calls and SMS on one local day
+class DailyBlockTotal {
+  final int day; // days since the epoch
+  final int calls;
+  final int sms;
+
+  DailyBlockTotal({required this.day, this.calls = 0, this.sms = 0});
+
+  factory DailyBlockTotal.fromMap(Map<String, dynamic> map) {
+    return DailyBlockTotal(
+      day: map['day'] ?? 0,
+      calls: map['calls'] ?? 0,
+      sms: map['sms'] ?? 0,
+    );
+  }
+
+  // The day is counted in local time, so its UTC midnight carries the
+  // local calendar date
+  DateTime get date => DateTime.fromMillisecondsSinceEpoch(
+    day * Duration.millisecondsPerDay,
+    isUtc: true,
+  );
+}
@@ -1,27 +1,71 @@
+import 'dart:async';
+
 import 'package:flutter/foundation.dart';
 import '../models/models.dart';
 import '../services/native_service.dart';
+import '../services/packed_table.dart';
 
 class AppProvider extends ChangeNotifier {
-  List<SmsMessage> _smsMessages = [];
+  List<SmsThread> _smsThreads = [];
   List<CallLog> _callLogs = [];
   List<Contact> _contacts = [];
   List<App> _apps = [];
   List<String> _blockedNumbers = [];
+  List<BlockRule> _blockRules = [];
+  List<ScreeningRule> _screeningRules = [];
+  BlockStats _blockStats = BlockStats();
+  SpamListInfo _spamList = SpamListInfo();
+  // Contact names resolved natively; numbers asked about but not found are
+  // remembered so they are not sent again until contacts are reloaded
+  final Map<String, String> _contactNames = {};
+  final Set<String> _resolvedNumbers = {};
+  // Numbers asked for while building rows, sent together once the build ends
+  final Set<String> _nameQueue = {};
+  // Bumped when contacts are reloaded, so older answers are dropped
+  int _namesGeneration = 0;
   bool _isLoading = false;
+  int _callLogMaxId = 0;
+  StreamSubscription<Map<String, dynamic>>? _callLogSubscription;
+  StreamSubscription<Map<String, dynamic>>? _transferSubscription;
+  StreamSubscription<Map<String, dynamic>>? _blocklistSubscription;
+  // Blocklist generation the copy here is at; null until it has been loaded
+  int? _blocklistGeneration;
+  TransferProgress? _transferProgress;
   bool _serviceRunning = false;
+  String _blockingMode = 'off';
   bool _permissionsGranted = false;
 
   // Getters
-  List<SmsMessage> get smsMessages => _smsMessages;
+  List<SmsThread> get smsThreads => _smsThreads;
+  int get smsCount => _smsThreads.fold(0, (sum, thread) => sum + thread.count);
   List<CallLog> get callLogs => _callLogs;
   List<Contact> get contacts => _contacts;
   List<App> get apps => _apps;
   List<String> get blockedNumbers => _blockedNumbers;
+  List<BlockRule> get blockRules => _blockRules;
+  List<ScreeningRule> get screeningRules => _screeningRules;
+  BlockStats get blockStats => _blockStats;
+  SpamListInfo get spamList => _spamList;
+  // Set while a blocklist import or export runs
+  TransferProgress? get transferProgress => _transferProgress;
   bool get isLoading => _isLoading;
   bool get serviceRunning => _serviceRunning;
+  // 'screeningRole', 'foregroundService' or 'off'
+  String get blockingMode => _blockingMode;
   bool get permissionsGranted => _permissionsGranted;
 
+  // Contact name for a call log or blocked number, if one is known. Numbers
+  // not looked up yet are resolved in one batch after the current build, so
+  // only rows that are actually built are ever sent.
+  String? contactName(String number) {
+    if (!_resolvedNumbers.contains(number) &&
+        _nameQueue.add(number) &&
+        _nameQueue.length == 1) {
+      scheduleMicrotask(_resolveQueuedNames);
+    }
+    return _contactNames[number];
+  }
+
   // Request permissions
   Future<void> requestPermissions() async {
     _isLoading = true;
@@ -37,17 +81,18 @@ class AppProvider extends ChangeNotifier {
     notifyListeners();
   }
 
-  // Load SMS messages
-  Future<void> loadSmsMessages() async {
+  // Load one summary per SMS conversation. Message bodies are paged in only
+  // when a thread is opened.
+  Future<void> loadSmsThreads() async {
     if (!_permissionsGranted) return;
 
     _isLoading = true;
     notifyListeners();
 
     try {
-      final List<Map<String, dynamic>> data =
-          await NativeService.getSmsMessages();
-      _smsMessages = data.map((e) => SmsMessage.fromMap(e)).toList();
+      final List<Map<String, dynamic>> threads =
+          await NativeService.getSmsThreads();
+      _smsThreads = threads.map((map) => SmsThread.fromMap(map)).toList();
     } catch (e) {
       // Handle error silently
     }
@@ -56,7 +101,8 @@ class AppProvider extends ChangeNotifier {
     notifyListeners();
   }
 
-  // Load call logs
+  // Load call logs. Only rows newer than the ones already loaded are fetched,
+  // and later inserts and deletes arrive through the call log event stream.
   Future<void> loadCallLogs() async {
     if (!_permissionsGranted) return;
 
@@ -64,8 +110,20 @@ class AppProvider extends ChangeNotifier {
     notifyListeners();
 
     try {
-      final List<Map<String, dynamic>> data = await NativeService.getCallLogs();
-      _callLogs = data.map((e) => CallLog.fromMap(e)).toList();
+      // The first load moves the whole history, so it uses the packed format
+      final PackedTable? table = _callLogMaxId == 0
+          ? await NativeService.getPacked('callLogs', sinceId: 0)
+          : null;
+      if (table != null) {
+        _setCallLogs(table);
+      } else {
+        final Map<String, dynamic> delta =
+            await NativeService.getCallLogsSince(_callLogMaxId);
+        final List<dynamic> rows = delta['calls'] ?? [];
+        _mergeCallLogs(rows, const []);
+        _callLogMaxId = delta['maxId'] ?? _callLogMaxId;
+        _watchCallLogs();
+      }
     } catch (e) {
       // Handle error silently
     }
@@ -74,6 +132,57 @@ class AppProvider extends ChangeNotifier {
     notifyListeners();
   }
 
+  // Replaces the call logs with a full packed load and follows later changes
+  void _setCallLogs(PackedTable table) {
+    _callLogs = CallLog.listFromPacked(table);
+    final int id = table.column('id');
+    for (int row = 0; row < table.rowCount; row++) {
+      final int rowId = table.getInt(id, row);
+      if (rowId > _callLogMaxId) _callLogMaxId = rowId;
+    }
+    _watchCallLogs();
+  }
+
+  void _watchCallLogs() {
+    _callLogSubscription ??= NativeService.callLogEvents(_callLogMaxId)
+        .listen(_onCallLogEvent, onError: (e) => _callLogSubscription = null);
+  }
+
+  void _onCallLogEvent(Map<String, dynamic> event) {
+    _mergeCallLogs(event['inserted'] ?? [], event['deleted'] ?? []);
+    notifyListeners();
+  }
+
+  // Ask the native contact index for the names queued by contactName
+  Future<void> _resolveQueuedNames() async {
+    final List<String> numbers = _nameQueue.toList();
+    _nameQueue.clear();
+    // Marked before the answer arrives, so rebuilds meanwhile do not ask again
+    _resolvedNumbers.addAll(numbers);
+    final int generation = _namesGeneration;
+    final Map<String, String> names = await NativeService.resolveNames(numbers);
+    if (generation != _namesGeneration || names.isEmpty) return;
+    _contactNames.addAll(names);
+    notifyListeners();
+  }
+
+  void _mergeCallLogs(List<dynamic> inserted, List<dynamic> deleted) {
+    final List<CallLog> added = inserted
+        .map((e) => CallLog.fromMap(Map<String, dynamic>.from(e)))
+        .where((call) => call.id > _callLogMaxId)
+        .toList();
+    for (final CallLog call in added) {
+      if (call.id > _callLogMaxId) _callLogMaxId = call.id;
+    }
+    added.sort((a, b) => b.date.compareTo(a.date));
+
+    final Set<dynamic> removed = deleted.toSet();
+    _callLogs = [
+      ...added,
+      ..._callLogs.where((call) => !removed.contains(call.id)),
+    ];
+  }
+
   // Load contacts
   Future<void> loadContacts() async {
     if (!_permissionsGranted) return;
@@ -82,8 +191,14 @@ class AppProvider extends ChangeNotifier {
     notifyListeners();
 
     try {
-      final List<Map<String, dynamic>> data = await NativeService.getContacts();
-      _contacts = data.map((e) => Contact.fromMap(e)).toList();
+      final PackedTable? table = await NativeService.getPacked('contacts');
+      if (table != null) {
+        _setContacts(Contact.listFromPacked(table));
+      } else {
+        final List<Map<String, dynamic>> data =
+            await NativeService.getContacts();
+        _setContacts(data.map((e) => Contact.fromMap(e)).toList());
+      }
     } catch (e) {
       // Handle error silently
     }
@@ -92,19 +207,29 @@ class AppProvider extends ChangeNotifier {
     notifyListeners();
   }
 
+  void _setContacts(List<Contact> contacts) {
+    _contacts = contacts;
+    // Contacts may have changed, so every number is resolved again as its
+    // row is rebuilt
+    _namesGeneration++;
+    _contactNames.clear();
+    _resolvedNumbers.clear();
+  }
+
   // Load installed apps
   Future<void> loadApps() async {
     _isLoading = true;
     notifyListeners();
 
     try {
-      final List<Map<String, dynamic>> data =
-          await NativeService.getInstalledApps();
-      _apps = data.map((e) => App.fromMap(e)).toList();
-      // Sort apps alphabetically by name
-      _apps.sort(
-        (a, b) => a.appName.toLowerCase().compareTo(b.appName.toLowerCase()),
-      );
+      final PackedTable? table = await NativeService.getPacked('apps');
+      if (table != null) {
+        _setApps(List.of(App.listFromPacked(table)));
+      } else {
+        final List<Map<String, dynamic>> data =
+            await NativeService.getInstalledApps();
+        _setApps(data.map((e) => App.fromMap(e)).toList());
+      }
     } catch (e) {
       // Handle error silently
     }
@@ -113,13 +238,28 @@ class AppProvider extends ChangeNotifier {
     notifyListeners();
   }
 
+  void _setApps(List<App> apps) {
+    // Sort apps alphabetically by name
+    apps.sort(
+      (a, b) => a.appName.toLowerCase().compareTo(b.appName.toLowerCase()),
+    );
+    _apps = apps;
+  }
+
   // Load blocked numbers
   Future<void> loadBlockedNumbers() async {
     _isLoading = true;
     notifyListeners();
+    _watchBlocklist();
 
     try {
+      // Read before the numbers, so they are at least as new as it
+      _blocklistGeneration = await NativeService.getBlocklistGeneration();
       _blockedNumbers = await NativeService.getBlockedNumbers();
+      final List<Map<String, dynamic>> rules =
+          await NativeService.getBlockRules();
+      _blockRules = rules.map((e) => BlockRule.fromMap(e)).toList();
+      _blockStats = BlockStats.fromMap(await NativeService.getBlockStats());
     } catch (e) {
       // Handle error silently
     }
@@ -128,12 +268,57 @@ class AppProvider extends ChangeNotifier {
     notifyListeners();
   }
 
+  // Keeps the blocklist in step with changes made anywhere in the app, such as
+  // an import, without reloading it after each one
+  void _watchBlocklist() {
+    _blocklistSubscription ??= NativeService.blocklistEvents().listen(
+      _onBlocklistEvent,
+      onError: (e) => _blocklistSubscription = null,
+    );
+  }
+
+  void _onBlocklistEvent(Map<String, dynamic> event) {
+    final int generation = event['generation'];
+    final int? known = _blocklistGeneration;
+    // Not loaded yet, or already part of what was loaded
+    if (known == null || generation <= known) return;
+    final List<dynamic>? added = event['added'];
+    final List<dynamic>? removed = event['removed'];
+    // A skipped generation or an unlisted change leaves nothing to apply it to
+    if (generation != known + 1 || added == null || removed == null) {
+      loadBlockedNumbers();
+      return;
+    }
+
+    _blocklistGeneration = generation;
+    // Changes made from here were applied already; doing so twice is harmless
+    _addBlocked(added.cast<String>());
+    final Set<dynamic> gone = removed.toSet();
+    _blockedNumbers.removeWhere(gone.contains);
+    if (event['rulesChanged'] == true) {
+      _reloadBlockRules();
+    } else {
+      notifyListeners();
+    }
+  }
+
+  void _addBlocked(Iterable<String> numbers) {
+    final Set<String> known = _blockedNumbers.toSet();
+    _blockedNumbers.addAll(
+      numbers.map(_digitsOf).where((d) => d.isNotEmpty && known.add(d)),
+    );
+  }
+
+  // Blocked numbers are stored as digits only, whatever formatting they had
+  static String _digitsOf(String number) =>
+      number.replaceAll(RegExp(r'[^0-9]'), '');
+
   // Block a number
   Future<bool> blockNumber(String number) async {
     try {
       final bool success = await NativeService.blockNumber(number);
       if (success) {
-        _blockedNumbers.add(number);
+        _addBlocked([number]);
         notifyListeners();
       }
       return success;
@@ -142,12 +327,26 @@ class AppProvider extends ChangeNotifier {
     }
   }
 
+  // Block a list of numbers in one call
+  Future<int> blockNumbers(List<String> numbers) async {
+    try {
+      final int added = await NativeService.blockNumbers(numbers);
+      if (added > 0) {
+        _addBlocked(numbers);
+        notifyListeners();
+      }
+      return added;
+    } catch (e) {
+      return 0;
+    }
+  }
+
   // Unblock a number
   Future<bool> unblockNumber(String number) async {
     try {
       final bool success = await NativeService.unblockNumber(number);
       if (success) {
-        _blockedNumbers.remove(number);
+        _blockedNumbers.remove(_digitsOf(number));
         notifyListeners();
       }
       return success;
@@ -156,12 +355,13 @@ class AppProvider extends ChangeNotifier {
     }
   }
 
-  // Start blocking service
-  Future<bool> startBlockingService() async {
+  // Unblock a list of numbers in one call
+  Future<bool> unblockNumbers(List<String> numbers) async {
     try {
-      final bool success = await NativeService.startBlockingService();
+      final bool success = await NativeService.unblockNumbers(numbers);
       if (success) {
-        _serviceRunning = true;
+        final Set<String> removed = numbers.map(_digitsOf).toSet();
+        _blockedNumbers.removeWhere(removed.contains);
         notifyListeners();
       }
       return success;
@@ -170,12 +370,116 @@ class AppProvider extends ChangeNotifier {
     }
   }
 
-  // Stop blocking service
-  Future<bool> stopBlockingService() async {
+  // Block a prefix
+  Future<bool> blockPrefix(String prefix) async {
     try {
-      final bool success = await NativeService.stopBlockingService();
+      final bool success = await NativeService.blockPrefix(prefix);
+      if (success) {
+        await _reloadBlockRules();
+      }
+      return success;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Block a numeric range
+  Future<bool> blockRange(String start, String end) async {
+    try {
+      final bool success = await NativeService.blockRange(start, end);
+      if (success) {
+        await _reloadBlockRules();
+      }
+      return success;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Remove a prefix or range rule
+  Future<bool> removeBlockRule(BlockRule rule) async {
+    try {
+      final bool success = await NativeService.removeBlockRule(rule.id);
+      if (success) {
+        _blockRules.removeWhere((r) => r.id == rule.id);
+        notifyListeners();
+      }
+      return success;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  Future<void> _reloadBlockRules() async {
+    final List<Map<String, dynamic>> rules =
+        await NativeService.getBlockRules();
+    _blockRules = rules.map((e) => BlockRule.fromMap(e)).toList();
+    notifyListeners();
+  }
+
+  // Load screening rules
+  Future<void> loadScreeningRules() async {
+    final List<Map<String, dynamic>> rules =
+        await NativeService.getScreeningRules();
+    _screeningRules = rules.map((e) => ScreeningRule.fromMap(e)).toList();
+    notifyListeners();
+  }
+
+  // Add a screening rule; see NativeService.addScreeningRule for the kinds
+  Future<bool> addScreeningRule({
+    required String kind,
+    String? argument,
+    int startMinute = 0,
+    int endMinute = 0,
+    bool calls = true,
+    bool sms = true,
+    String response = 'reject',
+    bool skipCallLog = false,
+    bool skipNotification = false,
+  }) async {
+    try {
+      final bool success = await NativeService.addScreeningRule(
+        kind: kind,
+        argument: argument,
+        startMinute: startMinute,
+        endMinute: endMinute,
+        calls: calls,
+        sms: sms,
+        response: response,
+        skipCallLog: skipCallLog,
+        skipNotification: skipNotification,
+      );
+      if (success) {
+        await loadScreeningRules();
+      }
+      return success;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Turn a screening rule on or off
+  Future<bool> setScreeningRuleEnabled(ScreeningRule rule, bool enabled) async {
+    try {
+      final bool success = await NativeService.setScreeningRuleEnabled(
+        rule.id,
+        enabled,
+      );
+      if (success) {
+        await loadScreeningRules();
+      }
+      return success;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Remove a screening rule
+  Future<bool> removeScreeningRule(ScreeningRule rule) async {
+    try {
+      final bool success = await NativeService.removeScreeningRule(rule.id);
       if (success) {
-        _serviceRunning = false;
+        _screeningRules.removeWhere((r) => r.id == rule.id);
         notifyListeners();
       }
       return success;
@@ -184,9 +488,100 @@ class AppProvider extends ChangeNotifier {
     }
   }
 
+  // Import a blocklist file chosen by the user; returns the native summary
+  Future<Map<String, dynamic>?> importBlocklist() async {
+    final result = await _runTransfer(NativeService.importBlocklist);
+    if (result != null && (result['added'] ?? 0) > 0) {
+      await loadBlockedNumbers();
+    }
+    return result;
+  }
+
+  // Export the blocklist to a file chosen by the user
+  Future<Map<String, dynamic>?> exportBlocklist(String format) {
+    return _runTransfer(() => NativeService.exportBlocklist(format));
+  }
+
+  Future<void> loadSpamListInfo() async {
+    _spamList = SpamListInfo.fromMap(await NativeService.getSpamListInfo());
+    notifyListeners();
+  }
+
+  // Replace the spam list with a file chosen by the user
+  Future<Map<String, dynamic>?> importSpamList() async {
+    final result = await _runTransfer(NativeService.importSpamList);
+    if (result != null) {
+      await loadSpamListInfo();
+    }
+    return result;
+  }
+
+  Future<bool> clearSpamList() async {
+    final bool success = await NativeService.clearSpamList();
+    if (success) {
+      await loadSpamListInfo();
+    }
+    return success;
+  }
+
+  Future<void> cancelBlocklistTransfer() async {
+    await NativeService.cancelBlocklistTransfer();
+  }
+
+  Future<Map<String, dynamic>?> _runTransfer(
+    Future<Map<String, dynamic>?> Function() transfer,
+  ) async {
+    _transferSubscription ??= NativeService.blocklistTransferEvents().listen(
+      (event) {
+        _transferProgress = TransferProgress.fromMap(event);
+        notifyListeners();
+      },
+      onError: (e) => _transferSubscription = null,
+    );
+    try {
+      return await transfer();
+    } finally {
+      _transferProgress = null;
+      notifyListeners();
+    }
+  }
+
+  // Start blocking service
+  Future<bool> startBlockingService() async {
+    try {
+      final bool success = await NativeService.startBlockingService();
+      if (success) await loadBlockingMode();
+      return success;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Stop blocking service
+  Future<bool> stopBlockingService() async {
+    try {
+      final bool success = await NativeService.stopBlockingService();
+      if (success) await loadBlockingMode();
+      return success;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // With the call screening role held blocking needs no foreground service,
+  // and it stays on until the role is revoked in system settings
+  Future<void> loadBlockingMode() async {
+    final Map<String, dynamic> mode = await NativeService.getBlockingMode();
+    if (mode.isEmpty) return;
+    _blockingMode = mode['mode'] ?? 'off';
+    _serviceRunning = _blockingMode != 'off';
+    notifyListeners();
+  }
+
   // Check if a number is blocked
   bool isNumberBlocked(String number) {
-    return _blockedNumbers.contains(number);
+    return _blockedNumbers.contains(_digitsOf(number)) ||
+        _blockRules.any((rule) => rule.matches(number));
   }
 
   // Enable call screening (Android 10+)
@@ -199,22 +594,101 @@ class AppProvider extends ChangeNotifier {
     }
   }
 
+  @override
+  void dispose() {
+    _callLogSubscription?.cancel();
+    _transferSubscription?.cancel();
+    _blocklistSubscription?.cancel();
+    NativeService.cancelQueries();
+    super.dispose();
+  }
+
   // Load all data
   Future<void> loadAllData() async {
     if (!_permissionsGranted) {
       await requestPermissions();
     }
 
-    if (_permissionsGranted) {
-      await Future.wait([
-        loadSmsMessages(),
-        loadCallLogs(),
-        loadContacts(),
-        loadBlockedNumbers(),
-      ]);
+    // Apps need no special permission
+    final Set<String> pending = _permissionsGranted
+        ? {'smsThreads', 'callLogs', 'contacts', 'blocklist', 'apps'}
+        : {'apps'};
+
+    _isLoading = true;
+    notifyListeners();
+    // Listening before the snapshot is read, so no change falls in between
+    if (_permissionsGranted) _watchBlocklist();
+
+    // One native snapshot loads every dataset in parallel; each is applied as
+    // soon as it arrives
+    try {
+      await for (final event in NativeService.loadSnapshot(pending.toList())) {
+        if (_applySnapshotPart(event['dataset'], event['data'])) {
+          pending.remove(event['dataset']);
+          notifyListeners();
+        }
+      }
+    } catch (e) {
+      // Whatever did not arrive is loaded one by one below
+    }
+
+    _isLoading = false;
+    notifyListeners();
+
+    await Future.wait([
+      ...pending.map(_loadDataset),
+      loadBlockingMode(),
+    ]);
+  }
+
+  // Returns false when the part carried no data, such as after an error
+  bool _applySnapshotPart(String dataset, dynamic data) {
+    if (data == null) return false;
+    switch (dataset) {
+      case 'smsThreads':
+        _smsThreads = (data as List<dynamic>)
+            .map((e) => SmsThread.fromMap(Map<String, dynamic>.from(e)))
+            .toList();
+        return true;
+      case 'callLogs':
+        _setCallLogs(data as PackedTable);
+        return true;
+      case 'contacts':
+        _setContacts(Contact.listFromPacked(data as PackedTable));
+        return true;
+      case 'apps':
+        _setApps(List.of(App.listFromPacked(data as PackedTable)));
+        return true;
+      case 'blocklist':
+        final Map<dynamic, dynamic> blocklist = data;
+        final List<dynamic> rules = blocklist['rules'] ?? [];
+        _blocklistGeneration = blocklist['generation'];
+        _blockedNumbers = List<String>.from(blocklist['numbers'] ?? []);
+        _blockRules = rules
+            .map((e) => BlockRule.fromMap(Map<String, dynamic>.from(e)))
+            .toList();
+        _blockStats = BlockStats.fromMap(
+          Map<String, dynamic>.from(blocklist['stats'] ?? {}),
+        );
+        return true;
+      default:
+        return false;
     }
+  }
 
-    // Load apps separately as it doesn't require special permissions
-    await loadApps();
+  // Loads one dataset through its own method, used when the snapshot misses it
+  Future<void> _loadDataset(String dataset) {
+    switch (dataset) {
+      case 'smsThreads':
+        return loadSmsThreads();
+      case 'callLogs':
+        return loadCallLogs();
+      case 'contacts':
+        return loadContacts();
+      case 'blocklist':
+        return loadBlockedNumbers();
+      default:
+        return loadApps();
+    }
   }
 }
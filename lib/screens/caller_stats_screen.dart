@@ -0,0 +1,126 @@
+import 'package:flutter/material.dart';
+import '../models/models.dart';
+import '../services/native_service.dart';
+
+// Most frequent callers, longest talk time and most recent numbers, summed
+// natively over the whole call log
+class CallerStatsScreen extends StatefulWidget {
+  const CallerStatsScreen({super.key});
+
+  @override
+  State<CallerStatsScreen> createState() => _CallerStatsScreenState();
+}
+
+class _CallerStatsScreenState extends State<CallerStatsScreen> {
+  static const Map<String, String> _orders = {
+    'calls': 'Most calls',
+    'duration': 'Talk time',
+    'lastCall': 'Recent',
+  };
+
+  String _sortBy = 'calls';
+  CallStats _stats = CallStats();
+  bool _loading = true;
+
+  @override
+  void initState() {
+    super.initState();
+    _load();
+  }
+
+  Future<void> _load() async {
+    setState(() => _loading = true);
+    final String sortBy = _sortBy;
+    final stats = CallStats.fromMap(
+      await NativeService.getCallStats(sortBy: sortBy),
+    );
+    // A newer order may have been picked while this one loaded
+    if (!mounted || sortBy != _sortBy) return;
+    setState(() {
+      _stats = stats;
+      _loading = false;
+    });
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    return Scaffold(
+      appBar: AppBar(
+        title: const Text('Top Callers'),
+        backgroundColor: Colors.blue,
+        foregroundColor: Colors.white,
+        actions: [
+          IconButton(icon: const Icon(Icons.refresh), onPressed: _load),
+        ],
+      ),
+      body: Column(
+        children: [
+          Padding(
+            padding: const EdgeInsets.all(8.0),
+            child: Wrap(
+              spacing: 8,
+              children: _orders.entries
+                  .map(
+                    (order) => ChoiceChip(
+                      label: Text(order.value),
+                      selected: _sortBy == order.key,
+                      onSelected: (_) {
+                        setState(() => _sortBy = order.key);
+                        _load();
+                      },
+                    ),
+                  )
+                  .toList(),
+            ),
+          ),
+          Text(
+            '${_stats.calls} calls from ${_stats.numbers} numbers',
+            style: Theme.of(context).textTheme.bodySmall,
+          ),
+          Expanded(
+            child: _loading
+                ? const Center(child: CircularProgressIndicator())
+                : RefreshIndicator(
+                    onRefresh: _load,
+                    child: ListView.builder(
+                      itemCount: _stats.top.length,
+                      itemBuilder: (context, index) =>
+                          _buildCaller(index, _stats.top[index]),
+                    ),
+                  ),
+          ),
+        ],
+      ),
+    );
+  }
+
+  Widget _buildCaller(int index, CallerStats caller) {
+    final String lastCall = caller.lastCall != null
+        ? caller.lastCall.toString().substring(0, 16)
+        : '';
+    return ListTile(
+      leading: CircleAvatar(child: Text('${index + 1}')),
+      title: Text(
+        caller.name ?? (caller.number.isEmpty ? 'Unknown' : caller.number),
+      ),
+      subtitle: Text(
+        '${caller.incoming} in · ${caller.outgoing} out · '
+        '${caller.missed} missed'
+        '${caller.blocked > 0 ? ' · ${caller.blocked} blocked' : ''}\n'
+        'Last $lastCall',
+      ),
+      isThreeLine: true,
+      trailing: Column(
+        mainAxisAlignment: MainAxisAlignment.center,
+        crossAxisAlignment: CrossAxisAlignment.end,
+        children: [
+          Text(
+            '${caller.calls}',
+            style: const TextStyle(fontWeight: FontWeight.bold),
+          ),
+          Text(caller.formattedDuration),
+        ],
+      ),
+    );
+  }
+}
@@ -2,6 +2,11 @@ import 'package:flutter/material.dart';
 import 'package:provider/provider.dart';
 import '../providers/app_provider.dart';
 import '../models/models.dart';
+import 'caller_stats_screen.dart';
+import 'metrics_screen.dart';
+import 'screening_rules_screen.dart';
+import 'search_screen.dart';
+import 'sms_thread_screen.dart';
 
 // Helper class for common dialogs
 class DialogHelper {
@@ -84,6 +89,30 @@ class _HomeScreenState extends State<HomeScreen> {
         backgroundColor: Colors.blue,
         foregroundColor: Colors.white,
         actions: [
+          IconButton(
+            icon: const Icon(Icons.search),
+            tooltip: 'Search numbers',
+            onPressed: () =>
+                showSearch(context: context, delegate: NumberSearchDelegate()),
+          ),
+          IconButton(
+            icon: const Icon(Icons.rule),
+            tooltip: 'Screening rules',
+            onPressed: () => Navigator.push(
+              context,
+              MaterialPageRoute(
+                builder: (context) => const ScreeningRulesScreen(),
+              ),
+            ),
+          ),
+          IconButton(
+            icon: const Icon(Icons.speed),
+            tooltip: 'Latency metrics',
+            onPressed: () => Navigator.push(
+              context,
+              MaterialPageRoute(builder: (context) => const MetricsScreen()),
+            ),
+          ),
           Consumer<AppProvider>(
             builder: (context, provider, child) {
               return IconButton(
@@ -207,7 +236,7 @@ class DashboardTab extends StatelessWidget {
                           ),
                           const SizedBox(width: 8),
                           Text(
-                            'Service: ${provider.serviceRunning ? 'Running' : 'Stopped'}',
+                            'Blocking: ${_modeLabel(provider.blockingMode)}',
                           ),
                         ],
                       ),
@@ -288,7 +317,7 @@ class DashboardTab extends StatelessWidget {
                     _buildStatCard(
                       context,
                       'SMS',
-                      provider.smsMessages.length.toString(),
+                      provider.smsCount.toString(),
                       Icons.sms,
                       Colors.blue,
                     ),
@@ -320,6 +349,13 @@ class DashboardTab extends StatelessWidget {
                       Icons.block,
                       Colors.red,
                     ),
+                    _buildStatCard(
+                      context,
+                      'Blocked (30d)',
+                      provider.blockStats.totalBlocked.toString(),
+                      Icons.shield,
+                      Colors.redAccent,
+                    ),
                   ],
                 ),
               ),
@@ -366,6 +402,17 @@ class DashboardTab extends StatelessWidget {
       ),
     );
   }
+
+  static String _modeLabel(String mode) {
+    switch (mode) {
+      case 'screeningRole':
+        return 'Call screening role';
+      case 'foregroundService':
+        return 'Background service';
+      default:
+        return 'Off';
+    }
+  }
 }
 
 class SmsTab extends StatelessWidget {
@@ -379,9 +426,9 @@ class SmsTab extends StatelessWidget {
           body: _buildBody(context, provider),
           floatingActionButton: FloatingActionButton(
             onPressed: () async {
-              await provider.loadSmsMessages();
+              await provider.loadSmsThreads();
               ScaffoldMessenger.of(context).showSnackBar(
-                const SnackBar(content: Text('SMS messages refreshed')),
+                const SnackBar(content: Text('SMS conversations refreshed')),
               );
             },
             child: const Icon(Icons.refresh),
@@ -397,42 +444,51 @@ class SmsTab extends StatelessWidget {
       return const Center(child: CircularProgressIndicator());
     }
 
-    if (provider.smsMessages.isEmpty) {
+    if (provider.smsThreads.isEmpty) {
       return const Center(child: Text('No SMS messages found'));
     }
 
     return ListView.builder(
-      itemCount: provider.smsMessages.length,
+      itemCount: provider.smsThreads.length,
       itemBuilder: (context, index) {
-        final sms = provider.smsMessages[index];
-        final isBlocked = provider.isNumberBlocked(sms.address);
+        final thread = provider.smsThreads[index];
+        final isBlocked = provider.isNumberBlocked(thread.address);
 
         return ListTile(
           leading: CircleAvatar(
-            backgroundColor: sms.type == 2 ? Colors.blue : Colors.green,
-            child: Icon(
-              sms.type == 2 ? Icons.send : Icons.inbox,
-              color: Colors.white,
+            backgroundColor: isBlocked ? Colors.red : Colors.green,
+            child: Text(
+              '${thread.count}',
+              style: const TextStyle(color: Colors.white),
             ),
           ),
-          title: Text(sms.address),
+          title: Text(
+            thread.address.isEmpty ? 'Unknown' : thread.address,
+            style: thread.read
+                ? null
+                : const TextStyle(fontWeight: FontWeight.bold),
+          ),
           subtitle: Column(
             crossAxisAlignment: CrossAxisAlignment.start,
             children: [
-              Text(sms.body),
               Text(
-                '${sms.typeString} • ${sms.formattedDate}',
+                thread.snippet,
+                maxLines: 2,
+                overflow: TextOverflow.ellipsis,
+              ),
+              Text(
+                thread.formattedDate,
                 style: Theme.of(context).textTheme.bodySmall,
               ),
             ],
           ),
-          trailing: isBlocked
-              ? Icon(Icons.block, color: Colors.red)
-              : IconButton(
-                  icon: const Icon(Icons.block),
-                  onPressed: () =>
-                      DialogHelper.showBlockDialog(context, sms.address),
-                ),
+          trailing: isBlocked ? Icon(Icons.block, color: Colors.red) : null,
+          onTap: () => Navigator.push(
+            context,
+            MaterialPageRoute(
+              builder: (context) => SmsThreadScreen(thread: thread),
+            ),
+          ),
         );
       },
     );
@@ -473,20 +529,36 @@ class CallsTab extends StatelessWidget {
     }
 
     return ListView.builder(
-      itemCount: provider.callLogs.length,
+      itemCount: provider.callLogs.length + 1,
       itemBuilder: (context, index) {
-        final call = provider.callLogs[index];
+        if (index == 0) {
+          return ListTile(
+            leading: const Icon(Icons.leaderboard),
+            title: const Text('Top callers'),
+            trailing: const Icon(Icons.chevron_right),
+            onTap: () => Navigator.push(
+              context,
+              MaterialPageRoute(
+                builder: (context) => const CallerStatsScreen(),
+              ),
+            ),
+          );
+        }
+
+        final call = provider.callLogs[index - 1];
         final isBlocked = provider.isNumberBlocked(call.number);
+        final name = provider.contactName(call.number);
 
         return ListTile(
           leading: CircleAvatar(
             backgroundColor: _getCallTypeColor(call.type),
             child: Icon(_getCallTypeIcon(call.type), color: Colors.white),
           ),
-          title: Text(call.number),
+          title: Text(name ?? call.number),
           subtitle: Column(
             crossAxisAlignment: CrossAxisAlignment.start,
             children: [
+              if (name != null) Text(call.number),
               Text('${call.typeString} • ${call.formattedDuration}'),
               Text(
                 call.formattedDate,
@@ -596,39 +668,218 @@ class BlockedTab extends StatelessWidget {
   Widget build(BuildContext context) {
     return Consumer<AppProvider>(
       builder: (context, provider, child) {
-        if (provider.isLoading) {
-          return const Center(child: CircularProgressIndicator());
-        }
-
-        if (provider.blockedNumbers.isEmpty) {
-          return const Center(child: Text('No blocked numbers'));
-        }
+        return Scaffold(
+          body: Column(
+            children: [
+              _buildTransferBar(context, provider),
+              Expanded(child: _buildBody(context, provider)),
+            ],
+          ),
+          floatingActionButton: FloatingActionButton(
+            onPressed: () => showDialog(
+              context: context,
+              builder: (context) => const AddBlockRuleDialog(),
+            ),
+            child: const Icon(Icons.add),
+            tooltip: 'Block Prefix or Range',
+          ),
+        );
+      },
+    );
+  }
 
-        return ListView.builder(
-          itemCount: provider.blockedNumbers.length,
-          itemBuilder: (context, index) {
-            final number = provider.blockedNumbers[index];
+  // Import and export actions, replaced by a progress bar while one runs
+  Widget _buildTransferBar(BuildContext context, AppProvider provider) {
+    final TransferProgress? progress = provider.transferProgress;
+    if (progress != null) {
+      final String verb = progress.operation == 'export' ? 'Exported' : 'Read';
+      return ListTile(
+        title: LinearProgressIndicator(value: progress.fraction),
+        subtitle: Text(
+          '$verb ${progress.numbers} numbers, added ${progress.added}',
+        ),
+        trailing: IconButton(
+          icon: const Icon(Icons.close),
+          onPressed: provider.cancelBlocklistTransfer,
+        ),
+      );
+    }
 
-            return ListTile(
-              leading: const CircleAvatar(
-                backgroundColor: Colors.red,
-                child: Icon(Icons.block, color: Colors.white),
-              ),
-              title: Text(number),
-              subtitle: const Text('Blocked number'),
-              trailing: IconButton(
-                icon: const Icon(Icons.delete),
-                onPressed: () =>
-                    DialogHelper.showUnblockDialog(context, number),
+    return Row(
+      mainAxisAlignment: MainAxisAlignment.end,
+      children: [
+        TextButton.icon(
+          icon: const Icon(Icons.file_upload),
+          label: const Text('Import'),
+          onPressed: () async {
+            final result = await provider.importBlocklist();
+            if (result == null) return;
+            ScaffoldMessenger.of(context).showSnackBar(
+              SnackBar(
+                content: Text(
+                  'Added ${result['added']} of ${result['numbers']} numbers',
+                ),
               ),
             );
           },
+        ),
+        PopupMenuButton<String>(
+          tooltip: 'Export',
+          onSelected: (format) async {
+            final result = await provider.exportBlocklist(format);
+            if (result == null) return;
+            ScaffoldMessenger.of(context).showSnackBar(
+              SnackBar(content: Text('Exported ${result['numbers']} numbers')),
+            );
+          },
+          itemBuilder: (context) => const [
+            PopupMenuItem(value: 'txt', child: Text('Plain text')),
+            PopupMenuItem(value: 'csv', child: Text('CSV')),
+            PopupMenuItem(value: 'vcf', child: Text('vCard')),
+          ],
+          child: const Padding(
+            padding: EdgeInsets.symmetric(horizontal: 12, vertical: 8),
+            child: Row(
+              children: [
+                Icon(Icons.file_download),
+                SizedBox(width: 8),
+                Text('Export'),
+              ],
+            ),
+          ),
+        ),
+      ],
+    );
+  }
+
+  Widget _buildBody(BuildContext context, AppProvider provider) {
+    if (provider.isLoading) {
+      return const Center(child: CircularProgressIndicator());
+    }
+
+    if (provider.blockedNumbers.isEmpty && provider.blockRules.isEmpty) {
+      return const Center(child: Text('No blocked numbers'));
+    }
+
+    final int ruleCount = provider.blockRules.length;
+
+    return ListView.builder(
+      itemCount: ruleCount + provider.blockedNumbers.length,
+      itemBuilder: (context, index) {
+        if (index < ruleCount) {
+          final rule = provider.blockRules[index];
+
+          return ListTile(
+            leading: const CircleAvatar(
+              backgroundColor: Colors.deepOrange,
+              child: Icon(Icons.filter_list, color: Colors.white),
+            ),
+            title: Text(rule.description),
+            subtitle: Text(rule.isRange ? 'Blocked range' : 'Blocked prefix'),
+            trailing: IconButton(
+              icon: const Icon(Icons.delete),
+              onPressed: () => provider.removeBlockRule(rule),
+            ),
+          );
+        }
+
+        final number = provider.blockedNumbers[index - ruleCount];
+
+        return ListTile(
+          leading: const CircleAvatar(
+            backgroundColor: Colors.red,
+            child: Icon(Icons.block, color: Colors.white),
+          ),
+          title: Text(number),
+          subtitle: Text(provider.contactName(number) ?? 'Blocked number'),
+          trailing: IconButton(
+            icon: const Icon(Icons.delete),
+            onPressed: () => DialogHelper.showUnblockDialog(context, number),
+          ),
         );
       },
     );
   }
 }
 
+class AddBlockRuleDialog extends StatefulWidget {
+  const AddBlockRuleDialog({super.key});
+
+  @override
+  State<AddBlockRuleDialog> createState() => _AddBlockRuleDialogState();
+}
+
+class _AddBlockRuleDialogState extends State<AddBlockRuleDialog> {
+  final TextEditingController _startController = TextEditingController();
+  final TextEditingController _endController = TextEditingController();
+  bool _isRange = false;
+
+  @override
+  void dispose() {
+    _startController.dispose();
+    _endController.dispose();
+    super.dispose();
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    return AlertDialog(
+      title: const Text('Block Prefix or Range'),
+      content: Column(
+        mainAxisSize: MainAxisSize.min,
+        children: [
+          SegmentedButton<bool>(
+            segments: const [
+              ButtonSegment(value: false, label: Text('Prefix')),
+              ButtonSegment(value: true, label: Text('Range')),
+            ],
+            selected: {_isRange},
+            onSelectionChanged: (selection) =>
+                setState(() => _isRange = selection.first),
+          ),
+          TextField(
+            controller: _startController,
+            keyboardType: TextInputType.phone,
+            decoration: InputDecoration(
+              labelText: _isRange ? 'First number' : 'Prefix',
+            ),
+          ),
+          if (_isRange)
+            TextField(
+              controller: _endController,
+              keyboardType: TextInputType.phone,
+              decoration: const InputDecoration(labelText: 'Last number'),
+            ),
+        ],
+      ),
+      actions: [
+        TextButton(
+          onPressed: () => Navigator.pop(context),
+          child: const Text('Cancel'),
+        ),
+        TextButton(
+          onPressed: () async {
+            final provider = context.read<AppProvider>();
+            final bool success = _isRange
+                ? await provider.blockRange(
+                    _startController.text,
+                    _endController.text,
+                  )
+                : await provider.blockPrefix(_startController.text);
+            Navigator.pop(context);
+            ScaffoldMessenger.of(context).showSnackBar(
+              SnackBar(
+                content: Text(success ? 'Rule added' : 'Invalid rule'),
+              ),
+            );
+          },
+          child: const Text('Block'),
+        ),
+      ],
+    );
+  }
+}
+
 class AppsTab extends StatelessWidget {
   const AppsTab({super.key});
 
@@ -0,0 +1,175 @@
+import 'package:flutter/material.dart';
+import '../services/native_service.dart';
+
+// Debug screen listing per-stage latency of call screening and the receivers,
+// how long recent cold starts took to reach their first decision, and how
+// often each blocking mode woke the app
+class MetricsScreen extends StatefulWidget {
+  const MetricsScreen({super.key});
+
+  @override
+  State<MetricsScreen> createState() => _MetricsScreenState();
+}
+
+class _MetricsScreenState extends State<MetricsScreen> {
+  List<Map<String, dynamic>> _metrics = [];
+  List<Map<String, dynamic>> _coldStarts = [];
+  Map<String, dynamic> _blockingMode = {};
+  bool _loading = true;
+
+  @override
+  void initState() {
+    super.initState();
+    _load();
+  }
+
+  Future<void> _load() async {
+    setState(() => _loading = true);
+    final metrics = await NativeService.getMetrics();
+    final coldStarts = await NativeService.getColdStarts();
+    final blockingMode = await NativeService.getBlockingMode();
+    if (!mounted) return;
+    setState(() {
+      _metrics = metrics;
+      _blockingMode = blockingMode;
+      // Newest first
+      _coldStarts = coldStarts.reversed.toList();
+      _loading = false;
+    });
+  }
+
+  Future<void> _reset() async {
+    await NativeService.resetMetrics();
+    await _load();
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    return Scaffold(
+      appBar: AppBar(
+        title: const Text('Latency Metrics'),
+        backgroundColor: Colors.blue,
+        foregroundColor: Colors.white,
+        actions: [
+          IconButton(icon: const Icon(Icons.refresh), onPressed: _load),
+          IconButton(icon: const Icon(Icons.delete_sweep), onPressed: _reset),
+        ],
+      ),
+      body: _loading
+          ? const Center(child: CircularProgressIndicator())
+          : RefreshIndicator(
+              onRefresh: _load,
+              child: ListView(
+                children: [
+                  ..._metrics.map(_buildMetric),
+                  if (_coldStarts.isNotEmpty)
+                    const ListTile(
+                      title: Text(
+                        'Cold starts',
+                        style: TextStyle(fontWeight: FontWeight.bold),
+                      ),
+                    ),
+                  ..._coldStarts.map(_buildColdStart),
+                  if (_blockingMode.isNotEmpty) ..._buildWakeups(),
+                ],
+              ),
+            ),
+    );
+  }
+
+  Widget _buildMetric(Map<String, dynamic> metric) {
+    final int count = metric['count'] ?? 0;
+    return ListTile(
+      dense: true,
+      title: Text(metric['name'] ?? ''),
+      subtitle: Text(
+        count == 0
+            ? 'No samples'
+            : 'p50 ${_format(metric['p50Micros'])}  '
+                  'p90 ${_format(metric['p90Micros'])}  '
+                  'p99 ${_format(metric['p99Micros'])}  '
+                  'max ${_format(metric['maxMicros'])}',
+      ),
+      trailing: Text('$count'),
+    );
+  }
+
+  // One process started by a call or SMS, with how long its first decision took
+  Widget _buildColdStart(Map<String, dynamic> sample) {
+    final DateTime at = DateTime.fromMillisecondsSinceEpoch(
+      sample['timestamp'] ?? 0,
+    );
+    final bool fromCache = sample['fromCache'] ?? false;
+    return ListTile(
+      dense: true,
+      title: Text('${sample['source']} · ${sample['millis']} ms'),
+      subtitle: Text(
+        '${at.toString().substring(0, 19)} · '
+        '${fromCache ? 'cached blocklist' : 'loaded from storage'}',
+      ),
+    );
+  }
+
+  // Wakeups and resident memory per blocking mode, to compare the call
+  // screening role with the foreground service
+  List<Widget> _buildWakeups() {
+    final List<dynamic> modes = _blockingMode['wakeups'] ?? [];
+    return [
+      ListTile(
+        title: const Text(
+          'Wakeups',
+          style: TextStyle(fontWeight: FontWeight.bold),
+        ),
+        subtitle: Text(
+          'Now ${_blockingMode['mode']} · '
+          '${_formatKb(_blockingMode['residentKb'])} resident',
+        ),
+      ),
+      ...modes.map((e) {
+        final Map<String, dynamic> mode = Map<String, dynamic>.from(e);
+        final Map<String, dynamic> wakeups = Map<String, dynamic>.from(
+          mode['wakeups'] ?? {},
+        );
+        final int total = wakeups.values.fold(
+          0,
+          (sum, count) => sum + (count as int),
+        );
+        final DateTime since = DateTime.fromMillisecondsSinceEpoch(
+          mode['since'] ?? 0,
+        );
+        final double days =
+            DateTime.now().difference(since).inMinutes / (24 * 60);
+        // A rate over less than a day says little
+        final String perDay = days >= 1
+            ? '${(total / days).toStringAsFixed(1)} per day · '
+            : '';
+        return ListTile(
+          dense: true,
+          title: Text(
+            '${mode['mode']} · $total wakeups · '
+            '${mode['processStarts']} process starts',
+          ),
+          subtitle: Text(
+            '$perDay'
+            '${wakeups.entries.map((w) => '${w.key} ${w.value}').join(' ')}\n'
+            'memory ${_formatKb(mode['lastPssKb'])} last, '
+            '${_formatKb(mode['peakPssKb'])} peak',
+          ),
+          isThreeLine: true,
+        );
+      }),
+    ];
+  }
+
+  String _formatKb(dynamic kb) {
+    final int value = kb ?? 0;
+    return '${(value / 1024).toStringAsFixed(1)} MB';
+  }
+
+  // Shows microseconds, switching to milliseconds once a value passes 1 ms
+  String _format(dynamic micros) {
+    final int value = micros ?? 0;
+    if (value < 1000) return '$value µs';
+    return '${(value / 1000).toStringAsFixed(1)} ms';
+  }
+}
@@ -0,0 +1,293 @@
+import 'package:flutter/material.dart';
+import 'package:provider/provider.dart';
+import '../models/models.dart';
+import '../providers/app_provider.dart';
+
+// Lists screening rules beyond exact numbers, prefixes and ranges
+class ScreeningRulesScreen extends StatefulWidget {
+  const ScreeningRulesScreen({super.key});
+
+  @override
+  State<ScreeningRulesScreen> createState() => _ScreeningRulesScreenState();
+}
+
+class _ScreeningRulesScreenState extends State<ScreeningRulesScreen> {
+  @override
+  void initState() {
+    super.initState();
+    WidgetsBinding.instance.addPostFrameCallback((_) {
+      final provider = context.read<AppProvider>();
+      provider.loadScreeningRules();
+      provider.loadSpamListInfo();
+    });
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    return Scaffold(
+      appBar: AppBar(
+        title: const Text('Screening Rules'),
+        backgroundColor: Colors.blue,
+        foregroundColor: Colors.white,
+      ),
+      body: Consumer<AppProvider>(
+        builder: (context, provider, child) {
+          return Column(
+            children: [
+              _buildSpamList(context, provider),
+              const Divider(height: 1),
+              Expanded(child: _buildRules(provider)),
+            ],
+          );
+        },
+      ),
+      floatingActionButton: FloatingActionButton(
+        onPressed: () => showDialog(
+          context: context,
+          builder: (context) => const AddScreeningRuleDialog(),
+        ),
+        child: const Icon(Icons.add),
+        tooltip: 'Add Screening Rule',
+      ),
+    );
+  }
+
+  // The offline spam list, with a progress bar while it is being rebuilt
+  Widget _buildSpamList(BuildContext context, AppProvider provider) {
+    final TransferProgress? progress = provider.transferProgress;
+    if (progress != null && progress.operation == 'spamList') {
+      return ListTile(
+        leading: const Icon(Icons.report),
+        title: LinearProgressIndicator(value: progress.fraction),
+        subtitle: Text('Read ${progress.numbers} numbers'),
+        trailing: IconButton(
+          icon: const Icon(Icons.close),
+          onPressed: provider.cancelBlocklistTransfer,
+        ),
+      );
+    }
+
+    final SpamListInfo spamList = provider.spamList;
+    return ListTile(
+      leading: const Icon(Icons.report),
+      title: const Text('Spam list'),
+      subtitle: Text(
+        spamList.isInstalled
+            ? '${spamList.numbers} numbers · '
+                  '${(spamList.bytes / (1024 * 1024)).toStringAsFixed(1)} MB'
+            : 'Not installed',
+      ),
+      trailing: Row(
+        mainAxisSize: MainAxisSize.min,
+        children: [
+          IconButton(
+            icon: const Icon(Icons.file_upload),
+            tooltip: 'Replace from file',
+            onPressed: progress != null
+                ? null
+                : () async {
+                    final result = await provider.importSpamList();
+                    if (result == null || !context.mounted) return;
+                    ScaffoldMessenger.of(context).showSnackBar(
+                      SnackBar(
+                        content: Text('Listed ${result['added']} numbers'),
+                      ),
+                    );
+                  },
+          ),
+          if (spamList.isInstalled)
+            IconButton(
+              icon: const Icon(Icons.delete),
+              tooltip: 'Remove',
+              onPressed: progress != null ? null : provider.clearSpamList,
+            ),
+        ],
+      ),
+    );
+  }
+
+  Widget _buildRules(AppProvider provider) {
+    if (provider.screeningRules.isEmpty) {
+      return const Center(child: Text('No screening rules'));
+    }
+    return ListView.builder(
+      itemCount: provider.screeningRules.length,
+      itemBuilder: (context, index) {
+        final rule = provider.screeningRules[index];
+        final String response = rule.kind == 'allow'
+            ? 'Allowed'
+            : rule.response == 'silence'
+            ? 'Silenced'
+            : 'Rejected';
+        return ListTile(
+          leading: Switch(
+            value: rule.enabled,
+            onChanged: (enabled) =>
+                provider.setScreeningRuleEnabled(rule, enabled),
+          ),
+          title: Text(rule.description),
+          subtitle: Text('${rule.targets} · $response'),
+          trailing: IconButton(
+            icon: const Icon(Icons.delete),
+            onPressed: () => provider.removeScreeningRule(rule),
+          ),
+        );
+      },
+    );
+  }
+}
+
+class AddScreeningRuleDialog extends StatefulWidget {
+  const AddScreeningRuleDialog({super.key});
+
+  @override
+  State<AddScreeningRuleDialog> createState() => _AddScreeningRuleDialogState();
+}
+
+class _AddScreeningRuleDialogState extends State<AddScreeningRuleDialog> {
+  static const Map<String, String> _kinds = {
+    'withheld': 'Withheld numbers',
+    'notInContacts': 'Not in contacts',
+    'quietHours': 'Quiet hours',
+    'country': 'Country code',
+    'allow': 'Always allow number',
+  };
+
+  final TextEditingController _argumentController = TextEditingController();
+  String _kind = 'withheld';
+  TimeOfDay _start = const TimeOfDay(hour: 22, minute: 0);
+  TimeOfDay _end = const TimeOfDay(hour: 7, minute: 0);
+  bool _calls = true;
+  bool _sms = true;
+  bool _silence = false;
+  bool _skipCallLog = false;
+  bool _skipNotification = false;
+
+  @override
+  void dispose() {
+    _argumentController.dispose();
+    super.dispose();
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    final bool blocks = _kind != 'allow';
+    return AlertDialog(
+      title: const Text('Add Screening Rule'),
+      content: SingleChildScrollView(
+        child: Column(
+          mainAxisSize: MainAxisSize.min,
+          children: [
+            DropdownButton<String>(
+              value: _kind,
+              isExpanded: true,
+              items: _kinds.entries
+                  .map(
+                    (e) => DropdownMenuItem(value: e.key, child: Text(e.value)),
+                  )
+                  .toList(),
+              onChanged: (kind) => setState(() => _kind = kind ?? _kind),
+            ),
+            if (_kind == 'country' || _kind == 'allow')
+              TextField(
+                controller: _argumentController,
+                keyboardType: TextInputType.phone,
+                decoration: InputDecoration(
+                  labelText: _kind == 'country' ? 'Calling code' : 'Number',
+                ),
+              ),
+            if (_kind == 'quietHours')
+              Row(
+                mainAxisAlignment: MainAxisAlignment.spaceBetween,
+                children: [
+                  TextButton(
+                    onPressed: () => _pickTime(true),
+                    child: Text('From ${_start.format(context)}'),
+                  ),
+                  TextButton(
+                    onPressed: () => _pickTime(false),
+                    child: Text('To ${_end.format(context)}'),
+                  ),
+                ],
+              ),
+            CheckboxListTile(
+              title: const Text('Calls'),
+              value: _calls,
+              onChanged: (value) => setState(() => _calls = value ?? true),
+            ),
+            CheckboxListTile(
+              title: const Text('SMS'),
+              value: _sms,
+              onChanged: (value) => setState(() => _sms = value ?? true),
+            ),
+            if (blocks) ...[
+              SwitchListTile(
+                title: const Text('Silence instead of reject'),
+                value: _silence,
+                onChanged: (value) => setState(() => _silence = value),
+              ),
+              if (!_silence) ...[
+                SwitchListTile(
+                  title: const Text('Keep out of call log'),
+                  value: _skipCallLog,
+                  onChanged: (value) => setState(() => _skipCallLog = value),
+                ),
+                SwitchListTile(
+                  title: const Text('No missed-call notification'),
+                  value: _skipNotification,
+                  onChanged: (value) =>
+                      setState(() => _skipNotification = value),
+                ),
+              ],
+            ],
+          ],
+        ),
+      ),
+      actions: [
+        TextButton(
+          onPressed: () => Navigator.pop(context),
+          child: const Text('Cancel'),
+        ),
+        TextButton(
+          onPressed: () async {
+            final bool success = await context
+                .read<AppProvider>()
+                .addScreeningRule(
+                  kind: _kind,
+                  argument: _argumentController.text,
+                  startMinute: _start.hour * 60 + _start.minute,
+                  endMinute: _end.hour * 60 + _end.minute,
+                  calls: _calls,
+                  sms: _sms,
+                  response: _silence ? 'silence' : 'reject',
+                  skipCallLog: _skipCallLog,
+                  skipNotification: _skipNotification,
+                );
+            Navigator.pop(context);
+            ScaffoldMessenger.of(context).showSnackBar(
+              SnackBar(
+                content: Text(success ? 'Rule added' : 'Invalid rule'),
+              ),
+            );
+          },
+          child: const Text('Add'),
+        ),
+      ],
+    );
+  }
+
+  Future<void> _pickTime(bool start) async {
+    final TimeOfDay? picked = await showTimePicker(
+      context: context,
+      initialTime: start ? _start : _end,
+    );
+    if (picked == null) return;
+    setState(() {
+      if (start) {
+        _start = picked;
+      } else {
+        _end = picked;
+      }
+    });
+  }
+}
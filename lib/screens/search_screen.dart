@@ -0,0 +1,106 @@
+import 'package:flutter/material.dart';
+import 'package:provider/provider.dart';
+import '../models/models.dart';
+import '../providers/app_provider.dart';
+import '../services/native_service.dart';
+import 'home_screen.dart';
+
+// Search-as-you-type over contacts, blocked numbers and the call log. Digits
+// match anywhere in a number, with trailing digits ranked first; letters match
+// names.
+class NumberSearchDelegate extends SearchDelegate<void> {
+  NumberSearchDelegate() : super(searchFieldLabel: 'Number or name');
+
+  String? _lastQuery;
+  Future<List<SearchMatch>>? _lastResults;
+
+  // The empty query opening the search also builds the native index, so the
+  // first keystroke is answered from it
+  Future<List<SearchMatch>> _results(String query) {
+    if (query != _lastQuery || _lastResults == null) {
+      _lastQuery = query;
+      _lastResults = NativeService.search(query).then(
+        (maps) => maps.map((map) => SearchMatch.fromMap(map)).toList(),
+      );
+    }
+    return _lastResults!;
+  }
+
+  @override
+  List<Widget> buildActions(BuildContext context) {
+    return [
+      if (query.isNotEmpty)
+        IconButton(icon: const Icon(Icons.clear), onPressed: () => query = ''),
+    ];
+  }
+
+  @override
+  Widget buildLeading(BuildContext context) {
+    return IconButton(
+      icon: const Icon(Icons.arrow_back),
+      onPressed: () => close(context, null),
+    );
+  }
+
+  @override
+  Widget buildResults(BuildContext context) => _buildMatches(context);
+
+  @override
+  Widget buildSuggestions(BuildContext context) => _buildMatches(context);
+
+  Widget _buildMatches(BuildContext context) {
+    return FutureBuilder<List<SearchMatch>>(
+      future: _results(query),
+      builder: (context, snapshot) {
+        final matches = snapshot.data ?? [];
+        if (query.trim().isEmpty) {
+          return const Center(child: Text('Type digits or a name'));
+        }
+        if (matches.isEmpty) {
+          return snapshot.connectionState == ConnectionState.done
+              ? const Center(child: Text('No matches'))
+              : const SizedBox.shrink();
+        }
+        return ListView.builder(
+          itemCount: matches.length,
+          itemBuilder: (context, index) =>
+              _buildMatch(context, matches[index]),
+        );
+      },
+    );
+  }
+
+  Widget _buildMatch(BuildContext context, SearchMatch match) {
+    final details = [
+      if (match.name != null) match.number,
+      if (match.calls > 0) '${match.calls} call${match.calls == 1 ? '' : 's'}',
+    ];
+    // The provider rather than the match, so blocking from here shows at once
+    final isBlocked = context.watch<AppProvider>().isNumberBlocked(
+      match.number,
+    );
+
+    return ListTile(
+      leading: CircleAvatar(
+        backgroundColor: isBlocked
+            ? Colors.red
+            : match.isContact
+            ? Colors.blue
+            : Colors.grey,
+        child: Icon(
+          isBlocked
+              ? Icons.block
+              : match.isContact
+              ? Icons.person
+              : Icons.phone,
+          color: Colors.white,
+        ),
+      ),
+      title: Text(match.name ?? match.number),
+      subtitle: details.isEmpty ? null : Text(details.join(' • ')),
+      onTap: () => isBlocked
+          ? DialogHelper.showUnblockDialog(context, match.number)
+          : DialogHelper.showBlockDialog(context, match.number),
+    );
+  }
+}
@@ -0,0 +1,134 @@
+import 'package:flutter/material.dart';
+import 'package:provider/provider.dart';
+import '../models/models.dart';
+import '../providers/app_provider.dart';
+import '../services/native_service.dart';
+import 'home_screen.dart';
+
+// Messages of one conversation, newest at the bottom. Older pages are loaded
+// as the list is scrolled up, so opening a thread costs one page.
+class SmsThreadScreen extends StatefulWidget {
+  final SmsThread thread;
+
+  const SmsThreadScreen({super.key, required this.thread});
+
+  @override
+  State<SmsThreadScreen> createState() => _SmsThreadScreenState();
+}
+
+class _SmsThreadScreenState extends State<SmsThreadScreen> {
+  static const int _pageSize = 50;
+
+  List<SmsMessage> _messages = [];
+  SmsPage? _lastPage;
+  bool _loading = false;
+
+  @override
+  void initState() {
+    super.initState();
+    _loadMore();
+  }
+
+  @override
+  void dispose() {
+    // Pages still loading for this thread are no longer wanted
+    NativeService.cancelQueries(method: 'getSmsPage');
+    super.dispose();
+  }
+
+  bool get _hasMore => _lastPage == null || _lastPage!.hasMore;
+
+  Future<void> _loadMore() async {
+    if (_loading || !_hasMore) return;
+    setState(() => _loading = true);
+
+    final SmsPage page = SmsPage.fromMap(
+      await NativeService.getSmsPage(
+        threadId: widget.thread.threadId,
+        beforeDate: _lastPage?.nextDate,
+        beforeId: _lastPage?.nextId,
+        pageSize: _pageSize,
+        columns: const ['id', 'body', 'date', 'type'],
+      ),
+    );
+    if (!mounted) return;
+    setState(() {
+      _messages = [..._messages, ...page.messages];
+      _lastPage = page;
+      _loading = false;
+    });
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    final String address = widget.thread.address;
+    final bool isBlocked = context.watch<AppProvider>().isNumberBlocked(
+      address,
+    );
+    final int count = _messages.length;
+
+    return Scaffold(
+      appBar: AppBar(
+        title: Text(address.isEmpty ? 'Unknown' : address),
+        backgroundColor: Colors.blue,
+        foregroundColor: Colors.white,
+        actions: [
+          if (address.isNotEmpty)
+            IconButton(
+              icon: Icon(isBlocked ? Icons.block : Icons.block_outlined),
+              tooltip: isBlocked ? 'Unblock' : 'Block',
+              onPressed: () => isBlocked
+                  ? DialogHelper.showUnblockDialog(context, address)
+                  : DialogHelper.showBlockDialog(context, address),
+            ),
+        ],
+      ),
+      body: ListView.builder(
+        reverse: true,
+        itemCount: _hasMore ? count + 1 : count,
+        itemBuilder: (context, index) {
+          if (index >= count) {
+            // Reached the oldest loaded message, fetch the page before it
+            if (!_loading) {
+              WidgetsBinding.instance.addPostFrameCallback((_) => _loadMore());
+            }
+            return const Padding(
+              padding: EdgeInsets.all(16.0),
+              child: Center(child: CircularProgressIndicator()),
+            );
+          }
+          return _buildMessage(context, _messages[index]);
+        },
+      ),
+    );
+  }
+
+  Widget _buildMessage(BuildContext context, SmsMessage sms) {
+    final bool sent = sms.type == 2;
+    return Align(
+      alignment: sent ? Alignment.centerRight : Alignment.centerLeft,
+      child: Container(
+        constraints: BoxConstraints(
+          maxWidth: MediaQuery.of(context).size.width * 0.8,
+        ),
+        margin: const EdgeInsets.symmetric(horizontal: 12, vertical: 4),
+        padding: const EdgeInsets.all(10),
+        decoration: BoxDecoration(
+          color: sent ? Colors.blue.shade100 : Colors.grey.shade200,
+          borderRadius: BorderRadius.circular(12),
+        ),
+        child: Column(
+          crossAxisAlignment: CrossAxisAlignment.start,
+          children: [
+            Text(sms.body),
+            const SizedBox(height: 4),
+            Text(
+              sms.formattedDate,
+              style: Theme.of(context).textTheme.bodySmall,
+            ),
+          ],
+        ),
+      ),
+    );
+  }
+}
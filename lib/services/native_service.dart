@@ -1,9 +1,61 @@
+import 'dart:convert';
+import 'dart:typed_data';
+
 import 'package:flutter/services.dart';
 
+import 'packed_table.dart';
+
 class NativeService {
   static const MethodChannel _channel = MethodChannel(
     'com.example.spy3/native',
   );
+  static const EventChannel _callLogEvents = EventChannel(
+    'com.example.spy3/call_log_events',
+  );
+  static const EventChannel _transferEvents = EventChannel(
+    'com.example.spy3/blocklist_transfer',
+  );
+  static const EventChannel _snapshotEvents = EventChannel(
+    'com.example.spy3/snapshot',
+  );
+  static const EventChannel _blocklistEvents = EventChannel(
+    'com.example.spy3/blocklist_events',
+  );
+  static const BasicMessageChannel<ByteData?> _packedChannel =
+      BasicMessageChannel<ByteData?>('com.example.spy3/packed', BinaryCodec());
+
+  // Get a bulk dataset ('sms', 'callLogs', 'contacts' or 'apps') in the packed
+  // binary format. Returns null when it is unavailable so callers can fall
+  // back to the map-based method.
+  static Future<PackedTable?> getPacked(String dataset, {int? sinceId}) async {
+    try {
+      final String request = sinceId != null ? '$dataset:$sinceId' : dataset;
+      final ByteData? reply = await _packedChannel.send(
+        ByteData.sublistView(utf8.encode(request)),
+      );
+      return reply != null ? PackedTable.decode(reply) : null;
+    } catch (e) {
+      return null;
+    }
+  }
+
+  // Load several datasets ('smsThreads', 'callLogs', 'contacts', 'blocklist',
+  // 'apps') in parallel. Each arrives as soon as it is ready, as
+  // {'dataset': name, 'data': ...} or {'dataset': name, 'error': message}, and
+  // the stream closes once all are done. Bulk datasets arrive as a PackedTable.
+  static Stream<Map<String, dynamic>> loadSnapshot(List<String> datasets) {
+    final Stream<dynamic> events = _snapshotEvents.receiveBroadcastStream({
+      'datasets': datasets,
+    });
+    return events.map((e) {
+      final Map<String, dynamic> event = Map<String, dynamic>.from(e);
+      final dynamic data = event['data'];
+      if (data is Uint8List) {
+        event['data'] = PackedTable.decode(ByteData.sublistView(data));
+      }
+      return event;
+    });
+  }
 
   // Request all necessary permissions
   static Future<bool> requestPermissions() async {
@@ -27,6 +79,43 @@ class NativeService {
     }
   }
 
+  // Get one page of SMS messages, newest first. Pass the cursor from the
+  // previous page to continue; columns limits which fields are read.
+  static Future<Map<String, dynamic>> getSmsPage({
+    int? beforeDate,
+    int? beforeId,
+    int pageSize = 50,
+    List<String>? columns,
+    int? threadId,
+  }) async {
+    try {
+      final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        'getSmsPage',
+        {
+          'beforeDate': beforeDate,
+          'beforeId': beforeId,
+          'pageSize': pageSize,
+          'columns': columns,
+          'threadId': threadId,
+        },
+      );
+      return Map<String, dynamic>.from(result);
+    } catch (e) {
+      return {'messages': [], 'nextCursor': null};
+    }
+  }
+
+  // One summary per SMS conversation (threadId, address, snippet, date,
+  // count, read), most recent first
+  static Future<List<Map<String, dynamic>>> getSmsThreads() async {
+    try {
+      final List<dynamic> result = await _channel.invokeMethod('getSmsThreads');
+      return result.map((e) => Map<String, dynamic>.from(e)).toList();
+    } catch (e) {
+      return [];
+    }
+  }
+
   // Get call logs
   static Future<List<Map<String, dynamic>>> getCallLogs() async {
     try {
@@ -37,6 +126,43 @@ class NativeService {
     }
   }
 
+  // Get call logs with an id greater than sinceId, plus the new max id
+  static Future<Map<String, dynamic>> getCallLogsSince(int sinceId) async {
+    try {
+      final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        'getCallLogsSince',
+        {'sinceId': sinceId},
+      );
+      return Map<String, dynamic>.from(result);
+    } catch (e) {
+      return {'calls': [], 'maxId': sinceId};
+    }
+  }
+
+  // Stream of call log changes after sinceId: {'inserted': [...], 'deleted': [ids]}
+  static Stream<Map<String, dynamic>> callLogEvents(int sinceId) {
+    return _callLogEvents
+        .receiveBroadcastStream({'sinceId': sinceId})
+        .map((e) => Map<String, dynamic>.from(e));
+  }
+
+  // Per-number call totals, sorted by 'calls', 'duration' or 'lastCall'.
+  // Only the top numbers cross the channel, not the call log itself.
+  static Future<Map<String, dynamic>> getCallStats({
+    String sortBy = 'calls',
+    int limit = 50,
+  }) async {
+    try {
+      final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        'getCallStats',
+        {'sortBy': sortBy, 'limit': limit},
+      );
+      return Map<String, dynamic>.from(result);
+    } catch (e) {
+      return {};
+    }
+  }
+
   // Get contacts
   static Future<List<Map<String, dynamic>>> getContacts() async {
     try {
@@ -47,6 +173,37 @@ class NativeService {
     }
   }
 
+  // Look up contact names for a batch of numbers. Numbers without a
+  // matching contact are missing from the result.
+  static Future<Map<String, String>> resolveNames(List<String> numbers) async {
+    try {
+      final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        'resolveNames',
+        {'numbers': numbers},
+      );
+      return Map<String, String>.from(result);
+    } catch (e) {
+      return {};
+    }
+  }
+
+  // Search contacts, blocked numbers and the call log by digits or name.
+  // Matches come back best first.
+  static Future<List<Map<String, dynamic>>> search(
+    String query, {
+    int limit = 20,
+  }) async {
+    try {
+      final List<dynamic> result = await _channel.invokeMethod('search', {
+        'query': query,
+        'limit': limit,
+      });
+      return result.map((e) => Map<String, dynamic>.from(e)).toList();
+    } catch (e) {
+      return [];
+    }
+  }
+
   // Get installed apps
   static Future<List<Map<String, dynamic>>> getInstalledApps() async {
     try {
@@ -71,6 +228,18 @@ class NativeService {
     }
   }
 
+  // Block many numbers in one transaction, returns how many were added
+  static Future<int> blockNumbers(List<String> numbers) async {
+    try {
+      final int result = await _channel.invokeMethod('blockNumbers', {
+        'numbers': numbers,
+      });
+      return result;
+    } catch (e) {
+      return 0;
+    }
+  }
+
   // Unblock a number
   static Future<bool> unblockNumber(String number) async {
     try {
@@ -83,6 +252,18 @@ class NativeService {
     }
   }
 
+  // Unblock many numbers in one transaction
+  static Future<bool> unblockNumbers(List<String> numbers) async {
+    try {
+      final bool result = await _channel.invokeMethod('unblockNumbers', {
+        'numbers': numbers,
+      });
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
   // Get blocked numbers
   static Future<List<String>> getBlockedNumbers() async {
     try {
@@ -95,6 +276,304 @@ class NativeService {
     }
   }
 
+  // Block every number starting with a prefix
+  static Future<bool> blockPrefix(String prefix) async {
+    try {
+      final bool result = await _channel.invokeMethod('blockPrefix', {
+        'prefix': prefix,
+      });
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Block every number between start and end (same digit count)
+  static Future<bool> blockRange(String start, String end) async {
+    try {
+      final bool result = await _channel.invokeMethod('blockRange', {
+        'start': start,
+        'end': end,
+      });
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Get prefix and range block rules
+  static Future<List<Map<String, dynamic>>> getBlockRules() async {
+    try {
+      final List<dynamic> result = await _channel.invokeMethod(
+        'getBlockRules',
+      );
+      return result.map((e) => Map<String, dynamic>.from(e)).toList();
+    } catch (e) {
+      return [];
+    }
+  }
+
+  // Remove a prefix or range block rule
+  static Future<bool> removeBlockRule(int id) async {
+    try {
+      final bool result = await _channel.invokeMethod('removeBlockRule', {
+        'id': id,
+      });
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Add a screening rule. kind is withheld, notInContacts, quietHours,
+  // country or allow; response is reject or silence.
+  static Future<bool> addScreeningRule({
+    required String kind,
+    String? argument,
+    int startMinute = 0,
+    int endMinute = 0,
+    bool calls = true,
+    bool sms = true,
+    String response = 'reject',
+    bool skipCallLog = false,
+    bool skipNotification = false,
+  }) async {
+    try {
+      final bool result = await _channel.invokeMethod('addScreeningRule', {
+        'kind': kind,
+        'argument': argument,
+        'startMinute': startMinute,
+        'endMinute': endMinute,
+        'calls': calls,
+        'sms': sms,
+        'response': response,
+        'skipCallLog': skipCallLog,
+        'skipNotification': skipNotification,
+      });
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Get all screening rules, enabled or not
+  static Future<List<Map<String, dynamic>>> getScreeningRules() async {
+    try {
+      final List<dynamic> result = await _channel.invokeMethod(
+        'getScreeningRules',
+      );
+      return result.map((e) => Map<String, dynamic>.from(e)).toList();
+    } catch (e) {
+      return [];
+    }
+  }
+
+  // Turn a screening rule on or off without deleting it
+  static Future<bool> setScreeningRuleEnabled(int id, bool enabled) async {
+    try {
+      final bool result = await _channel.invokeMethod(
+        'setScreeningRuleEnabled',
+        {'id': id, 'enabled': enabled},
+      );
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Remove a screening rule
+  static Future<bool> removeScreeningRule(int id) async {
+    try {
+      final bool result = await _channel.invokeMethod('removeScreeningRule', {
+        'id': id,
+      });
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Pick a txt, csv or vcf file and block every number in it. Returns a
+  // summary (numbers, added, duplicates, invalid), or null if the user
+  // cancelled the picker or the import failed.
+  static Future<Map<String, dynamic>?> importBlocklist() async {
+    try {
+      final Map<dynamic, dynamic>? result = await _channel.invokeMethod(
+        'importBlocklist',
+      );
+      return result != null ? Map<String, dynamic>.from(result) : null;
+    } catch (e) {
+      return null;
+    }
+  }
+
+  // Write every blocked number to a new document in the given format
+  // ('txt', 'csv' or 'vcf'). Returns null if cancelled or failed.
+  static Future<Map<String, dynamic>?> exportBlocklist(String format) async {
+    try {
+      final Map<dynamic, dynamic>? result = await _channel.invokeMethod(
+        'exportBlocklist',
+        {'format': format},
+      );
+      return result != null ? Map<String, dynamic>.from(result) : null;
+    } catch (e) {
+      return null;
+    }
+  }
+
+  // Pick a txt, csv or vcf file and replace the offline spam list with its
+  // numbers. Returns a summary like importBlocklist, where added is the number
+  // of distinct numbers listed.
+  static Future<Map<String, dynamic>?> importSpamList() async {
+    try {
+      final Map<dynamic, dynamic>? result = await _channel.invokeMethod(
+        'importSpamList',
+      );
+      return result != null ? Map<String, dynamic>.from(result) : null;
+    } catch (e) {
+      return null;
+    }
+  }
+
+  // Size of the installed spam list (numbers, bytes, builtAt)
+  static Future<Map<String, dynamic>> getSpamListInfo() async {
+    try {
+      final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        'getSpamListInfo',
+      );
+      return Map<String, dynamic>.from(result);
+    } catch (e) {
+      return {};
+    }
+  }
+
+  // Remove the installed spam list
+  static Future<bool> clearSpamList() async {
+    try {
+      final bool result = await _channel.invokeMethod('clearSpamList');
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Stop a running import or export; rows already written are kept
+  static Future<bool> cancelBlocklistTransfer() async {
+    try {
+      final bool result = await _channel.invokeMethod(
+        'cancelBlocklistTransfer',
+      );
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Progress of a running import or export: operation, processed, total
+  // (bytes for imports, rows for exports; -1 when unknown), numbers, added
+  static Stream<Map<String, dynamic>> blocklistTransferEvents() {
+    return _transferEvents.receiveBroadcastStream().map(
+      (e) => Map<String, dynamic>.from(e),
+    );
+  }
+
+  // Every change to the blocklist, as {generation, added, removed,
+  // rulesChanged}. Added and removed are null when too many numbers changed
+  // to list them.
+  static Stream<Map<String, dynamic>> blocklistEvents() {
+    return _blocklistEvents.receiveBroadcastStream().map(
+      (e) => Map<String, dynamic>.from(e),
+    );
+  }
+
+  // Goes up by one with every change to the blocklist
+  static Future<int?> getBlocklistGeneration() async {
+    try {
+      return await _channel.invokeMethod<int>('getBlocklistGeneration');
+    } catch (e) {
+      return null;
+    }
+  }
+
+  // Get the most active blocked numbers and rules, plus per-day totals for
+  // the last [days] days
+  static Future<Map<String, dynamic>> getBlockStats({
+    int limit = 10,
+    int days = 30,
+  }) async {
+    try {
+      final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        'getBlockStats',
+        {'limit': limit, 'days': days},
+      );
+      return Map<String, dynamic>.from(result);
+    } catch (e) {
+      return {'top': [], 'daily': []};
+    }
+  }
+
+  // Get logged call and SMS events, newest first. Pass nextBeforeSeq from
+  // the previous page to continue; it is null once the oldest event is read.
+  static Future<Map<String, dynamic>> getEventLog({
+    int? beforeSeq,
+    int limit = 100,
+  }) async {
+    try {
+      final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        'getEventLog',
+        {'beforeSeq': beforeSeq, 'limit': limit},
+      );
+      return Map<String, dynamic>.from(result);
+    } catch (e) {
+      return {'events': [], 'nextBeforeSeq': null};
+    }
+  }
+
+  // Cancel in-flight queries for one method, or all queries when method is
+  // null. Cancelled calls complete with their usual empty result.
+  static Future<int> cancelQueries({String? method}) async {
+    try {
+      final int result = await _channel.invokeMethod('cancelQueries', {
+        'method': method,
+      });
+      return result;
+    } catch (e) {
+      return 0;
+    }
+  }
+
+  // Get latency histograms for the screening and receiver stages. Times are
+  // in microseconds and cover this process only.
+  static Future<List<Map<String, dynamic>>> getMetrics() async {
+    try {
+      final List<dynamic> result = await _channel.invokeMethod('getMetrics');
+      return result.map((e) => Map<String, dynamic>.from(e)).toList();
+    } catch (e) {
+      return [];
+    }
+  }
+
+  // Recent cold starts: time from process start to the first call or SMS
+  // decision (timestamp, millis, source, fromCache), oldest first
+  static Future<List<Map<String, dynamic>>> getColdStarts() async {
+    try {
+      final List<dynamic> result = await _channel.invokeMethod('getColdStarts');
+      return result.map((e) => Map<String, dynamic>.from(e)).toList();
+    } catch (e) {
+      return [];
+    }
+  }
+
+  // Clear all latency histograms and cold start samples
+  static Future<bool> resetMetrics() async {
+    try {
+      final bool result = await _channel.invokeMethod('resetMetrics');
+      return result;
+    } catch (e) {
+      return false;
+    }
+  }
+
   // Start blocking service
   static Future<bool> startBlockingService() async {
     try {
@@ -115,6 +594,18 @@ class NativeService {
     }
   }
 
+  // Which mode blocking runs in, with wakeups and resident memory per mode
+  static Future<Map<String, dynamic>> getBlockingMode() async {
+    try {
+      final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        'getBlockingMode',
+      );
+      return Map<String, dynamic>.from(result);
+    } catch (e) {
+      return {};
+    }
+  }
+
   // Enable call screening (Android 10+)
   static Future<bool> enableCallScreening() async {
     try {
@@ -0,0 +1,148 @@
+import 'dart:collection';
+import 'dart:convert';
+import 'dart:typed_data';
+
+// Reader for the column-oriented binary format written by PackedTable.java.
+// Values are read straight out of the buffer on demand; strings are decoded
+// from the shared string table the first time they are used.
+class PackedTable {
+  static const int _magic = 0x314B4150; // "PAK1"
+  static const int typeLong = 1;
+  static const int typeInt = 2;
+  static const int typeBool = 3;
+  static const int typeString = 4;
+
+  final ByteData _data;
+  final int rowCount;
+  final Map<String, int> _columns;
+  final List<int> _types;
+  final List<int> _offsets;
+  final int _stringTable;
+  final int _stringBlob;
+  final List<String?> _strings;
+
+  PackedTable._(
+    this._data,
+    this.rowCount,
+    this._columns,
+    this._types,
+    this._offsets,
+    this._stringTable,
+    this._stringBlob,
+    int stringCount,
+  ) : _strings = List<String?>.filled(stringCount, null);
+
+  factory PackedTable.decode(ByteData data) {
+    if (data.getUint32(0, Endian.little) != _magic) {
+      throw const FormatException('Not a packed table');
+    }
+    final int rowCount = data.getInt32(4, Endian.little);
+    final int columnCount = data.getInt32(8, Endian.little);
+    final int stringCount = data.getInt32(12, Endian.little);
+
+    int offset = 16;
+    final Map<String, int> columns = {};
+    final List<int> types = [];
+    for (int i = 0; i < columnCount; i++) {
+      types.add(data.getUint8(offset));
+      final int nameLength = data.getUint8(offset + 1);
+      columns[ascii.decode(
+        Uint8List.sublistView(data, offset + 2, offset + 2 + nameLength),
+      )] = i;
+      offset += 2 + nameLength;
+    }
+    offset = _align(offset);
+
+    final int stringTable = offset;
+    final int stringBlob = stringTable + 4 * (stringCount + 1);
+    offset = _align(
+      stringBlob + data.getInt32(stringTable + 4 * stringCount, Endian.little),
+    );
+
+    final List<int> offsets = [];
+    for (final int type in types) {
+      offsets.add(offset);
+      offset = _align(offset + rowCount * _width(type));
+    }
+
+    return PackedTable._(
+      data,
+      rowCount,
+      columns,
+      types,
+      offsets,
+      stringTable,
+      stringBlob,
+      stringCount,
+    );
+  }
+
+  // Index of a column by name, or -1 when the table does not have it
+  int column(String name) => _columns[name] ?? -1;
+
+  int getInt(int column, int row) {
+    if (column < 0) return 0;
+    switch (_types[column]) {
+      case typeLong:
+        return _data.getInt64(_offsets[column] + row * 8, Endian.little);
+      case typeBool:
+        return _data.getUint8(_offsets[column] + row);
+      default:
+        return _data.getInt32(_offsets[column] + row * 4, Endian.little);
+    }
+  }
+
+  bool getBool(int column, int row) => getInt(column, row) != 0;
+
+  String? getString(int column, int row) {
+    if (column < 0) return null;
+    final int index = _data.getInt32(_offsets[column] + row * 4, Endian.little);
+    if (index < 0) return null;
+    return _strings[index] ??= _decodeString(index);
+  }
+
+  String _decodeString(int index) {
+    final int start = _data.getInt32(_stringTable + 4 * index, Endian.little);
+    final int end = _data.getInt32(_stringTable + 4 * (index + 1), Endian.little);
+    return utf8.decode(
+      Uint8List.sublistView(_data, _stringBlob + start, _stringBlob + end),
+    );
+  }
+
+  static int _width(int type) {
+    switch (type) {
+      case typeLong:
+        return 8;
+      case typeBool:
+        return 1;
+      default:
+        return 4;
+    }
+  }
+
+  static int _align(int offset) => (offset + 7) & ~7;
+}
+
+// Read-only list that builds each element from a packed row the first time
+// it is accessed, so only rows that are actually shown become objects.
+class PackedList<T> extends ListBase<T> {
+  final T Function(int row) _decode;
+  final List<T?> _cache;
+
+  PackedList(int length, this._decode)
+    : _cache = List<T?>.filled(length, null);
+
+  @override
+  int get length => _cache.length;
+
+  @override
+  set length(int newLength) =>
+      throw UnsupportedError('Cannot change the length of a PackedList');
+
+  @override
+  T operator [](int index) => _cache[index] ??= _decode(index);
+
+  @override
+  void operator []=(int index, T value) =>
+      throw UnsupportedError('Cannot modify a PackedList');
+}